@@ -0,0 +1,58 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Runs the benchmarks with the JMH command line. The results are written as
+ * JSON to <code>jmh-result.json</code> unless another result format is given
+ * with <code>-rf</code>.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * The main method
+	 * 
+	 * @param args
+	 *            the JMH command line options
+	 * @throws RunnerException
+	 *             if the benchmarks failed to run
+	 * @throws IOException
+	 *             if the results could not be written
+	 */
+	public static void main(final String[] args)
+			throws RunnerException, IOException {
+		if (Arrays.asList(args).contains("-rf")) {
+			Main.main(args);
+			return;
+		}
+
+		final String[] jsonArgs = new String[args.length + 2];
+		jsonArgs[0] = "-rf";
+		jsonArgs[1] = "json";
+		System.arraycopy(args, 0, jsonArgs, 2, args.length);
+
+		Main.main(jsonArgs);
+	}
+}
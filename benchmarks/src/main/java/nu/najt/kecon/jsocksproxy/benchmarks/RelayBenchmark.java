@@ -0,0 +1,226 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+import nu.najt.kecon.jsocksproxy.utils.SocketUtils;
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+
+/**
+ * Benchmark of one tunnel direction, {@link SocketUtils} copy over loopback.
+ * Every invocation relays one payload from a client connection to a server
+ * connection, from the first byte until the server has read the whole
+ * payload. The connections are set up outside of the measurement.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayBenchmark {
+
+	/** Bytes relayed per invocation */
+	@Param({ "1024", "65536", "1048576" })
+	public int payloadSize;
+
+	/** Whether the sockets are backed by channels */
+	@Param({ "true", "false" })
+	public boolean channels;
+
+	private byte[] payload;
+
+	private ExecutorService executorService;
+
+	private ServerSocketChannel serverSocketChannel;
+
+	private ServerSocket serverSocket;
+
+	private Socket client;
+
+	private Socket input;
+
+	private Socket output;
+
+	private Socket server;
+
+	private Future<Long> received;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		this.payload = new byte[this.payloadSize];
+		new Random(1l).nextBytes(this.payload);
+
+		this.executorService = Executors
+				.newCachedThreadPool(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		final InetSocketAddress loopback = new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0);
+		if (this.channels) {
+			this.serverSocketChannel = ServerSocketChannel.open();
+			this.serverSocketChannel.bind(loopback);
+		} else {
+			this.serverSocket = new ServerSocket();
+			this.serverSocket.bind(loopback);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() throws IOException {
+		if (this.serverSocketChannel != null) {
+			this.serverSocketChannel.close();
+		}
+
+		if (this.serverSocket != null) {
+			this.serverSocket.close();
+		}
+
+		this.executorService.shutdownNow();
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() throws IOException {
+		this.client = this.connect();
+		this.input = this.accept();
+		this.output = this.connect();
+		this.server = this.accept();
+
+		final Socket client = this.client;
+		final byte[] payload = this.payload;
+		this.executorService.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					final OutputStream outputStream = client.getOutputStream();
+					outputStream.write(payload);
+					outputStream.flush();
+					client.shutdownOutput();
+				} catch (final IOException e) {
+				}
+			}
+		});
+
+		final Socket server = this.server;
+		this.received = this.executorService.submit(new Callable<Long>() {
+
+			@Override
+			public Long call() throws IOException {
+				final InputStream inputStream = server.getInputStream();
+				final byte[] buf = new byte[65536];
+				long received = 0;
+				int length;
+				while ((length = inputStream.read(buf)) >= 0) {
+					received += length;
+				}
+				return received;
+			}
+		});
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() {
+		closeQuietly(this.client);
+		closeQuietly(this.input);
+		closeQuietly(this.output);
+		closeQuietly(this.server);
+	}
+
+	@Benchmark
+	public long copy() throws Exception {
+		final TransferStatistics statistics = new TransferStatistics();
+
+		SocketUtils.copy(this.input, this.output, BufferSizing.DEFAULT, -1,
+				statistics);
+
+		final long received = this.received.get();
+		if (received != this.payloadSize) {
+			throw new IllegalStateException(
+					"Received " + received + " of " + this.payloadSize);
+		}
+
+		return statistics.getBytes();
+	}
+
+	private Socket connect() throws IOException {
+		if (this.channels) {
+			return SocketChannel.open(this.serverSocketChannel.getLocalAddress())
+					.socket();
+		}
+
+		return new Socket(this.serverSocket.getInetAddress(),
+				this.serverSocket.getLocalPort());
+	}
+
+	private Socket accept() throws IOException {
+		if (this.channels) {
+			return this.serverSocketChannel.accept().socket();
+		}
+
+		return this.serverSocket.accept();
+	}
+
+	private static void closeQuietly(final Socket socket) {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nu.najt.kecon.jsocksproxy.socks4.Command;
+import nu.najt.kecon.jsocksproxy.socks4.Request;
+import nu.najt.kecon.jsocksproxy.socks4.RequestDecoder;
+import nu.najt.kecon.jsocksproxy.socks4.SocksImplementation4;
+
+/**
+ * Benchmark of SOCKS4 and SOCKS4a: decoding of a CONNECT request by the
+ * event loop decoder and by the blocking implementation, encoding of the
+ * reply and the lookup of the command.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Socks4Benchmark {
+
+	private byte[] socks4Request;
+
+	private byte[] socks4aRequest;
+
+	private InetAddress address;
+
+	private byte command = Command.CONNECT.getValue();
+
+	private Codec codec;
+
+	@Setup
+	public void setup() throws IOException {
+		this.address = InetAddress.getByName("192.0.2.1");
+		this.socks4Request = request(this.address.getAddress(), null);
+		this.socks4aRequest = request(new byte[] { 0, 0, 0, 1 },
+				"www.example.com");
+		this.codec = new Codec();
+	}
+
+	@Benchmark
+	public Request decodeSocks4() throws Exception {
+		return decode(this.socks4Request);
+	}
+
+	@Benchmark
+	public Request decodeSocks4a() throws Exception {
+		return decode(this.socks4aRequest);
+	}
+
+	@Benchmark
+	public Request readRequestSocks4() throws Exception {
+		return this.codec.read(this.socks4Request);
+	}
+
+	@Benchmark
+	public Request readRequestSocks4a() throws Exception {
+		return this.codec.read(this.socks4aRequest);
+	}
+
+	@Benchmark
+	public int writeResponse() throws IOException {
+		return this.codec.write(this.address);
+	}
+
+	@Benchmark
+	public Command commandValueOf() throws Exception {
+		return Command.valueOf(this.command);
+	}
+
+	private static Request decode(final byte[] request) throws Exception {
+		final Request decoded = new RequestDecoder()
+				.decode(ByteBuffer.wrap(request));
+
+		if (decoded == null) {
+			throw new IllegalStateException("Incomplete request");
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * @return a CONNECT request with a user id, and the hostname of a SOCKS4a
+	 *         request, without the version byte
+	 */
+	private static byte[] request(final byte[] address,
+			final String hostname) {
+		final byte[] userId = "user".getBytes(StandardCharsets.US_ASCII);
+		final byte[] host = (hostname != null)
+				? hostname.getBytes(StandardCharsets.US_ASCII) : null;
+		final ByteBuffer buffer = ByteBuffer.allocate(3 + address.length
+				+ userId.length + 1 + ((host != null) ? host.length + 1 : 0));
+
+		buffer.put(Command.CONNECT.getValue());
+		buffer.putShort((short) 443);
+		buffer.put(address);
+		buffer.put(userId);
+		buffer.put((byte) 0x00);
+
+		if (host != null) {
+			buffer.put(host);
+			buffer.put((byte) 0x00);
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Exposes the request reading and the response writing of the
+	 * implementation
+	 */
+	private static final class Codec extends SocksImplementation4 {
+
+		private final ByteArrayOutputStream sink = new ByteArrayOutputStream(
+				64);
+
+		private Codec() {
+			super(null, null, null);
+		}
+
+		private Request read(final byte[] request) throws Exception {
+			return this.readRequest(new ByteArrayInputStream(request));
+		}
+
+		private int write(final InetAddress inetAddress) throws IOException {
+			this.sink.reset();
+			this.writeResponse(this.sink, SocksImplementation4.REQUEST_GRANTED,
+					443, inetAddress);
+			return this.sink.size();
+		}
+	}
+}
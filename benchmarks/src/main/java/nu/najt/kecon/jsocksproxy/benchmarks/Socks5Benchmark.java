@@ -0,0 +1,215 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nu.najt.kecon.jsocksproxy.socks5.AddressType;
+import nu.najt.kecon.jsocksproxy.socks5.Command;
+import nu.najt.kecon.jsocksproxy.socks5.Request;
+import nu.najt.kecon.jsocksproxy.socks5.RequestDecoder;
+import nu.najt.kecon.jsocksproxy.socks5.SocksImplementation5;
+import nu.najt.kecon.jsocksproxy.socks5.Status;
+
+/**
+ * Benchmark of the SOCKS5 handshake: decoding of a greeting sent together
+ * with a CONNECT request, by the event loop decoder and by the blocking
+ * implementation, encoding of the reply and the lookups of the command and
+ * the address type.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Socks5Benchmark {
+
+	private static final byte[] GREETING = { 0x01, 0x00 };
+
+	private static final byte[] PORT = { 0x01, (byte) 0xbb };
+
+	private byte[] ipv4Handshake;
+
+	private byte[] ipv6Handshake;
+
+	private byte[] domainHandshake;
+
+	private InetAddress ipv4Address;
+
+	private InetAddress ipv6Address;
+
+	private byte[] hostname;
+
+	private byte command = Command.CONNECT.getValue();
+
+	private byte addressType = AddressType.DOMAIN.getValue();
+
+	private Codec codec;
+
+	@Setup
+	public void setup() throws IOException {
+		this.ipv4Address = InetAddress.getByName("192.0.2.1");
+		this.ipv6Address = InetAddress.getByName("2001:db8::1");
+		this.hostname = "www.example.com".getBytes(StandardCharsets.US_ASCII);
+
+		this.ipv4Handshake = handshake(AddressType.IP_V4,
+				this.ipv4Address.getAddress());
+		this.ipv6Handshake = handshake(AddressType.IP_V6,
+				this.ipv6Address.getAddress());
+
+		final byte[] domain = new byte[this.hostname.length + 1];
+		domain[0] = (byte) this.hostname.length;
+		System.arraycopy(this.hostname, 0, domain, 1, this.hostname.length);
+		this.domainHandshake = handshake(AddressType.DOMAIN, domain);
+
+		this.codec = new Codec();
+	}
+
+	@Benchmark
+	public Request decodeIpv4() throws Exception {
+		return decode(this.ipv4Handshake);
+	}
+
+	@Benchmark
+	public Request decodeIpv6() throws Exception {
+		return decode(this.ipv6Handshake);
+	}
+
+	@Benchmark
+	public Request decodeDomain() throws Exception {
+		return decode(this.domainHandshake);
+	}
+
+	@Benchmark
+	public Request readHandshakeIpv4() throws Exception {
+		return this.codec.read(this.ipv4Handshake);
+	}
+
+	@Benchmark
+	public Request readHandshakeDomain() throws Exception {
+		return this.codec.read(this.domainHandshake);
+	}
+
+	@Benchmark
+	public int writeResponseIpv4() throws IOException {
+		return this.codec.write(AddressType.IP_V4, this.ipv4Address, null);
+	}
+
+	@Benchmark
+	public int writeResponseIpv6() throws IOException {
+		return this.codec.write(AddressType.IP_V6, this.ipv6Address, null);
+	}
+
+	@Benchmark
+	public int writeResponseDomain() throws IOException {
+		return this.codec.write(AddressType.DOMAIN, this.ipv4Address,
+				this.hostname);
+	}
+
+	@Benchmark
+	public Command commandValueOf() throws Exception {
+		return Command.valueOf(this.command);
+	}
+
+	@Benchmark
+	public AddressType addressTypeValueOf() throws Exception {
+		return AddressType.valueOf(this.addressType);
+	}
+
+	private static Request decode(final byte[] handshake) throws Exception {
+		final RequestDecoder decoder = new RequestDecoder();
+
+		if (decoder.decode(ByteBuffer.wrap(handshake)) != RequestDecoder.State.COMPLETE) {
+			throw new IllegalStateException("Incomplete handshake");
+		}
+
+		return decoder.getRequest();
+	}
+
+	/**
+	 * @return the greeting offering no authentication and a CONNECT request,
+	 *         without the version byte of the greeting
+	 */
+	private static byte[] handshake(final AddressType addressType,
+			final byte[] address) {
+		final ByteBuffer buffer = ByteBuffer.allocate(
+				GREETING.length + 4 + address.length + PORT.length);
+
+		buffer.put(GREETING);
+		buffer.put((byte) 0x05);
+		buffer.put(Command.CONNECT.getValue());
+		buffer.put((byte) 0x00);
+		buffer.put(addressType.getValue());
+		buffer.put(address);
+		buffer.put(PORT);
+
+		return buffer.array();
+	}
+
+	/**
+	 * Exposes the handshake reading and the response writing of the
+	 * implementation
+	 */
+	private static final class Codec extends SocksImplementation5 {
+
+		private final ByteArrayOutputStream sink = new ByteArrayOutputStream(
+				512);
+
+		private final DataOutputStream outputStream = new DataOutputStream(
+				this.sink);
+
+		private Codec() {
+			super(null, null, null);
+		}
+
+		private Request read(final byte[] handshake) throws Exception {
+			this.sink.reset();
+			return this.readHandshake(new ByteArrayInputStream(handshake),
+					this.outputStream);
+		}
+
+		private int write(final AddressType addressType,
+				final InetAddress boundAddress, final byte[] hostname)
+				throws IOException {
+			this.sink.reset();
+			this.writeResponse(this.outputStream, Status.SUCCEEDED,
+					addressType, boundAddress, hostname, 443);
+			return this.sink.size();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nu.najt.kecon.jsocksproxy.utils.StringUtils;
+
+/**
+ * Benchmark of the formatting of addresses and sockets for the log and the
+ * statistics
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilsBenchmark {
+
+	private InetSocketAddress ipv4SocketAddress;
+
+	private InetSocketAddress ipv6SocketAddress;
+
+	private ServerSocket serverSocket;
+
+	private Socket client;
+
+	private Socket server;
+
+	@Setup
+	public void setup() throws IOException {
+		this.ipv4SocketAddress = new InetSocketAddress(
+				InetAddress.getByName("192.0.2.1"), 1080);
+		this.ipv6SocketAddress = new InetSocketAddress(
+				InetAddress.getByName("2001:db8::1"), 1080);
+
+		this.serverSocket = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress());
+		this.client = new Socket(this.serverSocket.getInetAddress(),
+				this.serverSocket.getLocalPort());
+		this.server = this.serverSocket.accept();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.client.close();
+		this.server.close();
+		this.serverSocket.close();
+	}
+
+	@Benchmark
+	public String formatSocketAddressIpv4() {
+		return StringUtils.formatSocketAddress(this.ipv4SocketAddress);
+	}
+
+	@Benchmark
+	public String formatSocketAddressIpv6() {
+		return StringUtils.formatSocketAddress(this.ipv6SocketAddress);
+	}
+
+	@Benchmark
+	public String formatSocket() {
+		return StringUtils.formatSocket(this.server);
+	}
+
+	@Benchmark
+	public String formatLocalSocket() {
+		return StringUtils.formatLocalSocket(this.server);
+	}
+
+	@Benchmark
+	public String formatServerSocket() {
+		return StringUtils.formatSocket(this.serverSocket);
+	}
+}
@@ -1,259 +1,817 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-import static nu.najt.kecon.jsocksproxy.utils.SocketUtils.copy;
-import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatLocalSocket;
-import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocket;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Collections;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-
-import org.slf4j.Logger;
-import org.slf4j.MDC;
-
-/**
- * The common implementation of the SOCKS protocol.
- * 
- * @author Kenny Colliander Nordin
- * 
- */
-public abstract class AbstractSocksImplementation
-		implements SocksImplementation {
-
-	private static final int BIND_SOCKET_TIMEOUT = 180000;
-
-	private final Socket clientSocket;
-
-	private final ConfigurationFacade configurationFacade;
-
-	protected final Logger logger;
-
-	private final Executor executor;
-
-	private final CountDownLatch countDownLatch = new CountDownLatch(1);
-
-	/**
-	 * Constructor
-	 * 
-	 * @param configurationFacade
-	 *            the configuration facade
-	 * @param clientSocket
-	 *            the clientSocket
-	 * @param logger
-	 *            the logger
-	 * @param executor
-	 *            the executor
-	 */
-	public AbstractSocksImplementation(
-			final ConfigurationFacade configurationFacade,
-			final Socket clientSocket, final Logger logger,
-			final Executor executor) {
-		this.clientSocket = clientSocket;
-		this.configurationFacade = configurationFacade;
-		this.logger = logger;
-		this.executor = executor;
-	}
-
-	protected void setup() {
-		MDC.setContextMap(Collections.emptyMap());
-		MDC.put(LoggingConstants.SOCKS_SERVER,
-				formatLocalSocket(clientSocket));
-		MDC.put(LoggingConstants.CLIENT, formatSocket(clientSocket));
-	}
-
-	protected void cleanup() {
-		MDC.remove(LoggingConstants.SOCKS_SERVER);
-		MDC.remove(LoggingConstants.CLIENT);
-		MDC.remove(LoggingConstants.REMOTE_SERVER);
-	}
-
-	/**
-	 * Open a connection to remote destination
-	 * 
-	 * @param inetAddress
-	 *            the host to connect to
-	 * @param port
-	 *            the port to connect to
-	 * @return established Socket
-	 * @throws IOException
-	 *             if an I/O error occurs when creating the socket.
-	 */
-	protected Socket openConnection(final InetAddress inetAddress,
-			final int port) throws IOException {
-		this.logger.debug("Connecting to {}:{}... ",
-				inetAddress.getHostAddress(), port);
-
-		for (final InetAddress localInetAddress : this.configurationFacade
-				.getOutgoingSourceAddresses()) {
-			if (localInetAddress.getClass() == inetAddress.getClass()) {
-				final Socket socket = new Socket(inetAddress, port,
-						localInetAddress, 0);
-				socket.setKeepAlive(true);
-				socket.setTcpNoDelay(true);
-
-				MDC.put(LoggingConstants.REMOTE_SERVER, formatSocket(socket));
-				this.logger.trace("Connected");
-				return socket;
-			}
-		}
-
-		throw new IOException(
-				"No route to address found using local addresses");
-	}
-
-	/**
-	 * Bind to connection
-	 * 
-	 * @param inetAddress
-	 *            the submitted inetAddress
-	 * @param suggestedPort
-	 *            the submitted port
-	 * @return the server socket
-	 * @throws IOException
-	 *             if an I/O error occurs when creating the socket.
-	 */
-	protected ServerSocket bindConnection(final InetAddress inetAddress,
-			final int suggestedPort) throws IOException {
-		for (final InetAddress localInetAddress : this.configurationFacade
-				.getOutgoingSourceAddresses()) {
-
-			if (localInetAddress.equals(inetAddress)) {
-				final ServerSocket serverSocket = new ServerSocket(
-						suggestedPort, 1, inetAddress);
-
-				this.logger.info("Bound client socket");
-
-				serverSocket.setSoTimeout(
-						AbstractSocksImplementation.BIND_SOCKET_TIMEOUT);
-
-				return serverSocket;
-			}
-		}
-
-		for (final InetAddress localInetAddress : this.configurationFacade
-				.getOutgoingSourceAddresses()) {
-
-			if (localInetAddress.getClass() == inetAddress.getClass()) {
-				final ServerSocket serverSocket = new ServerSocket(
-						suggestedPort, 1, localInetAddress);
-
-				this.logger.info("Bound client socket");
-
-				serverSocket.setSoTimeout(
-						AbstractSocksImplementation.BIND_SOCKET_TIMEOUT);
-
-				return serverSocket;
-			}
-		}
-
-		final ServerSocket serverSocket = new ServerSocket(suggestedPort, 1,
-				this.configurationFacade.getOutgoingSourceAddresses().get(0));
-
-		this.logger.info("Bound client socket");
-
-		serverSocket
-				.setSoTimeout(AbstractSocksImplementation.BIND_SOCKET_TIMEOUT);
-
-		return serverSocket;
-	}
-
-	/**
-	 * Tunnel input to output
-	 * 
-	 * @param internal
-	 *            the internal socket
-	 * @param external
-	 *            the external socket
-	 */
-	protected void tunnel(final Socket internal, final Socket external) {
-
-		this.logger.info("Established tunnel");
-
-		this.executor.execute(
-				new TunnelThread(this.countDownLatch, external, internal));
-
-		try {
-			copy(internal, external);
-
-			// Wait for the other thread to die
-			this.logger.trace("Waiting to disconnect");
-
-		} catch (final IOException ioe) {
-			this.logger.info("IOException occurred", ioe);
-		} finally {
-
-			try {
-				this.countDownLatch.await();
-			} catch (final InterruptedException e) {
-			}
-
-			try {
-				external.close();
-			} catch (final IOException e) {
-			}
-
-			try {
-				internal.close();
-			} catch (final IOException e) {
-			}
-
-			this.logger.info("Shutdown connection");
-		}
-	}
-
-	/**
-	 * Get the client socket
-	 * 
-	 * @return the clientSocket
-	 */
-	protected Socket getClientSocket() {
-		return this.clientSocket;
-	}
-
-	/**
-	 * Get the client input stream
-	 * 
-	 * @return the client input stream
-	 * @throws IOException
-	 *             if an I/O error occurs when creating the input stream, the
-	 *             socket is closed, the socket is not connected, or the socket
-	 *             input has been shutdown
-	 */
-	protected InputStream getClientInputStream() throws IOException {
-		return this.clientSocket.getInputStream();
-	}
-
-	/**
-	 * Get client output stream
-	 * 
-	 * @return the client output stream
-	 * @throws IOException
-	 *             if an I/O error occurs when creating the input stream, the
-	 *             socket is closed, the socket is not connected, or the socket
-	 *             input has been shutdown
-	 */
-	protected OutputStream getClientOutputStream() throws IOException {
-		return this.clientSocket.getOutputStream();
-	}
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static nu.najt.kecon.jsocksproxy.utils.SocketUtils.copy;
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatLocalSocket;
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+
+import nu.najt.kecon.jsocksproxy.configuration.RelayMode;
+import nu.najt.kecon.jsocksproxy.connect.ConnectionRacer;
+import nu.najt.kecon.jsocksproxy.connect.DestinationGuard;
+import nu.najt.kecon.jsocksproxy.dns.Resolver;
+import nu.najt.kecon.jsocksproxy.egress.EgressSelector;
+import nu.najt.kecon.jsocksproxy.egress.PortSpace;
+import nu.najt.kecon.jsocksproxy.egress.SourceAddress;
+import nu.najt.kecon.jsocksproxy.metrics.ListenerMetrics;
+import nu.najt.kecon.jsocksproxy.metrics.Phase;
+import nu.najt.kecon.jsocksproxy.nio.ChannelRelay;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+import nu.najt.kecon.jsocksproxy.utils.ExecutorUtils;
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * The common implementation of the SOCKS protocol.
+ * 
+ * @author Kenny Colliander Nordin
+ * 
+ */
+public abstract class AbstractSocksImplementation
+		implements SocksImplementation, Closeable {
+
+	private static final int BIND_SOCKET_TIMEOUT = 180000;
+
+	private final Socket clientSocket;
+
+	private final ConfigurationFacade configurationFacade;
+
+	protected final Logger logger;
+
+	private final Executor executor;
+
+	private final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+	private final RelayEngine relayEngine;
+
+	private boolean detached = false;
+
+	private byte[] earlyData;
+
+	private String resolvedHostname;
+
+	private InetAddress[] resolvedAddresses;
+
+	private TunnelListener tunnelListener;
+
+	private final ListenerMetrics listenerMetrics;
+
+	private boolean handshaking = true;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param clientSocket
+	 *            the clientSocket
+	 * @param logger
+	 *            the logger
+	 * @param executor
+	 *            the executor
+	 */
+	public AbstractSocksImplementation(
+			final ConfigurationFacade configurationFacade,
+			final Socket clientSocket, final Logger logger,
+			final Executor executor) {
+		this(configurationFacade, clientSocket, logger, executor, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param clientSocket
+	 *            the clientSocket
+	 * @param logger
+	 *            the logger
+	 * @param executor
+	 *            the executor
+	 * @param relayEngine
+	 *            the relay engine for established tunnels, or null to relay
+	 *            with blocking threads
+	 * @since 3.0
+	 */
+	public AbstractSocksImplementation(
+			final ConfigurationFacade configurationFacade,
+			final Socket clientSocket, final Logger logger,
+			final Executor executor, final RelayEngine relayEngine) {
+		this.clientSocket = clientSocket;
+		this.configurationFacade = configurationFacade;
+		this.logger = logger;
+		this.executor = executor;
+		this.relayEngine = relayEngine;
+		this.listenerMetrics = (configurationFacade != null)
+				? configurationFacade.getListenerMetrics()
+				: null;
+	}
+
+	protected void setup() {
+		MDC.setContextMap(Collections.emptyMap());
+		MDC.put(LoggingConstants.SOCKS_SERVER,
+				formatLocalSocket(clientSocket));
+		MDC.put(LoggingConstants.CLIENT, formatSocket(clientSocket));
+	}
+
+	protected void cleanup() {
+		if (this.handshaking) {
+			this.handshaking = false;
+
+			if (this.listenerMetrics != null) {
+				this.listenerMetrics.handshakeEnded();
+			}
+		}
+
+		if (!this.detached) {
+			// The tunnel was never established
+			this.tunnelClosed(new TransferStatistics(),
+					new TransferStatistics());
+		}
+
+		MDC.remove(LoggingConstants.SOCKS_SERVER);
+		MDC.remove(LoggingConstants.CLIENT);
+		MDC.remove(LoggingConstants.REMOTE_SERVER);
+	}
+
+	/**
+	 * Close the client connection of an implementation that will not run,
+	 * for example when the executor rejects it
+	 * 
+	 * @since 3.0
+	 */
+	@Override
+	public void close() {
+		closeQuietly(this.clientSocket);
+
+		if (this.handshaking) {
+			this.handshaking = false;
+
+			if (this.listenerMetrics != null) {
+				this.listenerMetrics.handshakeEnded();
+			}
+		}
+	}
+
+	/**
+	 * Resolve a hostname requested by the client. All addresses of the host
+	 * are kept for {@link #openConnection(InetAddress, int)}.
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @return the first address of the host
+	 * @throws UnknownHostException
+	 *             if the hostname could not be resolved
+	 * @since 3.0
+	 */
+	protected InetAddress resolveHostname(final String hostname)
+			throws UnknownHostException {
+		if (!hostname.equals(this.resolvedHostname)) {
+			final Resolver resolver = this.configurationFacade.getResolver();
+			final long start = System.nanoTime();
+
+			try {
+				this.setResolvedAddresses(hostname,
+						(resolver != null) ? resolver.resolve(hostname)
+								: InetAddress.getAllByName(hostname));
+			} finally {
+				this.recordLatency(Phase.RESOLVE, start);
+			}
+		}
+
+		return this.resolvedAddresses[0];
+	}
+
+	/**
+	 * Open a connection to remote destination. If the address is the first
+	 * address of the last resolved hostname, connection attempts to all
+	 * addresses of the hostname are raced by the {@link ConnectionRacer}. The
+	 * source address is chosen by the {@link EgressSelector}, when
+	 * available, and is credited with the connection until the tunnel
+	 * closes. The {@link DestinationGuard}, when available, refuses
+	 * connections to unreachable destinations and destinations with too
+	 * many connections without an attempt. The time spent, also by failed
+	 * connections, is recorded as the connect latency.
+	 * 
+	 * @param inetAddress
+	 *            the host to connect to
+	 * @param port
+	 *            the port to connect to
+	 * @return established Socket
+	 * @throws IOException
+	 *             if an I/O error occurs when creating the socket.
+	 */
+	protected Socket openConnection(final InetAddress inetAddress,
+			final int port) throws IOException {
+		final long start = System.nanoTime();
+
+		try {
+			return this.connect(inetAddress, port);
+		} finally {
+			this.recordLatency(Phase.CONNECT, start);
+		}
+	}
+
+	/**
+	 * Open a connection, see {@link #openConnection(InetAddress, int)}
+	 */
+	private Socket connect(final InetAddress inetAddress, final int port)
+			throws IOException {
+		this.logger.debug("Connecting to {}:{}... ",
+				inetAddress.getHostAddress(), port);
+
+		final ConnectionRacer connectionRacer = this.configurationFacade
+				.getConnectionRacer();
+
+		final InetAddress[] addresses = ((connectionRacer != null)
+				&& (this.resolvedAddresses != null)
+				&& this.resolvedAddresses[0].equals(inetAddress))
+						? this.resolvedAddresses
+						: new InetAddress[] { inetAddress };
+
+		final EgressSelector egressSelector = this.configurationFacade
+				.getEgressSelector();
+		final List<SourceAddress> selected = (egressSelector != null)
+				? this.selectSourceAddresses(egressSelector, addresses, port)
+				: null;
+		final List<InetAddress> sourceAddresses;
+		if (selected != null) {
+			sourceAddresses = new ArrayList<InetAddress>(selected.size());
+			for (final SourceAddress sourceAddress : selected) {
+				sourceAddresses.add(sourceAddress
+						.getBindAddress(this.clientSocket.getInetAddress()));
+			}
+		} else {
+			sourceAddresses = this.configurationFacade
+					.getOutgoingSourceAddresses();
+		}
+
+		// Acquired last; nothing may fail before the try that releases it
+		final DestinationGuard destinationGuard = this.configurationFacade
+				.getDestinationGuard();
+		final DestinationGuard.Permit permit = (destinationGuard != null)
+				? destinationGuard
+						.acquire(this.formatDestination(inetAddress, port))
+				: null;
+
+		final Socket socket;
+		try {
+			if (connectionRacer != null) {
+				final PortSpace portSpace = connectionRacer.getPortSpace();
+				final long start = System.nanoTime();
+
+				socket = connectionRacer.connect(addresses, port,
+						sourceAddresses);
+
+				if (portSpace != null) {
+					this.addTunnelListener(new TunnelListener() {
+
+						@Override
+						public void closed(final TransferStatistics upstream,
+								final TransferStatistics downstream) {
+							portSpace.release(socket.getChannel());
+						}
+					});
+				}
+
+				this.logger.debug("Connected to {} in {} ms",
+						socket.getInetAddress().getHostAddress(),
+						TimeUnit.NANOSECONDS
+								.toMillis(System.nanoTime() - start));
+			} else {
+				socket = this.connectFirstRoute(inetAddress, port,
+						sourceAddresses);
+			}
+		} catch (final BindException e) {
+			// Out of local ports, not a failure of the destination
+			if (permit != null) {
+				permit.release();
+			}
+			throw e;
+		} catch (final IOException e) {
+			if (permit != null) {
+				permit.failed();
+			}
+			throw e;
+		} catch (final RuntimeException e) {
+			if (permit != null) {
+				permit.release();
+			}
+			throw e;
+		}
+
+		if (permit != null) {
+			permit.connected();
+			this.addTunnelListener(permit);
+		}
+
+		if (selected != null) {
+			for (final SourceAddress sourceAddress : selected) {
+				if (sourceAddress.getAddress().getClass() == socket
+						.getInetAddress().getClass()) {
+					this.addTunnelListener(sourceAddress.connected());
+					break;
+				}
+			}
+		}
+
+		socket.setKeepAlive(true);
+		socket.setTcpNoDelay(true);
+
+		MDC.put(LoggingConstants.REMOTE_SERVER, formatSocket(socket));
+		this.logger.trace("Connected");
+		return socket;
+	}
+
+	/**
+	 * @return the destination as host:port, with the hostname when the
+	 *         address is the first address of the last resolved hostname
+	 */
+	private String formatDestination(final InetAddress inetAddress,
+			final int port) {
+		final String host = ((this.resolvedAddresses != null)
+				&& this.resolvedAddresses[0].equals(inetAddress))
+						? this.resolvedHostname
+						: inetAddress.getHostAddress();
+
+		return host + ":" + port;
+	}
+
+	/**
+	 * Select one source address for each address family of the addresses
+	 */
+	private List<SourceAddress> selectSourceAddresses(
+			final EgressSelector egressSelector, final InetAddress[] addresses,
+			final int port) {
+		final InetAddress clientAddress = this.clientSocket.getInetAddress();
+		final List<SourceAddress> selected = new ArrayList<SourceAddress>(2);
+		Class<?> selectedFamily = null;
+
+		for (final InetAddress address : addresses) {
+			if (address.getClass() != selectedFamily) {
+				final SourceAddress sourceAddress = egressSelector
+						.select(clientAddress, address, port);
+
+				if (sourceAddress != null) {
+					selected.add(sourceAddress);
+				}
+
+				if (selectedFamily != null) {
+					break;
+				}
+				selectedFamily = address.getClass();
+			}
+		}
+
+		return selected;
+	}
+
+	/**
+	 * Connect from the first local address of the same address family,
+	 * without a connect timeout
+	 */
+	private Socket connectFirstRoute(final InetAddress inetAddress,
+			final int port, final List<InetAddress> sourceAddresses)
+			throws IOException {
+		for (final InetAddress localInetAddress : sourceAddresses) {
+			if (localInetAddress.getClass() == inetAddress.getClass()) {
+				return this.createSocket(inetAddress, port, localInetAddress);
+			}
+		}
+
+		throw new IOException(
+				"No route to address found using local addresses");
+	}
+
+	/**
+	 * Create a connected socket. The socket is backed by a channel so the
+	 * tunnel can be copied through pooled direct buffers or be handed over to
+	 * the relay engine.
+	 * 
+	 * @param inetAddress
+	 *            the host to connect to
+	 * @param port
+	 *            the port to connect to
+	 * @param localInetAddress
+	 *            the local address to bind to
+	 * @return connected socket
+	 * @throws IOException
+	 *             if an I/O error occurs when creating the socket.
+	 */
+	private Socket createSocket(final InetAddress inetAddress, final int port,
+			final InetAddress localInetAddress) throws IOException {
+		final SocketChannel socketChannel = SocketChannel.open();
+		try {
+			final Socket socket = socketChannel.socket();
+			socket.bind(new InetSocketAddress(localInetAddress, 0));
+			socket.connect(new InetSocketAddress(inetAddress, port));
+			return socket;
+		} catch (final IOException e) {
+			socketChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Bind to connection
+	 * 
+	 * @param inetAddress
+	 *            the submitted inetAddress
+	 * @param suggestedPort
+	 *            the submitted port
+	 * @return the server socket
+	 * @throws IOException
+	 *             if an I/O error occurs when creating the socket.
+	 */
+	protected ServerSocket bindConnection(final InetAddress inetAddress,
+			final int suggestedPort) throws IOException {
+		for (final InetAddress localInetAddress : this.configurationFacade
+				.getOutgoingSourceAddresses()) {
+
+			if (localInetAddress.equals(inetAddress)) {
+				final ServerSocket serverSocket = new ServerSocket(
+						suggestedPort, 1, inetAddress);
+
+				this.logger.info("Bound client socket");
+
+				serverSocket.setSoTimeout(
+						AbstractSocksImplementation.BIND_SOCKET_TIMEOUT);
+
+				return serverSocket;
+			}
+		}
+
+		for (final InetAddress localInetAddress : this.configurationFacade
+				.getOutgoingSourceAddresses()) {
+
+			if (localInetAddress.getClass() == inetAddress.getClass()) {
+				final ServerSocket serverSocket = new ServerSocket(
+						suggestedPort, 1, localInetAddress);
+
+				this.logger.info("Bound client socket");
+
+				serverSocket.setSoTimeout(
+						AbstractSocksImplementation.BIND_SOCKET_TIMEOUT);
+
+				return serverSocket;
+			}
+		}
+
+		final ServerSocket serverSocket = new ServerSocket(suggestedPort, 1,
+				this.configurationFacade.getOutgoingSourceAddresses().get(0));
+
+		this.logger.info("Bound client socket");
+
+		serverSocket
+				.setSoTimeout(AbstractSocksImplementation.BIND_SOCKET_TIMEOUT);
+
+		return serverSocket;
+	}
+
+	/**
+	 * Tunnel input to output. If a relay engine is available and both sockets
+	 * are backed by channels the tunnel is handed over to the engine and this
+	 * method returns immediately, see {@link #isDetached()}.
+	 * 
+	 * @param internal
+	 *            the internal socket
+	 * @param external
+	 *            the external socket
+	 */
+	protected void tunnel(final Socket internal, final Socket external) {
+
+		this.logger.info("Established tunnel");
+
+		if (this.handshaking && (this.listenerMetrics != null)) {
+			final ListenerMetrics listenerMetrics = this.listenerMetrics;
+			final long established = System.nanoTime();
+
+			listenerMetrics.tunnelOpened();
+			this.addTunnelListener(listenerMetrics);
+			this.addTunnelListener(new TunnelListener() {
+
+				@Override
+				public void closed(final TransferStatistics upstream,
+						final TransferStatistics downstream) {
+					if (downstream.getWrites() > 0) {
+						listenerMetrics.getLatencyHistogram(Phase.FIRST_BYTE)
+								.record(downstream.getFirstWriteTime()
+										- established);
+					}
+				}
+			});
+		}
+		this.handshaking = false;
+
+		if (this.earlyData != null) {
+			try {
+				final OutputStream outputStream = external.getOutputStream();
+				outputStream.write(this.earlyData);
+				outputStream.flush();
+				this.earlyData = null;
+			} catch (final IOException ioe) {
+				this.logger.info("Failed to forward early data", ioe);
+				closeQuietly(internal);
+				closeQuietly(external);
+				return;
+			}
+		}
+
+		final BufferSizing bufferSizing = this.getBufferSizing();
+		final boolean coalescingWrites = this.configurationFacade
+				.isCoalescingWrites();
+		final long coalescingLatency = coalescingWrites
+				? this.configurationFacade.getCoalescingLatency() : -1;
+
+		if ((this.relayEngine != null) && this.relayEngine.register(internal,
+				external, bufferSizing, coalescingWrites,
+				this.tunnelListener)) {
+			this.detached = true;
+			this.tunnelListener = null;
+			this.logger.debug("Tunnel handed over to relay engine");
+			return;
+		}
+
+		if ((this.configurationFacade.getRelayMode() == RelayMode.SELECTOR)
+				&& (internal.getChannel() != null)
+				&& (external.getChannel() != null) && (coalescingLatency <= 0)
+				&& !ExecutorUtils.isVirtualThread()) {
+			this.relay(internal, external, bufferSizing, coalescingWrites);
+		} else {
+			this.copyWithTunnelThread(internal, external, bufferSizing,
+					coalescingLatency);
+		}
+	}
+
+	/**
+	 * Relay both directions from the current thread with a private selector.
+	 * Used with the selector relay mode; the selector costs about three file
+	 * descriptors for the lifetime of the tunnel on Java 8.
+	 */
+	private void relay(final Socket internal, final Socket external,
+			final BufferSizing bufferSizing, final boolean coalescingWrites) {
+		final ChannelRelay channelRelay = new ChannelRelay(
+				internal.getChannel(), external.getChannel(), bufferSizing,
+				coalescingWrites);
+
+		try {
+			channelRelay.run();
+		} catch (final IOException ioe) {
+			this.logger.info("IOException occurred", ioe);
+		} finally {
+			this.logger.info("Shutdown connection; upstream {}; downstream {}",
+					channelRelay.getUpstreamStatistics(),
+					channelRelay.getDownstreamStatistics());
+			this.tunnelClosed(channelRelay.getUpstreamStatistics(),
+					channelRelay.getDownstreamStatistics());
+		}
+	}
+
+	/**
+	 * Copy one direction from the current thread and the other from a
+	 * {@link TunnelThread}. Used by the blocking relay mode. The selector relay
+	 * mode falls back to it for sockets without channels, when a coalescing
+	 * latency is configured and on virtual threads, where a blocking selector
+	 * would occupy the carrier thread.
+	 */
+	private void copyWithTunnelThread(final Socket internal,
+			final Socket external, final BufferSizing bufferSizing,
+			final long coalescingLatency) {
+		final TransferStatistics upstream = new TransferStatistics();
+		final TransferStatistics downstream = new TransferStatistics();
+
+		try {
+			this.executor.execute(new TunnelThread(this.countDownLatch,
+					external, internal, bufferSizing, coalescingLatency,
+					downstream));
+		} catch (final RejectedExecutionException e) {
+			// The executor has been shut down
+			this.logger.warn("Failed to start tunnel thread", e);
+			closeQuietly(external);
+			closeQuietly(internal);
+			this.tunnelClosed(upstream, downstream);
+			return;
+		}
+
+		try {
+			copy(internal, external, bufferSizing, coalescingLatency,
+					upstream);
+
+			// Wait for the other thread to die
+			this.logger.trace("Waiting to disconnect");
+
+		} catch (final IOException ioe) {
+			this.logger.info("IOException occurred", ioe);
+		} finally {
+
+			try {
+				this.countDownLatch.await();
+			} catch (final InterruptedException e) {
+			}
+
+			try {
+				external.close();
+			} catch (final IOException e) {
+			}
+
+			try {
+				internal.close();
+			} catch (final IOException e) {
+			}
+
+			this.logger.info("Shutdown connection; upstream {}; downstream {}",
+					upstream, downstream);
+			this.tunnelClosed(upstream, downstream);
+		}
+	}
+
+	/**
+	 * Count a request replied to with a failure in the metrics of the listen
+	 * address
+	 * 
+	 * @param version
+	 *            the SOCKS version
+	 * @param replyCode
+	 *            the reply code
+	 * @since 3.0
+	 */
+	protected void handshakeFailed(final int version, final int replyCode) {
+		if (this.listenerMetrics != null) {
+			this.listenerMetrics.handshakeFailed(version, replyCode);
+		}
+	}
+
+	/**
+	 * Record the latency of a phase in the metrics of the listen address
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @param start
+	 *            the start of the phase from {@link System#nanoTime()}
+	 * @since 3.0
+	 */
+	protected void recordLatency(final Phase phase, final long start) {
+		if (this.listenerMetrics != null) {
+			this.listenerMetrics.recordLatency(phase, start);
+		}
+	}
+
+	/**
+	 * Add a listener to notify when the tunnel of the outgoing connection
+	 * closes
+	 */
+	private void addTunnelListener(final TunnelListener tunnelListener) {
+		final TunnelListener previous = this.tunnelListener;
+
+		if (previous == null) {
+			this.tunnelListener = tunnelListener;
+		} else {
+			this.tunnelListener = new TunnelListener() {
+
+				@Override
+				public void closed(final TransferStatistics upstream,
+						final TransferStatistics downstream) {
+					previous.closed(upstream, downstream);
+					tunnelListener.closed(upstream, downstream);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Notify the listeners of the outgoing connection that the tunnel has
+	 * closed
+	 */
+	private void tunnelClosed(final TransferStatistics upstream,
+			final TransferStatistics downstream) {
+		if (this.tunnelListener != null) {
+			this.tunnelListener.closed(upstream, downstream);
+			this.tunnelListener = null;
+		}
+	}
+
+	private BufferSizing getBufferSizing() {
+		final BufferSizing bufferSizing = this.configurationFacade
+				.getBufferSizing();
+
+		return (bufferSizing != null) ? bufferSizing : BufferSizing.DEFAULT;
+	}
+
+	private static void closeQuietly(final Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException e) {
+		}
+	}
+
+	/**
+	 * Set data that the client sent after the request and that has already
+	 * been read. It is forwarded to the remote server before tunneling.
+	 * 
+	 * @param earlyData
+	 *            the data or null
+	 * @since 3.0
+	 */
+	protected void setEarlyData(final byte[] earlyData) {
+		this.earlyData = ((earlyData != null) && (earlyData.length > 0))
+				? earlyData
+				: null;
+	}
+
+	/**
+	 * Set the addresses of the requested hostname, when it has been resolved
+	 * before the implementation runs
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @param addresses
+	 *            the addresses
+	 */
+	void setResolvedAddresses(final String hostname,
+			final InetAddress[] addresses) {
+		this.resolvedHostname = hostname;
+		this.resolvedAddresses = addresses;
+	}
+
+	/**
+	 * Check if the sockets have been handed over to the relay engine, in which
+	 * case they must not be closed by the implementation.
+	 * 
+	 * @return true if the tunnel is owned by the relay engine
+	 * @since 3.0
+	 */
+	protected boolean isDetached() {
+		return this.detached;
+	}
+
+	/**
+	 * Get the client socket
+	 * 
+	 * @return the clientSocket
+	 */
+	protected Socket getClientSocket() {
+		return this.clientSocket;
+	}
+
+	/**
+	 * Get the client input stream
+	 * 
+	 * @return the client input stream
+	 * @throws IOException
+	 *             if an I/O error occurs when creating the input stream, the
+	 *             socket is closed, the socket is not connected, or the socket
+	 *             input has been shutdown
+	 */
+	protected InputStream getClientInputStream() throws IOException {
+		return this.clientSocket.getInputStream();
+	}
+
+	/**
+	 * Get client output stream
+	 * 
+	 * @return the client output stream
+	 * @throws IOException
+	 *             if an I/O error occurs when creating the input stream, the
+	 *             socket is closed, the socket is not connected, or the socket
+	 *             input has been shutdown
+	 */
+	protected OutputStream getClientOutputStream() throws IOException {
+		return this.clientSocket.getOutputStream();
+	}
+}
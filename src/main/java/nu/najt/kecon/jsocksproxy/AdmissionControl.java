@@ -0,0 +1,233 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.najt.kecon.jsocksproxy.configuration.AdmissionPolicy;
+
+/**
+ * Limits the number of SOCKS implementations that run at the same time. A
+ * permit is held while a connection is handled, including its tunnel. The
+ * limit is independent of the executor, so it applies to platform and
+ * virtual threads alike.
+ * <p>
+ * A worker that completes runs the next queued connection itself, so queued
+ * connections do not need another permit. A queued connection that the
+ * executor rejects is closed if it is {@link Closeable}.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class AdmissionControl {
+
+	private final Executor executor;
+
+	private final int maxConnections;
+
+	private final int queueDepth;
+
+	private final AdmissionPolicy admissionPolicy;
+
+	private final Semaphore permits;
+
+	private final BlockingQueue<Runnable> queue;
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param executor
+	 *            the executor running the connections
+	 * @param maxConnections
+	 *            maximum number of connections handled at the same time
+	 * @param queueDepth
+	 *            number of connections that may wait with the queue policy
+	 * @param admissionPolicy
+	 *            the admission policy
+	 */
+	public AdmissionControl(final Executor executor, final int maxConnections,
+			final int queueDepth, final AdmissionPolicy admissionPolicy) {
+		this.executor = executor;
+		this.maxConnections = maxConnections;
+		this.queueDepth = queueDepth;
+		this.admissionPolicy = admissionPolicy;
+		this.permits = new Semaphore(maxConnections);
+		this.queue = ((admissionPolicy != AdmissionPolicy.REJECT)
+				&& (queueDepth > 0))
+						? new ArrayBlockingQueue<Runnable>(queueDepth) : null;
+	}
+
+	/**
+	 * Block the calling acceptor while the pause policy is used and all
+	 * permits are taken
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void awaitCapacity() throws InterruptedException {
+		if (this.admissionPolicy == AdmissionPolicy.PAUSE) {
+			this.permits.acquire();
+			this.permits.release();
+		}
+	}
+
+	/**
+	 * Run a connection if the admission policy allows it. With the pause
+	 * policy the call blocks until a permit is available, unless blocking is
+	 * not allowed, in which case the connection is queued.
+	 * 
+	 * @param task
+	 *            the connection
+	 * @param mayBlock
+	 *            false if the calling thread must not block
+	 * @return false if the connection was rejected and must be closed by the
+	 *         caller
+	 */
+	public boolean submit(final Runnable task, final boolean mayBlock) {
+		if (this.permits.tryAcquire()) {
+			return this.dispatch(task);
+		}
+
+		if ((this.admissionPolicy == AdmissionPolicy.PAUSE) && mayBlock) {
+			try {
+				this.permits.acquire();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				this.rejected.incrementAndGet();
+				return false;
+			}
+			return this.dispatch(task);
+		}
+
+		if ((this.queue != null) && this.queue.offer(task)) {
+			// A worker may have completed before the task was queued
+			this.drainQueue();
+			return true;
+		}
+
+		this.rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * @return number of connections being handled
+	 */
+	public int getRunning() {
+		return this.maxConnections - this.permits.availablePermits();
+	}
+
+	/**
+	 * @return number of queued connections
+	 */
+	public int getQueued() {
+		return (this.queue != null) ? this.queue.size() : 0;
+	}
+
+	/**
+	 * @return number of rejected connections
+	 */
+	public long getRejected() {
+		return this.rejected.get();
+	}
+
+	/**
+	 * @param maxConnections
+	 *            maximum number of connections
+	 * @param queueDepth
+	 *            queue depth
+	 * @param admissionPolicy
+	 *            admission policy
+	 * @return true if this admission control uses the given settings
+	 */
+	public boolean hasSettings(final int maxConnections, final int queueDepth,
+			final AdmissionPolicy admissionPolicy) {
+		return (this.maxConnections == maxConnections)
+				&& (this.queueDepth == queueDepth)
+				&& (this.admissionPolicy == admissionPolicy);
+	}
+
+	private void drainQueue() {
+		while (!this.queue.isEmpty() && this.permits.tryAcquire()) {
+			final Runnable task = this.queue.poll();
+
+			if (task == null) {
+				this.permits.release();
+			} else if (!this.dispatch(task)) {
+				close(task);
+			}
+		}
+	}
+
+	/**
+	 * Run the task on the executor with a permit that has been acquired
+	 */
+	private boolean dispatch(final Runnable task) {
+		try {
+			this.executor.execute(new Worker(task));
+			return true;
+		} catch (final RejectedExecutionException e) {
+			this.permits.release();
+			this.rejected.incrementAndGet();
+			return false;
+		}
+	}
+
+	private static void close(final Runnable task) {
+		if (task instanceof Closeable) {
+			try {
+				((Closeable) task).close();
+			} catch (final IOException e) {
+			}
+		}
+	}
+
+	private final class Worker implements Runnable {
+
+		private final Runnable task;
+
+		private Worker(final Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			Runnable current = this.task;
+
+			try {
+				while (current != null) {
+					current.run();
+					current = (AdmissionControl.this.queue != null)
+							? AdmissionControl.this.queue.poll() : null;
+				}
+			} finally {
+				AdmissionControl.this.permits.release();
+
+				if (AdmissionControl.this.queue != null) {
+					AdmissionControl.this.drainQueue();
+				}
+			}
+		}
+	}
+}
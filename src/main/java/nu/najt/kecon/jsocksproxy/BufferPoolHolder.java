@@ -0,0 +1,71 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.utils.BufferPool;
+
+/**
+ * Holds the buffer pool shared by the tunnels of the proxy.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class BufferPoolHolder {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(BufferPoolHolder.class);
+
+	private final BufferPool bufferPool;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param bufferPool
+	 *            the buffer pool
+	 */
+	public BufferPoolHolder(final BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Apply the configuration
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 */
+	public void update(final Configuration configuration) {
+		if (configuration.getBufferPoolMaxMemory() < 0) {
+			LOG.warn(
+					"Buffer pool memory must not be negative; supplied value: {} ; using default {}",
+					configuration.getBufferPoolMaxMemory(),
+					BufferPool.DEFAULT_MAX_MEMORY);
+			this.bufferPool.setMaxMemory(BufferPool.DEFAULT_MAX_MEMORY);
+		} else {
+			this.bufferPool.setMaxMemory(configuration.getBufferPoolMaxMemory());
+		}
+	}
+
+	/**
+	 * @return the buffer pool
+	 */
+	public BufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+}
@@ -1,48 +1,142 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-import java.net.InetAddress;
-import java.util.List;
-
-/**
- * Contains methods for accessing the running configuration
- * 
- * @author Kenny Colliander Nordin
- */
-public interface ConfigurationFacade {
-	/**
-	 * @return list of outgoing addresses
-	 */
-	public List<InetAddress> getOutgoingSourceAddresses();
-
-	/**
-	 * @return true if SOCKS version 4 is allowed
-	 */
-	public boolean isAllowSocks4();
-
-	/**
-	 * @return true if SOCKS version 5 is allowed
-	 */
-	public boolean isAllowSocks5();
-
-	/**
-	 * @return the backlog
-	 * @since 3.0
-	 */
-	public int getBacklog();
-
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import nu.najt.kecon.jsocksproxy.configuration.RelayMode;
+import nu.najt.kecon.jsocksproxy.connect.ConnectionRacer;
+import nu.najt.kecon.jsocksproxy.connect.DestinationGuard;
+import nu.najt.kecon.jsocksproxy.dns.Resolver;
+import nu.najt.kecon.jsocksproxy.dns.SystemResolver;
+import nu.najt.kecon.jsocksproxy.egress.EgressSelector;
+import nu.najt.kecon.jsocksproxy.metrics.ListenerMetrics;
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+
+/**
+ * Contains methods for accessing the running configuration
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public interface ConfigurationFacade {
+	/**
+	 * @return list of outgoing addresses
+	 */
+	public List<InetAddress> getOutgoingSourceAddresses();
+
+	/**
+	 * @return true if SOCKS version 4 is allowed
+	 */
+	public boolean isAllowSocks4();
+
+	/**
+	 * @return true if SOCKS version 5 is allowed
+	 */
+	public boolean isAllowSocks5();
+
+	/**
+	 * @return the backlog
+	 * @since 3.0
+	 */
+	public int getBacklog();
+
+	/**
+	 * @return the buffer sizing for tunnels
+	 * @since 3.0
+	 */
+	public default BufferSizing getBufferSizing() {
+		return BufferSizing.DEFAULT;
+	}
+
+	/**
+	 * @return how established tunnels are relayed
+	 * @since 3.0
+	 */
+	public default RelayMode getRelayMode() {
+		return RelayMode.BLOCKING;
+	}
+
+	/**
+	 * @return true if tunnels should coalesce available input into one write
+	 * @since 3.0
+	 */
+	public default boolean isCoalescingWrites() {
+		return false;
+	}
+
+	/**
+	 * @return how long in microseconds tunnels may wait for more input to
+	 *         coalesce
+	 * @since 3.0
+	 */
+	public default long getCoalescingLatency() {
+		return 0;
+	}
+
+	/**
+	 * @return number of acceptors sharing the listen address with
+	 *         SO_REUSEPORT
+	 * @since 3.0
+	 */
+	public default int getAcceptors() {
+		return 1;
+	}
+
+	/**
+	 * @return the resolver for hostnames requested by clients
+	 * @since 3.0
+	 */
+	public default Resolver getResolver() {
+		return SystemResolver.INSTANCE;
+	}
+
+	/**
+	 * @return the connection racer for outgoing connections, or null to
+	 *         connect to the first address without a timeout
+	 * @since 3.0
+	 */
+	public default ConnectionRacer getConnectionRacer() {
+		return null;
+	}
+
+	/**
+	 * @return the selector of source addresses for outgoing connections, or
+	 *         null to use the first outgoing address of the address family
+	 * @since 3.0
+	 */
+	public default EgressSelector getEgressSelector() {
+		return null;
+	}
+
+	/**
+	 * @return the guard of connections per destination, or null to connect
+	 *         without limits
+	 * @since 3.0
+	 */
+	public default DestinationGuard getDestinationGuard() {
+		return null;
+	}
+
+	/**
+	 * @return the metrics of the listen address, or null if not counted
+	 * @since 3.0
+	 */
+	public default ListenerMetrics getListenerMetrics() {
+		return null;
+	}
+
+}
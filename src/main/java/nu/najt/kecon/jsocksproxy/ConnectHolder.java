@@ -0,0 +1,125 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.connect.ConnectionRacer;
+import nu.najt.kecon.jsocksproxy.connect.DestinationGuard;
+import nu.najt.kecon.jsocksproxy.egress.PortSpace;
+
+/**
+ * Holds the connection racer and the destination guard used for outgoing
+ * connects. Both live as long as the proxy, so their counters survive
+ * configuration changes.
+ *
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class ConnectHolder {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ConnectHolder.class);
+
+	private final ConnectionRacer connectionRacer = new ConnectionRacer();
+
+	private final DestinationGuard destinationGuard = new DestinationGuard();
+
+	/**
+	 * Apply the configuration
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 * @param portSpace
+	 *            the source port space, or null
+	 */
+	public void update(final Configuration configuration,
+			final PortSpace portSpace) {
+		this.updateConnectionRacer(configuration, portSpace);
+		this.updateDestinationGuard(configuration);
+	}
+
+	/**
+	 * @return the connection racer
+	 */
+	public ConnectionRacer getConnectionRacer() {
+		return this.connectionRacer;
+	}
+
+	/**
+	 * @return the destination guard
+	 */
+	public DestinationGuard getDestinationGuard() {
+		return this.destinationGuard;
+	}
+
+	private void updateConnectionRacer(final Configuration configuration,
+			final PortSpace portSpace) {
+		long attemptDelay = configuration.getConnectAttemptDelay();
+		if (attemptDelay < 0) {
+			LOG.warn(
+					"Connect attempt delay must not be negative; supplied value: {} ; using default {}",
+					attemptDelay, ConnectionRacer.DEFAULT_ATTEMPT_DELAY);
+			attemptDelay = ConnectionRacer.DEFAULT_ATTEMPT_DELAY;
+		}
+
+		long connectTimeout = configuration.getConnectTimeout();
+		if (connectTimeout < 0) {
+			LOG.warn(
+					"Connect timeout must not be negative; supplied value: {} ; using default {}",
+					connectTimeout, ConnectionRacer.DEFAULT_CONNECT_TIMEOUT);
+			connectTimeout = ConnectionRacer.DEFAULT_CONNECT_TIMEOUT;
+		}
+
+		this.connectionRacer.setAttemptDelay(attemptDelay);
+		this.connectionRacer.setConnectTimeout(connectTimeout);
+		this.connectionRacer.setPortSpace(portSpace);
+	}
+
+	private void updateDestinationGuard(final Configuration configuration) {
+		int maxConnections = configuration.getMaxConnectionsPerDestination();
+		if (maxConnections < 0) {
+			LOG.warn(
+					"Max connections per destination must not be negative; supplied value: {} ; using default {}",
+					maxConnections, 0);
+			maxConnections = 0;
+		}
+
+		int maxConnectLimit = configuration
+				.getMaxConnectAttemptsPerDestination();
+		if (maxConnectLimit < 0) {
+			LOG.warn(
+					"Max connect attempts per destination must not be negative; supplied value: {} ; using default {}",
+					maxConnectLimit,
+					DestinationGuard.DEFAULT_MAX_CONNECT_LIMIT);
+			maxConnectLimit = DestinationGuard.DEFAULT_MAX_CONNECT_LIMIT;
+		}
+
+		long unreachableTtl = configuration.getUnreachableTtl();
+		if (unreachableTtl < 0) {
+			LOG.warn(
+					"Unreachable TTL must not be negative; supplied value: {} ; using default {}",
+					unreachableTtl, DestinationGuard.DEFAULT_UNREACHABLE_TTL);
+			unreachableTtl = DestinationGuard.DEFAULT_UNREACHABLE_TTL;
+		}
+
+		this.destinationGuard.setMaxConnections(maxConnections);
+		this.destinationGuard.setMaxConnectLimit(maxConnectLimit);
+		this.destinationGuard.setUnreachableTtl(unreachableTtl);
+	}
+}
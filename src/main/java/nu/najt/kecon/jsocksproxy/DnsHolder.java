@@ -0,0 +1,293 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocketAddress;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.configuration.ResolverMode;
+import nu.najt.kecon.jsocksproxy.dns.DnsCache;
+import nu.najt.kecon.jsocksproxy.dns.DnsClient;
+import nu.najt.kecon.jsocksproxy.dns.Resolver;
+import nu.najt.kecon.jsocksproxy.dns.SystemResolver;
+
+/**
+ * Holds the DNS client and the DNS cache of the proxy, recreating them when
+ * the configuration changes.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class DnsHolder {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DnsHolder.class);
+
+	private final ExecutorService executorService;
+
+	private volatile DnsClient dnsClient;
+
+	private volatile DnsCache dnsCache;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param executorService
+	 *            the executor running the DNS client
+	 */
+	public DnsHolder(final ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Apply the configuration
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 */
+	public void update(final Configuration configuration) {
+		this.updateDnsClient(configuration);
+		this.updateDnsCache(configuration);
+	}
+
+	/**
+	 * Stop the DNS client and drop the cache
+	 */
+	public void shutdown() {
+		if (this.dnsClient != null) {
+			this.dnsClient.shutdown();
+			this.dnsClient = null;
+		}
+
+		this.dnsCache = null;
+	}
+
+	/**
+	 * @return the resolver for destination hostnames
+	 */
+	public Resolver getResolver() {
+		final DnsCache dnsCache = this.dnsCache;
+		return (dnsCache != null) ? dnsCache : this.getUncachedResolver();
+	}
+
+	/**
+	 * @return the DNS client if configured, otherwise the JVM resolver
+	 */
+	private Resolver getUncachedResolver() {
+		final DnsClient dnsClient = this.dnsClient;
+		return (dnsClient != null) ? dnsClient : SystemResolver.INSTANCE;
+	}
+
+	/**
+	 * @return the number of lookups sent by the DNS client
+	 */
+	public long getLookups() {
+		final DnsClient dnsClient = this.dnsClient;
+		return (dnsClient != null) ? dnsClient.getLookups() : 0;
+	}
+
+	/**
+	 * @return the number of lookups joining one in flight
+	 */
+	public long getCoalescedLookups() {
+		final DnsClient dnsClient = this.dnsClient;
+		return (dnsClient != null) ? dnsClient.getCoalesced() : 0;
+	}
+
+	/**
+	 * @return the number of cached hostnames
+	 */
+	public int getCacheSize() {
+		final DnsCache dnsCache = this.dnsCache;
+		return (dnsCache != null) ? dnsCache.getSize() : 0;
+	}
+
+	/**
+	 * @return the number of cache hits
+	 */
+	public long getCacheHits() {
+		final DnsCache dnsCache = this.dnsCache;
+		return (dnsCache != null) ? dnsCache.getHits() : 0;
+	}
+
+	/**
+	 * @return the number of cache misses
+	 */
+	public long getCacheMisses() {
+		final DnsCache dnsCache = this.dnsCache;
+		return (dnsCache != null) ? dnsCache.getMisses() : 0;
+	}
+
+	/**
+	 * @return the cache hit rate
+	 */
+	public double getCacheHitRate() {
+		final DnsCache dnsCache = this.dnsCache;
+		return (dnsCache != null) ? dnsCache.getHitRate() : 0;
+	}
+
+	/**
+	 * @return the number of evicted hostnames
+	 */
+	public long getCacheEvictions() {
+		final DnsCache dnsCache = this.dnsCache;
+		return (dnsCache != null) ? dnsCache.getEvictions() : 0;
+	}
+
+	private void updateDnsClient(final Configuration configuration) {
+		if (configuration.getResolver() != ResolverMode.DNS) {
+			if (this.dnsClient != null) {
+				LOG.info("Resolving hostnames with the JVM resolver");
+				this.dnsClient.shutdown();
+				this.dnsClient = null;
+			}
+			return;
+		}
+
+		final List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+
+		if ((configuration.getNameservers() != null)
+				&& !configuration.getNameservers().isEmpty()) {
+			for (final String nameserver : configuration.getNameservers()) {
+				try {
+					servers.add(new InetSocketAddress(
+							InetAddress.getByName(nameserver),
+							DnsClient.DNS_PORT));
+				} catch (final UnknownHostException e) {
+					LOG.error("Failed to resolve name server {}", nameserver,
+							e);
+				}
+			}
+		} else {
+			servers.addAll(
+					DnsClient.readResolvConf(new File("/etc/resolv.conf")));
+		}
+
+		if (servers.isEmpty()) {
+			LOG.error(
+					"No name servers configured or found in /etc/resolv.conf; using the JVM resolver");
+			if (this.dnsClient != null) {
+				this.dnsClient.shutdown();
+				this.dnsClient = null;
+			}
+			return;
+		}
+
+		long timeout = configuration.getDnsTimeout();
+		if (timeout <= 0) {
+			LOG.warn(
+					"DNS timeout must be positive; supplied value: {} ; using default {}",
+					timeout, DnsClient.DEFAULT_TIMEOUT);
+			timeout = DnsClient.DEFAULT_TIMEOUT;
+		}
+
+		final int attempts = configuration.getDnsAttempts();
+		final Map<String, InetAddress[]> hosts = DnsClient
+				.readHosts(new File("/etc/hosts"));
+
+		if ((this.dnsClient != null)
+				&& this.dnsClient.hasSettings(servers, timeout, attempts)) {
+			this.dnsClient.setHosts(hosts);
+			return;
+		}
+
+		final DnsClient newDnsClient;
+		try {
+			newDnsClient = new DnsClient(servers, timeout, attempts,
+					this.executorService);
+		} catch (final IOException e) {
+			LOG.error("Failed to start DNS client", e);
+			return;
+		}
+
+		newDnsClient.setHosts(hosts);
+		this.executorService.execute(newDnsClient);
+
+		final StringBuilder builder = new StringBuilder();
+		for (final InetSocketAddress server : servers) {
+			if (builder.length() > 0) {
+				builder.append(", ");
+			}
+			builder.append(formatSocketAddress(server));
+		}
+		LOG.info("Resolving hostnames with name servers: {}", builder);
+
+		final DnsClient oldDnsClient = this.dnsClient;
+		this.dnsClient = newDnsClient;
+
+		if (oldDnsClient != null) {
+			oldDnsClient.shutdown();
+		}
+	}
+
+	private void updateDnsCache(final Configuration configuration) {
+		final int size = configuration.getDnsCacheSize();
+
+		if (size <= 0) {
+			if (this.dnsCache != null) {
+				LOG.info("DNS cache disabled");
+				this.dnsCache = null;
+			}
+			return;
+		}
+
+		int ttl = configuration.getDnsCacheTtl();
+		if (ttl < 0) {
+			LOG.warn(
+					"DNS cache TTL must not be negative; supplied value: {} ; using default {}",
+					ttl, Configuration.DEFAULT_DNS_CACHE_TTL);
+			ttl = Configuration.DEFAULT_DNS_CACHE_TTL;
+		}
+
+		int negativeTtl = configuration.getDnsNegativeCacheTtl();
+		if (negativeTtl < 0) {
+			LOG.warn(
+					"DNS negative cache TTL must not be negative; supplied value: {} ; using default {}",
+					negativeTtl,
+					Configuration.DEFAULT_DNS_NEGATIVE_CACHE_TTL);
+			negativeTtl = Configuration.DEFAULT_DNS_NEGATIVE_CACHE_TTL;
+		}
+
+		final long ttlMillis = TimeUnit.SECONDS.toMillis(ttl);
+		final long negativeTtlMillis = TimeUnit.SECONDS.toMillis(negativeTtl);
+
+		final Resolver resolver = this.getUncachedResolver();
+
+		if ((this.dnsCache != null) && this.dnsCache.hasSettings(resolver,
+				size, ttlMillis, negativeTtlMillis)) {
+			return;
+		}
+
+		LOG.info("DNS cache of {} hostnames; TTL {} s; negative TTL {} s",
+				size, ttl, negativeTtl);
+
+		this.dnsCache = new DnsCache(resolver, size, ttlMillis,
+				negativeTtlMillis);
+	}
+}
@@ -0,0 +1,362 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.configuration.EgressPolicy;
+import nu.najt.kecon.jsocksproxy.configuration.EgressWeight;
+import nu.najt.kecon.jsocksproxy.configuration.PrefixRotation;
+import nu.najt.kecon.jsocksproxy.egress.AddressPrefix;
+import nu.najt.kecon.jsocksproxy.egress.ConsistentHashStrategy;
+import nu.najt.kecon.jsocksproxy.egress.EgressSelector;
+import nu.najt.kecon.jsocksproxy.egress.EgressStrategy;
+import nu.najt.kecon.jsocksproxy.egress.FirstAddressStrategy;
+import nu.najt.kecon.jsocksproxy.egress.LeastConnectionsStrategy;
+import nu.najt.kecon.jsocksproxy.egress.PortSpace;
+import nu.najt.kecon.jsocksproxy.egress.RoundRobinStrategy;
+import nu.najt.kecon.jsocksproxy.egress.SourceAddress;
+import nu.najt.kecon.jsocksproxy.egress.WeightedStrategy;
+
+/**
+ * Holds the outgoing source addresses, the source port space and the egress
+ * selector of the proxy. The counters of source addresses that remain are
+ * kept when the configuration changes.
+ *
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class EgressHolder {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(EgressHolder.class);
+
+	private List<InetAddress> outgoingSourceAddresses = null;
+
+	private volatile PortSpace portSpace;
+
+	private volatile EgressSelector egressSelector;
+
+	private EgressPolicy egressPolicy;
+
+	/**
+	 * Apply the configuration
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 */
+	public void update(final Configuration configuration) {
+		this.updateOutgoingAddresses(configuration);
+		this.updatePortSpace(configuration);
+		this.updateEgress(configuration);
+	}
+
+	/**
+	 * @return the outgoing addresses
+	 */
+	public List<InetAddress> getOutgoingSourceAddresses() {
+		return this.outgoingSourceAddresses;
+	}
+
+	/**
+	 * @return the source port space, or null before the first update
+	 */
+	public PortSpace getPortSpace() {
+		return this.portSpace;
+	}
+
+	/**
+	 * @return the egress selector, or null before the first update
+	 */
+	public EgressSelector getEgressSelector() {
+		return this.egressSelector;
+	}
+
+	/**
+	 * @return a description of every source address
+	 */
+	public String[] getStatistics() {
+		final List<String> statistics = new ArrayList<String>();
+		final EgressSelector egressSelector = this.egressSelector;
+
+		if (egressSelector != null) {
+			final PortSpace portSpace = egressSelector.getPortSpace();
+
+			for (final SourceAddress sourceAddress : egressSelector
+					.getSourceAddresses()) {
+				statistics.add((portSpace != null) ? String.format(
+						"%s pressure=%.2f", sourceAddress,
+						portSpace.getPressure(sourceAddress.getAddress()))
+						: sourceAddress.toString());
+			}
+		}
+
+		return statistics.toArray(new String[statistics.size()]);
+	}
+
+	/**
+	 * @return the highest source port pressure
+	 */
+	public double getPortPressure() {
+		final PortSpace portSpace = this.portSpace;
+		return (portSpace != null) ? portSpace.getPressure() : 0;
+	}
+
+	/**
+	 * @return the number of connects failing for lack of source ports
+	 */
+	public long getPortExhaustions() {
+		final PortSpace portSpace = this.portSpace;
+		return (portSpace != null) ? portSpace.getExhaustions() : 0;
+	}
+
+	private void updateEgress(final Configuration configuration) {
+		final EgressPolicy egressPolicy = (configuration.getEgress() != null)
+				? configuration.getEgress() : EgressPolicy.FIRST;
+
+		final boolean perClient = configuration
+				.getPrefixRotation() == PrefixRotation.CLIENT;
+
+		// Weights are keyed by address, or by prefix
+		final Map<Object, Integer> weights = new HashMap<Object, Integer>();
+		if (configuration.getEgressWeights() != null) {
+			for (final EgressWeight egressWeight : configuration
+					.getEgressWeights()) {
+				try {
+					weights.put(
+							(egressWeight.getAddress().indexOf('/') >= 0)
+									? AddressPrefix
+											.parse(egressWeight.getAddress())
+									: InetAddress.getByName(
+											egressWeight.getAddress()),
+							egressWeight.getWeight());
+				} catch (final IllegalArgumentException e) {
+					LOG.error("Illegal prefix {}", egressWeight.getAddress(),
+							e);
+				} catch (final UnknownHostException e) {
+					LOG.error("Failed to resolve {}", egressWeight.getAddress(),
+							e);
+				}
+			}
+		}
+
+		// Keep the counters of addresses that remain
+		final Map<Object, SourceAddress> previous = new HashMap<Object, SourceAddress>();
+		final EgressSelector oldEgressSelector = this.egressSelector;
+		if (oldEgressSelector != null) {
+			for (final SourceAddress sourceAddress : oldEgressSelector
+					.getSourceAddresses()) {
+				previous.put((sourceAddress.getPrefix() != null)
+						? sourceAddress.getPrefix()
+						: sourceAddress.getAddress(), sourceAddress);
+			}
+		}
+
+		final List<SourceAddress> sourceAddresses = new ArrayList<SourceAddress>();
+		if (this.outgoingSourceAddresses != null) {
+			for (final InetAddress address : this.outgoingSourceAddresses) {
+				final int weight = weights.containsKey(address)
+						? weights.get(address) : 1;
+				SourceAddress sourceAddress = previous.get(address);
+
+				if (sourceAddress == null) {
+					sourceAddress = new SourceAddress(address, weight);
+				} else {
+					sourceAddress.setWeight(weight);
+				}
+				sourceAddresses.add(sourceAddress);
+			}
+		}
+
+		if (configuration.getOutgoingPrefixes() != null) {
+			for (final String outgoingPrefix : configuration
+					.getOutgoingPrefixes()) {
+				final AddressPrefix prefix;
+				try {
+					prefix = AddressPrefix.parse(outgoingPrefix);
+				} catch (final IllegalArgumentException e) {
+					LOG.error("Illegal prefix {}", outgoingPrefix, e);
+					continue;
+				} catch (final UnknownHostException e) {
+					LOG.error("Illegal prefix {}", outgoingPrefix, e);
+					continue;
+				}
+
+				final int weight = weights.containsKey(prefix)
+						? weights.get(prefix) : 1;
+				SourceAddress sourceAddress = previous.get(prefix);
+
+				if (sourceAddress == null) {
+					LOG.info("Drawing outgoing addresses from {} per {}",
+							prefix, perClient ? "client" : "connection");
+					sourceAddress = new SourceAddress(prefix, weight,
+							perClient);
+				} else {
+					sourceAddress.setWeight(weight);
+					sourceAddress.setPerClient(perClient);
+				}
+				sourceAddresses.add(sourceAddress);
+			}
+		}
+
+		final EgressStrategy strategy;
+		if ((oldEgressSelector != null)
+				&& (this.egressPolicy == egressPolicy)) {
+			strategy = oldEgressSelector.getStrategy();
+		} else {
+			LOG.info("Choosing outgoing addresses by policy {}",
+					egressPolicy.name().toLowerCase());
+			strategy = createEgressStrategy(egressPolicy);
+		}
+
+		this.egressPolicy = egressPolicy;
+		this.egressSelector = new EgressSelector(sourceAddresses, strategy,
+				this.portSpace);
+	}
+
+	private void updatePortSpace(final Configuration configuration) {
+		int firstPort = PortSpace.DEFAULT_FIRST_PORT;
+		int lastPort = PortSpace.DEFAULT_LAST_PORT;
+		boolean managed = false;
+
+		final String sourcePortRange = configuration.getSourcePortRange();
+		if (sourcePortRange != null) {
+			final String[] ports = sourcePortRange.trim().split("-");
+			try {
+				if (ports.length != 2) {
+					throw new NumberFormatException();
+				}
+
+				final int first = Integer.parseInt(ports[0].trim());
+				final int last = Integer.parseInt(ports[1].trim());
+
+				if ((first < 1) || (last > 65535) || (first > last)) {
+					throw new NumberFormatException();
+				}
+
+				firstPort = first;
+				lastPort = last;
+				managed = true;
+			} catch (final NumberFormatException e) {
+				LOG.warn(
+						"Source port range must be first-last; supplied value: {} ; letting the kernel choose",
+						sourcePortRange);
+			}
+		}
+
+		if (!managed) {
+			final int[] range = PortSpace.readEphemeralRange(
+					new File("/proc/sys/net/ipv4/ip_local_port_range"));
+
+			if ((range != null) && (range[0] >= 1) && (range[1] <= 65535)
+					&& (range[0] <= range[1])) {
+				firstPort = range[0];
+				lastPort = range[1];
+			}
+		}
+
+		if ((this.portSpace != null)
+				&& this.portSpace.hasSettings(firstPort, lastPort, managed)) {
+			return;
+		}
+
+		LOG.info("Source ports {}-{} chosen by the {}", firstPort, lastPort,
+				managed ? "proxy" : "kernel");
+
+		this.portSpace = new PortSpace(firstPort, lastPort, managed);
+	}
+
+	private static EgressStrategy createEgressStrategy(
+			final EgressPolicy egressPolicy) {
+		switch (egressPolicy) {
+		case ROUND_ROBIN:
+			return new RoundRobinStrategy();
+		case LEAST_CONNECTIONS:
+			return new LeastConnectionsStrategy();
+		case WEIGHTED:
+			return new WeightedStrategy();
+		case CLIENT_HASH:
+			return new ConsistentHashStrategy(true, false);
+		case DESTINATION_HASH:
+			return new ConsistentHashStrategy(false, true);
+		case CLIENT_DESTINATION_HASH:
+			return new ConsistentHashStrategy(true, true);
+		default:
+			return new FirstAddressStrategy();
+		}
+	}
+
+	private void updateOutgoingAddresses(final Configuration configuration) {
+		if ((configuration.getOutgoingAddresses() != null)
+				&& !configuration.getOutgoingAddresses().isEmpty()) {
+
+			final Set<InetAddress> outgoingAddresses = new LinkedHashSet<InetAddress>();
+
+			for (final String address : configuration.getOutgoingAddresses()) {
+				try {
+					outgoingAddresses.addAll(
+							Arrays.asList(InetAddress.getAllByName(address)));
+				} catch (final UnknownHostException e) {
+					LOG.error("Failed to resolve {}", address, e);
+				}
+			}
+
+			this.outgoingSourceAddresses = new CopyOnWriteArrayList<InetAddress>(
+					outgoingAddresses);
+		}
+
+		if (this.outgoingSourceAddresses == null) {
+			try {
+				this.outgoingSourceAddresses = Collections
+						.singletonList(InetAddress.getLocalHost());
+			} catch (final UnknownHostException e) {
+				// Not much to do if this occur
+			}
+		}
+
+		if (LOG.isInfoEnabled()) {
+			final StringBuilder builder = new StringBuilder();
+			if (this.outgoingSourceAddresses != null) {
+
+				for (final InetAddress inetAddress : this.outgoingSourceAddresses) {
+					if (builder.length() > 0) {
+						builder.append(", ");
+					}
+
+					builder.append(inetAddress.getHostAddress());
+				}
+
+			}
+
+			LOG.info("Using outgoing source addresses: " + builder);
+		}
+	}
+}
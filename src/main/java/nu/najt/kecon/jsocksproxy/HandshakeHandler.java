@@ -0,0 +1,504 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocket;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+
+import nu.najt.kecon.jsocksproxy.dns.Resolver;
+import nu.najt.kecon.jsocksproxy.metrics.ListenerMetrics;
+import nu.najt.kecon.jsocksproxy.metrics.Phase;
+import nu.najt.kecon.jsocksproxy.nio.ChannelHandler;
+import nu.najt.kecon.jsocksproxy.nio.EventLoop;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+import nu.najt.kecon.jsocksproxy.socks4.SocksImplementation4;
+import nu.najt.kecon.jsocksproxy.socks5.AddressType;
+import nu.najt.kecon.jsocksproxy.socks5.Request;
+import nu.najt.kecon.jsocksproxy.socks5.RequestDecoder;
+import nu.najt.kecon.jsocksproxy.socks5.RequestDecoder.State;
+import nu.najt.kecon.jsocksproxy.socks5.SocksImplementation5;
+import nu.najt.kecon.jsocksproxy.socks5.Status;
+
+/**
+ * Non-blocking SOCKS handshake driven by an event loop. The version, the
+ * SOCKS5 method negotiation and the request are decoded without occupying a
+ * thread. When the request is complete the connection is handed to a SOCKS
+ * implementation on the executor, which connects and replies. If the
+ * resolver is asynchronous a requested hostname is resolved before the hand
+ * over, so no thread waits for the answer.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class HandshakeHandler implements ChannelHandler {
+
+	private static final long HANDSHAKE_TIMEOUT = 60000;
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private static final byte[] NO_AUTHENTICATION = { 0x05, 0x00 };
+
+	private static final byte[] NO_ACCEPTABLE_METHODS = { 0x05, (byte) 0xff };
+
+	private static final byte SOCKS4_REQUEST_REJECTED = 0x5b;
+
+	private final ConfigurationFacade configurationFacade;
+
+	private final Executor executor;
+
+	private final RelayEngine relayEngine;
+
+	private final AdmissionControl admissionControl;
+
+	private final Logger logger;
+
+	private final SocketChannel channel;
+
+	private final ByteBuffer inputBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private ByteBuffer outputBuffer;
+
+	private EventLoop eventLoop;
+
+	private SelectionKey key;
+
+	private long deadline;
+
+	private long started;
+
+	private int version = -1;
+
+	private nu.najt.kecon.jsocksproxy.socks4.RequestDecoder socks4Decoder;
+
+	private RequestDecoder socks5Decoder;
+
+	private boolean methodsReplied = false;
+
+	private boolean complete = false;
+
+	private boolean closeAfterWrite = false;
+
+	private boolean closed = false;
+
+	private boolean submitted = false;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param executor
+	 *            the executor for the SOCKS implementations
+	 * @param relayEngine
+	 *            the relay engine
+	 * @param admissionControl
+	 *            the admission control, or null to run every connection
+	 * @param logger
+	 *            the logger
+	 * @param channel
+	 *            the accepted client channel
+	 */
+	public HandshakeHandler(final ConfigurationFacade configurationFacade,
+			final Executor executor, final RelayEngine relayEngine,
+			final AdmissionControl admissionControl, final Logger logger,
+			final SocketChannel channel) {
+		this.configurationFacade = configurationFacade;
+		this.executor = executor;
+		this.relayEngine = relayEngine;
+		this.admissionControl = admissionControl;
+		this.logger = logger;
+		this.channel = channel;
+	}
+
+	@Override
+	public void register(final EventLoop eventLoop) throws IOException {
+		this.eventLoop = eventLoop;
+		this.started = System.nanoTime();
+		this.deadline = System.currentTimeMillis()
+				+ HandshakeHandler.HANDSHAKE_TIMEOUT;
+
+		this.channel.configureBlocking(false);
+		this.key = this.channel.register(eventLoop.getSelector(),
+				SelectionKey.OP_READ, this);
+	}
+
+	@Override
+	public void handle(final SelectionKey key) {
+		try {
+			if (key.isValid() && key.isWritable()) {
+				this.flush();
+			}
+
+			if (key.isValid() && key.isReadable()) {
+				if (this.channel.read(this.inputBuffer) < 0) {
+					this.close();
+					return;
+				}
+
+				this.inputBuffer.flip();
+				try {
+					this.decode();
+				} finally {
+					this.inputBuffer.compact();
+				}
+
+				this.flush();
+			}
+
+			if (this.closed) {
+				return;
+			}
+
+			if (this.outputBuffer == null) {
+				if (this.closeAfterWrite) {
+					this.close();
+				} else if (this.complete) {
+					this.handOver();
+				} else if (!this.inputBuffer.hasRemaining()) {
+					this.logger.info("Too large handshake from {}",
+							formatSocket(this.channel.socket()));
+					this.close();
+				} else {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} else {
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		} catch (final IOException e) {
+			this.close();
+		}
+	}
+
+	@Override
+	public boolean isExpired(final long currentTimeMillis) {
+		return currentTimeMillis > this.deadline;
+	}
+
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+
+		this.closed = true;
+
+		if (this.key != null) {
+			this.key.cancel();
+		}
+
+		// A submitted implementation ends the handshake itself
+		final ListenerMetrics listenerMetrics = this.configurationFacade
+				.getListenerMetrics();
+		if (!this.submitted && (listenerMetrics != null)) {
+			listenerMetrics.handshakeEnded();
+		}
+
+		try {
+			this.channel.close();
+		} catch (final IOException e) {
+		}
+	}
+
+	private void decode() {
+		if (this.version < 0) {
+			if (!this.inputBuffer.hasRemaining()) {
+				return;
+			}
+
+			this.version = this.inputBuffer.get();
+
+			if ((this.version == 0x04)
+					&& this.configurationFacade.isAllowSocks4()) {
+				this.socks4Decoder = new nu.najt.kecon.jsocksproxy.socks4.RequestDecoder();
+			} else if ((this.version == 0x05)
+					&& this.configurationFacade.isAllowSocks5()) {
+				this.socks5Decoder = new RequestDecoder();
+			} else {
+				this.logger.info("Unknown or denied SOCKS version 0x{} from {}",
+						Integer.toHexString(this.version),
+						formatSocket(this.channel.socket()));
+				this.close();
+				return;
+			}
+		}
+
+		if (this.socks4Decoder != null) {
+			this.decodeSocks4();
+		} else {
+			this.decodeSocks5();
+		}
+	}
+
+	private void decodeSocks4() {
+		try {
+			this.complete = this.socks4Decoder
+					.decode(this.inputBuffer) != null;
+		} catch (final IllegalCommandException | ProtocolException e) {
+			this.logger.info("Illegal request", e);
+			this.handshakeFailed(HandshakeHandler.SOCKS4_REQUEST_REJECTED);
+			this.reply(new byte[] { 0x00,
+					HandshakeHandler.SOCKS4_REQUEST_REJECTED, -1, -1, 0x00,
+					0x00, 0x00, 0x00 });
+			this.closeAfterWrite = true;
+		}
+	}
+
+	private void decodeSocks5() {
+		try {
+			final State state = this.socks5Decoder.decode(this.inputBuffer);
+
+			if ((state != State.METHODS) && !this.methodsReplied) {
+				this.methodsReplied = true;
+
+				if (this.socks5Decoder.isNoAuthenticationOffered()) {
+					this.reply(HandshakeHandler.NO_AUTHENTICATION);
+				} else {
+					this.logger.info(
+							"No supported authentication methods specified");
+					this.handshakeFailed(HandshakeHandler.NO_ACCEPTABLE_METHODS[1]);
+					this.reply(HandshakeHandler.NO_ACCEPTABLE_METHODS);
+					this.closeAfterWrite = true;
+					return;
+				}
+			}
+
+			this.complete = state == State.COMPLETE;
+		} catch (final ProtocolException | IllegalCommandException e) {
+			this.replySocks5Failure(Status.COMMAND_NOT_SUPPORTED);
+		} catch (final IllegalAddressTypeException e) {
+			this.replySocks5Failure(Status.ADDRESS_TYPE_NOT_SUPPORTED);
+		}
+	}
+
+	private void replySocks5Failure(final Status status) {
+		this.logger.info("Client failed to connect, result 0x{} {}",
+				Integer.toHexString(status.getValue()), status);
+		this.handshakeFailed(status.getValue());
+
+		// The failing request may have been pipelined with the greeting
+		if (!this.methodsReplied) {
+			this.methodsReplied = true;
+			this.reply(HandshakeHandler.NO_AUTHENTICATION);
+		}
+
+		this.reply(new byte[] { 0x05, status.getValue(), 0x00, 0x01, 0x00,
+				0x00, 0x00, 0x00, 0x00, 0x00 });
+		this.closeAfterWrite = true;
+	}
+
+	/**
+	 * Count a request replied to with a failure
+	 */
+	private void handshakeFailed(final int replyCode) {
+		final ListenerMetrics listenerMetrics = this.configurationFacade
+				.getListenerMetrics();
+
+		if (listenerMetrics != null) {
+			listenerMetrics.handshakeFailed(this.version, replyCode);
+		}
+	}
+
+	/**
+	 * Record the latency of a phase from its start until now
+	 */
+	private void recordLatency(final Phase phase, final long start) {
+		final ListenerMetrics listenerMetrics = this.configurationFacade
+				.getListenerMetrics();
+
+		if (listenerMetrics != null) {
+			listenerMetrics.recordLatency(phase, start);
+		}
+	}
+
+	private void reply(final byte[] data) {
+		if (this.outputBuffer == null) {
+			this.outputBuffer = ByteBuffer.wrap(data);
+		} else {
+			final ByteBuffer buffer = ByteBuffer
+					.allocate(this.outputBuffer.remaining() + data.length);
+			buffer.put(this.outputBuffer);
+			buffer.put(data);
+			buffer.flip();
+			this.outputBuffer = buffer;
+		}
+	}
+
+	private void flush() throws IOException {
+		if (this.outputBuffer == null) {
+			return;
+		}
+
+		this.channel.write(this.outputBuffer);
+
+		if (!this.outputBuffer.hasRemaining()) {
+			this.outputBuffer = null;
+		}
+	}
+
+	/**
+	 * Hand the decoded request to a SOCKS implementation. The channel is
+	 * switched back to blocking mode on the next loop iteration, when the
+	 * cancelled key has been deregistered.
+	 */
+	private void handOver() {
+		this.key.cancel();
+		this.recordLatency(Phase.GREETING, this.started);
+
+		this.inputBuffer.flip();
+		final byte[] earlyData = new byte[this.inputBuffer.remaining()];
+		this.inputBuffer.get(earlyData);
+
+		final AbstractSocksImplementation implementation = this
+				.createImplementation(earlyData);
+		final String hostname = this.getRequestedHostname();
+		final Resolver resolver = this.configurationFacade.getResolver();
+
+		if ((hostname == null) || (resolver == null)
+				|| !resolver.isAsynchronous()) {
+			this.eventLoop.execute(new HandOver(implementation));
+			return;
+		}
+
+		final long start = System.nanoTime();
+		resolver.resolveAsync(hostname)
+				.whenComplete(new BiConsumer<InetAddress[], Throwable>() {
+
+					@Override
+					public void accept(final InetAddress[] addresses,
+							final Throwable throwable) {
+						HandshakeHandler.this.recordLatency(Phase.RESOLVE,
+								start);
+
+						// A failed lookup is repeated and replied to by the
+						// implementation
+						if (addresses != null) {
+							implementation.setResolvedAddresses(hostname,
+									addresses);
+						}
+
+						try {
+							HandshakeHandler.this.eventLoop
+									.execute(new HandOver(implementation));
+						} catch (final RejectedExecutionException e) {
+							HandshakeHandler.this.close();
+						}
+					}
+				});
+	}
+
+	/**
+	 * @return the hostname of a SOCKS5 domain or SOCKS4a request, or null
+	 */
+	private String getRequestedHostname() {
+		if (this.socks4Decoder != null) {
+			return this.socks4Decoder.getRequest().getHostname();
+		}
+
+		final Request request = this.socks5Decoder.getRequest();
+
+		if (request.getAddressType() == AddressType.DOMAIN) {
+			return new String(request.getHostname(),
+					StandardCharsets.US_ASCII);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Run the SOCKS implementation, or reject the request if the admission
+	 * control does not allow more connections
+	 */
+	private void submit(final SocksImplementation implementation)
+			throws IOException {
+		if (this.admissionControl == null) {
+			this.executor.execute(implementation);
+			this.submitted = true;
+			return;
+		}
+
+		if (this.admissionControl.submit(implementation, false)) {
+			this.submitted = true;
+			return;
+		}
+
+		this.logger.warn("Too many connections, rejected {}",
+				formatSocket(this.channel.socket()));
+
+		if (this.socks4Decoder != null) {
+			this.handshakeFailed(HandshakeHandler.SOCKS4_REQUEST_REJECTED);
+			this.channel.write(ByteBuffer.wrap(new byte[] { 0x00,
+					HandshakeHandler.SOCKS4_REQUEST_REJECTED, 0x00, 0x00, 0x00,
+					0x00, 0x00, 0x00 }));
+		} else {
+			this.handshakeFailed(
+					Status.GENERAL_SOCKS_SERVER_FAILURE.getValue());
+			this.channel.write(ByteBuffer.wrap(new byte[] { 0x05,
+					Status.GENERAL_SOCKS_SERVER_FAILURE.getValue(), 0x00, 0x01,
+					0x00, 0x00, 0x00, 0x00, 0x00, 0x00 }));
+		}
+
+		this.close();
+	}
+
+	private AbstractSocksImplementation createImplementation(
+			final byte[] earlyData) {
+		if (this.socks4Decoder != null) {
+			return new SocksImplementation4(this.configurationFacade,
+					this.channel.socket(), this.executor, this.relayEngine,
+					this.socks4Decoder.getRequest(), earlyData);
+		}
+
+		return new SocksImplementation5(this.configurationFacade,
+				this.channel.socket(), this.executor, this.relayEngine,
+				this.socks5Decoder.getRequest(), earlyData);
+	}
+
+	/**
+	 * Switch the channel back to blocking mode and submit the implementation,
+	 * run on the event loop
+	 */
+	private final class HandOver implements Runnable {
+
+		private final SocksImplementation implementation;
+
+		private HandOver(final SocksImplementation implementation) {
+			this.implementation = implementation;
+		}
+
+		@Override
+		public void run() {
+			try {
+				HandshakeHandler.this.channel.configureBlocking(true);
+				HandshakeHandler.this.submit(this.implementation);
+			} catch (final IOException | RejectedExecutionException e) {
+				HandshakeHandler.this.logger
+						.info("Failed to hand over connection", e);
+				HandshakeHandler.this.close();
+			}
+		}
+	}
+}
@@ -1,498 +1,986 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-import java.io.File;
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.URI;
-import java.net.URL;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import javax.naming.InitialContext;
-import javax.naming.Name;
-import javax.naming.NamingException;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
-
-import nu.najt.kecon.jsocksproxy.configuration.Configuration;
-import nu.najt.kecon.jsocksproxy.configuration.Listen;
-import static nu.najt.kecon.jsocksproxy.utils.StringUtils.*;
-
-/**
- * This SOCKS proxy supports basic unauthenticated v4 and v5 versions.
- * 
- * @author Kenny Colliander Nordin
- */
-public class JSocksProxy
-		implements JSocksProxyMBean, ConfigurationFacade, Runnable {
-
-	private static final String VERSION = (JSocksProxy.class.getPackage()
-			.getImplementationVersion() != null)
-					? JSocksProxy.class.getPackage().getImplementationVersion()
-					: "n/a";
-
-	private static final JSocksProxy SINGLETON = new JSocksProxy();;
-
-	public static final String CONFIGURATION_XML = "jsocksproxy.xml";
-
-	private static final Logger LOG = LoggerFactory
-			.getLogger(JSocksProxy.class);
-
-	private final List<InetSocketAddress> listeningAddresses = new ArrayList<InetSocketAddress>();
-
-	private final List<ListeningThread> listeningThreads = new CopyOnWriteArrayList<ListeningThread>();
-
-	private final ExecutorService executorService = Executors
-			.newCachedThreadPool();
-
-	private List<InetAddress> outgoingSourceAddresses = null;
-
-	private int backlog = 100;
-
-	private long configurationFileModified = -1;
-
-	private final AtomicBoolean canRun = new AtomicBoolean(Boolean.FALSE);
-
-	private Configuration configuration;
-
-	public static final long RELOAD_INTERVAL = 60000;
-
-	private String jndiName;
-
-	private String configurationBasePathPropertyKey;
-
-	private final Map<String, Object> contextMap = new HashMap<String, Object>();
-
-	/**
-	 * The main method for this SocksImplementation.
-	 * 
-	 * @param args
-	 *            A String[] containing startup parameters.
-	 */
-	public static void main(final String args[]) {
-		JSocksProxy.startService();
-	}
-
-	@Override
-	public String getJndiName() {
-		return this.jndiName;
-	}
-
-	@Override
-	public void setJndiName(final String jndiName) throws NamingException {
-
-		final String oldName = this.jndiName;
-		this.jndiName = jndiName;
-		if (this.canRun.get()) {
-			this.unbind(oldName);
-			try {
-				this.rebind();
-			} catch (final Exception e) {
-				final NamingException ne = new NamingException(
-						"Failed to update jndiName");
-				ne.setRootCause(e);
-				throw ne;
-			}
-		}
-	}
-
-	@Override
-	public String getConfigurationBasePathPropertyKey() {
-		return this.configurationBasePathPropertyKey;
-	}
-
-	@Override
-	public void setConfigurationBasePathPropertyKey(
-			final String configurationBasePathPropertyKey) {
-		this.configurationBasePathPropertyKey = configurationBasePathPropertyKey;
-	}
-
-	/**
-	 * Static start method
-	 */
-	public static void startService() {
-		JSocksProxy.SINGLETON.start();
-	}
-
-	/**
-	 * Static stop method
-	 */
-	public static void stopService() {
-		JSocksProxy.SINGLETON.stop();
-	}
-
-	/**
-	 * Start method
-	 */
-	@Override
-	public void start() {
-		this.executorService.execute(this);
-	}
-
-	/**
-	 * Stop method
-	 */
-	@Override
-	public void stop() {
-
-		synchronized (this) {
-			this.canRun.getAndSet(Boolean.FALSE);
-			this.notifyAll();
-
-			this.unbind(this.jndiName);
-		}
-	}
-
-	@Override
-	public void run() {
-		MDC.setContextMap(Collections.emptyMap());
-
-		LOG.info("Starting SOCKS Proxy {}", JSocksProxy.VERSION);
-
-		synchronized (this) {
-			if (this.canRun.getAndSet(Boolean.TRUE)) {
-				throw new IllegalStateException("Server is already running");
-			}
-
-			try {
-				this.rebind();
-			} catch (final NamingException e) {
-				LOG.info("Failed to bind MBean", e);
-			}
-
-			while (this.canRun.get()) {
-				try {
-					this.readConfiguration();
-					this.checkListeningThreads();
-					this.wait(JSocksProxy.RELOAD_INTERVAL);
-				} catch (final InterruptedException e) {
-				}
-			}
-		}
-
-		for (final ListeningThread listeningThread : this.listeningThreads) {
-			listeningThread.shutdown();
-		}
-
-		this.listeningThreads.clear();
-
-		LOG.info("Shutdown SOCKS Proxy");
-	}
-
-	/**
-	 * Rebind MBean
-	 * 
-	 * @throws NamingException
-	 */
-	private void rebind() throws NamingException {
-		final InitialContext rootCtx = new InitialContext();
-		final Name name = rootCtx.getNameParser("").parse(this.jndiName);
-
-		rootCtx.rebind(name, this.contextMap);
-	}
-
-	/**
-	 * Unbind MBean
-	 * 
-	 * @param jndiName
-	 *            the jndiName
-	 */
-	private void unbind(final String jndiName) {
-		try {
-			final InitialContext rootCtx = new InitialContext();
-			rootCtx.unbind(jndiName);
-		} catch (final NamingException e) {
-			LOG.info("Failed to unbind MBean", e);
-		}
-	}
-
-	/**
-	 * Check that the listeningAddresses property matches all binding threads.
-	 */
-	protected void checkListeningThreads() {
-
-		final List<ListeningThread> threadsForRemoval = new ArrayList<ListeningThread>();
-
-		for (final ListeningThread listeningThread : this.listeningThreads) {
-			threadsForRemoval.add(listeningThread);
-		}
-
-		for (final InetSocketAddress inetSocketAddress : this.listeningAddresses) {
-			boolean found = false;
-			for (final ListeningThread listeningThread : this.listeningThreads) {
-
-				if (listeningThread.getInetSocketAddress()
-						.equals(inetSocketAddress)) {
-					found = true;
-					threadsForRemoval.remove(listeningThread);
-					break;
-				}
-			}
-
-			if (!found) {
-				try {
-					final ListeningThread listeningThread = new ListeningThread(
-							this, LOG, executorService, inetSocketAddress);
-
-					this.listeningThreads.add(listeningThread);
-
-					executorService.execute(listeningThread);
-
-				} catch (final IOException e) {
-					LOG.error("Failed to setup listening address for {}",
-							formatSocketAddress(inetSocketAddress), e);
-				}
-			}
-		}
-
-		for (final ListeningThread listeningThread : threadsForRemoval) {
-			listeningThread.shutdown();
-			this.listeningThreads.remove(listeningThread);
-		}
-	}
-
-	/**
-	 * Reading and update configuration from configuration.xml
-	 */
-	protected void readConfiguration() {
-
-		final File file;
-		URI basePath = this.getBasePath();
-
-		file = this.getConfigurationFile(basePath);
-
-		if (!file.isFile()) {
-			LOG.error("Failed to read configuration from {}",
-					file.getAbsolutePath());
-			return;
-		}
-
-		if (file.lastModified() == this.configurationFileModified) {
-			return;
-		}
-
-		LOG.trace("Reading configuration");
-
-		this.readConfigurationFromFile(file);
-
-		this.configurationFileModified = file.lastModified();
-
-		if (this.configuration == null) {
-			LOG.error("No configuration read from {}",
-					JSocksProxy.CONFIGURATION_XML);
-			return;
-		}
-
-		this.listeningAddresses.clear();
-		this.updateOutgoingAddresses();
-		this.updateListenAddresses();
-		this.updateBacklog();
-	}
-
-	private void updateBacklog() {
-		if ((this.configuration.getBacklog() <= 0)
-				|| (this.configuration.getBacklog() > 100)) {
-			LOG.warn(
-					"Backlog value must be between 0 and 101; supplied value: {} ; using default 100",
-					this.configuration.getBacklog());
-			this.backlog = 100;
-		} else {
-			this.backlog = this.configuration.getBacklog();
-			LOG.info("Using backlog {}", this.backlog);
-		}
-	}
-
-	private void updateListenAddresses() {
-		for (final Listen listen : this.configuration.getListen()) {
-
-			int port = -1;
-			InetAddress address = null;
-
-			try {
-				address = InetAddress.getByName(listen.getAddress());
-			} catch (final UnknownHostException e) {
-				LOG.error("Failed to resolve {}", listen.getAddress(), e);
-				continue;
-			}
-
-			port = listen.getPort();
-			if ((port <= 0) || (port >= 65536)) {
-				LOG.error("Invalid port number: {}", port);
-				continue;
-			}
-
-			try {
-				final InetSocketAddress inetSocketAddress = new InetSocketAddress(
-						address, port);
-				this.listeningAddresses.add(inetSocketAddress);
-
-				LOG.info("Added listening address ",
-						formatSocketAddress(inetSocketAddress));
-
-			} catch (final IllegalArgumentException e) {
-				LOG.error("Failed to create address {}:{}",
-						listen.getAddress(), listen.getPort(), e);
-				continue;
-			}
-		}
-	}
-
-	private void updateOutgoingAddresses() {
-		if ((this.configuration.getOutgoingAddresses() != null)
-				&& !this.configuration.getOutgoingAddresses().isEmpty()) {
-
-			final Set<InetAddress> outgoingAddresses = new HashSet<InetAddress>();
-
-			for (final String address : this.configuration
-					.getOutgoingAddresses()) {
-				try {
-					outgoingAddresses.addAll(
-							Arrays.asList(InetAddress.getAllByName(address)));
-				} catch (final UnknownHostException e) {
-					LOG.error("Failed to resolve {}", address, e);
-				}
-			}
-
-			this.outgoingSourceAddresses = new CopyOnWriteArrayList<InetAddress>(
-					outgoingAddresses);
-		}
-
-		if (this.outgoingSourceAddresses == null) {
-			try {
-				this.outgoingSourceAddresses = Collections
-						.singletonList(InetAddress.getLocalHost());
-			} catch (final UnknownHostException e) {
-				// Not much to do if this occur
-			}
-		}
-
-		if (LOG.isInfoEnabled()) {
-			final StringBuilder builder = new StringBuilder();
-			if (this.outgoingSourceAddresses != null) {
-
-				for (final InetAddress inetAddress : this.outgoingSourceAddresses) {
-					if (builder.length() > 0) {
-						builder.append(", ");
-					}
-
-					builder.append(inetAddress.getHostAddress());
-				}
-
-			}
-
-			LOG.info("Using outgoing source addresses: " + builder);
-		}
-	}
-
-	private void readConfigurationFromFile(final File file) {
-		try {
-			final JAXBContext context = JAXBContext
-					.newInstance(Configuration.class);
-			final Unmarshaller unmarshaller = context.createUnmarshaller();
-
-			this.configuration = (Configuration) unmarshaller.unmarshal(file);
-
-		} catch (final JAXBException e) {
-			LOG.error("Failed to read configuration", e);
-		}
-	}
-
-	private File getConfigurationFile(URI basePath) {
-		final File file;
-		if (basePath == null) {
-			file = new File(JSocksProxy.CONFIGURATION_XML);
-		} else {
-
-			final File basePathFile = new File(basePath);
-
-			if (basePathFile.isDirectory()) {
-				file = new File(basePathFile, JSocksProxy.CONFIGURATION_XML);
-			} else {
-				file = basePathFile;
-			}
-		}
-		return file;
-	}
-
-	private URI getBasePath() {
-		URI uri = null;
-		if (this.configurationBasePathPropertyKey != null) {
-			try {
-				uri = new URL(System
-						.getProperty(this.configurationBasePathPropertyKey))
-								.toURI();
-			} catch (final Exception e) {
-			}
-		}
-		return uri;
-	}
-
-	/**
-	 * @return the outgoing address
-	 */
-	@Override
-	public List<InetAddress> getOutgoingSourceAddresses() {
-		return this.outgoingSourceAddresses;
-	}
-
-	/**
-	 * @return true if usage of SOCKS4 is allowed
-	 */
-	@Override
-	public boolean isAllowSocks4() {
-		if (this.configuration == null) {
-			return false;
-		}
-
-		return this.configuration.isAllowSocks4();
-	}
-
-	/**
-	 * @return true if usage of SOCKS5 is allowed
-	 */
-	@Override
-	public boolean isAllowSocks5() {
-		if (this.configuration == null) {
-			return false;
-		}
-
-		return this.configuration.isAllowSocks5();
-	}
-
-	@Override
-	public int getBacklog() {
-		return this.backlog;
-	}
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.naming.InitialContext;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import nu.najt.kecon.jsocksproxy.configuration.AdmissionPolicy;
+import nu.najt.kecon.jsocksproxy.configuration.BufferMode;
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.configuration.Listen;
+import nu.najt.kecon.jsocksproxy.configuration.RelayMode;
+import nu.najt.kecon.jsocksproxy.configuration.ThreadMode;
+import nu.najt.kecon.jsocksproxy.connect.ConnectionRacer;
+import nu.najt.kecon.jsocksproxy.connect.DestinationGuard;
+import nu.najt.kecon.jsocksproxy.dns.Resolver;
+import nu.najt.kecon.jsocksproxy.egress.EgressSelector;
+import nu.najt.kecon.jsocksproxy.metrics.MetricsRegistry;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+import nu.najt.kecon.jsocksproxy.utils.BufferPool;
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+import nu.najt.kecon.jsocksproxy.utils.ExecutorUtils;
+import nu.najt.kecon.jsocksproxy.utils.SocketUtils;
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.*;
+
+/**
+ * This SOCKS proxy supports basic unauthenticated v4 and v5 versions.
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class JSocksProxy
+		implements JSocksProxyMBean, ConfigurationFacade, Runnable {
+
+	private static final String VERSION = (JSocksProxy.class.getPackage()
+			.getImplementationVersion() != null)
+					? JSocksProxy.class.getPackage().getImplementationVersion()
+					: "n/a";
+
+	private static final JSocksProxy SINGLETON = new JSocksProxy();;
+
+	public static final String CONFIGURATION_XML = "jsocksproxy.xml";
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JSocksProxy.class);
+
+	private final Map<InetSocketAddress, ListenerConfiguration> listeningAddresses = new LinkedHashMap<InetSocketAddress, ListenerConfiguration>();
+
+	private final List<ListeningThread> listeningThreads = new CopyOnWriteArrayList<ListeningThread>();
+
+	private final ExecutorService executorService = Executors
+			.newCachedThreadPool();
+
+	private ExecutorService connectionExecutorService;
+
+	private ThreadMode threadMode;
+
+	private AdmissionControl admissionControl;
+
+	private final DnsHolder dns = new DnsHolder(this.executorService);
+
+	private final EgressHolder egress = new EgressHolder();
+
+	private final ConnectHolder connect = new ConnectHolder();
+
+	private final BufferPoolHolder bufferPool = new BufferPoolHolder(
+			BufferPool.getInstance());
+
+	private final MetricsHolder metrics = new MetricsHolder(this);
+
+	private RelayEngine relayEngine;
+
+	private int backlog = 100;
+
+	private long configurationFileModified = -1;
+
+	private final AtomicBoolean canRun = new AtomicBoolean(Boolean.FALSE);
+
+	private Configuration configuration;
+
+	public static final long RELOAD_INTERVAL = 60000;
+
+	private String jndiName;
+
+	private String configurationBasePathPropertyKey;
+
+	private final Map<String, Object> contextMap = new HashMap<String, Object>();
+
+	/**
+	 * The main method for this SocksImplementation.
+	 * 
+	 * @param args
+	 *            A String[] containing startup parameters.
+	 */
+	public static void main(final String args[]) {
+		JSocksProxy.startService();
+	}
+
+	@Override
+	public String getJndiName() {
+		return this.jndiName;
+	}
+
+	@Override
+	public void setJndiName(final String jndiName) throws NamingException {
+
+		final String oldName = this.jndiName;
+		this.jndiName = jndiName;
+		if (this.canRun.get()) {
+			this.unbind(oldName);
+			try {
+				this.rebind();
+			} catch (final Exception e) {
+				final NamingException ne = new NamingException(
+						"Failed to update jndiName");
+				ne.setRootCause(e);
+				throw ne;
+			}
+		}
+	}
+
+	@Override
+	public String getConfigurationBasePathPropertyKey() {
+		return this.configurationBasePathPropertyKey;
+	}
+
+	@Override
+	public void setConfigurationBasePathPropertyKey(
+			final String configurationBasePathPropertyKey) {
+		this.configurationBasePathPropertyKey = configurationBasePathPropertyKey;
+	}
+
+	@Override
+	public String[] getAcceptorStatistics() {
+		final List<String> statistics = new ArrayList<String>();
+
+		for (final ListeningThread listeningThread : this.listeningThreads) {
+			statistics.add(String.format("%s accepted=%d rate=%.2f/s",
+					formatSocketAddress(listeningThread.getInetSocketAddress()),
+					listeningThread.getAcceptedConnections(),
+					listeningThread.getAcceptRate()));
+		}
+
+		return statistics.toArray(new String[statistics.size()]);
+	}
+
+	@Override
+	public String[] getEgressStatistics() {
+		return this.egress.getStatistics();
+	}
+
+	@Override
+	public double getPortPressure() {
+		return this.egress.getPortPressure();
+	}
+
+	@Override
+	public long getPortExhaustions() {
+		return this.egress.getPortExhaustions();
+	}
+
+	@Override
+	public DestinationGuard getDestinationGuard() {
+		return this.connect.getDestinationGuard();
+	}
+
+	@Override
+	public String[] getUnreachableDestinations() {
+		return this.getDestinationGuard().getUnreachableDestinations();
+	}
+
+	@Override
+	public long getFastFailedConnects() {
+		return this.getDestinationGuard().getFastFailures();
+	}
+
+	@Override
+	public long getDestinationLimitedConnects() {
+		return this.getDestinationGuard().getLimited();
+	}
+
+	@Override
+	public long getDestinationProbes() {
+		return this.getDestinationGuard().getProbes();
+	}
+
+	@Override
+	public long getAcceptedConnections() {
+		return this.metrics.getRegistry().getAcceptedConnections();
+	}
+
+	@Override
+	public long getActiveHandshakes() {
+		return this.metrics.getRegistry().getActiveHandshakes();
+	}
+
+	@Override
+	public long getActiveTunnels() {
+		return this.metrics.getRegistry().getActiveTunnels();
+	}
+
+	@Override
+	public long getBytesUpstream() {
+		return this.metrics.getRegistry().getBytesUpstream();
+	}
+
+	@Override
+	public long getBytesDownstream() {
+		return this.metrics.getRegistry().getBytesDownstream();
+	}
+
+	@Override
+	public String[] getHandshakeFailures() {
+		return this.metrics.getRegistry().getHandshakeFailures();
+	}
+
+	@Override
+	public String[] getLatencies() {
+		return this.metrics.getRegistry().getLatencies();
+	}
+
+	@Override
+	public String[] getDestinationStates() {
+		return this.getDestinationGuard().getDestinationStates();
+	}
+
+	@Override
+	public long getShedConnects() {
+		return this.getDestinationGuard().getShed();
+	}
+
+	@Override
+	public long getBufferPoolAllocatedMemory() {
+		return this.bufferPool.getBufferPool().getAllocatedMemory();
+	}
+
+	@Override
+	public long getBufferPoolPooledMemory() {
+		return this.bufferPool.getBufferPool().getPooledMemory();
+	}
+
+	@Override
+	public long getBufferPoolAcquisitions() {
+		return this.bufferPool.getBufferPool().getAcquisitions();
+	}
+
+	@Override
+	public long getBufferPoolReuses() {
+		return this.bufferPool.getBufferPool().getReuses();
+	}
+
+	@Override
+	public long getBufferPoolHeapAllocations() {
+		return this.bufferPool.getBufferPool().getHeapAllocations();
+	}
+
+	@Override
+	public long getBufferPoolLeaks() {
+		return this.bufferPool.getBufferPool().getLeaks();
+	}
+
+	@Override
+	public Resolver getResolver() {
+		return this.dns.getResolver();
+	}
+
+	@Override
+	public long getDnsLookups() {
+		return this.dns.getLookups();
+	}
+
+	@Override
+	public long getDnsCoalescedLookups() {
+		return this.dns.getCoalescedLookups();
+	}
+
+	@Override
+	public int getDnsCacheSize() {
+		return this.dns.getCacheSize();
+	}
+
+	@Override
+	public long getDnsCacheHits() {
+		return this.dns.getCacheHits();
+	}
+
+	@Override
+	public long getDnsCacheMisses() {
+		return this.dns.getCacheMisses();
+	}
+
+	@Override
+	public double getDnsCacheHitRate() {
+		return this.dns.getCacheHitRate();
+	}
+
+	@Override
+	public long getDnsCacheEvictions() {
+		return this.dns.getCacheEvictions();
+	}
+
+	@Override
+	public EgressSelector getEgressSelector() {
+		return this.egress.getEgressSelector();
+	}
+
+	@Override
+	public ConnectionRacer getConnectionRacer() {
+		return this.connect.getConnectionRacer();
+	}
+
+	@Override
+	public long getOutgoingConnects() {
+		return this.getConnectionRacer().getConnects();
+	}
+
+	@Override
+	public long getFailedOutgoingConnects() {
+		return this.getConnectionRacer().getFailures();
+	}
+
+	@Override
+	public long getConnectAttempts() {
+		return this.getConnectionRacer().getAttempts();
+	}
+
+	@Override
+	public long getCancelledConnectAttempts() {
+		return this.getConnectionRacer().getCancelled();
+	}
+
+	@Override
+	public double getAverageConnectTime() {
+		return this.getConnectionRacer().getAverageConnectTime();
+	}
+
+	@Override
+	public String getPreferredAddressFamily() {
+		return this.getConnectionRacer().isPreferIpv6() ? "IPv6" : "IPv4";
+	}
+
+	@Override
+	public int getRunningConnections() {
+		final AdmissionControl admissionControl = this.admissionControl;
+		return (admissionControl != null) ? admissionControl.getRunning() : 0;
+	}
+
+	@Override
+	public int getQueuedConnections() {
+		final AdmissionControl admissionControl = this.admissionControl;
+		return (admissionControl != null) ? admissionControl.getQueued() : 0;
+	}
+
+	@Override
+	public long getRejectedConnections() {
+		final AdmissionControl admissionControl = this.admissionControl;
+		return (admissionControl != null) ? admissionControl.getRejected()
+				: 0;
+	}
+
+	/**
+	 * Static start method
+	 */
+	public static void startService() {
+		JSocksProxy.SINGLETON.start();
+	}
+
+	/**
+	 * Static stop method
+	 */
+	public static void stopService() {
+		JSocksProxy.SINGLETON.stop();
+	}
+
+	/**
+	 * Start method
+	 */
+	@Override
+	public void start() {
+		this.executorService.execute(this);
+	}
+
+	/**
+	 * Stop method
+	 */
+	@Override
+	public void stop() {
+
+		synchronized (this) {
+			this.canRun.getAndSet(Boolean.FALSE);
+			this.notifyAll();
+
+			this.unbind(this.jndiName);
+		}
+	}
+
+	@Override
+	public void run() {
+		MDC.setContextMap(Collections.emptyMap());
+
+		LOG.info("Starting SOCKS Proxy {}", JSocksProxy.VERSION);
+
+		synchronized (this) {
+			if (this.canRun.getAndSet(Boolean.TRUE)) {
+				throw new IllegalStateException("Server is already running");
+			}
+
+			try {
+				this.rebind();
+			} catch (final NamingException e) {
+				LOG.info("Failed to bind MBean", e);
+			}
+
+			try {
+				this.metrics.getRegistry().register(this, new ObjectName(
+						MetricsRegistry.DOMAIN + ":type=JSocksProxy"));
+			} catch (final MalformedObjectNameException e) {
+				LOG.info("Failed to register MBean", e);
+			}
+
+			while (this.canRun.get()) {
+				try {
+					this.sampleAcceptRates();
+					this.readConfiguration();
+					this.checkListeningThreads();
+					this.wait(JSocksProxy.RELOAD_INTERVAL);
+				} catch (final InterruptedException e) {
+				}
+			}
+		}
+
+		for (final ListeningThread listeningThread : this.listeningThreads) {
+			listeningThread.shutdown();
+		}
+
+		this.listeningThreads.clear();
+
+		if (this.relayEngine != null) {
+			this.relayEngine.shutdown();
+			this.relayEngine = null;
+		}
+
+		if (this.connectionExecutorService != null) {
+			this.connectionExecutorService.shutdown();
+			this.connectionExecutorService = null;
+			this.threadMode = null;
+		}
+
+		this.dns.shutdown();
+
+		this.admissionControl = null;
+		this.metrics.shutdown();
+
+		LOG.info("Shutdown SOCKS Proxy");
+	}
+
+	/**
+	 * Rebind MBean
+	 * 
+	 * @throws NamingException
+	 */
+	private void rebind() throws NamingException {
+		final InitialContext rootCtx = new InitialContext();
+		final Name name = rootCtx.getNameParser("").parse(this.jndiName);
+
+		rootCtx.rebind(name, this.contextMap);
+	}
+
+	/**
+	 * Unbind MBean
+	 * 
+	 * @param jndiName
+	 *            the jndiName
+	 */
+	private void unbind(final String jndiName) {
+		try {
+			final InitialContext rootCtx = new InitialContext();
+			rootCtx.unbind(jndiName);
+		} catch (final NamingException e) {
+			LOG.info("Failed to unbind MBean", e);
+		}
+	}
+
+	/**
+	 * Check that the listeningAddresses property matches all binding threads.
+	 */
+	protected void checkListeningThreads() {
+
+		final Map<InetSocketAddress, Integer> runningAcceptors = new HashMap<InetSocketAddress, Integer>();
+
+		for (final ListeningThread listeningThread : this.listeningThreads) {
+			final InetSocketAddress inetSocketAddress = listeningThread
+					.getInetSocketAddress();
+			final ListenerConfiguration listenerConfiguration = this.listeningAddresses
+					.get(inetSocketAddress);
+			final Integer running = runningAcceptors.get(inetSocketAddress);
+
+			if ((listenerConfiguration != null)
+					&& matches(listeningThread, listenerConfiguration)
+					&& ((running == null) || (running < listenerConfiguration
+							.getAcceptors()))) {
+				runningAcceptors.put(inetSocketAddress,
+						(running == null) ? 1 : (running + 1));
+			} else {
+				// Shutdown before a replacement binds the same address
+				listeningThread.shutdown();
+				this.listeningThreads.remove(listeningThread);
+			}
+		}
+
+		for (final Map.Entry<InetSocketAddress, ListenerConfiguration> entry : this.listeningAddresses
+				.entrySet()) {
+			final InetSocketAddress inetSocketAddress = entry.getKey();
+			final ListenerConfiguration listenerConfiguration = entry
+					.getValue();
+			final Integer running = runningAcceptors.get(inetSocketAddress);
+
+			for (int i = (running == null) ? 0 : running; i < listenerConfiguration
+					.getAcceptors(); i++) {
+				try {
+					final ListeningThread listeningThread = new ListeningThread(
+							listenerConfiguration, LOG,
+							this.getConnectionExecutorService(),
+							inetSocketAddress,
+							(listenerConfiguration
+									.getRelayMode() == RelayMode.NIO)
+											? this.getRelayEngine() : null,
+							this.admissionControl);
+
+					this.listeningThreads.add(listeningThread);
+
+					executorService.execute(listeningThread);
+
+				} catch (final IOException e) {
+					LOG.error("Failed to setup listening address for {}",
+							formatSocketAddress(inetSocketAddress), e);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sample the accept rate of every acceptor
+	 */
+	private void sampleAcceptRates() {
+		for (final ListeningThread listeningThread : this.listeningThreads) {
+			listeningThread.sampleAcceptRate();
+		}
+	}
+
+	private boolean matches(final ListeningThread listeningThread,
+			final ListenerConfiguration listenerConfiguration) {
+		final ConfigurationFacade configuration = listeningThread
+				.getConfiguration();
+
+		return (listeningThread.getAdmissionControl() == this.admissionControl)
+				&& (listeningThread
+				.isUsingRelayEngine() == (listenerConfiguration
+						.getRelayMode() == RelayMode.NIO))
+				&& (listenerConfiguration.getRelayMode() == configuration
+						.getRelayMode())
+				&& listenerConfiguration.getBufferSizing()
+						.equals(configuration.getBufferSizing())
+				&& (listenerConfiguration.isCoalescingWrites() == configuration
+						.isCoalescingWrites())
+				&& (listenerConfiguration.getCoalescingLatency() == configuration
+						.getCoalescingLatency())
+				&& (listenerConfiguration.getAcceptors() == configuration
+						.getAcceptors());
+	}
+
+	/**
+	 * Get the relay engine, it is created the first time a listening address
+	 * requires it
+	 * 
+	 * @return the relay engine
+	 * @throws IOException
+	 *             if the event loops could not be created
+	 */
+	private RelayEngine getRelayEngine() throws IOException {
+		if (this.relayEngine == null) {
+			this.relayEngine = new RelayEngine(this.executorService,
+					this.configuration.getRelayEventLoops());
+
+			LOG.info("Started relay engine with {} event loops",
+					this.relayEngine.getNumberOfEventLoops());
+		}
+
+		return this.relayEngine;
+	}
+
+	/**
+	 * Get the executor for connection handlers and tunnels. Listening threads
+	 * and event loops always run on platform threads.
+	 * 
+	 * @return the connection executor
+	 */
+	private ExecutorService getConnectionExecutorService() {
+		if (this.connectionExecutorService == null) {
+			this.connectionExecutorService = Executors.newCachedThreadPool();
+			this.threadMode = ThreadMode.PLATFORM;
+		}
+
+		return this.connectionExecutorService;
+	}
+
+	/**
+	 * Reading and update configuration from configuration.xml
+	 */
+	protected void readConfiguration() {
+
+		final File file;
+		URI basePath = this.getBasePath();
+
+		file = this.getConfigurationFile(basePath);
+
+		if (!file.isFile()) {
+			LOG.error("Failed to read configuration from {}",
+					file.getAbsolutePath());
+			return;
+		}
+
+		if (file.lastModified() == this.configurationFileModified) {
+			return;
+		}
+
+		LOG.trace("Reading configuration");
+
+		this.readConfigurationFromFile(file);
+
+		this.configurationFileModified = file.lastModified();
+
+		if (this.configuration == null) {
+			LOG.error("No configuration read from {}",
+					JSocksProxy.CONFIGURATION_XML);
+			return;
+		}
+
+		this.listeningAddresses.clear();
+		this.egress.update(this.configuration);
+		this.updateListenAddresses();
+		this.metrics.getRegistry().retain(this.listeningAddresses.keySet());
+		this.updateBacklog();
+		this.updateThreadMode();
+		this.bufferPool.update(this.configuration);
+		this.updateAdmission();
+		this.dns.update(this.configuration);
+		this.connect.update(this.configuration, this.egress.getPortSpace());
+		this.metrics.update(this.configuration);
+	}
+
+	private void updateAdmission() {
+		final int maxConnections = this.configuration.getMaxConnections();
+
+		if (maxConnections <= 0) {
+			if (this.admissionControl != null) {
+				LOG.info("Connection limit removed");
+				this.admissionControl = null;
+			}
+			return;
+		}
+
+		int queueDepth = this.configuration.getConnectionQueueDepth();
+		if (queueDepth < 0) {
+			LOG.warn(
+					"Connection queue depth must not be negative; supplied value: {} ; using 0",
+					queueDepth);
+			queueDepth = 0;
+		}
+
+		final AdmissionPolicy admissionPolicy = (this.configuration
+				.getAdmission() != null) ? this.configuration.getAdmission()
+						: AdmissionPolicy.QUEUE;
+
+		if ((this.admissionControl != null) && this.admissionControl
+				.hasSettings(maxConnections, queueDepth, admissionPolicy)) {
+			return;
+		}
+
+		LOG.info("Limiting connections to {}; queue depth {}; policy {}",
+				maxConnections, queueDepth,
+				admissionPolicy.name().toLowerCase());
+
+		// Listeners using the previous admission control are replaced by
+		// checkListeningThreads
+		this.admissionControl = new AdmissionControl(
+				this.getConnectionExecutorService(), maxConnections, queueDepth,
+				admissionPolicy);
+	}
+
+	private void updateThreadMode() {
+		final ThreadMode requestedThreadMode = (this.configuration
+				.getThreadMode() != null) ? this.configuration.getThreadMode()
+						: ThreadMode.PLATFORM;
+
+		if (requestedThreadMode == this.threadMode) {
+			return;
+		}
+
+		ExecutorService newExecutorService = null;
+
+		if (requestedThreadMode == ThreadMode.VIRTUAL) {
+			newExecutorService = ExecutorUtils
+					.newVirtualThreadPerTaskExecutor();
+
+			if (newExecutorService == null) {
+				LOG.warn(
+						"Virtual threads require Java 21 or later; using platform threads");
+			}
+		}
+
+		if (newExecutorService == null) {
+			if (this.threadMode == ThreadMode.PLATFORM) {
+				return;
+			}
+
+			newExecutorService = Executors.newCachedThreadPool();
+			this.threadMode = ThreadMode.PLATFORM;
+		} else {
+			this.threadMode = requestedThreadMode;
+		}
+
+		LOG.info("Running connections on {} threads",
+				this.threadMode.name().toLowerCase());
+
+		final ExecutorService oldExecutorService = this.connectionExecutorService;
+		this.connectionExecutorService = newExecutorService;
+
+		// Recreated for the new executor by updateAdmission
+		this.admissionControl = null;
+
+		if (oldExecutorService != null) {
+			// Restart the listeners with the new executor. The old one is not
+			// shut down: connections in progress still start their tunnel
+			// threads on it, and its idle threads expire by themselves
+			for (final ListeningThread listeningThread : this.listeningThreads) {
+				listeningThread.shutdown();
+			}
+
+			this.listeningThreads.clear();
+		}
+	}
+
+	private void updateBacklog() {
+		if ((this.configuration.getBacklog() <= 0)
+				|| (this.configuration.getBacklog() > 100)) {
+			LOG.warn(
+					"Backlog value must be between 0 and 101; supplied value: {} ; using default 100",
+					this.configuration.getBacklog());
+			this.backlog = 100;
+		} else {
+			this.backlog = this.configuration.getBacklog();
+			LOG.info("Using backlog {}", this.backlog);
+		}
+	}
+
+	private void updateListenAddresses() {
+		for (final Listen listen : this.configuration.getListen()) {
+
+			int port = -1;
+			InetAddress address = null;
+
+			try {
+				address = InetAddress.getByName(listen.getAddress());
+			} catch (final UnknownHostException e) {
+				LOG.error("Failed to resolve {}", listen.getAddress(), e);
+				continue;
+			}
+
+			port = listen.getPort();
+			if ((port <= 0) || (port >= 65536)) {
+				LOG.error("Invalid port number: {}", port);
+				continue;
+			}
+
+			try {
+				final InetSocketAddress inetSocketAddress = new InetSocketAddress(
+						address, port);
+				this.listeningAddresses.put(inetSocketAddress,
+						new ListenerConfiguration(this,
+								(listen.getRelay() != null) ? listen.getRelay()
+										: RelayMode.BLOCKING,
+								this.getBufferSizing(listen),
+								this.getCoalescingLatency(listen),
+								this.getAcceptors(listen),
+								this.metrics.getRegistry()
+										.getListenerMetrics(inetSocketAddress)));
+
+				LOG.info("Added listening address ",
+						formatSocketAddress(inetSocketAddress));
+
+			} catch (final IllegalArgumentException e) {
+				LOG.error("Failed to create address {}:{}",
+						listen.getAddress(), listen.getPort(), e);
+				continue;
+			}
+		}
+	}
+
+	private BufferSizing getBufferSizing(final Listen listen) {
+		final boolean adaptive = listen.getBuffer() != BufferMode.FIXED;
+		int minBufferSize = listen.getMinBufferSize();
+		int maxBufferSize = listen.getMaxBufferSize();
+
+		if (minBufferSize <= 0) {
+			LOG.warn(
+					"Minimum buffer size must be positive; supplied value: {} ; using default {}",
+					minBufferSize, BufferSizing.DEFAULT_MIN_SIZE);
+			minBufferSize = BufferSizing.DEFAULT_MIN_SIZE;
+		}
+
+		if (maxBufferSize > BufferPool.MAX_BUFFER_SIZE) {
+			LOG.warn(
+					"Maximum buffer size must not exceed {}; supplied value: {}",
+					BufferPool.MAX_BUFFER_SIZE, maxBufferSize);
+			maxBufferSize = BufferPool.MAX_BUFFER_SIZE;
+		}
+
+		if (adaptive && (maxBufferSize < minBufferSize)) {
+			LOG.warn(
+					"Maximum buffer size {} is less than minimum buffer size {}",
+					maxBufferSize, minBufferSize);
+			maxBufferSize = minBufferSize;
+		}
+
+		return new BufferSizing(adaptive, minBufferSize, maxBufferSize);
+	}
+
+	private int getAcceptors(final Listen listen) {
+		if (listen.getAcceptors() <= 1) {
+			return 1;
+		}
+
+		if (SocketUtils.getReusePortOption() == null) {
+			LOG.warn(
+					"SO_REUSEPORT is not supported; using one acceptor instead of {}",
+					listen.getAcceptors());
+			return 1;
+		}
+
+		return listen.getAcceptors();
+	}
+
+	private long getCoalescingLatency(final Listen listen) {
+		if (!listen.isCoalesceWrites()) {
+			return -1;
+		}
+
+		if (listen.getCoalescingLatency() < 0) {
+			LOG.warn(
+					"Coalescing latency must not be negative; supplied value: {} ; using 0",
+					listen.getCoalescingLatency());
+			return 0;
+		}
+
+		if ((listen.getRelay() != RelayMode.NIO)
+				&& !SocketUtils.isChannelCoalescingSupported()) {
+			LOG.warn(
+					"Write coalescing on blocking tunnels requires Java 13 or later; coalescing disabled");
+			return -1;
+		}
+
+		return listen.getCoalescingLatency();
+	}
+
+	private void readConfigurationFromFile(final File file) {
+		try {
+			final JAXBContext context = JAXBContext
+					.newInstance(Configuration.class);
+			final Unmarshaller unmarshaller = context.createUnmarshaller();
+
+			this.configuration = (Configuration) unmarshaller.unmarshal(file);
+
+		} catch (final JAXBException e) {
+			LOG.error("Failed to read configuration", e);
+		}
+	}
+
+	private File getConfigurationFile(URI basePath) {
+		final File file;
+		if (basePath == null) {
+			file = new File(JSocksProxy.CONFIGURATION_XML);
+		} else {
+
+			final File basePathFile = new File(basePath);
+
+			if (basePathFile.isDirectory()) {
+				file = new File(basePathFile, JSocksProxy.CONFIGURATION_XML);
+			} else {
+				file = basePathFile;
+			}
+		}
+		return file;
+	}
+
+	private URI getBasePath() {
+		URI uri = null;
+		if (this.configurationBasePathPropertyKey != null) {
+			try {
+				uri = new URL(System
+						.getProperty(this.configurationBasePathPropertyKey))
+								.toURI();
+			} catch (final Exception e) {
+			}
+		}
+		return uri;
+	}
+
+	/**
+	 * @return the outgoing address
+	 */
+	@Override
+	public List<InetAddress> getOutgoingSourceAddresses() {
+		return this.egress.getOutgoingSourceAddresses();
+	}
+
+	/**
+	 * @return true if usage of SOCKS4 is allowed
+	 */
+	@Override
+	public boolean isAllowSocks4() {
+		if (this.configuration == null) {
+			return false;
+		}
+
+		return this.configuration.isAllowSocks4();
+	}
+
+	/**
+	 * @return true if usage of SOCKS5 is allowed
+	 */
+	@Override
+	public boolean isAllowSocks5() {
+		if (this.configuration == null) {
+			return false;
+		}
+
+		return this.configuration.isAllowSocks5();
+	}
+
+	@Override
+	public int getBacklog() {
+		return this.backlog;
+	}
+}
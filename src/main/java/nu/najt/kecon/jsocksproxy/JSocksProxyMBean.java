@@ -1,68 +1,318 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-import javax.naming.NamingException;
-
-/**
- * MBean interface for application servers.
- * 
- * @author Kenny Colliander Nordin
- */
-public interface JSocksProxyMBean {
-
-	/**
-	 * @return the jndiName
-	 */
-	public String getJndiName();
-
-	/**
-	 * Sets the jndiName
-	 * 
-	 * @param jndiName
-	 *            the jndiName
-	 * @throws NamingException
-	 *             if fail to register jndi name
-	 */
-	public void setJndiName(String jndiName) throws NamingException;
-
-	/**
-	 * Sets property key for the configuration base path
-	 * 
-	 * @param configurationBasePathPropertyKey
-	 *            the configuration base path property key
-	 */
-	public void setConfigurationBasePathPropertyKey(
-			String configurationBasePathPropertyKey);
-
-	/**
-	 * Get property key for the configuration base path
-	 * 
-	 * @return the configuration base path property key
-	 */
-	public String getConfigurationBasePathPropertyKey();
-
-	/**
-	 * Start the service
-	 */
-	public void start();
-
-	/**
-	 * Stop the service
-	 */
-	public void stop();
-
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import javax.naming.NamingException;
+
+/**
+ * MBean interface for application servers.
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public interface JSocksProxyMBean {
+
+	/**
+	 * @return the jndiName
+	 */
+	public String getJndiName();
+
+	/**
+	 * Sets the jndiName
+	 * 
+	 * @param jndiName
+	 *            the jndiName
+	 * @throws NamingException
+	 *             if fail to register jndi name
+	 */
+	public void setJndiName(String jndiName) throws NamingException;
+
+	/**
+	 * Sets property key for the configuration base path
+	 * 
+	 * @param configurationBasePathPropertyKey
+	 *            the configuration base path property key
+	 */
+	public void setConfigurationBasePathPropertyKey(
+			String configurationBasePathPropertyKey);
+
+	/**
+	 * Get property key for the configuration base path
+	 * 
+	 * @return the configuration base path property key
+	 */
+	public String getConfigurationBasePathPropertyKey();
+
+	/**
+	 * Start the service
+	 */
+	public void start();
+
+	/**
+	 * Stop the service
+	 */
+	public void stop();
+
+	/**
+	 * @return accepted connections and accept rate over the last
+	 *         configuration reload interval, one entry per acceptor
+	 * @since 3.0
+	 */
+	public String[] getAcceptorStatistics();
+
+	/**
+	 * @return direct memory owned by the relay buffer pool in bytes
+	 * @since 3.0
+	 */
+	public long getBufferPoolAllocatedMemory();
+
+	/**
+	 * @return direct memory kept free in the relay buffer pool in bytes
+	 * @since 3.0
+	 */
+	public long getBufferPoolPooledMemory();
+
+	/**
+	 * @return number of relay buffers acquired
+	 * @since 3.0
+	 */
+	public long getBufferPoolAcquisitions();
+
+	/**
+	 * @return number of relay buffers served from the pool
+	 * @since 3.0
+	 */
+	public long getBufferPoolReuses();
+
+	/**
+	 * @return number of relay buffers served from the heap
+	 * @since 3.0
+	 */
+	public long getBufferPoolHeapAllocations();
+
+	/**
+	 * @return number of relay buffers that were never released
+	 * @since 3.0
+	 */
+	public long getBufferPoolLeaks();
+
+	/**
+	 * @return number of connections being handled when connections are limited
+	 * @since 3.0
+	 */
+	public int getRunningConnections();
+
+	/**
+	 * @return number of connections waiting for a handler
+	 * @since 3.0
+	 */
+	public int getQueuedConnections();
+
+	/**
+	 * @return number of connections rejected by the admission control
+	 * @since 3.0
+	 */
+	public long getRejectedConnections();
+
+	/**
+	 * @return number of cached hostnames
+	 * @since 3.0
+	 */
+	public int getDnsCacheSize();
+
+	/**
+	 * @return number of hostname lookups answered from the cache
+	 * @since 3.0
+	 */
+	public long getDnsCacheHits();
+
+	/**
+	 * @return number of hostname lookups passed to the resolver
+	 * @since 3.0
+	 */
+	public long getDnsCacheMisses();
+
+	/**
+	 * @return fraction of hostname lookups answered from the cache
+	 * @since 3.0
+	 */
+	public double getDnsCacheHitRate();
+
+	/**
+	 * @return number of hostnames evicted from the full cache
+	 * @since 3.0
+	 */
+	public long getDnsCacheEvictions();
+
+	/**
+	 * @return number of lookups sent to the name servers by the DNS client
+	 * @since 3.0
+	 */
+	public long getDnsLookups();
+
+	/**
+	 * @return number of lookups that shared a lookup already in progress
+	 * @since 3.0
+	 */
+	public long getDnsCoalescedLookups();
+
+	/**
+	 * @return number of successful connects to remote servers
+	 * @since 3.0
+	 */
+	public long getOutgoingConnects();
+
+	/**
+	 * @return number of connects to remote servers where all addresses
+	 *         failed or the connect timed out
+	 * @since 3.0
+	 */
+	public long getFailedOutgoingConnects();
+
+	/**
+	 * @return number of connection attempts to remote server addresses
+	 * @since 3.0
+	 */
+	public long getConnectAttempts();
+
+	/**
+	 * @return number of connection attempts closed because an attempt to
+	 *         another address connected first
+	 * @since 3.0
+	 */
+	public long getCancelledConnectAttempts();
+
+	/**
+	 * @return average time to connect to a remote server in milliseconds
+	 * @since 3.0
+	 */
+	public double getAverageConnectTime();
+
+	/**
+	 * @return the address family tried first, IPv4 or IPv6
+	 * @since 3.0
+	 */
+	public String getPreferredAddressFamily();
+
+	/**
+	 * @return weight, open connections, established connections and bytes
+	 *         sent and received, one entry per outgoing address
+	 * @since 3.0
+	 */
+	public String[] getEgressStatistics();
+
+	/**
+	 * @return the highest fraction of the local port range in use by an
+	 *         outgoing address, per destination with a source port range
+	 * @since 3.0
+	 */
+	public double getPortPressure();
+
+	/**
+	 * @return number of outgoing connections that failed because no local
+	 *         port was available
+	 * @since 3.0
+	 */
+	public long getPortExhaustions();
+
+	/**
+	 * @return the destinations currently considered unreachable
+	 * @since 3.0
+	 */
+	public String[] getUnreachableDestinations();
+
+	/**
+	 * @return number of connections refused at once to unreachable
+	 *         destinations
+	 * @since 3.0
+	 */
+	public long getFastFailedConnects();
+
+	/**
+	 * @return number of connections refused by the connection limit per
+	 *         destination
+	 * @since 3.0
+	 */
+	public long getDestinationLimitedConnects();
+
+	/**
+	 * @return number of probes of unreachable destinations
+	 * @since 3.0
+	 */
+	public long getDestinationProbes();
+
+	/**
+	 * @return the circuit breaker state, limit of concurrent connection
+	 *         attempts and failure rate of each tracked destination
+	 * @since 3.0
+	 */
+	public String[] getDestinationStates();
+
+	/**
+	 * @return number of connections refused by the adaptive limit of
+	 *         concurrent connection attempts
+	 * @since 3.0
+	 */
+	public long getShedConnects();
+
+	/**
+	 * @return number of connections accepted on all listen addresses
+	 * @since 3.0
+	 */
+	public long getAcceptedConnections();
+
+	/**
+	 * @return number of connections between accept and the reply to the
+	 *         request
+	 * @since 3.0
+	 */
+	public long getActiveHandshakes();
+
+	/**
+	 * @return number of established tunnels
+	 * @since 3.0
+	 */
+	public long getActiveTunnels();
+
+	/**
+	 * @return number of bytes sent from clients to remote servers in closed
+	 *         tunnels
+	 * @since 3.0
+	 */
+	public long getBytesUpstream();
+
+	/**
+	 * @return number of bytes sent from remote servers to clients in closed
+	 *         tunnels
+	 * @since 3.0
+	 */
+	public long getBytesDownstream();
+
+	/**
+	 * @return number of failed requests per listen address, SOCKS version
+	 *         and reply code
+	 * @since 3.0
+	 */
+	public String[] getHandshakeFailures();
+
+	/**
+	 * @return the latency percentiles of the greeting, the name resolution,
+	 *         the connect and the first byte from the remote server over the
+	 *         last minute, on all listen addresses
+	 * @since 3.0
+	 */
+	public String[] getLatencies();
+
+}
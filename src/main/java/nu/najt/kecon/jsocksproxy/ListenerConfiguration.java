@@ -0,0 +1,148 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import nu.najt.kecon.jsocksproxy.configuration.RelayMode;
+import nu.najt.kecon.jsocksproxy.connect.ConnectionRacer;
+import nu.najt.kecon.jsocksproxy.connect.DestinationGuard;
+import nu.najt.kecon.jsocksproxy.dns.Resolver;
+import nu.najt.kecon.jsocksproxy.egress.EgressSelector;
+import nu.najt.kecon.jsocksproxy.metrics.ListenerMetrics;
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+
+/**
+ * The running configuration of one listen address. Settings that are common
+ * for all listen addresses are delegated to the proxy configuration.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class ListenerConfiguration implements ConfigurationFacade {
+
+	private final ConfigurationFacade configurationFacade;
+
+	private final RelayMode relayMode;
+
+	private final BufferSizing bufferSizing;
+
+	private final long coalescingLatency;
+
+	private final int acceptors;
+
+	private final ListenerMetrics listenerMetrics;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the proxy configuration
+	 * @param relayMode
+	 *            the relay mode of this listen address
+	 * @param bufferSizing
+	 *            the buffer sizing for tunnels of this listen address
+	 * @param coalescingLatency
+	 *            the write coalescing latency in microseconds, negative if
+	 *            tunnels should not coalesce writes
+	 * @param acceptors
+	 *            number of acceptors for the listen address
+	 * @param listenerMetrics
+	 *            the metrics of the listen address, or null
+	 */
+	public ListenerConfiguration(final ConfigurationFacade configurationFacade,
+			final RelayMode relayMode, final BufferSizing bufferSizing,
+			final long coalescingLatency, final int acceptors,
+			final ListenerMetrics listenerMetrics) {
+		this.configurationFacade = configurationFacade;
+		this.relayMode = relayMode;
+		this.bufferSizing = bufferSizing;
+		this.coalescingLatency = coalescingLatency;
+		this.acceptors = acceptors;
+		this.listenerMetrics = listenerMetrics;
+	}
+
+	@Override
+	public List<InetAddress> getOutgoingSourceAddresses() {
+		return this.configurationFacade.getOutgoingSourceAddresses();
+	}
+
+	@Override
+	public boolean isAllowSocks4() {
+		return this.configurationFacade.isAllowSocks4();
+	}
+
+	@Override
+	public boolean isAllowSocks5() {
+		return this.configurationFacade.isAllowSocks5();
+	}
+
+	@Override
+	public int getBacklog() {
+		return this.configurationFacade.getBacklog();
+	}
+
+	@Override
+	public Resolver getResolver() {
+		return this.configurationFacade.getResolver();
+	}
+
+	@Override
+	public ConnectionRacer getConnectionRacer() {
+		return this.configurationFacade.getConnectionRacer();
+	}
+
+	@Override
+	public EgressSelector getEgressSelector() {
+		return this.configurationFacade.getEgressSelector();
+	}
+
+	@Override
+	public DestinationGuard getDestinationGuard() {
+		return this.configurationFacade.getDestinationGuard();
+	}
+
+	@Override
+	public BufferSizing getBufferSizing() {
+		return this.bufferSizing;
+	}
+
+	@Override
+	public boolean isCoalescingWrites() {
+		return this.coalescingLatency >= 0;
+	}
+
+	@Override
+	public long getCoalescingLatency() {
+		return Math.max(this.coalescingLatency, 0);
+	}
+
+	@Override
+	public int getAcceptors() {
+		return this.acceptors;
+	}
+
+	@Override
+	public ListenerMetrics getListenerMetrics() {
+		return this.listenerMetrics;
+	}
+
+	@Override
+	public RelayMode getRelayMode() {
+		return this.relayMode;
+	}
+}
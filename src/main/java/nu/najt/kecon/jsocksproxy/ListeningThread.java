@@ -1,208 +1,435 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocket;
-import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocketAddress;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import javax.net.ServerSocketFactory;
-
-import org.slf4j.Logger;
-import org.slf4j.MDC;
-
-import nu.najt.kecon.jsocksproxy.socks4.SocksImplementation4;
-import nu.najt.kecon.jsocksproxy.socks5.SocksImplementation5;
-
-/**
- * This thread handle incoming connections for a specific listening address
- * 
- * @author Kenny Colliander Nordin
- * @since 3.0
- */
-class ListeningThread implements Runnable {
-
-	private final Logger logger;
-
-	private final AtomicBoolean mayRun = new AtomicBoolean(true);
-
-	private final InetSocketAddress inetSocketAddress;
-
-	private final ServerSocket serverSocket;
-
-	private final ConfigurationFacade configuration;
-
-	private final ExecutorService executorService;
-
-	/**
-	 * Constructor
-	 * 
-	 * @param configuration
-	 *            the configuration
-	 * @param logger
-	 *            the logger
-	 * @param executorService
-	 *            ListeningThread constructor
-	 * @param inetSocketAddress
-	 *            the address that the listening thread should bind to
-	 * @throws IOException
-	 */
-	public ListeningThread(final ConfigurationFacade configuration,
-			final Logger logger, final ExecutorService executorService,
-			final InetSocketAddress inetSocketAddress) throws IOException {
-		this.configuration = configuration;
-		this.logger = logger;
-		this.executorService = executorService;
-		this.inetSocketAddress = inetSocketAddress;
-		MDC.setContextMap(new HashMap<>());
-		MDC.put(LoggingConstants.SOCKS_SERVER,
-				formatSocketAddress(inetSocketAddress));
-
-		this.logger.info("Listening for incoming connections");
-
-		this.serverSocket = createServerSocket(inetSocketAddress);
-	}
-
-	protected ServerSocket createServerSocket(
-			final InetSocketAddress inetSocketAddress) throws IOException {
-		return ServerSocketFactory.getDefault().createServerSocket(
-				inetSocketAddress.getPort(), this.configuration.getBacklog(),
-				inetSocketAddress.getAddress());
-	}
-
-	@Override
-	public void run() {
-		try {
-
-			Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-
-			while (this.mayRun.get()) {
-				this.acceptConnection();
-			}
-
-			this.serverSocket.close();
-		} catch (final Exception e) {
-			if (this.mayRun.get()) {
-				this.logger.error("Unknown error occurred for {}",
-						formatSocketAddress(this.inetSocketAddress), e);
-			}
-		} finally {
-			this.logger.info("Shutdown SOCKS proxy for {}",
-					formatSocketAddress(this.inetSocketAddress));
-		}
-	}
-
-	protected void acceptConnection() throws IOException, SocketException {
-		Socket socket = this.serverSocket.accept();
-
-		if (socket == null) {
-			return;
-		}
-
-		socket.setTcpNoDelay(true);
-		socket.setKeepAlive(true);
-
-		try {
-			this.executorService
-					.execute(this.getImplementation(configuration, socket));
-
-		} catch (final ProtocolException e) {
-			this.logger.info("Unknown SOCKS VERSION requested by {}",
-					formatSocket(socket), e);
-		} catch (final AccessDeniedException e) {
-			this.logger.warn("Access Denied for {}", formatSocket(socket), e);
-		}
-	}
-
-	/**
-	 * Turn indication on that the thread should shutdown
-	 */
-	public void shutdown() {
-		this.mayRun.set(false);
-
-		if (this.serverSocket != null) {
-			try {
-				this.serverSocket.close();
-			} catch (final IOException e) {
-			}
-		}
-	}
-
-	/**
-	 * Return a SOCKS implementation
-	 * 
-	 * @param socket
-	 *            the incoming socket
-	 * @return SOCKS implementation
-	 * @throws IOException
-	 * @throws AccessDeniedException
-	 * @throws UnknownSocksVersion
-	 */
-	public SocksImplementation getImplementation(
-			final ConfigurationFacade configurationFacade, final Socket socket)
-			throws IOException, AccessDeniedException, ProtocolException {
-		final InputStream inputStream = socket.getInputStream();
-
-		final int protocol = inputStream.read();
-
-		switch (protocol) {
-		case 0x04:
-			if (configurationFacade.isAllowSocks4()) {
-				return new SocksImplementation4(configurationFacade, socket,
-						executorService);
-			} else {
-				try {
-					socket.close();
-				} catch (final Exception e) {
-				}
-				throw new AccessDeniedException("SOCKS4 is not enabled");
-			}
-
-		case 0x05:
-			if (configurationFacade.isAllowSocks5()) {
-				return new SocksImplementation5(configurationFacade, socket,
-						executorService);
-			} else {
-				try {
-					socket.close();
-				} catch (final Exception e) {
-				}
-				throw new AccessDeniedException("SOCKS5 is not enabled");
-			}
-
-		default:
-			try {
-				socket.close();
-			} catch (final Exception e) {
-			}
-			throw new ProtocolException(
-					"Unknown protocol: 0x" + Integer.toHexString(protocol));
-		}
-	}
-
-	public InetSocketAddress getInetSocketAddress() {
-		return inetSocketAddress;
-	}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocket;
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocketAddress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.nio.channels.ServerSocketChannel;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+
+import nu.najt.kecon.jsocksproxy.metrics.ListenerMetrics;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+import nu.najt.kecon.jsocksproxy.socks4.SocksImplementation4;
+import nu.najt.kecon.jsocksproxy.socks5.SocksImplementation5;
+import nu.najt.kecon.jsocksproxy.utils.SocketUtils;
+
+/**
+ * This thread handle incoming connections for a specific listening address
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class ListeningThread implements Runnable {
+
+	private static final byte[] SOCKS4_REJECTED = { 0x00, 0x5b, 0x00, 0x00,
+			0x00, 0x00, 0x00, 0x00 };
+
+	private static final byte[] SOCKS5_NO_ACCEPTABLE_METHODS = { 0x05,
+			(byte) 0xff };
+
+	private final Logger logger;
+
+	private final AtomicBoolean mayRun = new AtomicBoolean(true);
+
+	private final InetSocketAddress inetSocketAddress;
+
+	private final ServerSocket serverSocket;
+
+	private final ConfigurationFacade configuration;
+
+	private final ExecutorService executorService;
+
+	private final RelayEngine relayEngine;
+
+	private final AdmissionControl admissionControl;
+
+	private final AtomicLong acceptedConnections = new AtomicLong();
+
+	private long sampledConnections = 0;
+
+	private long sampleTime = System.nanoTime();
+
+	private volatile double acceptRate = 0;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 * @param logger
+	 *            the logger
+	 * @param executorService
+	 *            ListeningThread constructor
+	 * @param inetSocketAddress
+	 *            the address that the listening thread should bind to
+	 * @throws IOException
+	 */
+	public ListeningThread(final ConfigurationFacade configuration,
+			final Logger logger, final ExecutorService executorService,
+			final InetSocketAddress inetSocketAddress) throws IOException {
+		this(configuration, logger, executorService, inetSocketAddress, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 * @param logger
+	 *            the logger
+	 * @param executorService
+	 *            ListeningThread constructor
+	 * @param inetSocketAddress
+	 *            the address that the listening thread should bind to
+	 * @param relayEngine
+	 *            the relay engine for established tunnels, or null to relay
+	 *            with blocking threads
+	 * @throws IOException
+	 * @since 3.0
+	 */
+	public ListeningThread(final ConfigurationFacade configuration,
+			final Logger logger, final ExecutorService executorService,
+			final InetSocketAddress inetSocketAddress,
+			final RelayEngine relayEngine) throws IOException {
+		this(configuration, logger, executorService, inetSocketAddress,
+				relayEngine, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 * @param logger
+	 *            the logger
+	 * @param executorService
+	 *            ListeningThread constructor
+	 * @param inetSocketAddress
+	 *            the address that the listening thread should bind to
+	 * @param relayEngine
+	 *            the relay engine for established tunnels, or null to relay
+	 *            with blocking threads
+	 * @param admissionControl
+	 *            the admission control for new connections, or null to run
+	 *            every connection
+	 * @throws IOException
+	 * @since 3.0
+	 */
+	public ListeningThread(final ConfigurationFacade configuration,
+			final Logger logger, final ExecutorService executorService,
+			final InetSocketAddress inetSocketAddress,
+			final RelayEngine relayEngine,
+			final AdmissionControl admissionControl) throws IOException {
+		this.configuration = configuration;
+		this.logger = logger;
+		this.executorService = executorService;
+		this.inetSocketAddress = inetSocketAddress;
+		this.relayEngine = relayEngine;
+		this.admissionControl = admissionControl;
+		MDC.setContextMap(new HashMap<>());
+		MDC.put(LoggingConstants.SOCKS_SERVER,
+				formatSocketAddress(inetSocketAddress));
+
+		this.logger.info("Listening for incoming connections");
+
+		this.serverSocket = createServerSocket(inetSocketAddress);
+	}
+
+	protected ServerSocket createServerSocket(
+			final InetSocketAddress inetSocketAddress) throws IOException {
+		// Accepted sockets are backed by channels, which the tunnels copy
+		// through directly and the relay engine requires
+		final ServerSocketChannel serverSocketChannel = ServerSocketChannel
+				.open();
+		try {
+			final SocketOption<Boolean> reusePort = SocketUtils
+					.getReusePortOption();
+			if ((this.configuration.getAcceptors() > 1)
+					&& (reusePort != null)) {
+				serverSocketChannel.setOption(reusePort, Boolean.TRUE);
+			}
+
+			final ServerSocket serverSocket = serverSocketChannel.socket();
+			serverSocket.bind(inetSocketAddress,
+					this.configuration.getBacklog());
+			return serverSocket;
+		} catch (final IOException e) {
+			serverSocketChannel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+
+			Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+
+			while (this.mayRun.get()) {
+				this.acceptConnection();
+			}
+
+			this.serverSocket.close();
+		} catch (final Exception e) {
+			if (this.mayRun.get()) {
+				this.logger.error("Unknown error occurred for {}",
+						formatSocketAddress(this.inetSocketAddress), e);
+			}
+		} finally {
+			this.logger.info("Shutdown SOCKS proxy for {}",
+					formatSocketAddress(this.inetSocketAddress));
+		}
+	}
+
+	protected void acceptConnection() throws IOException, SocketException {
+		if (this.admissionControl != null) {
+			try {
+				this.admissionControl.awaitCapacity();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		Socket socket = this.serverSocket.accept();
+
+		if (socket == null) {
+			return;
+		}
+
+		this.acceptedConnections.incrementAndGet();
+
+		final ListenerMetrics listenerMetrics = this.configuration
+				.getListenerMetrics();
+		if (listenerMetrics != null) {
+			listenerMetrics.accepted();
+		}
+
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+
+		if ((this.relayEngine != null) && (socket.getChannel() != null)) {
+			// The handshake is decoded by the event loops
+			this.relayEngine.register(new HandshakeHandler(this.configuration,
+					this.executorService, this.relayEngine,
+					this.admissionControl, this.logger, socket.getChannel()));
+			return;
+		}
+
+		try {
+			final SocksImplementation implementation = this
+					.getImplementation(configuration, socket);
+
+			if (this.admissionControl == null) {
+				this.executorService.execute(implementation);
+			} else if (!this.admissionControl.submit(implementation, true)) {
+				this.logger.warn("Too many connections, rejected {}",
+						formatSocket(socket));
+				reject(socket, implementation);
+
+				if (listenerMetrics != null) {
+					if (implementation instanceof SocksImplementation4) {
+						listenerMetrics.handshakeFailed(0x04,
+								ListeningThread.SOCKS4_REJECTED[1]);
+					} else {
+						listenerMetrics.handshakeFailed(0x05,
+								ListeningThread.SOCKS5_NO_ACCEPTABLE_METHODS[1]);
+					}
+					listenerMetrics.handshakeEnded();
+				}
+			}
+
+		} catch (final ProtocolException e) {
+			this.logger.info("Unknown SOCKS VERSION requested by {}",
+					formatSocket(socket), e);
+			if (listenerMetrics != null) {
+				listenerMetrics.handshakeEnded();
+			}
+		} catch (final AccessDeniedException e) {
+			this.logger.warn("Access Denied for {}", formatSocket(socket), e);
+			if (listenerMetrics != null) {
+				listenerMetrics.handshakeEnded();
+			}
+		}
+	}
+
+	/**
+	 * Reject a connection of which only the version has been read. SOCKS4
+	 * clients get a rejected request reply and SOCKS5 clients a method
+	 * selection without acceptable methods.
+	 */
+	private static void reject(final Socket socket,
+			final SocksImplementation implementation) {
+		try {
+			if (implementation instanceof SocksImplementation4) {
+				socket.getOutputStream().write(ListeningThread.SOCKS4_REJECTED);
+			} else {
+				socket.getOutputStream()
+						.write(ListeningThread.SOCKS5_NO_ACCEPTABLE_METHODS);
+			}
+		} catch (final IOException e) {
+		} finally {
+			try {
+				socket.close();
+			} catch (final IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Turn indication on that the thread should shutdown
+	 */
+	public void shutdown() {
+		this.mayRun.set(false);
+
+		if (this.serverSocket != null) {
+			try {
+				this.serverSocket.close();
+			} catch (final IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Return a SOCKS implementation
+	 * 
+	 * @param socket
+	 *            the incoming socket
+	 * @return SOCKS implementation
+	 * @throws IOException
+	 * @throws AccessDeniedException
+	 * @throws UnknownSocksVersion
+	 */
+	public SocksImplementation getImplementation(
+			final ConfigurationFacade configurationFacade, final Socket socket)
+			throws IOException, AccessDeniedException, ProtocolException {
+		final InputStream inputStream = socket.getInputStream();
+
+		final int protocol = inputStream.read();
+
+		switch (protocol) {
+		case 0x04:
+			if (configurationFacade.isAllowSocks4()) {
+				return new SocksImplementation4(configurationFacade, socket,
+						executorService, relayEngine);
+			} else {
+				try {
+					socket.close();
+				} catch (final Exception e) {
+				}
+				throw new AccessDeniedException("SOCKS4 is not enabled");
+			}
+
+		case 0x05:
+			if (configurationFacade.isAllowSocks5()) {
+				return new SocksImplementation5(configurationFacade, socket,
+						executorService, relayEngine);
+			} else {
+				try {
+					socket.close();
+				} catch (final Exception e) {
+				}
+				throw new AccessDeniedException("SOCKS5 is not enabled");
+			}
+
+		default:
+			try {
+				socket.close();
+			} catch (final Exception e) {
+			}
+			throw new ProtocolException(
+					"Unknown protocol: 0x" + Integer.toHexString(protocol));
+		}
+	}
+
+	public InetSocketAddress getInetSocketAddress() {
+		return inetSocketAddress;
+	}
+
+	/**
+	 * @return the admission control, null if connections are not limited
+	 * @since 3.0
+	 */
+	public AdmissionControl getAdmissionControl() {
+		return this.admissionControl;
+	}
+
+	/**
+	 * @return number of accepted connections
+	 * @since 3.0
+	 */
+	public long getAcceptedConnections() {
+		return this.acceptedConnections.get();
+	}
+
+	/**
+	 * @return accepted connections per second between the last two samples
+	 * @since 3.0
+	 */
+	public double getAcceptRate() {
+		return this.acceptRate;
+	}
+
+	/**
+	 * Sample the accept rate since the previous sample. Must only be called
+	 * from one thread.
+	 * 
+	 * @since 3.0
+	 */
+	public void sampleAcceptRate() {
+		final long now = System.nanoTime();
+		final long accepted = this.acceptedConnections.get();
+		final long elapsed = now - this.sampleTime;
+
+		if (elapsed > 0) {
+			this.acceptRate = ((accepted - this.sampledConnections)
+					* 1000000000.0) / elapsed;
+		}
+
+		this.sampledConnections = accepted;
+		this.sampleTime = now;
+	}
+
+	/**
+	 * @return the configuration
+	 * @since 3.0
+	 */
+	public ConfigurationFacade getConfiguration() {
+		return this.configuration;
+	}
+
+	/**
+	 * @return true if established tunnels are handed over to a relay engine
+	 * @since 3.0
+	 */
+	public boolean isUsingRelayEngine() {
+		return this.relayEngine != null;
+	}
 }
\ No newline at end of file
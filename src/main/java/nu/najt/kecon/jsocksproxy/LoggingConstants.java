@@ -1,31 +1,31 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-/**
- * This interface contains constants for SLF4J MDC
- * 
- * @author Kenny Colliander Nordin
- * @since 2017-06-19
- */
-public interface LoggingConstants {
-
-	public static final String CLIENT = "client";
-
-	public static final String SOCKS_SERVER = "socks-server";
-
-	public static final String REMOTE_SERVER = "remote-server";
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+/**
+ * This interface contains constants for SLF4J MDC
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 2017-06-19
+ */
+public interface LoggingConstants {
+
+	public static final String CLIENT = "client";
+
+	public static final String SOCKS_SERVER = "socks-server";
+
+	public static final String REMOTE_SERVER = "remote-server";
+}
@@ -0,0 +1,137 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static nu.najt.kecon.jsocksproxy.utils.StringUtils.formatSocketAddress;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.metrics.MetricsEndpoint;
+import nu.najt.kecon.jsocksproxy.metrics.MetricsRegistry;
+
+/**
+ * Holds the metrics registry and the metrics endpoint of the proxy.
+ *
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class MetricsHolder {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MetricsHolder.class);
+
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+	private final JSocksProxyMBean proxy;
+
+	private MetricsEndpoint metricsEndpoint;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param proxy
+	 *            the proxy whose statistics are served
+	 */
+	public MetricsHolder(final JSocksProxyMBean proxy) {
+		this.proxy = proxy;
+	}
+
+	/**
+	 * @return the metrics registry
+	 */
+	public MetricsRegistry getRegistry() {
+		return this.metricsRegistry;
+	}
+
+	/**
+	 * Start, move or stop the metrics endpoint. It runs on a thread of its
+	 * own, so the metrics can be scraped when the executors are saturated.
+	 * 
+	 * @param configuration
+	 *            the configuration
+	 */
+	public void update(final Configuration configuration) {
+		int port = configuration.getMetricsPort();
+		if ((port < 0) || (port > 65535)) {
+			LOG.warn(
+					"Metrics port must be between 0 and 65535; supplied value: {} ; using default {}",
+					port, 0);
+			port = 0;
+		}
+
+		InetSocketAddress address = null;
+		if (port > 0) {
+			final String host = (configuration.getMetricsAddress() != null)
+					? configuration.getMetricsAddress() : "127.0.0.1";
+			try {
+				address = new InetSocketAddress(InetAddress.getByName(host),
+						port);
+			} catch (final UnknownHostException e) {
+				LOG.error("Failed to resolve metrics address {}", host, e);
+			}
+		}
+
+		if (this.metricsEndpoint != null) {
+			if (this.metricsEndpoint.getAddress().equals(address)) {
+				return;
+			}
+
+			this.metricsEndpoint.shutdown();
+			this.metricsEndpoint = null;
+			LOG.info("Stopped metrics endpoint");
+		}
+
+		if (address == null) {
+			return;
+		}
+
+		try {
+			this.metricsEndpoint = new MetricsEndpoint(address,
+					this.metricsRegistry, this.proxy);
+		} catch (final IOException e) {
+			LOG.error("Failed to start metrics endpoint on {}",
+					formatSocketAddress(address), e);
+			return;
+		}
+
+		final Thread thread = new Thread(this.metricsEndpoint,
+				"JSocksProxy metrics");
+		thread.setDaemon(true);
+		thread.start();
+
+		LOG.info("Serving metrics on http://{}{}",
+				formatSocketAddress(address), MetricsEndpoint.PATH);
+	}
+
+	/**
+	 * Stop the metrics endpoint and unregister the MBeans
+	 */
+	public void shutdown() {
+		if (this.metricsEndpoint != null) {
+			this.metricsEndpoint.shutdown();
+			this.metricsEndpoint = null;
+		}
+
+		this.metricsRegistry.unregisterAll();
+	}
+}
@@ -1,65 +1,102 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy;
-
-import java.io.IOException;
-import java.net.Socket;
-import java.util.concurrent.CountDownLatch;
-
-import nu.najt.kecon.jsocksproxy.utils.SocketUtils;
-
-/**
- * The thread which make copy a socket from input to output and signal count
- * down when EOF has been received.
- * 
- * @author Kenny Colliander Nordin
- * @since 3.0
- */
-public final class TunnelThread implements Runnable {
-
-	private final CountDownLatch countDownLatch;
-
-	private final Socket inputSocket;
-
-	private final Socket outputSocket;
-
-	/**
-	 * Constructor
-	 * 
-	 * @param countDownLatch
-	 *            the count down latch that will count down when copy completes
-	 * @param inputSocket
-	 *            the input socket
-	 * @param outputSocket
-	 *            the output socket
-	 */
-	public TunnelThread(final CountDownLatch countDownLatch,
-			final Socket inputSocket, final Socket outputSocket) {
-		this.countDownLatch = countDownLatch;
-		this.inputSocket = inputSocket;
-		this.outputSocket = outputSocket;
-	}
-
-	@Override
-	public void run() {
-		try {
-			SocketUtils.copy(this.inputSocket, this.outputSocket);
-		} catch (final IOException ignore) {
-		}
-
-		this.countDownLatch.countDown();
-	}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+import nu.najt.kecon.jsocksproxy.utils.SocketUtils;
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+
+/**
+ * The thread which make copy a socket from input to output and signal count
+ * down when EOF has been received.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public final class TunnelThread implements Runnable {
+
+	private final CountDownLatch countDownLatch;
+
+	private final Socket inputSocket;
+
+	private final Socket outputSocket;
+
+	private final BufferSizing bufferSizing;
+
+	private final long coalescingLatency;
+
+	private final TransferStatistics statistics;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param countDownLatch
+	 *            the count down latch that will count down when copy completes
+	 * @param inputSocket
+	 *            the input socket
+	 * @param outputSocket
+	 *            the output socket
+	 */
+	public TunnelThread(final CountDownLatch countDownLatch,
+			final Socket inputSocket, final Socket outputSocket) {
+		this(countDownLatch, inputSocket, outputSocket, BufferSizing.DEFAULT, -1,
+				new TransferStatistics());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param countDownLatch
+	 *            the count down latch that will count down when copy completes
+	 * @param inputSocket
+	 *            the input socket
+	 * @param outputSocket
+	 *            the output socket
+	 * @param bufferSizing
+	 *            the buffer sizing
+	 * @param coalescingLatency
+	 *            the write coalescing latency in microseconds, negative if
+	 *            disabled
+	 * @param statistics
+	 *            the statistics of the copied direction
+	 */
+	public TunnelThread(final CountDownLatch countDownLatch,
+			final Socket inputSocket, final Socket outputSocket,
+			final BufferSizing bufferSizing, final long coalescingLatency,
+			final TransferStatistics statistics) {
+		this.countDownLatch = countDownLatch;
+		this.inputSocket = inputSocket;
+		this.outputSocket = outputSocket;
+		this.bufferSizing = bufferSizing;
+		this.coalescingLatency = coalescingLatency;
+		this.statistics = statistics;
+	}
+
+	@Override
+	public void run() {
+		try {
+			SocketUtils.copy(this.inputSocket, this.outputSocket,
+					this.bufferSizing, this.coalescingLatency, this.statistics);
+		} catch (final IOException ignore) {
+		}
+
+		this.countDownLatch.countDown();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+
+/**
+ * What to do with a new connection when the maximum number of connections
+ * are being handled
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@XmlEnum
+public enum AdmissionPolicy {
+	/** Queue the connection, reject it when the queue is full */
+	@XmlEnumValue("queue")
+	QUEUE,
+
+	/** Reject the connection with a SOCKS error */
+	@XmlEnumValue("reject")
+	REJECT,
+
+	/** Stop accepting connections until a connection completes */
+	@XmlEnumValue("pause")
+	PAUSE;
+}
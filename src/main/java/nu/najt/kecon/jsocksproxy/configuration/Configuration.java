@@ -1,120 +1,656 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.configuration;
-
-import java.util.List;
-
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlRootElement;
-
-/**
- * This is the XML root object for the configuration
- * 
- * @author Kenny Colliander Nordin
- * 
- */
-@XmlRootElement
-public class Configuration {
-
-	private int backlog;
-
-	private List<String> outgoingAddresses;
-
-	private List<Listen> listen;
-
-	private boolean allowSocks4 = true;
-
-	private boolean allowSocks5 = true;
-
-	/**
-	 * @return the backlog
-	 */
-	public int getBacklog() {
-		return this.backlog;
-	}
-
-	/**
-	 * @param backlog
-	 *            the backlog to set
-	 */
-	public void setBacklog(final int backlog) {
-		this.backlog = backlog;
-	}
-
-	/**
-	 * @return the outgoingAddress
-	 */
-	@XmlElement(name = "outgoingAddress")
-	public List<String> getOutgoingAddresses() {
-		return this.outgoingAddresses;
-	}
-
-	/**
-	 * @param outgoingAddresses
-	 *            the outgoingAddress to set
-	 */
-	public void setOutgoingAddresses(final List<String> outgoingAddresses) {
-		this.outgoingAddresses = outgoingAddresses;
-	}
-
-	/**
-	 * @return the listen
-	 */
-	public List<Listen> getListen() {
-		return this.listen;
-	}
-
-	/**
-	 * @param listen
-	 *            the listen to set
-	 */
-	public void setListen(final List<Listen> listen) {
-		this.listen = listen;
-	}
-
-	/**
-	 * @return the allowSocks4
-	 */
-	@XmlElement(defaultValue = "true")
-	public boolean isAllowSocks4() {
-		return this.allowSocks4;
-	}
-
-	/**
-	 * @param allowSocks4
-	 *            the allowSocks4 to set
-	 */
-	public void setAllowSocks4(final boolean allowSocks4) {
-		this.allowSocks4 = allowSocks4;
-	}
-
-	/**
-	 * @return the allowSocks5
-	 */
-	@XmlElement(defaultValue = "true")
-	public boolean isAllowSocks5() {
-		return this.allowSocks5;
-	}
-
-	/**
-	 * @param allowSocks5
-	 *            the allowSocks5 to set
-	 */
-	public void setAllowSocks5(final boolean allowSocks5) {
-		this.allowSocks5 = allowSocks5;
-	}
-
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import nu.najt.kecon.jsocksproxy.connect.ConnectionRacer;
+import nu.najt.kecon.jsocksproxy.connect.DestinationGuard;
+import nu.najt.kecon.jsocksproxy.dns.DnsClient;
+import nu.najt.kecon.jsocksproxy.utils.BufferPool;
+
+/**
+ * This is the XML root object for the configuration
+ * 
+ * @author Kenny Colliander Nordin
+ * 
+ */
+@XmlRootElement
+public class Configuration {
+
+	/** Default number of cached hostnames */
+	public static final int DEFAULT_DNS_CACHE_SIZE = 1024;
+
+	/** Default time to live of cached addresses in seconds */
+	public static final int DEFAULT_DNS_CACHE_TTL = 30;
+
+	/** Default time to live of failed lookups in seconds */
+	public static final int DEFAULT_DNS_NEGATIVE_CACHE_TTL = 5;
+
+	private int backlog;
+
+	private List<String> outgoingAddresses;
+
+	private List<String> outgoingPrefixes;
+
+	private PrefixRotation prefixRotation = PrefixRotation.CONNECTION;
+
+	private EgressPolicy egress = EgressPolicy.FIRST;
+
+	private List<EgressWeight> egressWeights;
+
+	private String sourcePortRange;
+
+	private List<Listen> listen;
+
+	private boolean allowSocks4 = true;
+
+	private boolean allowSocks5 = true;
+
+	private int relayEventLoops;
+
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	private long bufferPoolMaxMemory = BufferPool.DEFAULT_MAX_MEMORY;
+
+	private int maxConnections;
+
+	private int connectionQueueDepth;
+
+	private AdmissionPolicy admission = AdmissionPolicy.QUEUE;
+
+	private int dnsCacheSize = DEFAULT_DNS_CACHE_SIZE;
+
+	private int dnsCacheTtl = DEFAULT_DNS_CACHE_TTL;
+
+	private int dnsNegativeCacheTtl = DEFAULT_DNS_NEGATIVE_CACHE_TTL;
+
+	private ResolverMode resolver = ResolverMode.SYSTEM;
+
+	private List<String> nameservers;
+
+	private long dnsTimeout = DnsClient.DEFAULT_TIMEOUT;
+
+	private int dnsAttempts = DnsClient.DEFAULT_ATTEMPTS;
+
+	private long connectAttemptDelay = ConnectionRacer.DEFAULT_ATTEMPT_DELAY;
+
+	private long connectTimeout = ConnectionRacer.DEFAULT_CONNECT_TIMEOUT;
+
+	private int maxConnectionsPerDestination;
+
+	private int maxConnectAttemptsPerDestination = DestinationGuard.DEFAULT_MAX_CONNECT_LIMIT;
+
+	private long unreachableTtl = DestinationGuard.DEFAULT_UNREACHABLE_TTL;
+
+	private String metricsAddress = "127.0.0.1";
+
+	private int metricsPort;
+
+	/**
+	 * @return the backlog
+	 */
+	public int getBacklog() {
+		return this.backlog;
+	}
+
+	/**
+	 * @param backlog
+	 *            the backlog to set
+	 */
+	public void setBacklog(final int backlog) {
+		this.backlog = backlog;
+	}
+
+	/**
+	 * @return the outgoingAddress
+	 */
+	@XmlElement(name = "outgoingAddress")
+	public List<String> getOutgoingAddresses() {
+		return this.outgoingAddresses;
+	}
+
+	/**
+	 * @param outgoingAddresses
+	 *            the outgoingAddress to set
+	 */
+	public void setOutgoingAddresses(final List<String> outgoingAddresses) {
+		this.outgoingAddresses = outgoingAddresses;
+	}
+
+	/**
+	 * @return the prefixes, such as 2001:db8::/64, that outgoing addresses
+	 *         are drawn from; the prefixes must be routed to the local host
+	 * @since 3.0
+	 */
+	@XmlElement(name = "outgoingPrefix")
+	public List<String> getOutgoingPrefixes() {
+		return this.outgoingPrefixes;
+	}
+
+	/**
+	 * @param outgoingPrefixes
+	 *            the prefixes that outgoing addresses are drawn from
+	 * @since 3.0
+	 */
+	public void setOutgoingPrefixes(final List<String> outgoingPrefixes) {
+		this.outgoingPrefixes = outgoingPrefixes;
+	}
+
+	/**
+	 * @return how addresses are drawn from the outgoing prefixes
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "connection")
+	public PrefixRotation getPrefixRotation() {
+		return this.prefixRotation;
+	}
+
+	/**
+	 * @param prefixRotation
+	 *            how addresses are drawn from the outgoing prefixes
+	 * @since 3.0
+	 */
+	public void setPrefixRotation(final PrefixRotation prefixRotation) {
+		this.prefixRotation = prefixRotation;
+	}
+
+	/**
+	 * @return how the outgoing address of a connection is chosen
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "first")
+	public EgressPolicy getEgress() {
+		return this.egress;
+	}
+
+	/**
+	 * @param egress
+	 *            how the outgoing address of a connection is chosen
+	 * @since 3.0
+	 */
+	public void setEgress(final EgressPolicy egress) {
+		this.egress = egress;
+	}
+
+	/**
+	 * @return the weights of outgoing addresses, addresses not listed have
+	 *         weight 1
+	 * @since 3.0
+	 */
+	@XmlElement(name = "egressWeight")
+	public List<EgressWeight> getEgressWeights() {
+		return this.egressWeights;
+	}
+
+	/**
+	 * @param egressWeights
+	 *            the weights of outgoing addresses
+	 * @since 3.0
+	 */
+	public void setEgressWeights(final List<EgressWeight> egressWeights) {
+		this.egressWeights = egressWeights;
+	}
+
+	/**
+	 * @return the local port range of outgoing connections, as first-last,
+	 *         or null to let the kernel choose the ports
+	 * @since 3.0
+	 */
+	public String getSourcePortRange() {
+		return this.sourcePortRange;
+	}
+
+	/**
+	 * @param sourcePortRange
+	 *            the local port range of outgoing connections, as
+	 *            first-last
+	 * @since 3.0
+	 */
+	public void setSourcePortRange(final String sourcePortRange) {
+		this.sourcePortRange = sourcePortRange;
+	}
+
+	/**
+	 * @return the listen
+	 */
+	public List<Listen> getListen() {
+		return this.listen;
+	}
+
+	/**
+	 * @param listen
+	 *            the listen to set
+	 */
+	public void setListen(final List<Listen> listen) {
+		this.listen = listen;
+	}
+
+	/**
+	 * @return the allowSocks4
+	 */
+	@XmlElement(defaultValue = "true")
+	public boolean isAllowSocks4() {
+		return this.allowSocks4;
+	}
+
+	/**
+	 * @param allowSocks4
+	 *            the allowSocks4 to set
+	 */
+	public void setAllowSocks4(final boolean allowSocks4) {
+		this.allowSocks4 = allowSocks4;
+	}
+
+	/**
+	 * @return the allowSocks5
+	 */
+	@XmlElement(defaultValue = "true")
+	public boolean isAllowSocks5() {
+		return this.allowSocks5;
+	}
+
+	/**
+	 * @param allowSocks5
+	 *            the allowSocks5 to set
+	 */
+	public void setAllowSocks5(final boolean allowSocks5) {
+		this.allowSocks5 = allowSocks5;
+	}
+
+	/**
+	 * @return the number of relay event loops, zero or less means one per
+	 *         available processor
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "0")
+	public int getRelayEventLoops() {
+		return this.relayEventLoops;
+	}
+
+	/**
+	 * @param relayEventLoops
+	 *            the number of relay event loops to set
+	 * @since 3.0
+	 */
+	public void setRelayEventLoops(final int relayEventLoops) {
+		this.relayEventLoops = relayEventLoops;
+	}
+
+	/**
+	 * @return the thread mode for connection handlers and tunnels
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "platform")
+	public ThreadMode getThreadMode() {
+		return this.threadMode;
+	}
+
+	/**
+	 * @param threadMode
+	 *            the thread mode to set
+	 * @since 3.0
+	 */
+	public void setThreadMode(final ThreadMode threadMode) {
+		this.threadMode = threadMode;
+	}
+
+	/**
+	 * @return maximum amount of direct memory for relay buffers in bytes
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "33554432")
+	public long getBufferPoolMaxMemory() {
+		return this.bufferPoolMaxMemory;
+	}
+
+	/**
+	 * @param bufferPoolMaxMemory
+	 *            maximum amount of direct memory for relay buffers in bytes
+	 * @since 3.0
+	 */
+	public void setBufferPoolMaxMemory(final long bufferPoolMaxMemory) {
+		this.bufferPoolMaxMemory = bufferPoolMaxMemory;
+	}
+
+	/**
+	 * @return maximum number of connections handled at the same time, 0 for
+	 *         unlimited
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "0")
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	/**
+	 * @param maxConnections
+	 *            maximum number of connections handled at the same time
+	 * @since 3.0
+	 */
+	public void setMaxConnections(final int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * @return number of connections that may wait for a handler
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "0")
+	public int getConnectionQueueDepth() {
+		return this.connectionQueueDepth;
+	}
+
+	/**
+	 * @param connectionQueueDepth
+	 *            number of connections that may wait for a handler
+	 * @since 3.0
+	 */
+	public void setConnectionQueueDepth(final int connectionQueueDepth) {
+		this.connectionQueueDepth = connectionQueueDepth;
+	}
+
+	/**
+	 * @return the admission policy when all handlers are busy
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "queue")
+	public AdmissionPolicy getAdmission() {
+		return this.admission;
+	}
+
+	/**
+	 * @param admission
+	 *            the admission policy to set
+	 * @since 3.0
+	 */
+	public void setAdmission(final AdmissionPolicy admission) {
+		this.admission = admission;
+	}
+
+	/**
+	 * @return maximum number of cached hostnames, 0 disables the cache
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "1024")
+	public int getDnsCacheSize() {
+		return this.dnsCacheSize;
+	}
+
+	/**
+	 * @param dnsCacheSize
+	 *            maximum number of cached hostnames
+	 * @since 3.0
+	 */
+	public void setDnsCacheSize(final int dnsCacheSize) {
+		this.dnsCacheSize = dnsCacheSize;
+	}
+
+	/**
+	 * @return maximum time to live of cached addresses in seconds
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "30")
+	public int getDnsCacheTtl() {
+		return this.dnsCacheTtl;
+	}
+
+	/**
+	 * @param dnsCacheTtl
+	 *            maximum time to live of cached addresses in seconds
+	 * @since 3.0
+	 */
+	public void setDnsCacheTtl(final int dnsCacheTtl) {
+		this.dnsCacheTtl = dnsCacheTtl;
+	}
+
+	/**
+	 * @return time to live of failed lookups in seconds
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "5")
+	public int getDnsNegativeCacheTtl() {
+		return this.dnsNegativeCacheTtl;
+	}
+
+	/**
+	 * @param dnsNegativeCacheTtl
+	 *            time to live of failed lookups in seconds
+	 * @since 3.0
+	 */
+	public void setDnsNegativeCacheTtl(final int dnsNegativeCacheTtl) {
+		this.dnsNegativeCacheTtl = dnsNegativeCacheTtl;
+	}
+
+	/**
+	 * @return how hostnames requested by clients are resolved; the DNS
+	 *         client does not apply the search domains of /etc/resolv.conf,
+	 *         see {@link ResolverMode#DNS}
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "system")
+	public ResolverMode getResolver() {
+		return this.resolver;
+	}
+
+	/**
+	 * @param resolver
+	 *            how hostnames requested by clients are resolved
+	 * @since 3.0
+	 */
+	public void setResolver(final ResolverMode resolver) {
+		this.resolver = resolver;
+	}
+
+	/**
+	 * @return the name servers of the DNS client, /etc/resolv.conf is used
+	 *         if empty
+	 * @since 3.0
+	 */
+	@XmlElement(name = "nameserver")
+	public List<String> getNameservers() {
+		return this.nameservers;
+	}
+
+	/**
+	 * @param nameservers
+	 *            the name servers to set
+	 * @since 3.0
+	 */
+	public void setNameservers(final List<String> nameservers) {
+		this.nameservers = nameservers;
+	}
+
+	/**
+	 * @return time the DNS client waits for an answer in milliseconds
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "2000")
+	public long getDnsTimeout() {
+		return this.dnsTimeout;
+	}
+
+	/**
+	 * @param dnsTimeout
+	 *            time the DNS client waits for an answer in milliseconds
+	 * @since 3.0
+	 */
+	public void setDnsTimeout(final long dnsTimeout) {
+		this.dnsTimeout = dnsTimeout;
+	}
+
+	/**
+	 * @return number of times the DNS client asks each name server
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "2")
+	public int getDnsAttempts() {
+		return this.dnsAttempts;
+	}
+
+	/**
+	 * @param dnsAttempts
+	 *            number of times the DNS client asks each name server
+	 * @since 3.0
+	 */
+	public void setDnsAttempts(final int dnsAttempts) {
+		this.dnsAttempts = dnsAttempts;
+	}
+
+	/**
+	 * @return delay before connecting to the next address of a destination
+	 *         in milliseconds
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "250")
+	public long getConnectAttemptDelay() {
+		return this.connectAttemptDelay;
+	}
+
+	/**
+	 * @param connectAttemptDelay
+	 *            delay before connecting to the next address of a
+	 *            destination in milliseconds
+	 * @since 3.0
+	 */
+	public void setConnectAttemptDelay(final long connectAttemptDelay) {
+		this.connectAttemptDelay = connectAttemptDelay;
+	}
+
+	/**
+	 * @return time to connect to a destination in milliseconds, zero for the
+	 *         operating system timeout
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "30000")
+	public long getConnectTimeout() {
+		return this.connectTimeout;
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            time to connect to a destination in milliseconds, zero for
+	 *            the operating system timeout
+	 * @since 3.0
+	 */
+	public void setConnectTimeout(final long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return the maximum number of open connections to one destination, host
+	 *         and port, zero for no limit
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "0")
+	public int getMaxConnectionsPerDestination() {
+		return this.maxConnectionsPerDestination;
+	}
+
+	/**
+	 * @param maxConnectionsPerDestination
+	 *            the maximum number of open connections to one destination,
+	 *            zero for no limit
+	 * @since 3.0
+	 */
+	public void setMaxConnectionsPerDestination(
+			final int maxConnectionsPerDestination) {
+		this.maxConnectionsPerDestination = maxConnectionsPerDestination;
+	}
+
+	/**
+	 * @return the upper bound of the adaptive limit of concurrent connection
+	 *         attempts to one destination, zero for no limit
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "200")
+	public int getMaxConnectAttemptsPerDestination() {
+		return this.maxConnectAttemptsPerDestination;
+	}
+
+	/**
+	 * @param maxConnectAttemptsPerDestination
+	 *            the upper bound of the adaptive limit of concurrent
+	 *            connection attempts to one destination, zero for no limit
+	 * @since 3.0
+	 */
+	public void setMaxConnectAttemptsPerDestination(
+			final int maxConnectAttemptsPerDestination) {
+		this.maxConnectAttemptsPerDestination = maxConnectAttemptsPerDestination;
+	}
+
+	/**
+	 * @return time in milliseconds a destination that failed to connect is
+	 *         refused without an attempt, zero to always attempt; defaults
+	 *         to zero
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "0")
+	public long getUnreachableTtl() {
+		return this.unreachableTtl;
+	}
+
+	/**
+	 * @param unreachableTtl
+	 *            time in milliseconds a destination that failed to connect
+	 *            is refused without an attempt, zero to always attempt
+	 * @since 3.0
+	 */
+	public void setUnreachableTtl(final long unreachableTtl) {
+		this.unreachableTtl = unreachableTtl;
+	}
+
+	/**
+	 * @return the address of the metrics endpoint
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "127.0.0.1")
+	public String getMetricsAddress() {
+		return this.metricsAddress;
+	}
+
+	/**
+	 * @param metricsAddress
+	 *            the address of the metrics endpoint
+	 * @since 3.0
+	 */
+	public void setMetricsAddress(final String metricsAddress) {
+		this.metricsAddress = metricsAddress;
+	}
+
+	/**
+	 * @return the port of the metrics endpoint serving the metrics in the
+	 *         Prometheus text format, zero to not serve metrics
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "0")
+	public int getMetricsPort() {
+		return this.metricsPort;
+	}
+
+	/**
+	 * @param metricsPort
+	 *            the port of the metrics endpoint, zero to not serve metrics
+	 * @since 3.0
+	 */
+	public void setMetricsPort(final int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+
+/**
+ * How the source address of an outgoing connection is chosen when several
+ * outgoing addresses of the address family of the destination are
+ * configured
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@XmlEnum
+public enum EgressPolicy {
+	/** Always use the first outgoing address */
+	@XmlEnumValue("first")
+	FIRST,
+
+	/** Use the outgoing addresses in turn */
+	@XmlEnumValue("round-robin")
+	ROUND_ROBIN,
+
+	/** Use the outgoing address with the fewest open connections */
+	@XmlEnumValue("least-connections")
+	LEAST_CONNECTIONS,
+
+	/** Use the outgoing addresses in turn in proportion to their weights */
+	@XmlEnumValue("weighted")
+	WEIGHTED,
+
+	/** Use the same outgoing address for each client address */
+	@XmlEnumValue("client-hash")
+	CLIENT_HASH,
+
+	/** Use the same outgoing address for each destination address */
+	@XmlEnumValue("destination-hash")
+	DESTINATION_HASH,
+
+	/**
+	 * Use the same outgoing address for each pair of client and destination
+	 * address
+	 */
+	@XmlEnumValue("client-destination-hash")
+	CLIENT_DESTINATION_HASH;
+}
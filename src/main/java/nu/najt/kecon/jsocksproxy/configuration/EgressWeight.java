@@ -0,0 +1,63 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * This is the egressWeight XML-tag, the weight of an outgoing address with
+ * the weighted and hash egress policies
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class EgressWeight {
+
+	private String address;
+
+	private int weight = 1;
+
+	/**
+	 * @return the outgoing address
+	 */
+	public String getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @param address
+	 *            the outgoing address
+	 */
+	public void setAddress(final String address) {
+		this.address = address;
+	}
+
+	/**
+	 * @return the weight
+	 */
+	@XmlElement(defaultValue = "1")
+	public int getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * @param weight
+	 *            the weight to set
+	 */
+	public void setWeight(final int weight) {
+		this.weight = weight;
+	}
+}
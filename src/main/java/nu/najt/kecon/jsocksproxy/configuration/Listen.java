@@ -1,62 +1,205 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.configuration;
-
-import javax.xml.bind.annotation.XmlElement;
-
-/**
- * This is the listen XML-tag
- * 
- * @author Kenny Colliander Nordin
- * 
- */
-public class Listen {
-	private String address;
-
-	private int port;
-
-	/**
-	 * @return the address
-	 */
-	public String getAddress() {
-		return this.address;
-	}
-
-	/**
-	 * @param address
-	 *            the address to set
-	 */
-	public void setAddress(final String address) {
-		this.address = address;
-	}
-
-	/**
-	 * @return the port
-	 */
-	@XmlElement(defaultValue = "1080")
-	public int getPort() {
-		return this.port;
-	}
-
-	/**
-	 * @param port
-	 *            the port to set
-	 */
-	public void setPort(final int port) {
-		this.port = port;
-	}
-
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import javax.xml.bind.annotation.XmlElement;
+
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+
+/**
+ * This is the listen XML-tag
+ * 
+ * @author Kenny Colliander Nordin
+ * 
+ */
+public class Listen {
+	private String address;
+
+	private int port;
+
+	private RelayMode relay = RelayMode.BLOCKING;
+
+	private BufferMode buffer = BufferMode.ADAPTIVE;
+
+	private int minBufferSize = BufferSizing.DEFAULT_MIN_SIZE;
+
+	private int maxBufferSize = BufferSizing.DEFAULT_MAX_SIZE;
+
+	private boolean coalesceWrites = false;
+
+	private int coalescingLatency = 50;
+
+	private int acceptors = 1;
+
+	/**
+	 * @return the address
+	 */
+	public String getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @param address
+	 *            the address to set
+	 */
+	public void setAddress(final String address) {
+		this.address = address;
+	}
+
+	/**
+	 * @return the port
+	 */
+	@XmlElement(defaultValue = "1080")
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * @param port
+	 *            the port to set
+	 */
+	public void setPort(final int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @return the relay mode
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "blocking")
+	public RelayMode getRelay() {
+		return this.relay;
+	}
+
+	/**
+	 * @param relay
+	 *            the relay mode to set
+	 * @since 3.0
+	 */
+	public void setRelay(final RelayMode relay) {
+		this.relay = relay;
+	}
+
+	/**
+	 * @return the buffer mode
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "adaptive")
+	public BufferMode getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * @param buffer
+	 *            the buffer mode to set
+	 * @since 3.0
+	 */
+	public void setBuffer(final BufferMode buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return the minimum buffer size, also used in fixed buffer mode
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "4096")
+	public int getMinBufferSize() {
+		return this.minBufferSize;
+	}
+
+	/**
+	 * @param minBufferSize
+	 *            the minimum buffer size to set
+	 * @since 3.0
+	 */
+	public void setMinBufferSize(final int minBufferSize) {
+		this.minBufferSize = minBufferSize;
+	}
+
+	/**
+	 * @return the maximum buffer size in adaptive buffer mode
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "65536")
+	public int getMaxBufferSize() {
+		return this.maxBufferSize;
+	}
+
+	/**
+	 * @param maxBufferSize
+	 *            the maximum buffer size to set
+	 * @since 3.0
+	 */
+	public void setMaxBufferSize(final int maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	/**
+	 * @return true if tunnels should coalesce available input into one write
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "false")
+	public boolean isCoalesceWrites() {
+		return this.coalesceWrites;
+	}
+
+	/**
+	 * @param coalesceWrites
+	 *            true if tunnels should coalesce writes
+	 * @since 3.0
+	 */
+	public void setCoalesceWrites(final boolean coalesceWrites) {
+		this.coalesceWrites = coalesceWrites;
+	}
+
+	/**
+	 * @return how long in microseconds a blocking tunnel may wait for more
+	 *         input to coalesce
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "50")
+	public int getCoalescingLatency() {
+		return this.coalescingLatency;
+	}
+
+	/**
+	 * @param coalescingLatency
+	 *            the coalescing latency in microseconds to set
+	 * @since 3.0
+	 */
+	public void setCoalescingLatency(final int coalescingLatency) {
+		this.coalescingLatency = coalescingLatency;
+	}
+
+	/**
+	 * @return number of acceptors sharing the address with SO_REUSEPORT
+	 * @since 3.0
+	 */
+	@XmlElement(defaultValue = "1")
+	public int getAcceptors() {
+		return this.acceptors;
+	}
+
+	/**
+	 * @param acceptors
+	 *            the number of acceptors to set
+	 * @since 3.0
+	 */
+	public void setAcceptors(final int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+}
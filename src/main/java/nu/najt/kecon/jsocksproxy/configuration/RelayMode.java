@@ -0,0 +1,44 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+
+/**
+ * How established tunnels are relayed for a listen address
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@XmlEnum
+public enum RelayMode {
+	/** Two blocking threads per tunnel */
+	@XmlEnumValue("blocking")
+	BLOCKING,
+
+	/**
+	 * One thread per tunnel relaying both directions with a private selector.
+	 * Saves a thread per tunnel, but each selector holds file descriptors of
+	 * its own, about three per tunnel on Java 8.
+	 */
+	@XmlEnumValue("selector")
+	SELECTOR,
+
+	/** Shared selector based event loops */
+	@XmlEnumValue("nio")
+	NIO;
+}
@@ -0,0 +1,41 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.configuration;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+
+/**
+ * Which kind of threads that run connection handlers and tunnels
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+@XmlEnum
+public enum ThreadMode {
+	/** Cached pool of platform threads */
+	@XmlEnumValue("platform")
+	PLATFORM,
+
+	/**
+	 * One virtual thread per task, requires Java 21. Falls back to platform
+	 * threads on older runtimes. The monitors taken on the connection path,
+	 * by the destination guard and the DNS cache, are held for in-memory
+	 * updates only, so blocking socket calls do not pin the carrier threads.
+	 */
+	@XmlEnumValue("virtual")
+	VIRTUAL;
+}
@@ -0,0 +1,431 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.connect;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.najt.kecon.jsocksproxy.egress.PortSpace;
+
+/**
+ * Connects to a destination with several addresses by racing connection
+ * attempts, as described by RFC 8305 (Happy Eyeballs version 2). The
+ * addresses are ordered with the preferred address family first and the
+ * families interleaved after that. A new attempt is started when the
+ * previous attempt has not completed within the attempt delay or as soon as
+ * it fails. The first attempt that connects wins and all other attempts are
+ * closed.
+ * <p>
+ * The preferred address family is learned: when a race is won by the other
+ * family, that family is tried first from then on. The initial preference
+ * follows the <code>java.net.preferIPv6Addresses</code> system property.
+ * <p>
+ * The attempts run on the calling thread with a private selector, the
+ * connected socket is returned in blocking mode. When a {@link PortSpace} is
+ * set the channels are opened through it and the port of the returned socket
+ * must be released by the caller.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class ConnectionRacer {
+
+	/** Default delay between connection attempts in milliseconds */
+	public static final long DEFAULT_ATTEMPT_DELAY = 250;
+
+	/** Default time to connect to a destination in milliseconds */
+	public static final long DEFAULT_CONNECT_TIMEOUT = 30000;
+
+	/** The shortest attempt delay recommended by RFC 8305 */
+	private static final long MIN_ATTEMPT_DELAY = 10;
+
+	private volatile PortSpace portSpace;
+
+	private volatile long attemptDelay = DEFAULT_ATTEMPT_DELAY;
+
+	private volatile long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+	private volatile boolean preferIpv6 = Boolean
+			.getBoolean("java.net.preferIPv6Addresses");
+
+	private final AtomicLong connects = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong attempts = new AtomicLong();
+
+	private final AtomicLong cancelled = new AtomicLong();
+
+	private final AtomicLong connectTime = new AtomicLong();
+
+	/**
+	 * Connect to the first reachable address. Each attempt binds to the
+	 * first source address of the same address family as the destination,
+	 * destinations without such a source address are skipped.
+	 * 
+	 * @param addresses
+	 *            the addresses of the destination, in resolver order
+	 * @param port
+	 *            the port
+	 * @param sourceAddresses
+	 *            the local addresses to connect from
+	 * @return the connected socket in blocking mode
+	 * @throws SocketTimeoutException
+	 *             if no attempt connected within the connect timeout
+	 * @throws IOException
+	 *             if all attempts failed
+	 */
+	public Socket connect(final InetAddress[] addresses, final int port,
+			final List<InetAddress> sourceAddresses) throws IOException {
+		final List<Candidate> candidates = this.order(addresses,
+				sourceAddresses);
+
+		if (candidates.isEmpty()) {
+			throw new IOException(
+					"No route to address found using local addresses");
+		}
+
+		final long start = System.nanoTime();
+		final long connectTimeout = this.connectTimeout;
+		final long deadline = start
+				+ TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+		final long attemptDelay = TimeUnit.MILLISECONDS
+				.toNanos(Math.max(this.attemptDelay, MIN_ATTEMPT_DELAY));
+
+		final PortSpace portSpace = this.portSpace;
+		final List<SocketChannel> pending = new ArrayList<SocketChannel>();
+		final Selector selector = Selector.open();
+		SocketChannel winner = null;
+		Candidate winningCandidate = null;
+		IOException failure = null;
+		int next = 0;
+		long nextAttempt = start;
+
+		try {
+			while (winner == null) {
+				final long now = System.nanoTime();
+
+				if ((next < candidates.size())
+						&& ((now - nextAttempt >= 0) || pending.isEmpty())) {
+					final Candidate candidate = candidates.get(next++);
+					this.attempts.incrementAndGet();
+
+					try {
+						final SocketChannel channel = open(portSpace,
+								candidate.source, new InetSocketAddress(
+										candidate.destination, port));
+
+						if (channel.isConnected()) {
+							winner = channel;
+							winningCandidate = candidate;
+						} else {
+							channel.register(selector, SelectionKey.OP_CONNECT,
+									candidate);
+							pending.add(channel);
+							nextAttempt = now + attemptDelay;
+						}
+					} catch (final IOException e) {
+						// Failed at once, the next attempt starts without delay
+						failure = e;
+					}
+					continue;
+				}
+
+				if (pending.isEmpty()) {
+					throw (failure != null) ? failure
+							: new IOException("Failed to connect");
+				}
+
+				if ((connectTimeout > 0) && (now - deadline >= 0)) {
+					throw new SocketTimeoutException("Connect timed out");
+				}
+
+				long timeout = (connectTimeout > 0) ? deadline - now
+						: Long.MAX_VALUE;
+				if (next < candidates.size()) {
+					timeout = Math.min(timeout, nextAttempt - now);
+				}
+				selector.select(TimeUnit.NANOSECONDS.toMillis(timeout) + 1);
+
+				final Iterator<SelectionKey> iterator = selector.selectedKeys()
+						.iterator();
+				while (iterator.hasNext() && (winner == null)) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+
+					final SocketChannel channel = (SocketChannel) key
+							.channel();
+					try {
+						if (channel.finishConnect()) {
+							pending.remove(channel);
+							winner = channel;
+							winningCandidate = (Candidate) key.attachment();
+						}
+					} catch (final IOException e) {
+						pending.remove(channel);
+						close(portSpace, channel);
+						failure = e;
+						nextAttempt = System.nanoTime();
+					}
+				}
+			}
+		} catch (final IOException e) {
+			this.failures.incrementAndGet();
+			throw e;
+		} finally {
+			for (final SocketChannel channel : pending) {
+				close(portSpace, channel);
+			}
+
+			if (winner != null) {
+				this.cancelled.addAndGet(pending.size());
+			}
+
+			selector.close();
+		}
+
+		try {
+			winner.configureBlocking(true);
+		} catch (final IOException e) {
+			close(portSpace, winner);
+			this.failures.incrementAndGet();
+			throw e;
+		}
+
+		this.record(candidates, winningCandidate, System.nanoTime() - start);
+
+		return winner.socket();
+	}
+
+	/**
+	 * @param portSpace
+	 *            the port space opening the channels, or null to let the
+	 *            kernel choose the local ports untracked
+	 */
+	public void setPortSpace(final PortSpace portSpace) {
+		this.portSpace = portSpace;
+	}
+
+	/**
+	 * @return the port space opening the channels, or null
+	 */
+	public PortSpace getPortSpace() {
+		return this.portSpace;
+	}
+
+	/**
+	 * @param attemptDelay
+	 *            delay between connection attempts in milliseconds
+	 */
+	public void setAttemptDelay(final long attemptDelay) {
+		this.attemptDelay = attemptDelay;
+	}
+
+	/**
+	 * @return delay between connection attempts in milliseconds
+	 */
+	public long getAttemptDelay() {
+		return this.attemptDelay;
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            time to connect to a destination in milliseconds, zero for
+	 *            no limit
+	 */
+	public void setConnectTimeout(final long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return time to connect to a destination in milliseconds
+	 */
+	public long getConnectTimeout() {
+		return this.connectTimeout;
+	}
+
+	/**
+	 * @return true if IPv6 addresses are tried first
+	 */
+	public boolean isPreferIpv6() {
+		return this.preferIpv6;
+	}
+
+	/**
+	 * @return number of successful connects
+	 */
+	public long getConnects() {
+		return this.connects.get();
+	}
+
+	/**
+	 * @return number of connects where all attempts failed or timed out
+	 */
+	public long getFailures() {
+		return this.failures.get();
+	}
+
+	/**
+	 * @return number of connection attempts
+	 */
+	public long getAttempts() {
+		return this.attempts.get();
+	}
+
+	/**
+	 * @return number of attempts closed because another attempt won
+	 */
+	public long getCancelled() {
+		return this.cancelled.get();
+	}
+
+	/**
+	 * @return average time of successful connects in milliseconds
+	 */
+	public double getAverageConnectTime() {
+		final long connects = this.connects.get();
+		return (connects > 0) ? (this.connectTime.get() / 1000.0 / connects)
+				: 0;
+	}
+
+	/**
+	 * Order the addresses with the preferred family first, then alternating
+	 * between the families
+	 */
+	private List<Candidate> order(final InetAddress[] addresses,
+			final List<InetAddress> sourceAddresses) {
+		final List<Candidate> preferred = new ArrayList<Candidate>();
+		final List<Candidate> other = new ArrayList<Candidate>();
+		final boolean preferIpv6 = this.preferIpv6;
+
+		for (final InetAddress address : addresses) {
+			final InetAddress source = findSource(address, sourceAddresses);
+
+			if (source != null) {
+				final Candidate candidate = new Candidate(address, source);
+				if (candidate.isIpv6() == preferIpv6) {
+					preferred.add(candidate);
+				} else {
+					other.add(candidate);
+				}
+			}
+		}
+
+		final List<Candidate> candidates = new ArrayList<Candidate>(
+				preferred.size() + other.size());
+		for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+			if (i < preferred.size()) {
+				candidates.add(preferred.get(i));
+			}
+			if (i < other.size()) {
+				candidates.add(other.get(i));
+			}
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * Record a successful connect. The preference changes to the family of
+	 * the winner if it was not the family tried first.
+	 */
+	private void record(final List<Candidate> candidates,
+			final Candidate winner, final long elapsed) {
+		this.connects.incrementAndGet();
+		this.connectTime.addAndGet(TimeUnit.NANOSECONDS.toMicros(elapsed));
+
+		if (winner.isIpv6() != candidates.get(0).isIpv6()) {
+			this.preferIpv6 = winner.isIpv6();
+		}
+	}
+
+	private static InetAddress findSource(final InetAddress address,
+			final List<InetAddress> sourceAddresses) {
+		for (final InetAddress sourceAddress : sourceAddresses) {
+			if (sourceAddress.getClass() == address.getClass()) {
+				return sourceAddress;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Open a non-blocking channel and start connecting, through the port
+	 * space if available
+	 */
+	private static SocketChannel open(final PortSpace portSpace,
+			final InetAddress source, final InetSocketAddress destination)
+			throws IOException {
+		if (portSpace != null) {
+			return portSpace.open(source, destination);
+		}
+
+		final SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.bind(new InetSocketAddress(source, 0));
+			channel.connect(destination);
+			return channel;
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void close(final PortSpace portSpace,
+			final SocketChannel channel) {
+		if (portSpace != null) {
+			portSpace.release(channel);
+		}
+
+		try {
+			channel.close();
+		} catch (final IOException e) {
+		}
+	}
+
+	/**
+	 * A destination address and the source address to connect from
+	 */
+	private static final class Candidate {
+
+		private final InetAddress destination;
+
+		private final InetAddress source;
+
+		private Candidate(final InetAddress destination,
+				final InetAddress source) {
+			this.destination = destination;
+			this.source = source;
+		}
+
+		private boolean isIpv6() {
+			return this.destination instanceof Inet6Address;
+		}
+	}
+}
@@ -0,0 +1,577 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.connect;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * Guards outgoing connections per destination, host and port, with a
+ * connection limit, a circuit breaker and an adaptive limit of concurrent
+ * connection attempts.
+ * <p>
+ * The circuit breaker follows the failure rate of the connection attempts,
+ * an exponentially weighted average where the first attempt of a destination
+ * counts fully. When the rate reaches one half the breaker opens and the
+ * destination is refused at once for the unreachable time. After that one
+ * connection is let through as a probe while the others keep failing; the
+ * breaker closes when the probe connects and opens again when it fails.
+ * <p>
+ * The limit of concurrent connection attempts is adjusted by additive
+ * increase and multiplicative decrease: an attempt that connects close to
+ * the lowest observed connect time raises the limit by one per limit of
+ * attempts, a slow attempt lowers it by a tenth and a failed attempt halves
+ * it. Attempts above the limit are shed instead of queuing behind a slow
+ * destination.
+ * <p>
+ * The state of a destination is guarded by its monitor. Only counters and
+ * timestamps are updated while it is held, the connect itself runs outside
+ * it, so a virtual thread never blocks on I/O while pinned by the monitor.
+ * <p>
+ * A connection is guarded by the {@link Permit} returned by
+ * {@link #acquire(String)}; the permit is notified when the connection is
+ * established or failed and is released when its tunnel closes. A
+ * destination keeps its failure rate, connect times and limit while it is
+ * idle, until it has not been used for the idle time.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class DestinationGuard {
+
+	/**
+	 * Default time a destination is unreachable in milliseconds; zero, the
+	 * circuit breaker is off unless configured
+	 */
+	public static final long DEFAULT_UNREACHABLE_TTL = 0;
+
+	/** Default upper bound of the adaptive limit of concurrent attempts */
+	public static final int DEFAULT_MAX_CONNECT_LIMIT = 200;
+
+	/** The adaptive limit of a new destination */
+	static final double INITIAL_CONNECT_LIMIT = 20;
+
+	/** The failure rate that opens the circuit breaker */
+	static final double FAILURE_RATE_THRESHOLD = 0.5;
+
+	/** Weight of the latest attempt in the failure rate */
+	private static final double FAILURE_RATE_WEIGHT = 0.25;
+
+	/** Connect times above this multiple of the lowest are slow */
+	private static final double LATENCY_TOLERANCE = 2;
+
+	private static final double SLOW_DECREASE = 0.9;
+
+	private static final double FAILURE_DECREASE = 0.5;
+
+	/** Number of acquisitions between purges of expired destinations */
+	private static final int PURGE_INTERVAL = 1024;
+
+	/** Time in nanoseconds an idle destination keeps its history */
+	static final long IDLE_TTL = TimeUnit.MINUTES.toNanos(5);
+
+	private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<String, Destination>();
+
+	private volatile int maxConnections;
+
+	private volatile int maxConnectLimit = DEFAULT_MAX_CONNECT_LIMIT;
+
+	private volatile long unreachableTtl = DEFAULT_UNREACHABLE_TTL;
+
+	private final AtomicLong acquisitions = new AtomicLong();
+
+	private final AtomicLong limited = new AtomicLong();
+
+	private final AtomicLong shed = new AtomicLong();
+
+	private final AtomicLong fastFailures = new AtomicLong();
+
+	private final AtomicLong probes = new AtomicLong();
+
+	/**
+	 * Acquire a permit to connect to the destination
+	 * 
+	 * @param destination
+	 *            the destination, as host:port
+	 * @return the permit
+	 * @throws DestinationUnavailableException
+	 *             if the circuit breaker of the destination is open, the
+	 *             destination has too many connections or too many
+	 *             connection attempts
+	 */
+	public Permit acquire(final String destination)
+			throws DestinationUnavailableException {
+		if ((this.acquisitions.incrementAndGet() % PURGE_INTERVAL) == 0) {
+			this.purge(System.nanoTime());
+		}
+
+		while (true) {
+			Destination entry = this.destinations.get(destination);
+			if (entry == null) {
+				final Destination created = new Destination(destination,
+						Math.min(INITIAL_CONNECT_LIMIT,
+								Math.max(this.maxConnectLimit, 1)));
+				entry = this.destinations.putIfAbsent(destination, created);
+				if (entry == null) {
+					entry = created;
+				}
+			}
+
+			synchronized (entry) {
+				if (entry.removed) {
+					continue;
+				}
+
+				boolean probe = false;
+				if (entry.state != BreakerState.CLOSED) {
+					if ((entry.state == BreakerState.HALF_OPEN)
+							|| ((System.nanoTime() - entry.openUntil) < 0)) {
+						this.fastFailures.incrementAndGet();
+						throw new DestinationUnavailableException(
+								destination + " is unreachable");
+					}
+
+					probe = true;
+				}
+
+				final int maxConnections = this.maxConnections;
+				if ((maxConnections > 0) && (entry.active >= maxConnections)) {
+					this.limited.incrementAndGet();
+					throw new DestinationUnavailableException(
+							destination + " has too many connections");
+				}
+
+				final int maxConnectLimit = this.maxConnectLimit;
+				if ((maxConnectLimit > 0) && (entry.connecting >= Math
+						.min((int) entry.limit, maxConnectLimit))) {
+					this.shed.incrementAndGet();
+					throw new DestinationUnavailableException(
+							destination + " has too many connection attempts");
+				}
+
+				if (probe) {
+					entry.state = BreakerState.HALF_OPEN;
+					this.probes.incrementAndGet();
+				}
+
+				entry.active++;
+				entry.connecting++;
+				entry.lastUsed = System.nanoTime();
+				return new Permit(entry, probe);
+			}
+		}
+	}
+
+	/**
+	 * @return the destinations whose circuit breaker is not closed
+	 */
+	public String[] getUnreachableDestinations() {
+		final long now = System.nanoTime();
+		final List<String> unreachable = new ArrayList<String>();
+
+		for (final Destination entry : this.destinations.values()) {
+			synchronized (entry) {
+				if (entry.state == BreakerState.OPEN) {
+					unreachable.add(entry.name + " failures=" + entry.failures
+							+ " remaining="
+							+ Math.max(TimeUnit.NANOSECONDS
+									.toMillis(entry.openUntil - now), 0)
+							+ " ms");
+				} else if (entry.state == BreakerState.HALF_OPEN) {
+					unreachable.add(entry.name + " failures=" + entry.failures
+							+ " probing");
+				}
+			}
+		}
+
+		return unreachable.toArray(new String[unreachable.size()]);
+	}
+
+	/**
+	 * @return the breaker state, limit and counters of each destination with
+	 *         open connections or recent use
+	 */
+	public String[] getDestinationStates() {
+		final List<String> states = new ArrayList<String>();
+
+		for (final Destination entry : this.destinations.values()) {
+			synchronized (entry) {
+				states.add(String.format(Locale.ROOT,
+						"%s state=%s limit=%.1f connecting=%d active=%d failureRate=%.2f connectTime=%.1f ms",
+						entry.name,
+						entry.state.name().toLowerCase(Locale.ROOT)
+								.replace('_', '-'),
+						entry.limit, entry.connecting, entry.active,
+						entry.failureRate, entry.latency / 1000000.0));
+			}
+		}
+
+		return states.toArray(new String[states.size()]);
+	}
+
+	/**
+	 * @param destination
+	 *            the destination, as host:port
+	 * @return the state of the circuit breaker of the destination
+	 */
+	public BreakerState getState(final String destination) {
+		final Destination entry = this.destinations.get(destination);
+		if (entry == null) {
+			return BreakerState.CLOSED;
+		}
+
+		synchronized (entry) {
+			return entry.state;
+		}
+	}
+
+	/**
+	 * @param destination
+	 *            the destination, as host:port
+	 * @return the current limit of concurrent connection attempts to the
+	 *         destination
+	 */
+	public double getConnectLimit(final String destination) {
+		final Destination entry = this.destinations.get(destination);
+		if (entry == null) {
+			return Math.min(INITIAL_CONNECT_LIMIT, this.maxConnectLimit);
+		}
+
+		synchronized (entry) {
+			return entry.limit;
+		}
+	}
+
+	/**
+	 * @return number of destinations with open connections or recent use
+	 */
+	public int getDestinations() {
+		return this.destinations.size();
+	}
+
+	/**
+	 * @return number of connections refused by the connection limit
+	 */
+	public long getLimited() {
+		return this.limited.get();
+	}
+
+	/**
+	 * @return number of connections refused by the adaptive limit of
+	 *         concurrent connection attempts
+	 */
+	public long getShed() {
+		return this.shed.get();
+	}
+
+	/**
+	 * @return number of connections refused to unreachable destinations
+	 */
+	public long getFastFailures() {
+		return this.fastFailures.get();
+	}
+
+	/**
+	 * @return number of probes of unreachable destinations
+	 */
+	public long getProbes() {
+		return this.probes.get();
+	}
+
+	/**
+	 * @return the maximum number of connections per destination, 0 is
+	 *         unlimited
+	 */
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of connections per destination, 0 is
+	 *            unlimited
+	 */
+	public void setMaxConnections(final int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * @return the upper bound of the adaptive limit of concurrent connection
+	 *         attempts per destination, 0 if attempts are not limited
+	 */
+	public int getMaxConnectLimit() {
+		return this.maxConnectLimit;
+	}
+
+	/**
+	 * @param maxConnectLimit
+	 *            the upper bound of the adaptive limit of concurrent
+	 *            connection attempts per destination, 0 if attempts are not
+	 *            limited
+	 */
+	public void setMaxConnectLimit(final int maxConnectLimit) {
+		this.maxConnectLimit = maxConnectLimit;
+	}
+
+	/**
+	 * @return the time a destination is unreachable after its breaker opens
+	 *         in milliseconds, 0 if the breaker never opens
+	 */
+	public long getUnreachableTtl() {
+		return this.unreachableTtl;
+	}
+
+	/**
+	 * @param unreachableTtl
+	 *            the time a destination is unreachable after its breaker
+	 *            opens in milliseconds, 0 if the breaker never opens
+	 */
+	public void setUnreachableTtl(final long unreachableTtl) {
+		this.unreachableTtl = unreachableTtl;
+	}
+
+	/**
+	 * Remove destinations that have been idle for the idle time and whose
+	 * breaker is closed or has expired
+	 * 
+	 * @param now
+	 *            the current time in nanoseconds
+	 */
+	void purge(final long now) {
+		final Iterator<Destination> iterator = this.destinations.values()
+				.iterator();
+
+		while (iterator.hasNext()) {
+			final Destination entry = iterator.next();
+			synchronized (entry) {
+				if ((entry.active == 0)
+						&& ((now - entry.lastUsed) >= IDLE_TTL)
+						&& ((entry.state == BreakerState.CLOSED)
+								|| ((entry.state == BreakerState.OPEN)
+										&& ((now - entry.openUntil) >= 0)))) {
+					entry.removed = true;
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The state of the circuit breaker of a destination
+	 */
+	public enum BreakerState {
+		/** Connections are attempted */
+		CLOSED,
+
+		/** Connections are refused at once */
+		OPEN,
+
+		/** One probe is attempted, other connections are refused */
+		HALF_OPEN;
+	}
+
+	/**
+	 * The permit of one connection. The permit is released when the tunnel of
+	 * the connection closes, or when the connection fails.
+	 */
+	public final class Permit implements TunnelListener {
+
+		private final Destination entry;
+
+		private final boolean probe;
+
+		private final long start = System.nanoTime();
+
+		private boolean connecting = true;
+
+		private boolean released = false;
+
+		private Permit(final Destination entry, final boolean probe) {
+			this.entry = entry;
+			this.probe = probe;
+		}
+
+		/**
+		 * The connection was established, the destination is reachable
+		 */
+		public void connected() {
+			final long latency = System.nanoTime() - this.start;
+
+			synchronized (this.entry) {
+				if (!this.finishAttempt()) {
+					return;
+				}
+
+				final Destination entry = this.entry;
+				entry.failures = 0;
+				entry.failureRate = (entry.samples++ == 0) ? 0
+						: entry.failureRate * (1 - FAILURE_RATE_WEIGHT);
+
+				if (this.probe) {
+					// The destination has recovered
+					entry.failureRate = 0;
+				}
+				if (this.probe || (entry.state == BreakerState.OPEN)) {
+					entry.state = BreakerState.CLOSED;
+				}
+
+				if ((entry.minLatency == 0) || (latency < entry.minLatency)) {
+					entry.minLatency = Math.max(latency, 1);
+				} else {
+					// Let the lowest connect time follow a slower path
+					entry.minLatency += (latency - entry.minLatency) >> 6;
+				}
+				entry.latency = (entry.latency == 0) ? latency
+						: entry.latency + ((latency - entry.latency) >> 3);
+
+				if (latency > (entry.minLatency * LATENCY_TOLERANCE)) {
+					this.decrease(SLOW_DECREASE);
+				} else {
+					entry.limit = Math.min(entry.limit + (1 / entry.limit),
+							Math.max(DestinationGuard.this.maxConnectLimit,
+									1));
+				}
+			}
+		}
+
+		/**
+		 * The connection failed; the limit of attempts is lowered, the
+		 * breaker opens when the failure rate is high and the permit is
+		 * released
+		 */
+		public void failed() {
+			synchronized (this.entry) {
+				if (!this.finishAttempt()) {
+					return;
+				}
+
+				final Destination entry = this.entry;
+				final long unreachableTtl = DestinationGuard.this.unreachableTtl;
+
+				this.decrease(FAILURE_DECREASE);
+
+				if (unreachableTtl > 0) {
+					entry.failures++;
+					entry.failureRate = (entry.samples++ == 0) ? 1
+							: entry.failureRate * (1 - FAILURE_RATE_WEIGHT)
+									+ FAILURE_RATE_WEIGHT;
+
+					if (this.probe
+							|| (entry.failureRate >= FAILURE_RATE_THRESHOLD)) {
+						entry.state = BreakerState.OPEN;
+						entry.openUntil = System.nanoTime()
+								+ TimeUnit.MILLISECONDS.toNanos(unreachableTtl);
+					}
+				} else if (this.probe) {
+					entry.state = BreakerState.CLOSED;
+				}
+
+				this.release();
+			}
+		}
+
+		/**
+		 * Release the permit. Releasing a permit more than once has no
+		 * effect.
+		 */
+		public void release() {
+			synchronized (this.entry) {
+				if (this.released) {
+					return;
+				}
+
+				this.released = true;
+				this.entry.active--;
+				this.entry.lastUsed = System.nanoTime();
+
+				if (this.finishAttempt() && this.probe
+						&& (this.entry.state == BreakerState.HALF_OPEN)) {
+					// The probe never completed; let another probe through
+					this.entry.state = BreakerState.OPEN;
+				}
+			}
+		}
+
+		@Override
+		public void closed(final TransferStatistics upstream,
+				final TransferStatistics downstream) {
+			this.release();
+		}
+
+		/**
+		 * @return true if the attempt was in progress
+		 */
+		private boolean finishAttempt() {
+			if (!this.connecting) {
+				return false;
+			}
+
+			this.connecting = false;
+			this.entry.connecting--;
+			return true;
+		}
+
+		private void decrease(final double factor) {
+			this.entry.limit = Math.max(this.entry.limit * factor, 1);
+		}
+	}
+
+	/**
+	 * The state of one destination, guarded by its monitor
+	 */
+	private static final class Destination {
+
+		private final String name;
+
+		private int active;
+
+		private int connecting;
+
+		private double limit;
+
+		private long samples;
+
+		private double failureRate;
+
+		private int failures;
+
+		private long minLatency;
+
+		private long latency;
+
+		private BreakerState state = BreakerState.CLOSED;
+
+		private long openUntil;
+
+		private long lastUsed;
+
+		private boolean removed;
+
+		private Destination(final String name, final double limit) {
+			this.name = name;
+			this.limit = limit;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.dns;
+
+import java.net.InetAddress;
+
+/**
+ * The addresses of a hostname and their time to live
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class Answer {
+
+	private final InetAddress[] addresses;
+
+	private final long ttl;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param addresses
+	 *            the addresses
+	 * @param ttl
+	 *            the time to live in milliseconds
+	 */
+	public Answer(final InetAddress[] addresses, final long ttl) {
+		this.addresses = addresses;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * @return the addresses
+	 */
+	public InetAddress[] getAddresses() {
+		return this.addresses.clone();
+	}
+
+	/**
+	 * @return the time to live in milliseconds
+	 */
+	public long getTtl() {
+		return this.ttl;
+	}
+}
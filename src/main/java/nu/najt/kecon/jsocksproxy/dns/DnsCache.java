@@ -0,0 +1,302 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded cache in front of a resolver. Addresses are cached until their
+ * time to live expires and failed lookups are cached for a shorter time, so
+ * repeated requests for the same host do not wait for the resolver. The
+ * least recently used entry is evicted when the cache is full.
+ * <p>
+ * Answers are kept for the time to live reported by the resolver, bounded by
+ * the configured time to live. The JVM resolver does not expose the time to
+ * live of the records, so the configured time to live is used for its
+ * answers.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class DnsCache implements Resolver {
+
+	private final Resolver resolver;
+
+	private final int maxEntries;
+
+	private final long ttl;
+
+	private final long negativeTtl;
+
+	private final Map<String, Cached> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param resolver
+	 *            the resolver used on cache misses
+	 * @param maxEntries
+	 *            maximum number of cached hostnames
+	 * @param ttl
+	 *            maximum time to live of resolved addresses in milliseconds
+	 * @param negativeTtl
+	 *            time to live of failed lookups in milliseconds
+	 */
+	public DnsCache(final Resolver resolver, final int maxEntries,
+			final long ttl, final long negativeTtl) {
+		this.resolver = resolver;
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Cached> eldest) {
+				if (this.size() > DnsCache.this.maxEntries) {
+					DnsCache.this.evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	@Override
+	public InetAddress[] resolve(final String hostname)
+			throws UnknownHostException {
+		return this.lookup(hostname).getAddresses();
+	}
+
+	@Override
+	public Answer lookup(final String hostname) throws UnknownHostException {
+		final String key = hostname.toLowerCase(Locale.ROOT);
+		final Answer cached = this.hit(key, hostname);
+
+		if (cached != null) {
+			return cached;
+		}
+
+		final Answer answer;
+		try {
+			answer = this.resolver.lookup(hostname);
+		} catch (final UnknownHostException e) {
+			this.store(key, null, this.negativeTtl);
+			throw e;
+		}
+
+		this.put(hostname, answer.getAddresses(), answer.getTtl());
+		return answer;
+	}
+
+	@Override
+	public CompletableFuture<Answer> query(final String hostname) {
+		final String key = hostname.toLowerCase(Locale.ROOT);
+		final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+
+		try {
+			final Answer cached = this.hit(key, hostname);
+
+			if (cached != null) {
+				future.complete(cached);
+				return future;
+			}
+		} catch (final UnknownHostException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		this.resolver.query(hostname)
+				.whenComplete(new BiConsumer<Answer, Throwable>() {
+
+					@Override
+					public void accept(final Answer answer,
+							final Throwable throwable) {
+						if (answer != null) {
+							DnsCache.this.put(hostname, answer.getAddresses(),
+									answer.getTtl());
+							future.complete(answer);
+						} else {
+							if (throwable instanceof UnknownHostException) {
+								DnsCache.this.store(key, null,
+										DnsCache.this.negativeTtl);
+							}
+							future.completeExceptionally(throwable);
+						}
+					}
+				});
+
+		return future;
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return this.resolver.isAsynchronous();
+	}
+
+	/**
+	 * Store the addresses of a hostname
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @param addresses
+	 *            the addresses
+	 * @param recordTtl
+	 *            the time to live of the records in milliseconds
+	 */
+	public void put(final String hostname, final InetAddress[] addresses,
+			final long recordTtl) {
+		this.store(hostname.toLowerCase(Locale.ROOT), addresses.clone(),
+				Math.min(recordTtl, this.ttl));
+	}
+
+	/**
+	 * @return number of cached hostnames, including expired entries that
+	 *         have not been evicted yet
+	 */
+	public synchronized int getSize() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return number of lookups passed to the resolver
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return fraction of lookups answered from the cache
+	 */
+	public double getHitRate() {
+		final long hits = this.hits.get();
+		final long lookups = hits + this.misses.get();
+
+		return (lookups > 0) ? ((double) hits / lookups) : 0;
+	}
+
+	/**
+	 * @return number of entries evicted to make room for new entries
+	 */
+	public long getEvictions() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * @param resolver
+	 *            the resolver used on cache misses
+	 * @param maxEntries
+	 *            maximum number of cached hostnames
+	 * @param ttl
+	 *            maximum time to live in milliseconds
+	 * @param negativeTtl
+	 *            time to live of failed lookups in milliseconds
+	 * @return true if this cache uses the given settings
+	 */
+	public boolean hasSettings(final Resolver resolver, final int maxEntries,
+			final long ttl, final long negativeTtl) {
+		return (this.resolver == resolver) && (this.maxEntries == maxEntries)
+				&& (this.ttl == ttl)
+				&& (this.negativeTtl == negativeTtl);
+	}
+
+	/**
+	 * Answer a lookup from the cache and count the hit or miss
+	 * 
+	 * @return the cached answer with its remaining time to live, or null on
+	 *         a miss
+	 * @throws UnknownHostException
+	 *             if a failed lookup of the hostname is cached
+	 */
+	private Answer hit(final String key, final String hostname)
+			throws UnknownHostException {
+		final Cached cached = this.get(key);
+
+		if (cached == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+
+		this.hits.incrementAndGet();
+
+		if (cached.addresses == null) {
+			throw new UnknownHostException(hostname);
+		}
+
+		return new Answer(cached.addresses.clone(), Math.max(
+				TimeUnit.NANOSECONDS.toMillis(cached.expires - System.nanoTime()),
+				0));
+	}
+
+	private synchronized Cached get(final String key) {
+		final Cached cached = this.entries.get(key);
+
+		if ((cached != null) && ((System.nanoTime() - cached.expires) >= 0)) {
+			this.entries.remove(key);
+			return null;
+		}
+
+		return cached;
+	}
+
+	private synchronized void store(final String key,
+			final InetAddress[] addresses, final long ttl) {
+		if (ttl <= 0) {
+			return;
+		}
+
+		this.entries.put(key, new Cached(addresses,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl)));
+	}
+
+	/**
+	 * A cached answer, the addresses are null for a failed lookup
+	 */
+	private static final class Cached {
+
+		private final InetAddress[] addresses;
+
+		private final long expires;
+
+		private Cached(final InetAddress[] addresses, final long expires) {
+			this.addresses = addresses;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,1003 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.dns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.IDN;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking DNS client. The A and AAAA queries of a hostname are sent
+ * over UDP from one selector thread, which must be started with
+ * {@link #run()}. Truncated answers are repeated over TCP on the executor.
+ * <p>
+ * Every query is sent from a UDP socket of its own, bound to a random port.
+ * An answer is only accepted from the queried name server, on the port of
+ * the query and with the id of the query.
+ * <p>
+ * Concurrent lookups of the same hostname share one pair of queries. Each
+ * query is sent to the name servers in turn until one of them answers or
+ * all attempts have timed out.
+ * <p>
+ * IP address literals and <code>localhost</code> are resolved by the JVM
+ * without a query, hostnames in the hosts file, see {@link #setHosts(Map)},
+ * from the file. The <code>search</code> and <code>ndots</code> options of
+ * resolv.conf are not applied, so single label hostnames are queried as they
+ * are.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class DnsClient implements Resolver, Runnable {
+
+	/** The name server port */
+	public static final int DNS_PORT = 53;
+
+	/** Default time to wait for an answer in milliseconds */
+	public static final long DEFAULT_TIMEOUT = 2000;
+
+	/** Default number of times each name server is asked */
+	public static final int DEFAULT_ATTEMPTS = 2;
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(DnsClient.class);
+
+	private static final int MAX_UDP_SIZE = 512;
+
+	private static final int HEADER_LENGTH = 12;
+
+	private static final int TYPE_A = 1;
+
+	private static final int TYPE_AAAA = 28;
+
+	private static final int CLASS_IN = 1;
+
+	private static final int FLAG_RESPONSE = 0x8000;
+
+	private static final int FLAG_TRUNCATED = 0x0200;
+
+	private static final int FLAG_RECURSION_DESIRED = 0x0100;
+
+	private static final int RCODE_NO_ERROR = 0;
+
+	private static final int RCODE_NAME_ERROR = 3;
+
+	/** Lowest random source port, below are the registered ports */
+	private static final int MIN_SOURCE_PORT = 1024;
+
+	/** Random source ports tried before the port is left to the system */
+	private static final int BIND_ATTEMPTS = 10;
+
+	private final List<InetSocketAddress> servers;
+
+	private final long timeout;
+
+	private final int attempts;
+
+	private final Executor executor;
+
+	private final Selector selector;
+
+	private final Random random = new SecureRandom();
+
+	private volatile Map<String, InetAddress[]> hosts = Collections
+			.emptyMap();
+
+	private final Map<String, Lookup> lookups = new ConcurrentHashMap<String, Lookup>();
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/** Pending queries by id, only used by the selector thread */
+	private final Map<Integer, Query> queries = new HashMap<Integer, Query>();
+
+	private final ByteBuffer receiveBuffer = ByteBuffer
+			.allocate(DnsClient.MAX_UDP_SIZE);
+
+	private final AtomicBoolean mayRun = new AtomicBoolean(true);
+
+	private final AtomicLong lookupCount = new AtomicLong();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param servers
+	 *            the name servers
+	 * @param timeout
+	 *            time to wait for an answer in milliseconds
+	 * @param attempts
+	 *            number of times each name server is asked
+	 * @param executor
+	 *            the executor for queries over TCP
+	 * @throws IOException
+	 *             if the selector could not be opened
+	 */
+	public DnsClient(final List<InetSocketAddress> servers,
+			final long timeout, final int attempts, final Executor executor)
+			throws IOException {
+		if (servers.isEmpty()) {
+			throw new IllegalArgumentException("No name servers");
+		}
+
+		this.servers = new ArrayList<InetSocketAddress>(servers);
+		this.timeout = timeout;
+		this.attempts = Math.max(attempts, 1);
+		this.executor = executor;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Read the name servers of the host from a resolv.conf file
+	 * 
+	 * @param file
+	 *            the file, normally /etc/resolv.conf
+	 * @return the name servers, empty if none could be read
+	 */
+	public static List<InetSocketAddress> readResolvConf(final File file) {
+		final List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+
+		final List<String> lines;
+		try {
+			lines = Files.readAllLines(file.toPath(),
+					StandardCharsets.ISO_8859_1);
+		} catch (final IOException e) {
+			LOG.debug("Failed to read {}", file, e);
+			return servers;
+		}
+
+		for (final String line : lines) {
+			final String[] tokens = line.trim().split("\\s+");
+
+			if ((tokens.length >= 2) && "nameserver".equals(tokens[0])
+					&& isLiteral(tokens[1])) {
+				try {
+					servers.add(new InetSocketAddress(
+							InetAddress.getByName(tokens[1]),
+							DnsClient.DNS_PORT));
+				} catch (final UnknownHostException e) {
+					LOG.debug("Illegal name server {}", tokens[1]);
+				}
+			}
+		}
+
+		return servers;
+	}
+
+	/**
+	 * Read the hostnames of a hosts file. Every hostname and alias of a line
+	 * is mapped to its address, a hostname on several lines has all their
+	 * addresses in file order.
+	 * 
+	 * @param file
+	 *            the file, normally /etc/hosts
+	 * @return the addresses by lower case hostname, empty if none could be
+	 *         read
+	 */
+	public static Map<String, InetAddress[]> readHosts(final File file) {
+		final Map<String, List<InetAddress>> hosts = new HashMap<String, List<InetAddress>>();
+
+		final List<String> lines;
+		try {
+			lines = Files.readAllLines(file.toPath(),
+					StandardCharsets.ISO_8859_1);
+		} catch (final IOException e) {
+			LOG.debug("Failed to read {}", file, e);
+			return Collections.emptyMap();
+		}
+
+		for (final String line : lines) {
+			final int comment = line.indexOf('#');
+			final String[] tokens = ((comment >= 0)
+					? line.substring(0, comment) : line).trim().split("\\s+");
+
+			if ((tokens.length < 2) || !isLiteral(tokens[0])) {
+				continue;
+			}
+
+			final InetAddress address;
+			try {
+				address = InetAddress.getByName(tokens[0]);
+			} catch (final UnknownHostException e) {
+				LOG.debug("Illegal address {} in {}", tokens[0], file);
+				continue;
+			}
+
+			for (int i = 1; i < tokens.length; i++) {
+				final String name = tokens[i].toLowerCase(Locale.ROOT);
+				List<InetAddress> addresses = hosts.get(name);
+				if (addresses == null) {
+					addresses = new ArrayList<InetAddress>(1);
+					hosts.put(name, addresses);
+				}
+				if (!addresses.contains(address)) {
+					addresses.add(address);
+				}
+			}
+		}
+
+		final Map<String, InetAddress[]> result = new HashMap<String, InetAddress[]>();
+		for (final Map.Entry<String, List<InetAddress>> entry : hosts
+				.entrySet()) {
+			result.put(entry.getKey(), entry.getValue()
+					.toArray(new InetAddress[entry.getValue().size()]));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Set the hostnames that are resolved without a query
+	 * 
+	 * @param hosts
+	 *            the addresses by lower case hostname, see
+	 *            {@link #readHosts(File)}
+	 */
+	public void setHosts(final Map<String, InetAddress[]> hosts) {
+		this.hosts = new HashMap<String, InetAddress[]>(hosts);
+	}
+
+	@Override
+	public InetAddress[] resolve(final String hostname)
+			throws UnknownHostException {
+		return this.lookup(hostname).getAddresses();
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return true;
+	}
+
+	@Override
+	public Answer lookup(final String hostname) throws UnknownHostException {
+		try {
+			return this.query(hostname).get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnknownHostException(hostname + ": interrupted");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) e.getCause();
+			}
+			throw new UnknownHostException(
+					hostname + ": " + e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Look up a hostname. A lookup of the same hostname that is already in
+	 * progress is shared.
+	 */
+	@Override
+	public CompletableFuture<Answer> query(final String hostname) {
+		if (isLiteral(hostname) || "localhost".equalsIgnoreCase(hostname)) {
+			final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+			try {
+				future.complete(new Answer(InetAddress.getAllByName(hostname),
+						Long.MAX_VALUE));
+			} catch (final UnknownHostException e) {
+				future.completeExceptionally(e);
+			}
+			return future;
+		}
+
+		final String name;
+		try {
+			name = toAsciiName(hostname);
+		} catch (final UnknownHostException e) {
+			final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		final InetAddress[] hostAddresses = this.hosts.get(name);
+		if (hostAddresses != null) {
+			final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+			try {
+				final InetAddress[] addresses = new InetAddress[hostAddresses.length];
+				for (int i = 0; i < addresses.length; i++) {
+					addresses[i] = InetAddress.getByAddress(hostname,
+							hostAddresses[i].getAddress());
+				}
+				future.complete(new Answer(addresses, Long.MAX_VALUE));
+			} catch (final UnknownHostException e) {
+				// Should be impossible, the addresses are valid
+				future.completeExceptionally(e);
+			}
+			return future;
+		}
+
+		final Lookup existing = this.lookups.get(name);
+		if (existing != null) {
+			this.coalescedCount.incrementAndGet();
+			return existing.future;
+		}
+
+		final Lookup lookup = new Lookup(hostname, name);
+		final Lookup raced = this.lookups.putIfAbsent(name, lookup);
+		if (raced != null) {
+			this.coalescedCount.incrementAndGet();
+			return raced.future;
+		}
+
+		this.lookupCount.incrementAndGet();
+
+		if (!this.mayRun.get()) {
+			this.lookups.remove(name, lookup);
+			lookup.future.completeExceptionally(
+					new UnknownHostException(hostname + ": DNS client stopped"));
+			return lookup.future;
+		}
+
+		this.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				DnsClient.this.start(lookup);
+			}
+		});
+
+		return lookup.future;
+	}
+
+	/**
+	 * @return number of lookups sent to the name servers
+	 */
+	public long getLookups() {
+		return this.lookupCount.get();
+	}
+
+	/**
+	 * @return number of lookups that shared a lookup in progress
+	 */
+	public long getCoalesced() {
+		return this.coalescedCount.get();
+	}
+
+	/**
+	 * @return the name servers
+	 */
+	public List<InetSocketAddress> getServers() {
+		return Collections.unmodifiableList(this.servers);
+	}
+
+	/**
+	 * @param servers
+	 *            the name servers
+	 * @param timeout
+	 *            the timeout in milliseconds
+	 * @param attempts
+	 *            number of attempts
+	 * @return true if this client uses the given settings
+	 */
+	public boolean hasSettings(final List<InetSocketAddress> servers,
+			final long timeout, final int attempts) {
+		return this.servers.equals(servers) && (this.timeout == timeout)
+				&& (this.attempts == Math.max(attempts, 1));
+	}
+
+	/**
+	 * Stop the selector thread, lookups in progress fail
+	 */
+	public void shutdown() {
+		this.mayRun.set(false);
+		this.selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (this.mayRun.get()) {
+				this.selector.select(this.nextTimeout());
+
+				this.runTasks();
+
+				final Iterator<SelectionKey> iterator = this.selector
+						.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+
+					// The query may have been answered by an earlier key
+					if (key.isValid()) {
+						this.receive((Query) key.attachment());
+					}
+				}
+
+				this.expire(System.currentTimeMillis());
+			}
+		} catch (final IOException | RuntimeException e) {
+			if (this.mayRun.get()) {
+				LOG.error("DNS client failed", e);
+			}
+		} finally {
+			this.mayRun.set(false);
+
+			for (final Query query : this.queries.values()) {
+				query.close();
+			}
+
+			try {
+				this.selector.close();
+			} catch (final IOException e) {
+			}
+
+			for (final Lookup lookup : this.lookups.values()) {
+				this.lookups.remove(lookup.name, lookup);
+				lookup.future.completeExceptionally(new UnknownHostException(
+						lookup.hostname + ": DNS client stopped"));
+			}
+		}
+	}
+
+	private void execute(final Runnable task) {
+		this.tasks.add(task);
+		this.selector.wakeup();
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private long nextTimeout() {
+		if (this.queries.isEmpty()) {
+			return 0;
+		}
+
+		long deadline = Long.MAX_VALUE;
+		for (final Query query : this.queries.values()) {
+			deadline = Math.min(deadline, query.deadline);
+		}
+
+		return Math.max(deadline - System.currentTimeMillis(), 1);
+	}
+
+	private void start(final Lookup lookup) {
+		this.send(new Query(lookup, DnsClient.TYPE_A));
+		this.send(new Query(lookup, DnsClient.TYPE_AAAA));
+	}
+
+	/**
+	 * Send the query to the next name server, or fail it when all attempts
+	 * have been used
+	 */
+	private void send(final Query query) {
+		query.close();
+
+		while (query.attempt < (this.attempts * this.servers.size())) {
+			final InetSocketAddress server = this.servers
+					.get(query.attempt % this.servers.size());
+			query.attempt++;
+			query.server = server;
+			query.tcp = false;
+			query.id = this.newId();
+			query.deadline = System.currentTimeMillis() + this.timeout;
+
+			try {
+				query.channel = this.openChannel();
+				query.channel.register(this.selector, SelectionKey.OP_READ,
+						query);
+				query.channel.send(ByteBuffer.wrap(query.encode()), server);
+				this.queries.put(query.id, query);
+				return;
+			} catch (final IOException e) {
+				LOG.debug("Failed to send query to {}", server, e);
+				query.close();
+			}
+		}
+
+		query.lookup.fail(false);
+	}
+
+	/**
+	 * Open a non-blocking UDP socket bound to a random port, so that the
+	 * source port of a query has to be guessed together with its id
+	 */
+	private DatagramChannel openChannel() throws IOException {
+		final DatagramChannel channel = DatagramChannel.open();
+
+		try {
+			channel.configureBlocking(false);
+
+			for (int i = 0; i < DnsClient.BIND_ATTEMPTS; i++) {
+				try {
+					channel.bind(new InetSocketAddress(DnsClient.MIN_SOURCE_PORT
+							+ this.random.nextInt(
+									0x10000 - DnsClient.MIN_SOURCE_PORT)));
+					return channel;
+				} catch (final BindException e) {
+					// Taken, try another port
+				}
+			}
+
+			channel.bind(null);
+			return channel;
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove a query that has been answered or timed out
+	 */
+	private void remove(final Query query) {
+		this.queries.remove(query.id);
+		query.close();
+	}
+
+	private int newId() {
+		int id;
+		do {
+			id = this.random.nextInt(0x10000);
+		} while (this.queries.containsKey(id));
+		return id;
+	}
+
+	private void receive(final Query query) {
+		final DatagramChannel channel = query.channel;
+		SocketAddress source;
+
+		// Handling an answer closes the channel of the query
+		while (channel == query.channel) {
+			this.receiveBuffer.clear();
+			try {
+				source = channel.receive(this.receiveBuffer);
+			} catch (final IOException e) {
+				// The query times out and is sent again
+				LOG.debug("Failed to receive answer from {}", query.server,
+						e);
+				return;
+			}
+
+			if (source == null) {
+				return;
+			}
+
+			this.receiveBuffer.flip();
+
+			// Ignore answers from other sources than the queried server
+			if ((this.receiveBuffer.remaining() < DnsClient.HEADER_LENGTH)
+					|| ((this.receiveBuffer.getShort(0) & 0xFFFF) != query.id)
+					|| (this.queries.get(query.id) != query)
+					|| !query.server.equals(source)) {
+				continue;
+			}
+
+			this.handle(query, this.receiveBuffer);
+		}
+	}
+
+	private void expire(final long now) {
+		final List<Query> expired = new ArrayList<Query>();
+
+		for (final Query query : this.queries.values()) {
+			if (now >= query.deadline) {
+				expired.add(query);
+			}
+		}
+
+		for (final Query query : expired) {
+			LOG.debug("Query for {} to {} timed out", query.lookup.hostname,
+					query.server);
+			this.remove(query);
+			this.send(query);
+		}
+	}
+
+	private void handle(final Query query, final ByteBuffer message) {
+		final int flags;
+		final List<InetAddress> addresses = new ArrayList<InetAddress>();
+		long ttl = Long.MAX_VALUE;
+
+		try {
+			flags = message.getShort(2) & 0xFFFF;
+			final int questions = message.getShort(4) & 0xFFFF;
+			final int answers = message.getShort(6) & 0xFFFF;
+
+			if (((flags & DnsClient.FLAG_RESPONSE) == 0) || (questions != 1)) {
+				return;
+			}
+
+			message.position(DnsClient.HEADER_LENGTH);
+
+			if (!query.lookup.name.equalsIgnoreCase(readName(message))
+					|| ((message.getShort() & 0xFFFF) != query.type)) {
+				return;
+			}
+			message.getShort(); // class
+
+			if ((flags & DnsClient.FLAG_TRUNCATED) != 0) {
+				this.queryTcp(query);
+				return;
+			}
+
+			for (int i = 0; i < answers; i++) {
+				skipName(message);
+				final int type = message.getShort() & 0xFFFF;
+				final int recordClass = message.getShort() & 0xFFFF;
+				final long recordTtl = message.getInt() & 0xFFFFFFFFL;
+				final int length = message.getShort() & 0xFFFF;
+				final int end = message.position() + length;
+
+				if ((type == query.type) && (recordClass == DnsClient.CLASS_IN)
+						&& (length == ((type == DnsClient.TYPE_A) ? 4
+								: 16))) {
+					final byte[] address = new byte[length];
+					message.get(address);
+					addresses.add(InetAddress
+							.getByAddress(query.lookup.hostname, address));
+					ttl = Math.min(ttl, recordTtl * 1000);
+				}
+
+				message.position(end);
+			}
+		} catch (final BufferUnderflowException
+				| IllegalArgumentException e) {
+			LOG.debug("Malformed answer for {} from {}", query.lookup.hostname,
+					query.server);
+			return;
+		} catch (final UnknownHostException e) {
+			// Should be impossible, the address length is checked
+			return;
+		}
+
+		this.remove(query);
+
+		final int rcode = flags & 0x0F;
+
+		if (rcode == DnsClient.RCODE_NO_ERROR) {
+			query.lookup.complete(query, addresses, ttl);
+		} else if (rcode == DnsClient.RCODE_NAME_ERROR) {
+			query.lookup.fail(true);
+		} else {
+			LOG.debug("Query for {} to {} failed with rcode {}",
+					query.lookup.hostname, query.server, rcode);
+			this.send(query);
+		}
+	}
+
+	/**
+	 * Repeat a truncated query over TCP on the executor
+	 */
+	private void queryTcp(final Query query) {
+		query.close();
+		query.tcp = true;
+		query.deadline = System.currentTimeMillis() + (2 * this.timeout);
+
+		final InetSocketAddress server = query.server;
+		final byte[] request = query.encode();
+
+		this.executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				byte[] response = null;
+
+				try (Socket socket = new Socket()) {
+					socket.connect(server, (int) DnsClient.this.timeout);
+					socket.setSoTimeout((int) DnsClient.this.timeout);
+
+					final DataOutputStream outputStream = new DataOutputStream(
+							socket.getOutputStream());
+					outputStream.writeShort(request.length);
+					outputStream.write(request);
+					outputStream.flush();
+
+					final DataInputStream inputStream = new DataInputStream(
+							socket.getInputStream());
+					response = new byte[inputStream.readUnsignedShort()];
+					inputStream.readFully(response);
+				} catch (final IOException e) {
+					LOG.debug("TCP query to {} failed", server, e);
+				}
+
+				final byte[] received = response;
+				DnsClient.this.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						DnsClient.this.handleTcp(query, received);
+					}
+				});
+			}
+		});
+	}
+
+	private void handleTcp(final Query query, final byte[] response) {
+		// The query may have timed out and been sent again
+		if (!query.tcp || (this.queries.get(query.id) != query)) {
+			return;
+		}
+
+		if ((response == null) || (response.length < DnsClient.HEADER_LENGTH)
+				|| ((ByteBuffer.wrap(response).getShort(0)
+						& 0xFFFF) != query.id)) {
+			this.remove(query);
+			this.send(query);
+			return;
+		}
+
+		// Do not fall back to TCP again if the answer is truncated
+		final ByteBuffer message = ByteBuffer.wrap(response);
+		message.putShort(2, (short) (message.getShort(2)
+				& ~DnsClient.FLAG_TRUNCATED));
+		this.handle(query, message);
+
+		if (this.queries.get(query.id) == query) {
+			// Ignored as malformed
+			this.remove(query);
+			this.send(query);
+		}
+	}
+
+	private static String readName(final ByteBuffer message) {
+		final StringBuilder builder = new StringBuilder();
+
+		int length;
+		while ((length = message.get() & 0xFF) != 0) {
+			if ((length & 0xC0) != 0) {
+				// Questions are not compressed
+				throw new IllegalArgumentException("Compressed question");
+			}
+
+			if (builder.length() > 0) {
+				builder.append('.');
+			}
+
+			final byte[] label = new byte[length];
+			message.get(label);
+			builder.append(new String(label, StandardCharsets.US_ASCII));
+		}
+
+		return builder.toString();
+	}
+
+	private static void skipName(final ByteBuffer message) {
+		int length;
+		while ((length = message.get() & 0xFF) != 0) {
+			if ((length & 0xC0) == 0xC0) {
+				message.get();
+				return;
+			}
+
+			message.position(message.position() + length);
+		}
+	}
+
+	private static String toAsciiName(final String hostname)
+			throws UnknownHostException {
+		final String name;
+		try {
+			name = IDN.toASCII(hostname.endsWith(".")
+					? hostname.substring(0, hostname.length() - 1) : hostname)
+					.toLowerCase(Locale.ROOT);
+		} catch (final IllegalArgumentException e) {
+			throw new UnknownHostException(hostname);
+		}
+
+		if (name.isEmpty() || (name.length() > 253)) {
+			throw new UnknownHostException(hostname);
+		}
+
+		for (final String label : name.split("\\.", -1)) {
+			if (label.isEmpty() || (label.length() > 63)) {
+				throw new UnknownHostException(hostname);
+			}
+		}
+
+		return name;
+	}
+
+	/**
+	 * Check if the hostname is an IP address literal, which is resolved
+	 * without a query
+	 */
+	private static boolean isLiteral(final String hostname) {
+		if (hostname.indexOf(':') >= 0) {
+			return true;
+		}
+
+		int dots = 0;
+		for (int i = 0; i < hostname.length(); i++) {
+			final char c = hostname.charAt(i);
+
+			if (c == '.') {
+				dots++;
+			} else if ((c < '0') || (c > '9')) {
+				return false;
+			}
+		}
+
+		return dots == 3;
+	}
+
+	/**
+	 * A lookup of the A and AAAA records of a hostname
+	 */
+	private final class Lookup {
+
+		private final String hostname;
+
+		private final String name;
+
+		private final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+
+		private final List<InetAddress> ipv4 = new ArrayList<InetAddress>();
+
+		private final List<InetAddress> ipv6 = new ArrayList<InetAddress>();
+
+		private long ttl = Long.MAX_VALUE;
+
+		private int remaining = 2;
+
+		private boolean answered = false;
+
+		private Lookup(final String hostname, final String name) {
+			this.hostname = hostname;
+			this.name = name;
+		}
+
+		private void complete(final Query query,
+				final List<InetAddress> addresses, final long ttl) {
+			this.answered = true;
+
+			if (!addresses.isEmpty()) {
+				((query.type == DnsClient.TYPE_A) ? this.ipv4 : this.ipv6)
+						.addAll(addresses);
+				this.ttl = Math.min(this.ttl, ttl);
+			}
+
+			this.done();
+		}
+
+		private void fail(final boolean nameError) {
+			this.answered |= nameError;
+			this.done();
+		}
+
+		private void done() {
+			if (--this.remaining > 0) {
+				return;
+			}
+
+			DnsClient.this.lookups.remove(this.name, this);
+
+			final List<InetAddress> addresses = new ArrayList<InetAddress>();
+			if (Boolean.getBoolean("java.net.preferIPv6Addresses")) {
+				addresses.addAll(this.ipv6);
+				addresses.addAll(this.ipv4);
+			} else {
+				addresses.addAll(this.ipv4);
+				addresses.addAll(this.ipv6);
+			}
+
+			if (!addresses.isEmpty()) {
+				this.future.complete(new Answer(
+						addresses.toArray(new InetAddress[addresses.size()]),
+						this.ttl));
+			} else if (this.answered) {
+				this.future
+						.completeExceptionally(new UnknownHostException(
+								this.hostname));
+			} else {
+				this.future.completeExceptionally(new UnknownHostException(
+						this.hostname + ": no answer from name servers"));
+			}
+		}
+	}
+
+	/**
+	 * One query of a lookup
+	 */
+	private static final class Query {
+
+		private final Lookup lookup;
+
+		private final int type;
+
+		private int id;
+
+		private int attempt = 0;
+
+		private InetSocketAddress server;
+
+		private long deadline;
+
+		private boolean tcp = false;
+
+		private DatagramChannel channel;
+
+		private Query(final Lookup lookup, final int type) {
+			this.lookup = lookup;
+			this.type = type;
+		}
+
+		private void close() {
+			if (this.channel != null) {
+				try {
+					this.channel.close();
+				} catch (final IOException e) {
+				}
+				this.channel = null;
+			}
+		}
+
+		private byte[] encode() {
+			final ByteBuffer buffer = ByteBuffer
+					.allocate(DnsClient.MAX_UDP_SIZE);
+
+			buffer.putShort((short) this.id);
+			buffer.putShort((short) DnsClient.FLAG_RECURSION_DESIRED);
+			buffer.putShort((short) 1); // questions
+			buffer.putShort((short) 0);
+			buffer.putShort((short) 0);
+			buffer.putShort((short) 0);
+
+			for (final String label : this.lookup.name.split("\\.")) {
+				buffer.put((byte) label.length());
+				buffer.put(label.getBytes(StandardCharsets.US_ASCII));
+			}
+			buffer.put((byte) 0);
+
+			buffer.putShort((short) this.type);
+			buffer.putShort((short) DnsClient.CLASS_IN);
+
+			final byte[] message = new byte[buffer.position()];
+			buffer.flip();
+			buffer.get(message);
+			return message;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Resolves hostnames requested by SOCKS clients. Resolvers that know the
+ * time to live of the addresses return it with the {@link Answer} of
+ * {@link #lookup(String)} and {@link #query(String)}.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public interface Resolver {
+
+	/**
+	 * Resolve a hostname
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @return the addresses of the host, never empty
+	 * @throws UnknownHostException
+	 *             if the hostname could not be resolved
+	 */
+	public InetAddress[] resolve(String hostname) throws UnknownHostException;
+
+	/**
+	 * Resolve a hostname together with the time to live of its addresses.
+	 * The default implementation does not know the time to live.
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @return the answer, with a time to live of {@link Long#MAX_VALUE} if it
+	 *         is not known
+	 * @throws UnknownHostException
+	 *             if the hostname could not be resolved
+	 */
+	public default Answer lookup(final String hostname)
+			throws UnknownHostException {
+		return new Answer(this.resolve(hostname), Long.MAX_VALUE);
+	}
+
+	/**
+	 * Look up a hostname without waiting for the answer. Unless the resolver
+	 * is {@link #isAsynchronous() asynchronous} the calling thread is blocked
+	 * while the hostname is resolved.
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @return the answer, see {@link #lookup(String)}, completed
+	 *         exceptionally with an {@link UnknownHostException} if the
+	 *         hostname could not be resolved
+	 */
+	public default CompletableFuture<Answer> query(final String hostname) {
+		final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+
+		try {
+			future.complete(this.lookup(hostname));
+		} catch (final UnknownHostException e) {
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Resolve a hostname without waiting for the answer, see
+	 * {@link #query(String)}
+	 * 
+	 * @param hostname
+	 *            the hostname
+	 * @return the addresses of the host, completed exceptionally with an
+	 *         {@link UnknownHostException} if the hostname could not be
+	 *         resolved
+	 */
+	public default CompletableFuture<InetAddress[]> resolveAsync(
+			final String hostname) {
+		return this.query(hostname)
+				.thenApply(new Function<Answer, InetAddress[]>() {
+
+					@Override
+					public InetAddress[] apply(final Answer answer) {
+						return answer.getAddresses();
+					}
+				});
+	}
+
+	/**
+	 * @return true if {@link #query(String)} and
+	 *         {@link #resolveAsync(String)} do not block the calling thread
+	 */
+	public default boolean isAsynchronous() {
+		return false;
+	}
+
+}
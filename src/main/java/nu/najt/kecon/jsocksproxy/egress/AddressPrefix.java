@@ -0,0 +1,206 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An address prefix, such as a routed IPv6 /64, that source addresses are
+ * drawn from. The host bits are either random or derived from a key; the
+ * address with all host bits zero is never generated.
+ * <p>
+ * The kernel must accept binding to the generated addresses, on Linux by
+ * routing the prefix locally, <code>ip -6 route add local 2001:db8::/64 dev
+ * lo</code>, or by enabling <code>net.ipv6.ip_nonlocal_bind</code>.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class AddressPrefix {
+
+	private final byte[] network;
+
+	private final int length;
+
+	private final InetAddress networkAddress;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param address
+	 *            an address of the prefix
+	 * @param length
+	 *            the prefix length in bits
+	 */
+	public AddressPrefix(final InetAddress address, final int length) {
+		final byte[] bytes = address.getAddress();
+
+		if ((length < 0) || (length > (bytes.length * 8))) {
+			throw new IllegalArgumentException(
+					"Illegal prefix length: " + length);
+		}
+
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] &= mask(i, length);
+		}
+
+		this.network = bytes;
+		this.length = length;
+		try {
+			this.networkAddress = InetAddress.getByAddress(bytes);
+		} catch (final UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Parse a prefix in CIDR notation
+	 * 
+	 * @param prefix
+	 *            the prefix, such as 2001:db8::/64
+	 * @return the prefix
+	 * @throws UnknownHostException
+	 *             if the address is not a literal address
+	 * @throws IllegalArgumentException
+	 *             if the prefix length is missing or illegal
+	 */
+	public static AddressPrefix parse(final String prefix)
+			throws UnknownHostException {
+		final int slash = prefix.indexOf('/');
+
+		if (slash < 0) {
+			throw new IllegalArgumentException(
+					"Missing prefix length: " + prefix);
+		}
+
+		final String address = prefix.substring(0, slash).trim();
+		if ((address.indexOf(':') < 0)
+				&& !address.matches("[0-9]+(\\.[0-9]+){3}")) {
+			throw new UnknownHostException(address);
+		}
+
+		return new AddressPrefix(InetAddress.getByName(address),
+				Integer.parseInt(prefix.substring(slash + 1).trim()));
+	}
+
+	/**
+	 * @return an address of the prefix with random host bits
+	 */
+	public InetAddress random() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		return this.generate(random.nextLong(), random.nextLong());
+	}
+
+	/**
+	 * @param key
+	 *            the key, such as the client address
+	 * @return an address of the prefix with host bits derived from the key
+	 */
+	public InetAddress derive(final byte[] key) {
+		long hash = 0xcbf29ce484222325L;
+		for (final byte b : key) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+
+		final long high = mix(hash);
+		return this.generate(high, mix(high ^ hash));
+	}
+
+	/**
+	 * @return the address with all host bits zero
+	 */
+	public InetAddress getNetworkAddress() {
+		return this.networkAddress;
+	}
+
+	/**
+	 * @return the prefix length in bits
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	@Override
+	public int hashCode() {
+		return (31 * Arrays.hashCode(this.network)) + this.length;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (!(obj instanceof AddressPrefix)) {
+			return false;
+		}
+
+		final AddressPrefix other = (AddressPrefix) obj;
+		return (this.length == other.length)
+				&& Arrays.equals(this.network, other.network);
+	}
+
+	@Override
+	public String toString() {
+		return this.networkAddress.getHostAddress() + "/" + this.length;
+	}
+
+	/**
+	 * Fill the host bits from the 128 bits of high and low
+	 */
+	private InetAddress generate(final long high, final long low) {
+		final byte[] bytes = this.network.clone();
+		boolean zero = true;
+
+		for (int i = 0; i < bytes.length; i++) {
+			final int mask = mask(i, this.length);
+			final int shift = 56 - ((i % 8) * 8);
+			final int random = (int) (((i < 8) ? high : low) >>> shift) & 0xff;
+			final int hostBits = random & ~mask & 0xff;
+
+			bytes[i] |= hostBits;
+			zero &= (hostBits == 0);
+		}
+
+		if (zero && (this.length < (bytes.length * 8))) {
+			bytes[bytes.length - 1] |= 1;
+		}
+
+		try {
+			return InetAddress.getByAddress(bytes);
+		} catch (final UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the network bits of byte i of an address
+	 */
+	private static int mask(final int i, final int length) {
+		final int bits = Math.min(Math.max(length - (i * 8), 0), 8);
+		return (0xff00 >> bits) & 0xff;
+	}
+
+	/**
+	 * The finalizer of SplitMix64
+	 */
+	private static long mix(final long hash) {
+		long result = hash;
+		result = (result ^ (result >>> 30)) * 0xbf58476d1ce4e5b9L;
+		result = (result ^ (result >>> 27)) * 0x94d049bb133111ebL;
+		return result ^ (result >>> 31);
+	}
+}
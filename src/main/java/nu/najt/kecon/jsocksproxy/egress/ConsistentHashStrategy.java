@@ -0,0 +1,135 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Chooses the source address by hashing the client address, the
+ * destination address or both, so that connections with the same key use
+ * the same source address. The choice uses rendezvous hashing: every
+ * candidate is scored by a hash of the key and the candidate address, scaled
+ * by the weight of the candidate, and the highest score wins. When a source
+ * address is removed only the keys it served move, and an added source
+ * address only takes keys from the others in proportion to its weight.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class ConsistentHashStrategy implements EgressStrategy {
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final boolean hashClient;
+
+	private final boolean hashDestination;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param hashClient
+	 *            true if the client address is part of the key
+	 * @param hashDestination
+	 *            true if the destination address is part of the key
+	 */
+	public ConsistentHashStrategy(final boolean hashClient,
+			final boolean hashDestination) {
+		this.hashClient = hashClient;
+		this.hashDestination = hashDestination;
+	}
+
+	@Override
+	public SourceAddress select(final List<SourceAddress> candidates,
+			final InetAddress clientAddress, final InetAddress destination,
+			final int port) {
+		long key = FNV_OFFSET_BASIS;
+		if (this.hashClient && (clientAddress != null)) {
+			key = hash(key, clientAddress.getAddress());
+		}
+		if (this.hashDestination) {
+			key = hash(key, destination.getAddress());
+		}
+
+		boolean weighted = false;
+		for (final SourceAddress candidate : candidates) {
+			if (candidate.getWeight() > 0) {
+				weighted = true;
+				break;
+			}
+		}
+
+		SourceAddress selected = candidates.get(0);
+		double highestScore = -1;
+
+		for (final SourceAddress candidate : candidates) {
+			final int weight = weighted ? candidate.getWeight() : 1;
+
+			if (weight > 0) {
+				final long hash = mix(
+						hash(key, candidate.getAddress().getAddress()));
+				// Uniform in (0, 1)
+				final double uniform = ((hash >>> 11) + 0.5) * 0x1.0p-53;
+				final double score = weight / -Math.log(uniform);
+
+				if (score > highestScore) {
+					selected = candidate;
+					highestScore = score;
+				}
+			}
+		}
+
+		return selected;
+	}
+
+	/**
+	 * @return true if the client address is part of the key
+	 */
+	public boolean isHashClient() {
+		return this.hashClient;
+	}
+
+	/**
+	 * @return true if the destination address is part of the key
+	 */
+	public boolean isHashDestination() {
+		return this.hashDestination;
+	}
+
+	/**
+	 * FNV-1a of the bytes, continuing from a previous hash
+	 */
+	private static long hash(final long hash, final byte[] bytes) {
+		long result = hash;
+		for (final byte b : bytes) {
+			result ^= (b & 0xff);
+			result *= FNV_PRIME;
+		}
+		return result;
+	}
+
+	/**
+	 * The finalizer of SplitMix64, spreads the FNV hash over all bits
+	 */
+	private static long mix(final long hash) {
+		long result = hash;
+		result = (result ^ (result >>> 30)) * 0xbf58476d1ce4e5b9L;
+		result = (result ^ (result >>> 27)) * 0x94d049bb133111ebL;
+		return result ^ (result >>> 31);
+	}
+}
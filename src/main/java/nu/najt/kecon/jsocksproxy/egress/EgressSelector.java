@@ -0,0 +1,170 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the source address of outgoing connections among the configured
+ * source addresses of the address family of the destination, using an
+ * {@link EgressStrategy}
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class EgressSelector {
+
+	private final List<SourceAddress> sourceAddresses;
+
+	private final List<SourceAddress> ipv4SourceAddresses = new ArrayList<SourceAddress>();
+
+	private final List<SourceAddress> ipv6SourceAddresses = new ArrayList<SourceAddress>();
+
+	private final EgressStrategy strategy;
+
+	private final PortSpace portSpace;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param sourceAddresses
+	 *            the source addresses
+	 * @param strategy
+	 *            the strategy choosing among several source addresses
+	 */
+	public EgressSelector(final List<SourceAddress> sourceAddresses,
+			final EgressStrategy strategy) {
+		this(sourceAddresses, strategy, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param sourceAddresses
+	 *            the source addresses
+	 * @param strategy
+	 *            the strategy choosing among several source addresses
+	 * @param portSpace
+	 *            the port space of the source addresses, or null
+	 */
+	public EgressSelector(final List<SourceAddress> sourceAddresses,
+			final EgressStrategy strategy, final PortSpace portSpace) {
+		this.portSpace = portSpace;
+		this.sourceAddresses = Collections.unmodifiableList(
+				new ArrayList<SourceAddress>(sourceAddresses));
+		this.strategy = strategy;
+
+		for (final SourceAddress sourceAddress : sourceAddresses) {
+			if (sourceAddress.getAddress() instanceof Inet6Address) {
+				this.ipv6SourceAddresses.add(sourceAddress);
+			} else {
+				this.ipv4SourceAddresses.add(sourceAddress);
+			}
+		}
+	}
+
+	/**
+	 * Select the source address for a connection. If the port pressure of
+	 * the address chosen by the strategy is high, the address with the
+	 * lowest pressure is used instead.
+	 * 
+	 * @param clientAddress
+	 *            the address of the SOCKS client
+	 * @param destination
+	 *            the address of the remote server
+	 * @param port
+	 *            the port of the remote server
+	 * @return the source address, or null if there is no source address of
+	 *         the address family of the destination
+	 */
+	public SourceAddress select(final InetAddress clientAddress,
+			final InetAddress destination, final int port) {
+		final List<SourceAddress> candidates = (destination instanceof Inet6Address)
+				? this.ipv6SourceAddresses
+				: this.ipv4SourceAddresses;
+
+		switch (candidates.size()) {
+		case 0:
+			return null;
+		case 1:
+			return candidates.get(0);
+		default:
+			final SourceAddress selected = this.strategy.select(candidates,
+					clientAddress, destination, port);
+
+			if (this.portSpace == null) {
+				return selected;
+			}
+
+			return this.relievePressure(candidates, selected,
+					new InetSocketAddress(destination, port));
+		}
+	}
+
+	/**
+	 * @return the source address with the lowest port pressure if the
+	 *         pressure of the selected address is high
+	 */
+	private SourceAddress relievePressure(final List<SourceAddress> candidates,
+			final SourceAddress selected,
+			final InetSocketAddress destination) {
+		double lowestPressure = this.portSpace
+				.getPressure(selected.getAddress(), destination);
+
+		if (lowestPressure < PortSpace.HIGH_PRESSURE) {
+			return selected;
+		}
+
+		SourceAddress relieved = selected;
+		for (final SourceAddress candidate : candidates) {
+			final double pressure = this.portSpace
+					.getPressure(candidate.getAddress(), destination);
+
+			if (pressure < lowestPressure) {
+				relieved = candidate;
+				lowestPressure = pressure;
+			}
+		}
+
+		return relieved;
+	}
+
+	/**
+	 * @return the source addresses
+	 */
+	public List<SourceAddress> getSourceAddresses() {
+		return this.sourceAddresses;
+	}
+
+	/**
+	 * @return the port space of the source addresses, or null
+	 */
+	public PortSpace getPortSpace() {
+		return this.portSpace;
+	}
+
+	/**
+	 * @return the strategy
+	 */
+	public EgressStrategy getStrategy() {
+		return this.strategy;
+	}
+}
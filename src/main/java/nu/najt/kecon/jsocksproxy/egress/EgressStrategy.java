@@ -0,0 +1,46 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * Chooses the source address of an outgoing connection
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public interface EgressStrategy {
+
+	/**
+	 * Choose a source address. Called concurrently from the threads opening
+	 * connections.
+	 * 
+	 * @param candidates
+	 *            the source addresses of the address family of the
+	 *            destination, at least two
+	 * @param clientAddress
+	 *            the address of the SOCKS client
+	 * @param destination
+	 *            the address of the remote server
+	 * @param port
+	 *            the port of the remote server
+	 * @return one of the candidates
+	 */
+	public SourceAddress select(List<SourceAddress> candidates,
+			InetAddress clientAddress, InetAddress destination, int port);
+}
@@ -0,0 +1,56 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the source address with the fewest open connections. The search
+ * starts at a rotating position, so addresses with the same number of
+ * connections are chosen in turn.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class LeastConnectionsStrategy implements EgressStrategy {
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	@Override
+	public SourceAddress select(final List<SourceAddress> candidates,
+			final InetAddress clientAddress, final InetAddress destination,
+			final int port) {
+		final int size = candidates.size();
+		final int start = Math.floorMod(this.next.getAndIncrement(), size);
+
+		SourceAddress selected = null;
+		int fewest = Integer.MAX_VALUE;
+
+		for (int i = 0; i < size; i++) {
+			final SourceAddress candidate = candidates.get((start + i) % size);
+			final int active = candidate.getActive();
+
+			if (active < fewest) {
+				selected = candidate;
+				fewest = active;
+			}
+		}
+
+		return selected;
+	}
+}
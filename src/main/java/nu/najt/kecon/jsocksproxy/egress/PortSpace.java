@@ -0,0 +1,418 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the local ports of outgoing connections and opens the channels of
+ * outgoing connections.
+ * <p>
+ * With kernel allocation a channel is bound to port zero, the kernel then
+ * reserves the port for the source address whatever the destination, so a
+ * source address runs out of ports after as many connections as the
+ * ephemeral port range holds. With managed allocation the port is chosen
+ * from the configured range so that only the 4-tuple of source address,
+ * source port, destination address and destination port must be unique,
+ * which is what IP_BIND_ADDRESS_NO_PORT gives a native program. The socket
+ * is bound with SO_REUSEADDR to share the port with connections to other
+ * destinations; a port that cannot be used because of a conflict outside the
+ * proxy, such as a connection in TIME_WAIT, is skipped.
+ * <p>
+ * The pressure of a source address is the fraction of its port range in use,
+ * per destination with managed allocation. The {@link EgressSelector} avoids
+ * source addresses with high pressure.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class PortSpace {
+
+	/** The first port of the default Linux ephemeral port range */
+	public static final int DEFAULT_FIRST_PORT = 32768;
+
+	/** The last port of the default Linux ephemeral port range */
+	public static final int DEFAULT_LAST_PORT = 60999;
+
+	/** Pressure above which the egress selector avoids a source address */
+	public static final double HIGH_PRESSURE = 0.8;
+
+	private static final int MAX_BIND_ATTEMPTS = 16;
+
+	private final int firstPort;
+
+	private final int lastPort;
+
+	private final boolean managed;
+
+	private final Map<Tuple, Set<Integer>> usage = new ConcurrentHashMap<Tuple, Set<Integer>>();
+
+	private final Map<SocketChannel, Allocation> allocations = new ConcurrentHashMap<SocketChannel, Allocation>();
+
+	private final LongAdder exhaustions = new LongAdder();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param firstPort
+	 *            the first port of the range
+	 * @param lastPort
+	 *            the last port of the range
+	 * @param managed
+	 *            true if ports are chosen from the range by the proxy, false
+	 *            if the kernel chooses from its ephemeral port range
+	 */
+	public PortSpace(final int firstPort, final int lastPort,
+			final boolean managed) {
+		if ((firstPort < 1) || (lastPort > 65535) || (firstPort > lastPort)) {
+			throw new IllegalArgumentException(
+					"Illegal port range: " + firstPort + "-" + lastPort);
+		}
+
+		this.firstPort = firstPort;
+		this.lastPort = lastPort;
+		this.managed = managed;
+	}
+
+	/**
+	 * Read the ephemeral port range of the kernel
+	 * 
+	 * @param file
+	 *            the file, /proc/sys/net/ipv4/ip_local_port_range on Linux
+	 * @return the first and last port, or null if the file could not be
+	 *         read
+	 */
+	public static int[] readEphemeralRange(final File file) {
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(file))) {
+			final String line = reader.readLine();
+
+			if (line != null) {
+				final String[] tokens = line.trim().split("\\s+");
+
+				if (tokens.length == 2) {
+					return new int[] { Integer.parseInt(tokens[0]),
+							Integer.parseInt(tokens[1]) };
+				}
+			}
+		} catch (final IOException | NumberFormatException e) {
+		}
+
+		return null;
+	}
+
+	/**
+	 * Open a non-blocking channel bound to the source address and start
+	 * connecting to the destination. The port is tracked until
+	 * {@link #release(SocketChannel)}.
+	 * 
+	 * @param source
+	 *            the source address
+	 * @param destination
+	 *            the destination
+	 * @return the channel, connected or with the connection pending
+	 * @throws BindException
+	 *             if no port is available
+	 * @throws IOException
+	 *             if the connection could not be started
+	 */
+	public SocketChannel open(final InetAddress source,
+			final InetSocketAddress destination) throws IOException {
+		final Tuple tuple = new Tuple(source,
+				this.managed ? destination : null);
+
+		for (int attempt = 0; attempt < MAX_BIND_ATTEMPTS; attempt++) {
+			final SocketChannel channel = SocketChannel.open();
+			try {
+				channel.configureBlocking(false);
+
+				if (this.managed) {
+					final int port = this.allocate(tuple);
+
+					if (port < 0) {
+						channel.close();
+						break;
+					}
+
+					this.allocations.put(channel, new Allocation(tuple, port));
+					channel.setOption(StandardSocketOptions.SO_REUSEADDR,
+							Boolean.TRUE);
+					channel.bind(new InetSocketAddress(source, port));
+				} else {
+					channel.bind(new InetSocketAddress(source, 0));
+					this.track(channel, tuple);
+				}
+
+				channel.connect(destination);
+				return channel;
+			} catch (final BindException e) {
+				// The port, or the 4-tuple, is used outside the proxy
+				this.release(channel);
+				channel.close();
+
+				if (!this.managed) {
+					this.exhaustions.increment();
+					throw e;
+				}
+			} catch (final IOException | RuntimeException e) {
+				this.release(channel);
+				channel.close();
+				throw e;
+			}
+		}
+
+		this.exhaustions.increment();
+		throw new BindException("No free port from " + source.getHostAddress()
+				+ " to " + destination);
+	}
+
+	/**
+	 * Stop tracking the port of a channel opened by
+	 * {@link #open(InetAddress, InetSocketAddress)}. Releasing a channel
+	 * twice has no effect.
+	 * 
+	 * @param channel
+	 *            the channel
+	 */
+	public void release(final SocketChannel channel) {
+		final Allocation allocation = this.allocations.remove(channel);
+
+		if (allocation != null) {
+			final Set<Integer> ports = this.usage.get(allocation.tuple);
+
+			if (ports != null) {
+				ports.remove(allocation.port);
+
+				if (ports.isEmpty()) {
+					this.usage.remove(allocation.tuple, ports);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param source
+	 *            the source address
+	 * @param destination
+	 *            the destination
+	 * @return the fraction of the ports of the source address in use, to the
+	 *         destination with managed allocation
+	 */
+	public double getPressure(final InetAddress source,
+			final InetSocketAddress destination) {
+		final Set<Integer> ports = this.usage
+				.get(new Tuple(source, this.managed ? destination : null));
+
+		return (ports != null) ? this.pressure(ports.size()) : 0;
+	}
+
+	/**
+	 * @param source
+	 *            the source address
+	 * @return the highest pressure of the source address
+	 */
+	public double getPressure(final InetAddress source) {
+		int used = 0;
+		for (final Map.Entry<Tuple, Set<Integer>> entry : this.usage
+				.entrySet()) {
+			if (entry.getKey().source.equals(source)) {
+				used = Math.max(used, entry.getValue().size());
+			}
+		}
+
+		return this.pressure(used);
+	}
+
+	/**
+	 * @return the highest pressure of all source addresses
+	 */
+	public double getPressure() {
+		int used = 0;
+		for (final Set<Integer> ports : this.usage.values()) {
+			used = Math.max(used, ports.size());
+		}
+
+		return this.pressure(used);
+	}
+
+	/**
+	 * @return number of connections that failed because no port was
+	 *         available
+	 */
+	public long getExhaustions() {
+		return this.exhaustions.sum();
+	}
+
+	/**
+	 * @return number of ports in the range
+	 */
+	public int getRangeSize() {
+		return (this.lastPort - this.firstPort) + 1;
+	}
+
+	/**
+	 * @param firstPort
+	 *            the first port of the range
+	 * @param lastPort
+	 *            the last port of the range
+	 * @param managed
+	 *            true for managed allocation
+	 * @return true if this port space uses the given settings
+	 */
+	public boolean hasSettings(final int firstPort, final int lastPort,
+			final boolean managed) {
+		return (this.firstPort == firstPort) && (this.lastPort == lastPort)
+				&& (this.managed == managed);
+	}
+
+	private double pressure(final int used) {
+		return (double) used / this.getRangeSize();
+	}
+
+	/**
+	 * Reserve a free port of the range for the tuple, starting at a random
+	 * port
+	 * 
+	 * @return the port, or -1 if all ports are in use
+	 */
+	private int allocate(final Tuple tuple) {
+		final int rangeSize = this.getRangeSize();
+
+		while (true) {
+			final Set<Integer> ports = this.getPorts(tuple);
+
+			if (ports.size() >= rangeSize) {
+				return -1;
+			}
+
+			final int start = ThreadLocalRandom.current().nextInt(rangeSize);
+			int port = -1;
+			for (int i = 0; i < rangeSize; i++) {
+				final int candidate = this.firstPort + ((start + i) % rangeSize);
+
+				if (ports.add(candidate)) {
+					port = candidate;
+					break;
+				}
+			}
+
+			if (port < 0) {
+				return -1;
+			}
+
+			// Retry if the set was removed by a concurrent release
+			if (this.usage.get(tuple) == ports) {
+				return port;
+			}
+		}
+	}
+
+	/**
+	 * Track the port chosen by the kernel
+	 */
+	private void track(final SocketChannel channel, final Tuple tuple)
+			throws IOException {
+		final int port = ((InetSocketAddress) channel.getLocalAddress())
+				.getPort();
+
+		while (true) {
+			final Set<Integer> ports = this.getPorts(tuple);
+			ports.add(port);
+
+			if (this.usage.get(tuple) == ports) {
+				this.allocations.put(channel, new Allocation(tuple, port));
+				return;
+			}
+		}
+	}
+
+	private Set<Integer> getPorts(final Tuple tuple) {
+		final Set<Integer> ports = this.usage.get(tuple);
+
+		if (ports != null) {
+			return ports;
+		}
+
+		final Set<Integer> newPorts = ConcurrentHashMap.newKeySet();
+		final Set<Integer> existingPorts = this.usage.putIfAbsent(tuple,
+				newPorts);
+
+		return (existingPorts != null) ? existingPorts : newPorts;
+	}
+
+	/**
+	 * A source address and, with managed allocation, a destination
+	 */
+	private static final class Tuple {
+
+		private final InetAddress source;
+
+		private final InetSocketAddress destination;
+
+		private Tuple(final InetAddress source,
+				final InetSocketAddress destination) {
+			this.source = source;
+			this.destination = destination;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * this.source.hashCode()) + ((this.destination != null)
+					? this.destination.hashCode() : 0);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Tuple)) {
+				return false;
+			}
+
+			final Tuple other = (Tuple) obj;
+			return this.source.equals(other.source)
+					&& ((this.destination != null)
+							? this.destination.equals(other.destination)
+							: (other.destination == null));
+		}
+	}
+
+	/**
+	 * The tuple and port of a channel
+	 */
+	private static final class Allocation {
+
+		private final Tuple tuple;
+
+		private final int port;
+
+		private Allocation(final Tuple tuple, final int port) {
+			this.tuple = tuple;
+			this.port = port;
+		}
+	}
+}
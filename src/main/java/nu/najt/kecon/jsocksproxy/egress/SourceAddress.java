@@ -0,0 +1,210 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * An outgoing source address with its connection and byte counters. The
+ * counters are updated without locks from the threads handling the
+ * connections.
+ * <p>
+ * A source address is either a single local address or an
+ * {@link AddressPrefix} that a new address is drawn from for every
+ * connection, or for every client.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class SourceAddress {
+
+	private final InetAddress address;
+
+	private final AddressPrefix prefix;
+
+	private volatile int weight;
+
+	private volatile boolean perClient;
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicLong connections = new AtomicLong();
+
+	private final LongAdder bytesSent = new LongAdder();
+
+	private final LongAdder bytesReceived = new LongAdder();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param address
+	 *            the local address
+	 * @param weight
+	 *            the weight used by the weighted strategy
+	 */
+	public SourceAddress(final InetAddress address, final int weight) {
+		this.address = address;
+		this.prefix = null;
+		this.weight = weight;
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param prefix
+	 *            the prefix the local addresses are drawn from
+	 * @param weight
+	 *            the weight used by the weighted strategy
+	 * @param perClient
+	 *            true if each client is given a stable address, false for a
+	 *            random address per connection
+	 */
+	public SourceAddress(final AddressPrefix prefix, final int weight,
+			final boolean perClient) {
+		this.address = prefix.getNetworkAddress();
+		this.prefix = prefix;
+		this.weight = weight;
+		this.perClient = perClient;
+	}
+
+	/**
+	 * Get the local address to bind a connection of the client to
+	 * 
+	 * @param clientAddress
+	 *            the address of the client, or null
+	 * @return the local address, or an address drawn from the prefix
+	 */
+	public InetAddress getBindAddress(final InetAddress clientAddress) {
+		if (this.prefix == null) {
+			return this.address;
+		}
+
+		if (this.perClient && (clientAddress != null)) {
+			return this.prefix.derive(clientAddress.getAddress());
+		}
+
+		return this.prefix.random();
+	}
+
+	/**
+	 * Count a connection established from this address. The returned
+	 * listener must be notified when the tunnel of the connection closes.
+	 * 
+	 * @return the listener counting the bytes of the tunnel
+	 */
+	public TunnelListener connected() {
+		this.active.incrementAndGet();
+		this.connections.incrementAndGet();
+
+		return new TunnelListener() {
+
+			@Override
+			public void closed(final TransferStatistics upstream,
+					final TransferStatistics downstream) {
+				SourceAddress.this.active.decrementAndGet();
+				SourceAddress.this.bytesSent.add(upstream.getBytes());
+				SourceAddress.this.bytesReceived.add(downstream.getBytes());
+			}
+		};
+	}
+
+	/**
+	 * @return the local address, or the network address of the prefix
+	 */
+	public InetAddress getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @return the prefix the local addresses are drawn from, or null
+	 */
+	public AddressPrefix getPrefix() {
+		return this.prefix;
+	}
+
+	/**
+	 * @return true if each client is given a stable address of the prefix
+	 */
+	public boolean isPerClient() {
+		return this.perClient;
+	}
+
+	/**
+	 * @param perClient
+	 *            true if each client is given a stable address of the prefix
+	 */
+	public void setPerClient(final boolean perClient) {
+		this.perClient = perClient;
+	}
+
+	/**
+	 * @return the weight used by the weighted strategy
+	 */
+	public int getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * @param weight
+	 *            the weight used by the weighted strategy
+	 */
+	public void setWeight(final int weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * @return number of open connections from this address
+	 */
+	public int getActive() {
+		return this.active.get();
+	}
+
+	/**
+	 * @return number of connections established from this address
+	 */
+	public long getConnections() {
+		return this.connections.get();
+	}
+
+	/**
+	 * @return number of bytes sent to remote servers from closed tunnels
+	 */
+	public long getBytesSent() {
+		return this.bytesSent.sum();
+	}
+
+	/**
+	 * @return number of bytes received from remote servers in closed tunnels
+	 */
+	public long getBytesReceived() {
+		return this.bytesReceived.sum();
+	}
+
+	@Override
+	public String toString() {
+		return ((this.prefix != null) ? this.prefix.toString()
+				: this.address.getHostAddress()) + " weight=" + this.weight
+				+ " active=" + this.getActive() + " connections="
+				+ this.getConnections() + " sent=" + this.getBytesSent()
+				+ " received=" + this.getBytesReceived();
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the source addresses in turn in proportion to their weights. An
+ * address with weight three is chosen three times for each time an address
+ * with weight one is chosen; addresses with no weight are not chosen unless
+ * all weights are zero.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class WeightedStrategy implements EgressStrategy {
+
+	private final AtomicLong next = new AtomicLong();
+
+	@Override
+	public SourceAddress select(final List<SourceAddress> candidates,
+			final InetAddress clientAddress, final InetAddress destination,
+			final int port) {
+		long totalWeight = 0;
+		for (final SourceAddress candidate : candidates) {
+			totalWeight += Math.max(candidate.getWeight(), 0);
+		}
+
+		if (totalWeight == 0) {
+			return candidates.get((int) Math.floorMod(
+					this.next.getAndIncrement(), (long) candidates.size()));
+		}
+
+		long position = Math.floorMod(this.next.getAndIncrement(),
+				totalWeight);
+		for (final SourceAddress candidate : candidates) {
+			position -= Math.max(candidate.getWeight(), 0);
+
+			if (position < 0) {
+				return candidate;
+			}
+		}
+
+		// The weights changed while choosing
+		return candidates.get(candidates.size() - 1);
+	}
+}
@@ -0,0 +1,372 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram of fixed size over a rolling window. Latencies are
+ * recorded in nanoseconds into log-linear buckets: every power of two is
+ * divided into 32 buckets, so a percentile is reported at most about 3% above
+ * the recorded latency. Latencies from about 36 minutes, 2^41 ns, are
+ * recorded in the highest bucket.
+ * <p>
+ * The window is divided into intervals with their own buckets. A latency is
+ * counted in the interval of the current time, and an interval is cleared by
+ * the first latency recorded after it has passed out of the window. Recording
+ * is lock-free, and a latency recorded while its interval is being cleared
+ * may be lost from the window.
+ * <p>
+ * The number and the sum of all latencies since the histogram was created
+ * are kept beside the window.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+	/** Number of intervals of the default window */
+	public static final int DEFAULT_INTERVALS = 6;
+
+	/** Length of an interval of the default window in milliseconds */
+	public static final long DEFAULT_INTERVAL_LENGTH = 10000;
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAX_MAGNITUDE = 40;
+
+	private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+	private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2)
+			* SUB_BUCKETS;
+
+	private final long intervalLength;
+
+	private final AtomicLongArray[] intervals;
+
+	/** The interval number of the time each interval was last cleared */
+	private final AtomicLongArray epochs;
+
+	private final LongAdder totalCount = new LongAdder();
+
+	private final LongAdder totalLatency = new LongAdder();
+
+	/**
+	 * Constructor for a window of {@link #DEFAULT_INTERVALS} intervals of
+	 * {@link #DEFAULT_INTERVAL_LENGTH} milliseconds
+	 */
+	public LatencyHistogram() {
+		this(LatencyHistogram.DEFAULT_INTERVALS,
+				LatencyHistogram.DEFAULT_INTERVAL_LENGTH,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param intervals
+	 *            number of intervals of the window
+	 * @param intervalLength
+	 *            the length of an interval
+	 * @param timeUnit
+	 *            the time unit of the length
+	 */
+	public LatencyHistogram(final int intervals, final long intervalLength,
+			final TimeUnit timeUnit) {
+		if ((intervals < 1) || (intervalLength <= 0)) {
+			throw new IllegalArgumentException(
+					"The window must have at least one interval");
+		}
+
+		this.intervalLength = timeUnit.toNanos(intervalLength);
+		this.intervals = new AtomicLongArray[intervals];
+		this.epochs = new AtomicLongArray(intervals);
+
+		for (int i = 0; i < intervals; i++) {
+			this.intervals[i] = new AtomicLongArray(LatencyHistogram.BUCKETS);
+			this.epochs.set(i, Long.MIN_VALUE);
+		}
+	}
+
+	/**
+	 * Record a latency
+	 * 
+	 * @param latency
+	 *            the latency in nanoseconds
+	 */
+	public void record(final long latency) {
+		this.record(latency, System.nanoTime());
+	}
+
+	/**
+	 * Record the latency from a start time until now
+	 * 
+	 * @param start
+	 *            the start time from {@link System#nanoTime()}
+	 */
+	public void recordSince(final long start) {
+		final long now = System.nanoTime();
+		this.record(now - start, now);
+	}
+
+	void record(final long latency, final long now) {
+		final long tick = Math.floorDiv(now, this.intervalLength);
+		final int interval = (int) Math.floorMod(tick,
+				(long) this.intervals.length);
+		final long epoch = this.epochs.get(interval);
+
+		if (epoch != tick) {
+			this.rotate(interval, epoch, tick);
+		}
+
+		this.intervals[interval].incrementAndGet(bucket(latency));
+		this.totalCount.increment();
+		this.totalLatency.add(Math.max(latency, 0));
+	}
+
+	/**
+	 * @return number of latencies recorded since the histogram was created
+	 */
+	public long getTotalCount() {
+		return this.totalCount.sum();
+	}
+
+	/**
+	 * @return sum of the latencies recorded since the histogram was created
+	 *         in nanoseconds
+	 */
+	public long getTotalLatency() {
+		return this.totalLatency.sum();
+	}
+
+	/**
+	 * Clear an interval that has passed out of the window, by the thread that
+	 * advances its epoch
+	 */
+	private void rotate(final int interval, final long epoch,
+			final long tick) {
+		if ((epoch < tick) && this.epochs.compareAndSet(interval, epoch, tick)) {
+			final AtomicLongArray counts = this.intervals[interval];
+
+			for (int i = 0; i < counts.length(); i++) {
+				if (counts.get(i) != 0) {
+					counts.set(i, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the latencies of the window
+	 */
+	public Snapshot getSnapshot() {
+		return this.getSnapshot(System.nanoTime());
+	}
+
+	/**
+	 * Copy the latencies of the window into a snapshot, replacing its
+	 * latencies. Used to read the histogram without allocating a snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot
+	 */
+	public void copyTo(final Snapshot snapshot) {
+		this.copyTo(snapshot, System.nanoTime());
+	}
+
+	Snapshot getSnapshot(final long now) {
+		final Snapshot snapshot = new Snapshot();
+		this.copyTo(snapshot, now);
+		return snapshot;
+	}
+
+	private void copyTo(final Snapshot snapshot, final long now) {
+		final long tick = Math.floorDiv(now, this.intervalLength);
+		Arrays.fill(snapshot.counts, 0);
+
+		for (int i = 0; i < this.intervals.length; i++) {
+			final long epoch = this.epochs.get(i);
+
+			if ((epoch <= tick) && (epoch > (tick - this.intervals.length))) {
+				final AtomicLongArray counts = this.intervals[i];
+
+				for (int j = 0; j < LatencyHistogram.BUCKETS; j++) {
+					snapshot.counts[j] += counts.get(j);
+				}
+			}
+		}
+
+		snapshot.count = 0;
+		for (final long count : snapshot.counts) {
+			snapshot.count += count;
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return this.getSnapshot().getCount();
+	}
+
+	@Override
+	public double getP50() {
+		return toMicros(this.getSnapshot().getValueAtPercentile(50));
+	}
+
+	@Override
+	public double getP99() {
+		return toMicros(this.getSnapshot().getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getP999() {
+		return toMicros(this.getSnapshot().getValueAtPercentile(99.9));
+	}
+
+	@Override
+	public double getMax() {
+		return toMicros(this.getSnapshot().getMax());
+	}
+
+	@Override
+	public long getWindow() {
+		return TimeUnit.NANOSECONDS
+				.toSeconds(this.intervalLength * this.intervals.length);
+	}
+
+	private static double toMicros(final long nanos) {
+		return nanos / 1000.0;
+	}
+
+	/**
+	 * @return the bucket of a latency, latencies below 32 ns have one bucket
+	 *         each
+	 */
+	static int bucket(final long latency) {
+		final long value = Math.min(Math.max(latency, 0),
+				LatencyHistogram.MAX_VALUE);
+
+		if (value < LatencyHistogram.SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = magnitude - LatencyHistogram.SUB_BUCKET_BITS;
+
+		return ((shift + 1) * LatencyHistogram.SUB_BUCKETS)
+				+ (int) (value >>> shift) - LatencyHistogram.SUB_BUCKETS;
+	}
+
+	/**
+	 * @return the highest latency counted in a bucket
+	 */
+	static long highestValue(final int bucket) {
+		if (bucket < LatencyHistogram.SUB_BUCKETS) {
+			return bucket;
+		}
+
+		final int shift = (bucket / LatencyHistogram.SUB_BUCKETS) - 1;
+		final long subBucket = (bucket % LatencyHistogram.SUB_BUCKETS)
+				+ LatencyHistogram.SUB_BUCKETS;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * The latencies of a window. Snapshots of several histograms can be
+	 * added together.
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts = new long[LatencyHistogram.BUCKETS];
+
+		private long count = 0;
+
+		/**
+		 * Add the latencies of another snapshot
+		 * 
+		 * @param snapshot
+		 *            the other snapshot
+		 */
+		public void add(final Snapshot snapshot) {
+			for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+				this.counts[i] += snapshot.counts[i];
+			}
+			this.count += snapshot.count;
+		}
+
+		/**
+		 * @return number of latencies
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @param percentile
+		 *            the percentile, between 0 and 100
+		 * @return the latency in nanoseconds that the percentile of the
+		 *         latencies are at or below, zero if there are no latencies
+		 */
+		public long getValueAtPercentile(final double percentile) {
+			if (this.count == 0) {
+				return 0;
+			}
+
+			final long rank = Math.max(1,
+					(long) Math.ceil((percentile / 100) * this.count));
+			long cumulative = 0;
+
+			for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+				cumulative += this.counts[i];
+
+				if (cumulative >= rank) {
+					return highestValue(i);
+				}
+			}
+
+			return this.getMax();
+		}
+
+		/**
+		 * @return the highest latency in nanoseconds, zero if there are no
+		 *         latencies
+		 */
+		public long getMax() {
+			for (int i = LatencyHistogram.BUCKETS - 1; i >= 0; i--) {
+				if (this.counts[i] != 0) {
+					return highestValue(i);
+				}
+			}
+
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"count=%d p50=%.3f ms p99=%.3f ms p99.9=%.3f ms max=%.3f ms",
+					this.count, this.getValueAtPercentile(50) / 1e6,
+					this.getValueAtPercentile(99) / 1e6,
+					this.getValueAtPercentile(99.9) / 1e6,
+					this.getMax() / 1e6);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+/**
+ * Latencies of one phase of the connections of a listen address, over the
+ * rolling window of the histogram. The latencies are in microseconds.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public interface LatencyHistogramMBean {
+
+	/**
+	 * @return number of recorded latencies in the window
+	 */
+	public long getCount();
+
+	/**
+	 * @return the median latency
+	 */
+	public double getP50();
+
+	/**
+	 * @return the 99th percentile latency
+	 */
+	public double getP99();
+
+	/**
+	 * @return the 99.9th percentile latency
+	 */
+	public double getP999();
+
+	/**
+	 * @return the highest latency
+	 */
+	public double getMax();
+
+	/**
+	 * @return the length of the window in seconds
+	 */
+	public long getWindow();
+}
@@ -0,0 +1,256 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import nu.najt.kecon.jsocksproxy.socks5.Status;
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * Metrics of one listen address. The counters are striped {@link LongAdder}
+ * instances updated without locks by the threads handling the connections,
+ * the sums are only computed when read.
+ * <p>
+ * A connection is counted as a handshake from accept until the reply to its
+ * request, and as a tunnel from then until the tunnel closes. The metrics are
+ * notified of the closed tunnel as a {@link TunnelListener}. A SOCKS5
+ * connection refused in the method selection is counted as a failure with
+ * reply code 0xff, no acceptable methods.
+ * <p>
+ * The latencies of the phases of the connections are recorded in a
+ * {@link LatencyHistogram} per {@link Phase}.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class ListenerMetrics implements ListenerMetricsMBean, TunnelListener {
+
+	private static final int SOCKS4 = 0x04;
+
+	private static final int REPLY_CODES = 256;
+
+	private final String address;
+
+	private final LongAdder accepted = new LongAdder();
+
+	private final LongAdder handshakes = new LongAdder();
+
+	private final LongAdder activeTunnels = new LongAdder();
+
+	private final LongAdder tunnels = new LongAdder();
+
+	private final LongAdder bytesUpstream = new LongAdder();
+
+	private final LongAdder bytesDownstream = new LongAdder();
+
+	/** SOCKS4 reply codes followed by SOCKS5 reply codes */
+	private final AtomicReferenceArray<LongAdder> failures = new AtomicReferenceArray<LongAdder>(
+			2 * REPLY_CODES);
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Phase
+			.values().length];
+
+	/**
+	 * Constructor
+	 * 
+	 * @param address
+	 *            the listen address as host:port
+	 */
+	public ListenerMetrics(final String address) {
+		this.address = address;
+
+		for (int i = 0; i < this.latencies.length; i++) {
+			this.latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * A connection was accepted, its handshake has started
+	 */
+	public void accepted() {
+		this.accepted.increment();
+		this.handshakes.increment();
+	}
+
+	/**
+	 * The handshake of a connection has ended without a tunnel
+	 */
+	public void handshakeEnded() {
+		this.handshakes.decrement();
+	}
+
+	/**
+	 * The handshake of a connection has ended with an established tunnel. The
+	 * metrics must be notified when the tunnel closes.
+	 */
+	public void tunnelOpened() {
+		this.handshakes.decrement();
+		this.activeTunnels.increment();
+		this.tunnels.increment();
+	}
+
+	@Override
+	public void closed(final TransferStatistics upstream,
+			final TransferStatistics downstream) {
+		this.activeTunnels.decrement();
+		this.bytesUpstream.add(upstream.getBytes());
+		this.bytesDownstream.add(downstream.getBytes());
+	}
+
+	/**
+	 * A request was replied to with a failure
+	 * 
+	 * @param version
+	 *            the SOCKS version, 4 or 5
+	 * @param replyCode
+	 *            the reply code
+	 */
+	public void handshakeFailed(final int version, final int replyCode) {
+		final int index = ((version == SOCKS4) ? 0 : REPLY_CODES)
+				+ (replyCode & 0xff);
+
+		LongAdder counter = this.failures.get(index);
+		if (counter == null) {
+			this.failures.compareAndSet(index, null, new LongAdder());
+			counter = this.failures.get(index);
+		}
+
+		counter.increment();
+	}
+
+	/**
+	 * Record the latency of a phase from its start until now
+	 * 
+	 * @param phase
+	 *            the phase
+	 * @param start
+	 *            the start of the phase from {@link System#nanoTime()}
+	 */
+	public void recordLatency(final Phase phase, final long start) {
+		this.latencies[phase.ordinal()].recordSince(start);
+	}
+
+	/**
+	 * @param phase
+	 *            the phase
+	 * @return the latencies of the phase
+	 */
+	public LatencyHistogram getLatencyHistogram(final Phase phase) {
+		return this.latencies[phase.ordinal()];
+	}
+
+	/**
+	 * @param version
+	 *            the SOCKS version, 4 or 5
+	 * @param replyCode
+	 *            the reply code
+	 * @return number of requests replied to with the reply code
+	 */
+	public long getHandshakeFailures(final int version, final int replyCode) {
+		final LongAdder counter = this.failures
+				.get(((version == SOCKS4) ? 0 : REPLY_CODES)
+						+ (replyCode & 0xff));
+
+		return (counter != null) ? counter.sum() : 0;
+	}
+
+	@Override
+	public String getAddress() {
+		return this.address;
+	}
+
+	@Override
+	public long getAcceptedConnections() {
+		return this.accepted.sum();
+	}
+
+	@Override
+	public long getActiveHandshakes() {
+		return this.handshakes.sum();
+	}
+
+	@Override
+	public long getActiveTunnels() {
+		return this.activeTunnels.sum();
+	}
+
+	@Override
+	public long getTunnels() {
+		return this.tunnels.sum();
+	}
+
+	@Override
+	public long getBytesUpstream() {
+		return this.bytesUpstream.sum();
+	}
+
+	@Override
+	public long getBytesDownstream() {
+		return this.bytesDownstream.sum();
+	}
+
+	@Override
+	public long getHandshakeFailures() {
+		long sum = 0;
+
+		for (int i = 0; i < this.failures.length(); i++) {
+			final LongAdder counter = this.failures.get(i);
+			if (counter != null) {
+				sum += counter.sum();
+			}
+		}
+
+		return sum;
+	}
+
+	@Override
+	public String[] getHandshakeFailuresByStatus() {
+		final List<String> statistics = new ArrayList<String>();
+
+		for (int i = 0; i < this.failures.length(); i++) {
+			final LongAdder counter = this.failures.get(i);
+			if (counter != null) {
+				statistics.add(formatReplyCode(
+						(i < REPLY_CODES) ? SOCKS4 : 0x05, i % REPLY_CODES)
+						+ "=" + counter.sum());
+			}
+		}
+
+		return statistics.toArray(new String[statistics.size()]);
+	}
+
+	/**
+	 * @return the SOCKS version and the name of the reply code, such as
+	 *         socks5 host-unreachable
+	 */
+	static String formatReplyCode(final int version, final int replyCode) {
+		if (version != SOCKS4) {
+			for (final Status status : Status.values()) {
+				if ((status.getValue() & 0xff) == replyCode) {
+					return "socks5 " + status.name().toLowerCase()
+							.replace('_', '-');
+				}
+			}
+		}
+
+		return "socks" + version + " 0x" + Integer.toHexString(replyCode);
+	}
+}
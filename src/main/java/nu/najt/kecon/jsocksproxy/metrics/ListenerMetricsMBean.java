@@ -0,0 +1,73 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+/**
+ * Metrics of one listen address
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public interface ListenerMetricsMBean {
+
+	/**
+	 * @return the listen address as host:port
+	 */
+	public String getAddress();
+
+	/**
+	 * @return number of accepted connections
+	 */
+	public long getAcceptedConnections();
+
+	/**
+	 * @return number of connections between accept and the reply to the
+	 *         request
+	 */
+	public long getActiveHandshakes();
+
+	/**
+	 * @return number of established tunnels
+	 */
+	public long getActiveTunnels();
+
+	/**
+	 * @return number of tunnels established since start
+	 */
+	public long getTunnels();
+
+	/**
+	 * @return number of bytes sent from clients to remote servers in closed
+	 *         tunnels
+	 */
+	public long getBytesUpstream();
+
+	/**
+	 * @return number of bytes sent from remote servers to clients in closed
+	 *         tunnels
+	 */
+	public long getBytesDownstream();
+
+	/**
+	 * @return number of requests replied to with a failure
+	 */
+	public long getHandshakeFailures();
+
+	/**
+	 * @return number of failed requests per SOCKS version and reply code
+	 */
+	public String[] getHandshakeFailuresByStatus();
+}
@@ -0,0 +1,533 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.JSocksProxyMBean;
+
+/**
+ * A minimal HTTP listener serving the metrics of the proxy in the
+ * Prometheus text exposition format on <code>/metrics</code>.
+ * <p>
+ * The endpoint runs on its own thread, not on the executors of the proxy, so
+ * the proxy can be observed when all connection handlers are busy. Scrapes
+ * are served one at a time and only read counters, they never wait for the
+ * connections. The response is written into buffers reused between scrapes.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class MetricsEndpoint implements Runnable {
+
+	/** The path of the metrics */
+	public static final String PATH = "/metrics";
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MetricsEndpoint.class);
+
+	private static final int BACKLOG = 16;
+
+	private static final int TIMEOUT = 5000;
+
+	private static final int REQUEST_BUFFER_SIZE = 4096;
+
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final byte[] GET = { 'G', 'E', 'T' };
+
+	private static final byte[] HEAD = { 'H', 'E', 'A', 'D' };
+
+	private static final double[] QUANTILES = { 50, 99, 99.9 };
+
+	private static final String[] QUANTILE_LABELS = { "0.5", "0.99",
+			"0.999" };
+
+	private static final String[] REPLY_CODES = new String[256];
+
+	static {
+		for (int i = 0; i < MetricsEndpoint.REPLY_CODES.length; i++) {
+			MetricsEndpoint.REPLY_CODES[i] = String.format("0x%02x", i);
+		}
+	}
+
+	private final InetSocketAddress address;
+
+	private final ServerSocket serverSocket;
+
+	private final MetricsRegistry metricsRegistry;
+
+	private final JSocksProxyMBean proxy;
+
+	private final PrometheusWriter writer = new PrometheusWriter();
+
+	private final StringBuilder header = new StringBuilder(256);
+
+	private final byte[] requestBuffer = new byte[MetricsEndpoint.REQUEST_BUFFER_SIZE];
+
+	private final byte[] outputBuffer = new byte[MetricsEndpoint.OUTPUT_BUFFER_SIZE];
+
+	private final List<ListenerMetrics> listeners = new ArrayList<ListenerMetrics>();
+
+	private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor, binds the listen address
+	 * 
+	 * @param address
+	 *            the listen address
+	 * @param metricsRegistry
+	 *            the metrics of the listen addresses
+	 * @param proxy
+	 *            the proxy, or null to only serve the metrics of the listen
+	 *            addresses
+	 * @throws IOException
+	 *             if the address could not be bound
+	 */
+	public MetricsEndpoint(final InetSocketAddress address,
+			final MetricsRegistry metricsRegistry,
+			final JSocksProxyMBean proxy) throws IOException {
+		this.address = address;
+		this.metricsRegistry = metricsRegistry;
+		this.proxy = proxy;
+		this.serverSocket = new ServerSocket();
+
+		try {
+			this.serverSocket.setReuseAddress(true);
+			this.serverSocket.bind(address, MetricsEndpoint.BACKLOG);
+		} catch (final IOException e) {
+			this.serverSocket.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (this.running) {
+			try (Socket socket = this.serverSocket.accept()) {
+				socket.setSoTimeout(MetricsEndpoint.TIMEOUT);
+				this.serve(socket);
+			} catch (final IOException e) {
+				if (this.running) {
+					LOG.debug("Failed to serve metrics", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop serving and close the listen address
+	 */
+	public void shutdown() {
+		this.running = false;
+
+		try {
+			this.serverSocket.close();
+		} catch (final IOException e) {
+		}
+	}
+
+	/**
+	 * @return the configured listen address
+	 */
+	public InetSocketAddress getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @return the bound port
+	 */
+	public int getLocalPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Read the request head and reply to it
+	 */
+	private void serve(final Socket socket) throws IOException {
+		final InputStream inputStream = socket.getInputStream();
+		final byte[] request = this.requestBuffer;
+		int length = 0;
+
+		while (!isHeadComplete(request, length)) {
+			if (length == request.length) {
+				this.reply(socket, "431 Request Header Fields Too Large");
+				return;
+			}
+
+			final int read = inputStream.read(request, length,
+					request.length - length);
+			if (read < 0) {
+				return;
+			}
+			length += read;
+		}
+
+		final boolean head = startsWith(request, length,
+				MetricsEndpoint.HEAD);
+		if (!head && !startsWith(request, length, MetricsEndpoint.GET)) {
+			this.reply(socket, "405 Method Not Allowed");
+			return;
+		}
+
+		if (!isMetricsPath(request, length,
+				(head ? MetricsEndpoint.HEAD : MetricsEndpoint.GET).length
+						+ 1)) {
+			this.reply(socket, "404 Not Found");
+			return;
+		}
+
+		this.writer.reset();
+		this.writeMetrics(this.writer);
+
+		final OutputStream outputStream = socket.getOutputStream();
+		this.writeHeader(outputStream, "200 OK", MetricsEndpoint.CONTENT_TYPE,
+				this.writer.length());
+
+		if (!head) {
+			this.writer.writeTo(outputStream, this.outputBuffer);
+		}
+
+		outputStream.flush();
+	}
+
+	/**
+	 * Reply with a status without content
+	 */
+	private void reply(final Socket socket, final String status)
+			throws IOException {
+		final OutputStream outputStream = socket.getOutputStream();
+
+		this.writeHeader(outputStream, status, "text/plain", 0);
+		outputStream.flush();
+	}
+
+	private void writeHeader(final OutputStream outputStream,
+			final String status, final String contentType,
+			final int contentLength) throws IOException {
+		this.header.setLength(0);
+		this.header.append("HTTP/1.1 ").append(status)
+				.append("\r\nContent-Type: ").append(contentType)
+				.append("\r\nContent-Length: ").append(contentLength)
+				.append("\r\nConnection: close\r\n\r\n");
+
+		PrometheusWriter.writeTo(this.header, outputStream,
+				this.outputBuffer);
+	}
+
+	/**
+	 * Write the metrics of the listen addresses and of the proxy
+	 * 
+	 * @param writer
+	 *            the writer
+	 */
+	void writeMetrics(final PrometheusWriter writer) {
+		this.listeners.clear();
+		for (final ListenerMetrics listenerMetrics : this.metricsRegistry
+				.getListenerMetrics()) {
+			this.listeners.add(listenerMetrics);
+		}
+
+		writer.family("jsocksproxy_accepted_connections_total", "counter",
+				"Accepted connections");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			writer.sample("jsocksproxy_accepted_connections_total")
+					.label("listener", listenerMetrics.getAddress())
+					.value(listenerMetrics.getAcceptedConnections());
+		}
+
+		writer.family("jsocksproxy_active_handshakes", "gauge",
+				"Connections between accept and the reply to the request");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			writer.sample("jsocksproxy_active_handshakes")
+					.label("listener", listenerMetrics.getAddress())
+					.value(listenerMetrics.getActiveHandshakes());
+		}
+
+		writer.family("jsocksproxy_active_tunnels", "gauge",
+				"Established tunnels");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			writer.sample("jsocksproxy_active_tunnels")
+					.label("listener", listenerMetrics.getAddress())
+					.value(listenerMetrics.getActiveTunnels());
+		}
+
+		writer.family("jsocksproxy_tunnels_total", "counter",
+				"Tunnels established");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			writer.sample("jsocksproxy_tunnels_total")
+					.label("listener", listenerMetrics.getAddress())
+					.value(listenerMetrics.getTunnels());
+		}
+
+		writer.family("jsocksproxy_upstream_bytes_total", "counter",
+				"Bytes sent from clients to remote servers in closed tunnels");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			writer.sample("jsocksproxy_upstream_bytes_total")
+					.label("listener", listenerMetrics.getAddress())
+					.value(listenerMetrics.getBytesUpstream());
+		}
+
+		writer.family("jsocksproxy_downstream_bytes_total", "counter",
+				"Bytes sent from remote servers to clients in closed tunnels");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			writer.sample("jsocksproxy_downstream_bytes_total")
+					.label("listener", listenerMetrics.getAddress())
+					.value(listenerMetrics.getBytesDownstream());
+		}
+
+		writer.family("jsocksproxy_handshake_failures_total", "counter",
+				"Requests replied to with a failure");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+			this.writeFailures(writer, listenerMetrics, 4, "4");
+			this.writeFailures(writer, listenerMetrics, 5, "5");
+		}
+
+		// Quantiles over the window, count and sum since the start
+		writer.family("jsocksproxy_latency_seconds", "summary",
+				"Latency of the connection phases, quantiles over the last minute");
+		for (int i = 0; i < this.listeners.size(); i++) {
+			final ListenerMetrics listenerMetrics = this.listeners.get(i);
+
+			for (final Phase phase : Phase.values()) {
+				final LatencyHistogram latencyHistogram = listenerMetrics
+						.getLatencyHistogram(phase);
+				latencyHistogram.copyTo(this.snapshot);
+
+				for (int j = 0; j < MetricsEndpoint.QUANTILES.length; j++) {
+					writer.sample("jsocksproxy_latency_seconds")
+							.label("listener", listenerMetrics.getAddress())
+							.label("phase", phase.getName())
+							.label("quantile",
+									MetricsEndpoint.QUANTILE_LABELS[j])
+							.seconds(this.snapshot.getValueAtPercentile(
+									MetricsEndpoint.QUANTILES[j]));
+				}
+
+				writer.sample("jsocksproxy_latency_seconds_sum")
+						.label("listener", listenerMetrics.getAddress())
+						.label("phase", phase.getName())
+						.seconds(latencyHistogram.getTotalLatency());
+				writer.sample("jsocksproxy_latency_seconds_count")
+						.label("listener", listenerMetrics.getAddress())
+						.label("phase", phase.getName())
+						.value(latencyHistogram.getTotalCount());
+			}
+		}
+
+		this.listeners.clear();
+
+		if (this.proxy != null) {
+			this.writeProxyMetrics(writer);
+		}
+	}
+
+	private void writeFailures(final PrometheusWriter writer,
+			final ListenerMetrics listenerMetrics, final int version,
+			final String versionLabel) {
+		for (int replyCode = 0; replyCode < MetricsEndpoint.REPLY_CODES.length; replyCode++) {
+			final long failures = listenerMetrics.getHandshakeFailures(version,
+					replyCode);
+
+			if (failures > 0) {
+				writer.sample("jsocksproxy_handshake_failures_total")
+						.label("listener", listenerMetrics.getAddress())
+						.label("version", versionLabel)
+						.label("code", MetricsEndpoint.REPLY_CODES[replyCode])
+						.value(failures);
+			}
+		}
+	}
+
+	/**
+	 * Write the metrics of the proxy that are not per listen address
+	 */
+	private void writeProxyMetrics(final PrometheusWriter writer) {
+		gauge(writer, "jsocksproxy_running_connections",
+				"Connections being handled when connections are limited",
+				this.proxy.getRunningConnections());
+		gauge(writer, "jsocksproxy_queued_connections",
+				"Connections waiting for a handler",
+				this.proxy.getQueuedConnections());
+		counter(writer, "jsocksproxy_rejected_connections_total",
+				"Connections rejected by the admission control",
+				this.proxy.getRejectedConnections());
+
+		gauge(writer, "jsocksproxy_buffer_pool_allocated_bytes",
+				"Direct memory owned by the relay buffer pool",
+				this.proxy.getBufferPoolAllocatedMemory());
+		gauge(writer, "jsocksproxy_buffer_pool_pooled_bytes",
+				"Direct memory kept free in the relay buffer pool",
+				this.proxy.getBufferPoolPooledMemory());
+		counter(writer, "jsocksproxy_buffer_pool_acquisitions_total",
+				"Relay buffers acquired",
+				this.proxy.getBufferPoolAcquisitions());
+		counter(writer, "jsocksproxy_buffer_pool_reuses_total",
+				"Relay buffers served from the pool",
+				this.proxy.getBufferPoolReuses());
+		counter(writer, "jsocksproxy_buffer_pool_heap_allocations_total",
+				"Relay buffers served from the heap",
+				this.proxy.getBufferPoolHeapAllocations());
+		counter(writer, "jsocksproxy_buffer_pool_leaks_total",
+				"Relay buffers that were never released",
+				this.proxy.getBufferPoolLeaks());
+
+		gauge(writer, "jsocksproxy_dns_cache_entries", "Cached hostnames",
+				this.proxy.getDnsCacheSize());
+		counter(writer, "jsocksproxy_dns_cache_hits_total",
+				"Hostname lookups answered from the cache",
+				this.proxy.getDnsCacheHits());
+		counter(writer, "jsocksproxy_dns_cache_misses_total",
+				"Hostname lookups passed to the resolver",
+				this.proxy.getDnsCacheMisses());
+		counter(writer, "jsocksproxy_dns_cache_evictions_total",
+				"Hostnames evicted from the full cache",
+				this.proxy.getDnsCacheEvictions());
+		counter(writer, "jsocksproxy_dns_lookups_total",
+				"Lookups sent to the name servers by the DNS client",
+				this.proxy.getDnsLookups());
+		counter(writer, "jsocksproxy_dns_coalesced_lookups_total",
+				"Lookups that shared a lookup already in progress",
+				this.proxy.getDnsCoalescedLookups());
+
+		counter(writer, "jsocksproxy_outgoing_connects_total",
+				"Successful connects to remote servers",
+				this.proxy.getOutgoingConnects());
+		counter(writer, "jsocksproxy_failed_outgoing_connects_total",
+				"Connects to remote servers where all addresses failed",
+				this.proxy.getFailedOutgoingConnects());
+		counter(writer, "jsocksproxy_connect_attempts_total",
+				"Connection attempts to remote server addresses",
+				this.proxy.getConnectAttempts());
+		counter(writer, "jsocksproxy_cancelled_connect_attempts_total",
+				"Connection attempts closed because another address connected first",
+				this.proxy.getCancelledConnectAttempts());
+
+		writer.family("jsocksproxy_port_pressure", "gauge",
+				"Highest fraction of the local port range in use");
+		writer.sample("jsocksproxy_port_pressure")
+				.value(this.proxy.getPortPressure());
+		counter(writer, "jsocksproxy_port_exhaustions_total",
+				"Outgoing connections that failed for lack of a local port",
+				this.proxy.getPortExhaustions());
+
+		counter(writer, "jsocksproxy_fast_failed_connects_total",
+				"Connects refused because the destination is unreachable",
+				this.proxy.getFastFailedConnects());
+		counter(writer, "jsocksproxy_destination_limited_connects_total",
+				"Connects refused by the limit of connections per destination",
+				this.proxy.getDestinationLimitedConnects());
+		counter(writer, "jsocksproxy_destination_probes_total",
+				"Connects let through to probe an unreachable destination",
+				this.proxy.getDestinationProbes());
+		counter(writer, "jsocksproxy_shed_connects_total",
+				"Connects refused by the adaptive limit of connect attempts",
+				this.proxy.getShedConnects());
+	}
+
+	private static void counter(final PrometheusWriter writer,
+			final String name, final String help, final long value) {
+		writer.family(name, "counter", help);
+		writer.sample(name).value(value);
+	}
+
+	private static void gauge(final PrometheusWriter writer,
+			final String name, final String help, final long value) {
+		writer.family(name, "gauge", help);
+		writer.sample(name).value(value);
+	}
+
+	/**
+	 * @return true if the request head ends with an empty line
+	 */
+	private static boolean isHeadComplete(final byte[] request,
+			final int length) {
+		for (int i = 1; i < length; i++) {
+			if ((request[i] == '\n') && ((request[i - 1] == '\n')
+					|| ((i >= 2) && (request[i - 1] == '\r')
+							&& (request[i - 2] == '\n')))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean startsWith(final byte[] request, final int length,
+			final byte[] method) {
+		if (length <= method.length) {
+			return false;
+		}
+
+		for (int i = 0; i < method.length; i++) {
+			if (request[i] != method[i]) {
+				return false;
+			}
+		}
+
+		return request[method.length] == ' ';
+	}
+
+	/**
+	 * @return true if the request target at the offset is /metrics or /,
+	 *         with or without a query
+	 */
+	private static boolean isMetricsPath(final byte[] request, final int length,
+			final int offset) {
+		int end = offset;
+		while ((end < length) && (request[end] != ' ')
+				&& (request[end] != '?') && (request[end] != '\r')
+				&& (request[end] != '\n')) {
+			end++;
+		}
+
+		if ((end - offset) == 1) {
+			return request[offset] == '/';
+		}
+
+		if ((end - offset) != MetricsEndpoint.PATH.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < MetricsEndpoint.PATH.length(); i++) {
+			if (request[offset + i] != MetricsEndpoint.PATH.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,321 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.utils.StringUtils;
+
+/**
+ * The metrics of all listen addresses. Each {@link ListenerMetrics} is
+ * published as an MBean named
+ * <code>nu.najt.kecon.jsocksproxy:type=Listener,name="host:port"</code> and
+ * the sums over all listen addresses are available from the registry. The
+ * latency histograms of a listen address are published as
+ * <code>nu.najt.kecon.jsocksproxy:type=Latency,listener="host:port",name=phase</code>.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class MetricsRegistry {
+
+	/** The domain of the MBeans */
+	public static final String DOMAIN = "nu.najt.kecon.jsocksproxy";
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MetricsRegistry.class);
+
+	private final ConcurrentMap<InetSocketAddress, ListenerMetrics> listeners = new ConcurrentHashMap<InetSocketAddress, ListenerMetrics>();
+
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+	private final MBeanServer mBeanServer;
+
+	/**
+	 * Constructor publishing the MBeans on the platform MBean server
+	 */
+	public MetricsRegistry() {
+		this(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param mBeanServer
+	 *            the MBean server, or null to not publish any MBeans
+	 */
+	public MetricsRegistry(final MBeanServer mBeanServer) {
+		this.mBeanServer = mBeanServer;
+	}
+
+	/**
+	 * Get the metrics of a listen address, created and published the first
+	 * time
+	 * 
+	 * @param inetSocketAddress
+	 *            the listen address
+	 * @return the metrics
+	 */
+	public ListenerMetrics getListenerMetrics(
+			final InetSocketAddress inetSocketAddress) {
+		ListenerMetrics listenerMetrics = this.listeners.get(inetSocketAddress);
+
+		if (listenerMetrics == null) {
+			final ListenerMetrics created = new ListenerMetrics(
+					StringUtils.formatSocketAddress(inetSocketAddress));
+			listenerMetrics = this.listeners.putIfAbsent(inetSocketAddress,
+					created);
+
+			if (listenerMetrics == null) {
+				listenerMetrics = created;
+				this.register(created, listenerName(created));
+
+				for (final Phase phase : Phase.values()) {
+					this.register(created.getLatencyHistogram(phase),
+							latencyName(created, phase));
+				}
+			}
+		}
+
+		return listenerMetrics;
+	}
+
+	/**
+	 * Remove the metrics of listen addresses that are no longer configured
+	 * 
+	 * @param inetSocketAddresses
+	 *            the configured listen addresses
+	 */
+	public void retain(final Collection<InetSocketAddress> inetSocketAddresses) {
+		final Iterator<Map.Entry<InetSocketAddress, ListenerMetrics>> iterator = this.listeners
+				.entrySet().iterator();
+
+		while (iterator.hasNext()) {
+			final Map.Entry<InetSocketAddress, ListenerMetrics> entry = iterator
+					.next();
+
+			if (!inetSocketAddresses.contains(entry.getKey())) {
+				iterator.remove();
+				this.unregister(listenerName(entry.getValue()));
+
+				for (final Phase phase : Phase.values()) {
+					this.unregister(latencyName(entry.getValue(), phase));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the metrics of all listen addresses
+	 */
+	public Collection<ListenerMetrics> getListenerMetrics() {
+		return this.listeners.values();
+	}
+
+	/**
+	 * Publish an MBean
+	 * 
+	 * @param mBean
+	 *            the MBean
+	 * @param name
+	 *            the object name
+	 */
+	public synchronized void register(final Object mBean,
+			final ObjectName name) {
+		if ((this.mBeanServer == null) || (name == null)) {
+			return;
+		}
+
+		try {
+			if (this.mBeanServer.isRegistered(name)) {
+				this.mBeanServer.unregisterMBean(name);
+			}
+
+			this.mBeanServer.registerMBean(mBean, name);
+			this.registered.add(name);
+		} catch (final JMException e) {
+			LOG.info("Failed to register MBean {}", name, e);
+		}
+	}
+
+	/**
+	 * Remove all MBeans published by the registry
+	 */
+	public synchronized void unregisterAll() {
+		for (final ObjectName name : new ArrayList<ObjectName>(
+				this.registered)) {
+			this.unregister(name);
+		}
+	}
+
+	/**
+	 * @return number of accepted connections of all listen addresses
+	 */
+	public long getAcceptedConnections() {
+		long sum = 0;
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			sum += listenerMetrics.getAcceptedConnections();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return number of handshakes in progress on all listen addresses
+	 */
+	public long getActiveHandshakes() {
+		long sum = 0;
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			sum += listenerMetrics.getActiveHandshakes();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return number of established tunnels of all listen addresses
+	 */
+	public long getActiveTunnels() {
+		long sum = 0;
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			sum += listenerMetrics.getActiveTunnels();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return number of bytes sent from clients to remote servers
+	 */
+	public long getBytesUpstream() {
+		long sum = 0;
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			sum += listenerMetrics.getBytesUpstream();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return number of bytes sent from remote servers to clients
+	 */
+	public long getBytesDownstream() {
+		long sum = 0;
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			sum += listenerMetrics.getBytesDownstream();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return number of failed requests per listen address, SOCKS version and
+	 *         reply code
+	 */
+	public String[] getHandshakeFailures() {
+		final List<String> statistics = new ArrayList<String>();
+
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			for (final String failures : listenerMetrics
+					.getHandshakeFailuresByStatus()) {
+				statistics.add(listenerMetrics.getAddress() + " " + failures);
+			}
+		}
+
+		return statistics.toArray(new String[statistics.size()]);
+	}
+
+	/**
+	 * @param phase
+	 *            the phase
+	 * @return the latencies of the phase on all listen addresses
+	 */
+	public LatencyHistogram.Snapshot getLatencies(final Phase phase) {
+		final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+
+		for (final ListenerMetrics listenerMetrics : this.listeners.values()) {
+			snapshot.add(
+					listenerMetrics.getLatencyHistogram(phase).getSnapshot());
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * @return the latency percentiles of each phase on all listen addresses
+	 */
+	public String[] getLatencies() {
+		final Phase[] phases = Phase.values();
+		final String[] statistics = new String[phases.length];
+
+		for (int i = 0; i < phases.length; i++) {
+			statistics[i] = phases[i].getName() + " "
+					+ this.getLatencies(phases[i]);
+		}
+
+		return statistics;
+	}
+
+	private synchronized void unregister(final ObjectName name) {
+		if ((this.mBeanServer == null) || (name == null)) {
+			return;
+		}
+
+		this.registered.remove(name);
+		try {
+			if (this.mBeanServer.isRegistered(name)) {
+				this.mBeanServer.unregisterMBean(name);
+			}
+		} catch (final JMException e) {
+			LOG.info("Failed to unregister MBean {}", name, e);
+		}
+	}
+
+	private static ObjectName listenerName(
+			final ListenerMetrics listenerMetrics) {
+		try {
+			return new ObjectName(DOMAIN + ":type=Listener,name="
+					+ ObjectName.quote(listenerMetrics.getAddress()));
+		} catch (final JMException e) {
+			LOG.info("Illegal MBean name for {}", listenerMetrics.getAddress(),
+					e);
+			return null;
+		}
+	}
+
+	private static ObjectName latencyName(
+			final ListenerMetrics listenerMetrics, final Phase phase) {
+		try {
+			return new ObjectName(DOMAIN + ":type=Latency,listener="
+					+ ObjectName.quote(listenerMetrics.getAddress()) + ",name="
+					+ phase.getName());
+		} catch (final JMException e) {
+			LOG.info("Illegal MBean name for {}", listenerMetrics.getAddress(),
+					e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+/**
+ * The phases of a connection whose latencies are recorded
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public enum Phase {
+
+	/** Reading and decoding the greeting and the request */
+	GREETING,
+
+	/** Resolving the requested hostname */
+	RESOLVE,
+
+	/** Opening the connection to the remote server */
+	CONNECT,
+
+	/**
+	 * From the established tunnel to the first byte written to the client
+	 */
+	FIRST_BYTE;
+
+	/**
+	 * @return the name of the phase in lower case, such as first-byte
+	 */
+	public String getName() {
+		return this.name().toLowerCase().replace('_', '-');
+	}
+}
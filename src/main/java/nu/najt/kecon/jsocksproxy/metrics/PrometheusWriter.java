@@ -0,0 +1,225 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writer of the Prometheus text exposition format. The samples are appended
+ * to one builder that is reused between scrapes, and written to a stream
+ * through a reused buffer, so a scrape does not allocate per sample.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+class PrometheusWriter {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final StringBuilder builder = new StringBuilder(16384);
+
+	private boolean labels = false;
+
+	/**
+	 * Clear the written samples
+	 */
+	void reset() {
+		this.builder.setLength(0);
+	}
+
+	/**
+	 * Write the help and type of a metric family
+	 * 
+	 * @param name
+	 *            the name of the metric
+	 * @param type
+	 *            the type, counter or gauge
+	 * @param help
+	 *            the description
+	 */
+	void family(final String name, final String type, final String help) {
+		this.builder.append("# HELP ").append(name).append(' ').append(help)
+				.append("\n# TYPE ").append(name).append(' ').append(type)
+				.append('\n');
+	}
+
+	/**
+	 * Start a sample, followed by its labels and its value
+	 * 
+	 * @param name
+	 *            the name of the metric
+	 * @return this writer
+	 */
+	PrometheusWriter sample(final String name) {
+		this.builder.append(name);
+		this.labels = false;
+		return this;
+	}
+
+	/**
+	 * Write a label of the sample
+	 * 
+	 * @param name
+	 *            the label name
+	 * @param value
+	 *            the label value
+	 * @return this writer
+	 */
+	PrometheusWriter label(final String name, final String value) {
+		this.builder.append(this.labels ? ',' : '{').append(name)
+				.append("=\"");
+		this.labels = true;
+
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+
+			if (c == '\n') {
+				this.builder.append("\\n");
+			} else {
+				if ((c == '\\') || (c == '"')) {
+					this.builder.append('\\');
+				}
+				this.builder.append(c);
+			}
+		}
+
+		this.builder.append('"');
+		return this;
+	}
+
+	/**
+	 * Write the value of the sample
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	void value(final long value) {
+		this.endLabels();
+		this.builder.append(value).append('\n');
+	}
+
+	/**
+	 * Write the value of the sample
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	void value(final double value) {
+		this.endLabels();
+
+		if (Double.isNaN(value)) {
+			this.builder.append("NaN");
+		} else if (Double.isInfinite(value)) {
+			this.builder.append((value > 0) ? "+Inf" : "-Inf");
+		} else {
+			this.builder.append(value);
+		}
+
+		this.builder.append('\n');
+	}
+
+	/**
+	 * Write a duration as the value of the sample, in seconds
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds, not negative
+	 */
+	void seconds(final long nanos) {
+		this.endLabels();
+
+		final long fraction = nanos % PrometheusWriter.NANOS_PER_SECOND;
+		this.builder.append(nanos / PrometheusWriter.NANOS_PER_SECOND)
+				.append('.');
+
+		for (long digit = PrometheusWriter.NANOS_PER_SECOND
+				/ 10; digit > 1; digit /= 10) {
+			if (fraction < digit) {
+				this.builder.append('0');
+			}
+		}
+
+		this.builder.append(fraction).append('\n');
+	}
+
+	private void endLabels() {
+		if (this.labels) {
+			this.builder.append('}');
+			this.labels = false;
+		}
+		this.builder.append(' ');
+	}
+
+	/**
+	 * @return number of written characters
+	 */
+	int length() {
+		return this.builder.length();
+	}
+
+	/**
+	 * Write the samples to a stream
+	 * 
+	 * @param outputStream
+	 *            the output stream
+	 * @param buffer
+	 *            the buffer to encode the characters into
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeTo(final OutputStream outputStream, final byte[] buffer)
+			throws IOException {
+		writeTo(this.builder, outputStream, buffer);
+	}
+
+	/**
+	 * Write characters to a stream as ASCII, other characters are replaced by
+	 * question marks
+	 * 
+	 * @param characters
+	 *            the characters
+	 * @param outputStream
+	 *            the output stream
+	 * @param buffer
+	 *            the buffer to encode the characters into
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void writeTo(final CharSequence characters,
+			final OutputStream outputStream, final byte[] buffer)
+			throws IOException {
+		int length = 0;
+
+		for (int i = 0; i < characters.length(); i++) {
+			final char c = characters.charAt(i);
+			buffer[length++] = (byte) ((c < 0x80) ? c : '?');
+
+			if (length == buffer.length) {
+				outputStream.write(buffer, 0, length);
+				length = 0;
+			}
+		}
+
+		if (length > 0) {
+			outputStream.write(buffer, 0, length);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.builder.toString();
+	}
+}
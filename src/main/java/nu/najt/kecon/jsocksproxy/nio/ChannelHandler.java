@@ -0,0 +1,61 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Attachment of a selection key that is notified when the key is selected.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public interface ChannelHandler {
+
+	/**
+	 * Register the channels of the handler, invoked on the event loop thread
+	 * 
+	 * @param eventLoop
+	 *            the event loop
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void register(EventLoop eventLoop) throws IOException;
+
+	/**
+	 * Handle a selected key. Implementations must not block.
+	 * 
+	 * @param key
+	 *            the selected key
+	 */
+	public void handle(SelectionKey key);
+
+	/**
+	 * Check if the handler has been idle for too long, expired handlers are
+	 * closed by the event loop
+	 * 
+	 * @param currentTimeMillis
+	 *            the current time
+	 * @return true if the handler has expired
+	 */
+	public boolean isExpired(long currentTimeMillis);
+
+	/**
+	 * Close all channels owned by the handler
+	 */
+	public void close();
+}
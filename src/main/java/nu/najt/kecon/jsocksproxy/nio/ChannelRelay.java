@@ -0,0 +1,381 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.utils.BufferPool;
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+import nu.najt.kecon.jsocksproxy.utils.RelayBuffer;
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * Non-blocking relay of both directions between two socket channels. The
+ * relay is driven by a selector; each readiness event is handed to
+ * {@link #handle(SelectionKey)} and the interest operations are updated
+ * afterwards. EOF in one direction is propagated as a half-close on the
+ * opposite channel and the relay closes both channels when both directions
+ * have completed. The buffers are taken from the shared {@link BufferPool},
+ * sized by the {@link BufferSizing} and returned when the relay closes.
+ * <p>
+ * The relay is either registered with an {@link EventLoop} or runs on the
+ * calling thread through {@link #run()}, which services both directions of a
+ * tunnel from one thread. {@link #run()} opens a selector per relay, which on
+ * Java 8 holds an epoll descriptor and a wakeup pipe, three file descriptors
+ * in addition to the two sockets.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class ChannelRelay implements ChannelHandler {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ChannelRelay.class);
+
+	private final SocketChannel internal;
+
+	private final SocketChannel external;
+
+	private final Direction upstream;
+
+	private final Direction downstream;
+
+	private SelectionKey internalKey;
+
+	private SelectionKey externalKey;
+
+	private final TunnelListener tunnelListener;
+
+	private boolean closed = false;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param internal
+	 *            the channel connected to the client
+	 * @param external
+	 *            the channel connected to the remote server
+	 */
+	public ChannelRelay(final SocketChannel internal,
+			final SocketChannel external) {
+		this(internal, external, BufferSizing.DEFAULT, false);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param internal
+	 *            the channel connected to the client
+	 * @param external
+	 *            the channel connected to the remote server
+	 * @param bufferSizing
+	 *            the buffer sizing for each direction
+	 * @param coalescingWrites
+	 *            true if all available input should be read before writing
+	 */
+	public ChannelRelay(final SocketChannel internal,
+			final SocketChannel external, final BufferSizing bufferSizing,
+			final boolean coalescingWrites) {
+		this(internal, external, bufferSizing, coalescingWrites, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param internal
+	 *            the channel connected to the client
+	 * @param external
+	 *            the channel connected to the remote server
+	 * @param bufferSizing
+	 *            the buffer sizing for each direction
+	 * @param coalescingWrites
+	 *            true if all available input should be read before writing
+	 * @param tunnelListener
+	 *            notified when the relay closes, or null
+	 */
+	public ChannelRelay(final SocketChannel internal,
+			final SocketChannel external, final BufferSizing bufferSizing,
+			final boolean coalescingWrites,
+			final TunnelListener tunnelListener) {
+		this.internal = internal;
+		this.external = external;
+		this.upstream = new Direction(internal, external, bufferSizing,
+				coalescingWrites);
+		this.downstream = new Direction(external, internal, bufferSizing,
+				coalescingWrites);
+		this.tunnelListener = tunnelListener;
+	}
+
+	@Override
+	public void register(final EventLoop eventLoop) throws IOException {
+		this.register(eventLoop.getSelector());
+	}
+
+	/**
+	 * Switch both channels to non-blocking mode and register them with the
+	 * selector
+	 * 
+	 * @param selector
+	 *            the selector
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void register(final Selector selector) throws IOException {
+		this.internal.configureBlocking(false);
+		this.external.configureBlocking(false);
+
+		this.internalKey = this.internal.register(selector,
+				SelectionKey.OP_READ, this);
+		this.externalKey = this.external.register(selector,
+				SelectionKey.OP_READ, this);
+	}
+
+	/**
+	 * Relay both directions from the calling thread with a private selector
+	 * until both directions have completed or the thread is interrupted. The
+	 * channels are closed when the method returns.
+	 * 
+	 * @throws IOException
+	 *             if the selector fails
+	 */
+	public void run() throws IOException {
+		final Selector selector = Selector.open();
+		try {
+			this.register(selector);
+
+			while (!this.closed && !Thread.currentThread().isInterrupted()) {
+				selector.select();
+
+				final Iterator<SelectionKey> iterator = selector.selectedKeys()
+						.iterator();
+				while (iterator.hasNext()) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+					this.handle(key);
+				}
+			}
+		} finally {
+			this.close();
+			selector.close();
+		}
+	}
+
+	@Override
+	public void handle(final SelectionKey key) {
+		try {
+			if (key.isValid() && key.isWritable()) {
+				this.directionWritingTo(key.channel()).flush();
+			}
+
+			if (key.isValid() && key.isReadable()) {
+				this.directionReadingFrom(key.channel()).read();
+			}
+
+			if (this.upstream.isDone() && this.downstream.isDone()) {
+				this.close();
+			} else {
+				this.updateInterestOps();
+			}
+		} catch (final IOException e) {
+			this.close();
+		}
+	}
+
+	@Override
+	public boolean isExpired(final long currentTimeMillis) {
+		return false;
+	}
+
+	/**
+	 * Close both channels and cancel their registrations
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+
+		this.closed = true;
+
+		if (this.internalKey != null) {
+			this.internalKey.cancel();
+		}
+
+		if (this.externalKey != null) {
+			this.externalKey.cancel();
+		}
+
+		try {
+			this.internal.close();
+		} catch (final IOException e) {
+		}
+
+		try {
+			this.external.close();
+		} catch (final IOException e) {
+		}
+
+		this.upstream.releaseBuffer();
+		this.downstream.releaseBuffer();
+
+		LOG.debug("Closed relay; upstream {}; downstream {}",
+				this.upstream.statistics, this.downstream.statistics);
+
+		if (this.tunnelListener != null) {
+			this.tunnelListener.closed(this.upstream.statistics,
+					this.downstream.statistics);
+		}
+	}
+
+	/**
+	 * @return the statistics of the client to remote server direction
+	 */
+	public TransferStatistics getUpstreamStatistics() {
+		return this.upstream.statistics;
+	}
+
+	/**
+	 * @return the statistics of the remote server to client direction
+	 */
+	public TransferStatistics getDownstreamStatistics() {
+		return this.downstream.statistics;
+	}
+
+	/**
+	 * @return true if the relay has been closed
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	private Direction directionReadingFrom(final Object channel) {
+		return (channel == this.internal) ? this.upstream : this.downstream;
+	}
+
+	private Direction directionWritingTo(final Object channel) {
+		return (channel == this.external) ? this.upstream : this.downstream;
+	}
+
+	private void updateInterestOps() {
+		this.internalKey.interestOps(
+				interestOps(this.upstream, this.downstream));
+		this.externalKey.interestOps(
+				interestOps(this.downstream, this.upstream));
+	}
+
+	private static int interestOps(final Direction readDirection,
+			final Direction writeDirection) {
+		int ops = 0;
+
+		if (readDirection.wantsRead()) {
+			ops |= SelectionKey.OP_READ;
+		}
+
+		if (writeDirection.wantsWrite()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+
+		return ops;
+	}
+
+	/**
+	 * One direction of the relay. The buffer is always kept in fill mode.
+	 */
+	private static final class Direction {
+
+		private final SocketChannel source;
+
+		private final SocketChannel sink;
+
+		private final RelayBuffer relayBuffer;
+
+		private final boolean coalescingWrites;
+
+		private final TransferStatistics statistics = new TransferStatistics();
+
+		private boolean eof = false;
+
+		private boolean done = false;
+
+		private Direction(final SocketChannel source, final SocketChannel sink,
+				final BufferSizing bufferSizing,
+				final boolean coalescingWrites) {
+			this.source = source;
+			this.sink = sink;
+			this.relayBuffer = new RelayBuffer(BufferPool.getInstance(),
+					bufferSizing);
+			this.coalescingWrites = coalescingWrites;
+		}
+
+		private void read() throws IOException {
+			final ByteBuffer buffer = this.relayBuffer.getBuffer();
+			int length;
+
+			do {
+				length = this.source.read(buffer);
+			} while (this.coalescingWrites && (length > 0)
+					&& buffer.hasRemaining());
+
+			if (length < 0) {
+				this.eof = true;
+			}
+
+			this.relayBuffer.update(buffer.position());
+
+			this.flush();
+		}
+
+		private void flush() throws IOException {
+			final ByteBuffer buffer = this.relayBuffer.getBuffer();
+
+			if (buffer.position() > 0) {
+				buffer.flip();
+				this.statistics.record(this.sink.write(buffer));
+				buffer.compact();
+			}
+
+			if (this.eof && !this.done && (buffer.position() == 0)) {
+				this.done = true;
+				this.sink.shutdownOutput();
+			}
+		}
+
+		private boolean wantsRead() {
+			return !this.eof && (this.relayBuffer.getBuffer().position() == 0);
+		}
+
+		private boolean wantsWrite() {
+			return this.relayBuffer.getBuffer().position() > 0;
+		}
+
+		private boolean isDone() {
+			return this.done;
+		}
+
+		private void releaseBuffer() {
+			this.relayBuffer.release();
+		}
+	}
+}
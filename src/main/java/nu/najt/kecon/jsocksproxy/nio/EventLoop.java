@@ -0,0 +1,215 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single selector thread. Channels are only registered from the loop
+ * thread itself, other threads hand over work through {@link #execute}.
+ * <p>
+ * A handler that fails with a runtime exception is closed, the other
+ * handlers of the loop are not affected.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class EventLoop implements Runnable {
+
+	private static final long EXPIRE_INTERVAL = 1000;
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(EventLoop.class);
+
+	private final Selector selector;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private final AtomicBoolean mayRun = new AtomicBoolean(true);
+
+	/**
+	 * Constructor
+	 * 
+	 * @throws IOException
+	 *             if the selector could not be opened
+	 */
+	public EventLoop() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Run a task on the loop thread
+	 * 
+	 * @param task
+	 *            the task
+	 * @throws RejectedExecutionException
+	 *             if the loop has stopped
+	 */
+	public void execute(final Runnable task) {
+		this.tasks.add(task);
+
+		// The loop runs the tasks queued before it stopped; tasks queued
+		// after that are removed again
+		if (!this.mayRun.get() && this.tasks.remove(task)) {
+			throw new RejectedExecutionException("Event loop stopped");
+		}
+
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Register a handler with this loop. The handler is closed if the loop
+	 * has stopped.
+	 * 
+	 * @param handler
+	 *            the handler
+	 */
+	public void register(final ChannelHandler handler) {
+		try {
+			this.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						handler.register(EventLoop.this);
+					} catch (final IOException e) {
+						LOG.info("Failed to register channel", e);
+						handler.close();
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			handler.close();
+		}
+	}
+
+	/**
+	 * Get the selector. It may only be used from the loop thread.
+	 * 
+	 * @return the selector
+	 */
+	public Selector getSelector() {
+		return this.selector;
+	}
+
+	@Override
+	public void run() {
+		long lastExpireCheck = System.currentTimeMillis();
+
+		try {
+			while (this.mayRun.get()) {
+				this.selector.select(EventLoop.EXPIRE_INTERVAL);
+
+				// Tasks run after select so keys cancelled before execute()
+				// have been deregistered
+				this.runTasks();
+
+				final Iterator<SelectionKey> iterator = this.selector
+						.selectedKeys().iterator();
+
+				while (iterator.hasNext()) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+
+					final ChannelHandler handler = (ChannelHandler) key
+							.attachment();
+					try {
+						handler.handle(key);
+					} catch (final RuntimeException e) {
+						LOG.error("Channel handler failed", e);
+						handler.close();
+					}
+				}
+
+				final long now = System.currentTimeMillis();
+				if ((now - lastExpireCheck) >= EventLoop.EXPIRE_INTERVAL) {
+					lastExpireCheck = now;
+					this.closeExpired(now);
+				}
+			}
+		} catch (final IOException | RuntimeException e) {
+			if (this.mayRun.get()) {
+				LOG.error("Event loop failed", e);
+			}
+		} finally {
+			this.mayRun.set(false);
+
+			// Registrations queued before the loop stopped are closed below
+			this.runTasks();
+			this.closeAll();
+		}
+	}
+
+	/**
+	 * Stop the loop and close all channels registered with it
+	 */
+	public void shutdown() {
+		this.mayRun.set(false);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * @return number of channels registered with the selector
+	 */
+	public int getRegisteredChannels() {
+		return this.selector.keys().size();
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (final RuntimeException e) {
+				LOG.error("Event loop task failed", e);
+			}
+		}
+	}
+
+	private void closeExpired(final long now) {
+		for (final SelectionKey key : this.selector.keys()) {
+			final ChannelHandler handler = (ChannelHandler) key.attachment();
+
+			if (key.isValid() && handler.isExpired(now)) {
+				handler.close();
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (final SelectionKey key : this.selector.keys()) {
+			try {
+				((ChannelHandler) key.attachment()).close();
+			} catch (final RuntimeException e) {
+			}
+		}
+
+		try {
+			this.selector.close();
+		} catch (final IOException e) {
+		}
+	}
+}
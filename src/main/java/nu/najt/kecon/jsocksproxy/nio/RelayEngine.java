@@ -0,0 +1,167 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * Event loop based relay engine. Established tunnels are handed over to one
+ * of the event loops, so no thread is occupied by a tunnel while it is idle.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class RelayEngine {
+
+	private final EventLoop[] eventLoops;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param executor
+	 *            the executor that will run the event loops
+	 * @param numberOfEventLoops
+	 *            the number of event loops, if less than one the number of
+	 *            available processors is used
+	 * @throws IOException
+	 *             if a selector could not be opened
+	 */
+	public RelayEngine(final Executor executor, final int numberOfEventLoops)
+			throws IOException {
+		final int size = (numberOfEventLoops > 0) ? numberOfEventLoops
+				: Runtime.getRuntime().availableProcessors();
+
+		this.eventLoops = new EventLoop[size];
+
+		for (int i = 0; i < size; i++) {
+			this.eventLoops[i] = new EventLoop();
+		}
+
+		for (final EventLoop eventLoop : this.eventLoops) {
+			executor.execute(eventLoop);
+		}
+	}
+
+	/**
+	 * Hand over an established tunnel to the engine. The engine takes
+	 * ownership of both sockets and closes them when the tunnel completes.
+	 * 
+	 * @param internal
+	 *            the internal socket
+	 * @param external
+	 *            the external socket
+	 * @return false if any socket lacks a channel and must be relayed by the
+	 *         caller
+	 */
+	public boolean register(final Socket internal, final Socket external) {
+		return this.register(internal, external, BufferSizing.DEFAULT, false);
+	}
+
+	/**
+	 * Hand over an established tunnel to the engine. The engine takes
+	 * ownership of both sockets and closes them when the tunnel completes.
+	 * 
+	 * @param internal
+	 *            the internal socket
+	 * @param external
+	 *            the external socket
+	 * @param bufferSizing
+	 *            the buffer sizing of the tunnel
+	 * @param coalescingWrites
+	 *            true if all available input should be read before writing
+	 * @return false if any socket lacks a channel and must be relayed by the
+	 *         caller
+	 */
+	public boolean register(final Socket internal, final Socket external,
+			final BufferSizing bufferSizing, final boolean coalescingWrites) {
+		return this.register(internal, external, bufferSizing,
+				coalescingWrites, null);
+	}
+
+	/**
+	 * Hand over an established tunnel to the engine. The engine takes
+	 * ownership of both sockets and closes them when the tunnel completes.
+	 * 
+	 * @param internal
+	 *            the internal socket
+	 * @param external
+	 *            the external socket
+	 * @param bufferSizing
+	 *            the buffer sizing of the tunnel
+	 * @param coalescingWrites
+	 *            true if all available input should be read before writing
+	 * @param tunnelListener
+	 *            notified when the tunnel closes, or null
+	 * @return false if any socket lacks a channel and must be relayed by the
+	 *         caller
+	 */
+	public boolean register(final Socket internal, final Socket external,
+			final BufferSizing bufferSizing, final boolean coalescingWrites,
+			final TunnelListener tunnelListener) {
+		final SocketChannel internalChannel = internal.getChannel();
+		final SocketChannel externalChannel = external.getChannel();
+
+		if ((internalChannel == null) || (externalChannel == null)) {
+			return false;
+		}
+
+		this.nextEventLoop()
+				.register(new ChannelRelay(internalChannel, externalChannel,
+						bufferSizing, coalescingWrites, tunnelListener));
+
+		return true;
+	}
+
+	/**
+	 * Register a channel handler with one of the event loops
+	 * 
+	 * @param handler
+	 *            the handler
+	 */
+	public void register(final ChannelHandler handler) {
+		this.nextEventLoop().register(handler);
+	}
+
+	/**
+	 * Stop all event loops and close their tunnels
+	 */
+	public void shutdown() {
+		for (final EventLoop eventLoop : this.eventLoops) {
+			eventLoop.shutdown();
+		}
+	}
+
+	/**
+	 * @return the number of event loops
+	 */
+	public int getNumberOfEventLoops() {
+		return this.eventLoops.length;
+	}
+
+	private EventLoop nextEventLoop() {
+		return this.eventLoops[(this.next.getAndIncrement() & 0x7FFFFFFF)
+				% this.eventLoops.length];
+	}
+}
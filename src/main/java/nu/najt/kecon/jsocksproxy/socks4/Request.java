@@ -0,0 +1,82 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks4;
+
+/**
+ * A parsed SOCKS4 or SOCKS4a request
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class Request {
+
+	private final Command command;
+
+	private final int port;
+
+	private final byte[] address;
+
+	private final String hostname;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param command
+	 *            the command
+	 * @param port
+	 *            the port
+	 * @param address
+	 *            the raw IPv4 address
+	 * @param hostname
+	 *            the SOCKS4a hostname or null
+	 */
+	public Request(final Command command, final int port,
+			final byte[] address, final String hostname) {
+		this.command = command;
+		this.port = port;
+		this.address = address;
+		this.hostname = hostname;
+	}
+
+	/**
+	 * @return the command
+	 */
+	public Command getCommand() {
+		return this.command;
+	}
+
+	/**
+	 * @return the port
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * @return the raw IPv4 address
+	 */
+	public byte[] getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @return the SOCKS4a hostname, or null if the request contains an IP
+	 *         address
+	 */
+	public String getHostname() {
+		return this.hostname;
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks4;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+import nu.najt.kecon.jsocksproxy.ProtocolException;
+
+/**
+ * Resumable decoder for SOCKS4 and SOCKS4a requests. The version byte is
+ * expected to be consumed already.<br>
+ * <br>
+ * {@link #decode(ByteBuffer)} may be invoked whenever more data is available.
+ * Nothing is consumed from the buffer until the whole request has arrived,
+ * the NUL terminators are searched in place.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class RequestDecoder {
+
+	/** Maximum length of the user id, excluding the terminator */
+	public static final int MAX_USER_ID_LENGTH = 255;
+
+	/** Maximum length of the SOCKS4a hostname, excluding the terminator */
+	public static final int MAX_HOSTNAME_LENGTH = 255;
+
+	private static final int HEADER_LENGTH = 7;
+
+	private static final byte NULL = 0x00;
+
+	/** Bytes searched for a terminator, relative to the buffer position */
+	private int scanned = 0;
+
+	/** Offset of the user id terminator, relative to the buffer position */
+	private int userIdEnd = -1;
+
+	private Request request;
+
+	/**
+	 * Decode the request if it is complete
+	 * 
+	 * @param buffer
+	 *            the buffer in read mode
+	 * @return the request or null if more data is needed
+	 * @throws IllegalCommandException
+	 *             if the command is unknown
+	 * @throws ProtocolException
+	 *             if the user id or hostname is too long
+	 */
+	public Request decode(final ByteBuffer buffer)
+			throws IllegalCommandException, ProtocolException {
+		if (this.request != null) {
+			return this.request;
+		}
+
+		final int position = buffer.position();
+
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+
+		final Command command = Command.valueOf(buffer.get(position));
+
+		if (buffer.remaining() < HEADER_LENGTH) {
+			return null;
+		}
+
+		final int userIdStart = position + HEADER_LENGTH;
+
+		if (this.userIdEnd < 0) {
+			final int index = this.indexOfNull(buffer, userIdStart,
+					MAX_USER_ID_LENGTH, "user id");
+
+			if (index < 0) {
+				return null;
+			}
+
+			// The buffer may be compacted before the next invocation
+			this.userIdEnd = index - position;
+		}
+
+		final int port = buffer.getShort(position + 1) & 0xFFFF;
+		final byte[] address = new byte[4];
+		for (int i = 0; i < address.length; i++) {
+			address[i] = buffer.get(position + 3 + i);
+		}
+
+		String hostname = null;
+		int end = position + this.userIdEnd + 1;
+
+		// SOCKS4a extension
+		if ((address[0] == 0) && (address[1] == 0) && (address[2] == 0)
+				&& (address[3] != 0)) {
+			final int hostnameEnd = this.indexOfNull(buffer, end,
+					MAX_HOSTNAME_LENGTH, "hostname");
+
+			if (hostnameEnd < 0) {
+				return null;
+			}
+
+			hostname = decodeString(buffer, end, hostnameEnd);
+			end = hostnameEnd + 1;
+		}
+
+		buffer.position(end);
+
+		this.request = new Request(command, port, address, hostname);
+		return this.request;
+	}
+
+	/**
+	 * @return the decoded request or null if not yet complete
+	 */
+	public Request getRequest() {
+		return this.request;
+	}
+
+	private int indexOfNull(final ByteBuffer buffer, final int start,
+			final int maxLength, final String field)
+			throws ProtocolException {
+		final int from = Math.max(start, buffer.position() + this.scanned);
+		final int limit = Math.min(buffer.limit(), start + maxLength + 1);
+
+		for (int i = from; i < limit; i++) {
+			if (buffer.get(i) == NULL) {
+				this.scanned = 0;
+				return i;
+			}
+		}
+
+		if (limit == (start + maxLength + 1)) {
+			throw new ProtocolException("Too long " + field);
+		}
+
+		this.scanned = limit - buffer.position();
+		return -1;
+	}
+
+	private static String decodeString(final ByteBuffer buffer,
+			final int start, final int end) {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + start,
+					end - start, StandardCharsets.US_ASCII);
+		}
+
+		final byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+}
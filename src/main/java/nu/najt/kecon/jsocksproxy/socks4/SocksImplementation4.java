@@ -1,235 +1,393 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.socks4;
-
-import java.io.DataInputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.util.concurrent.Executor;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import nu.najt.kecon.jsocksproxy.AbstractSocksImplementation;
-import nu.najt.kecon.jsocksproxy.ConfigurationFacade;
-import nu.najt.kecon.jsocksproxy.IllegalCommandException;
-
-/**
- * This is the SOCKS4 implementation. <br>
- * <br>
- * More about the <a href="http://en.wikipedia.org/wiki/SOCKS">SOCKS</a>
- * protocol
- * 
- * @author Kenny Colliander Nordin
- * 
- */
-public class SocksImplementation4 extends AbstractSocksImplementation {
-
-	protected static final byte REQUEST_GRANTED = 0x5a;
-
-	protected static final byte REQUEST_REJECTED = 0x5b;
-
-	protected static final byte AUTHORIZATION_FAILED = 0x5d;
-
-	protected static final byte NULL = 0x00;
-
-	private static final Logger LOG = LoggerFactory
-			.getLogger(SocksImplementation4.class.getPackage().getName());
-
-	/**
-	 * Constructor
-	 * 
-	 * @param configurationFacade
-	 *            the configuration facade
-	 * @param socket
-	 *            the socket
-	 * @param executor
-	 *            the executor
-	 */
-	public SocksImplementation4(final ConfigurationFacade configurationFacade,
-			final Socket socket, final Executor executor) {
-		super(configurationFacade, socket, SocksImplementation4.LOG, executor);
-	}
-
-	@Override
-	public void run() {
-		DataInputStream inputStream = null;
-		OutputStream outputStream = null;
-		InetAddress inetAddress = null;
-		int port = -1;
-		try {
-			this.setup();
-
-			inputStream = this.getInputStream();
-			outputStream = this.getOutputStream();
-
-			final Command command = Command.valueOf(inputStream.readByte());
-			port = this.getPort(inputStream);
-			inetAddress = this.getAddress(inputStream);
-
-			if (command == Command.CONNECT) {
-				this.handleConnect(outputStream, inetAddress, port);
-			} else {
-				this.handleBind(outputStream, inetAddress, port);
-			}
-		} catch (IllegalCommandException e) {
-			this.logger.info("Illegal command", e);
-
-			try {
-				writeResponse(outputStream,
-						SocksImplementation4.REQUEST_REJECTED, port,
-						inetAddress);
-			} catch (IOException e1) {
-			}
-		} catch (final RuntimeException | IOException e) {
-			this.logger.info("Failed to setup connection to {}:{}",
-					inetAddress, port, e);
-		} finally {
-			try {
-				inputStream.close();
-			} catch (final Exception e) {
-			}
-
-			try {
-				outputStream.close();
-			} catch (final Exception e) {
-			}
-
-			this.cleanup();
-		}
-	}
-
-	protected void handleConnect(OutputStream outputStream,
-			InetAddress inetAddress, int port) throws IOException {
-		final Socket hostSocket;
-		try {
-			hostSocket = this.openConnection(inetAddress, port);
-		} catch (final IOException e) {
-			this.logger.info("Failed to connected to {}:{}, result 0x{}",
-					inetAddress.getHostAddress(), port, Integer.toHexString(
-							SocksImplementation4.REQUEST_REJECTED));
-
-			writeResponse(outputStream, SocksImplementation4.REQUEST_REJECTED,
-					port, inetAddress);
-			return;
-		}
-
-		writeResponse(outputStream, SocksImplementation4.REQUEST_GRANTED, port,
-				hostSocket.getInetAddress());
-
-		this.tunnel(this.getClientSocket(), hostSocket);
-	}
-
-	protected void handleBind(OutputStream outputStream,
-			InetAddress inetAddress, int port) throws IOException {
-
-		try (final ServerSocket serverSocket = this.bindConnection(inetAddress,
-				port)) {
-
-			writeResponse(outputStream, SocksImplementation4.REQUEST_GRANTED,
-					serverSocket.getLocalPort(),
-					serverSocket.getInetAddress());
-
-			try (Socket remoteSocket = serverSocket.accept()) {
-				if (remoteSocket.getInetAddress().equals(inetAddress)) {
-					writeResponse(outputStream,
-							SocksImplementation4.REQUEST_GRANTED,
-							remoteSocket.getPort(),
-							remoteSocket.getInetAddress());
-					this.tunnel(this.getClientSocket(), remoteSocket);
-				} else {
-					writeResponse(outputStream,
-							SocksImplementation4.REQUEST_REJECTED,
-							remoteSocket.getPort(),
-							remoteSocket.getInetAddress());
-				}
-			}
-		} catch (IOException e) {
-			writeResponse(outputStream, SocksImplementation4.REQUEST_REJECTED,
-					port, null);
-		}
-	}
-
-	protected OutputStream getOutputStream() throws IOException {
-		return this.getClientSocket().getOutputStream();
-	}
-
-	protected DataInputStream getInputStream() throws IOException {
-		return new DataInputStream(this.getClientSocket().getInputStream());
-	}
-
-	protected InetAddress getAddress(final DataInputStream inputStream)
-			throws IOException, UnknownHostException {
-		final byte[] rawIp = new byte[4];
-		inputStream.readFully(rawIp);
-
-		final byte[] buf = new byte[1];
-
-		int length;
-		while ((length = inputStream.read(buf)) >= 0) {
-			if ((length > 0) && (buf[0] == 0)) {
-				break;
-			}
-		}
-
-		// SOCKS4a extension
-		if ((rawIp[0] == 0) && (rawIp[1] == 0) && (rawIp[2] == 0)
-				&& (rawIp[3] != 0)) {
-			final StringBuilder builder = new StringBuilder();
-			while ((length = inputStream.read(buf)) >= 0) {
-				if ((length > 0) && (buf[0] == 0)) {
-					break;
-				}
-				builder.append((char) buf[0]);
-			}
-			return resolveHostname(builder);
-		} else {
-			return InetAddress.getByAddress(rawIp);
-		}
-	}
-
-	protected InetAddress resolveHostname(final StringBuilder builder)
-			throws UnknownHostException {
-		return InetAddress.getByName(builder.toString());
-	}
-
-	protected int getPort(final DataInputStream inputStream)
-			throws IOException {
-		return inputStream.readShort() & 0xFFFF;
-	}
-
-	protected void writeResponse(final OutputStream outputStream,
-			final byte status, final int port, final InetAddress inetAddress)
-			throws IOException {
-		final ByteBuffer response = ByteBuffer.allocate(8);
-
-		response.put(SocksImplementation4.NULL);
-		response.put(status);
-		response.putShort((short) port);
-
-		if (inetAddress != null) {
-			response.put(inetAddress.getAddress());
-		}
-
-		outputStream.write(response.array());
-		outputStream.flush();
-	}
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks4;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.AbstractSocksImplementation;
+import nu.najt.kecon.jsocksproxy.ConfigurationFacade;
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+import nu.najt.kecon.jsocksproxy.ProtocolException;
+import nu.najt.kecon.jsocksproxy.metrics.Phase;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+
+/**
+ * This is the SOCKS4 implementation. <br>
+ * <br>
+ * More about the <a href="http://en.wikipedia.org/wiki/SOCKS">SOCKS</a>
+ * protocol
+ * 
+ * @author Kenny Colliander Nordin
+ * 
+ */
+public class SocksImplementation4 extends AbstractSocksImplementation {
+
+	protected static final byte REQUEST_GRANTED = 0x5a;
+
+	protected static final byte REQUEST_REJECTED = 0x5b;
+
+	protected static final byte AUTHORIZATION_FAILED = 0x5d;
+
+	protected static final byte NULL = 0x00;
+
+	/**
+	 * Larger than the longest request, 7 bytes plus the user id and the
+	 * hostname with their terminators
+	 */
+	private static final int REQUEST_BUFFER_SIZE = 1024;
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SocksImplementation4.class.getPackage().getName());
+
+	private final Request request;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param socket
+	 *            the socket
+	 * @param executor
+	 *            the executor
+	 */
+	public SocksImplementation4(final ConfigurationFacade configurationFacade,
+			final Socket socket, final Executor executor) {
+		this(configurationFacade, socket, executor, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param socket
+	 *            the socket
+	 * @param executor
+	 *            the executor
+	 * @param relayEngine
+	 *            the relay engine, or null for blocking relay
+	 * @since 3.0
+	 */
+	public SocksImplementation4(final ConfigurationFacade configurationFacade,
+			final Socket socket, final Executor executor,
+			final RelayEngine relayEngine) {
+		this(configurationFacade, socket, executor, relayEngine, null, null);
+	}
+
+	/**
+	 * Constructor for a client whose request has already been decoded.
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param socket
+	 *            the socket
+	 * @param executor
+	 *            the executor
+	 * @param relayEngine
+	 *            the relay engine, or null for blocking relay
+	 * @param request
+	 *            the decoded request, or null to read it from the client
+	 * @param earlyData
+	 *            data received after the request, or null
+	 * @since 3.0
+	 */
+	public SocksImplementation4(final ConfigurationFacade configurationFacade,
+			final Socket socket, final Executor executor,
+			final RelayEngine relayEngine, final Request request,
+			final byte[] earlyData) {
+		super(configurationFacade, socket, SocksImplementation4.LOG, executor,
+				relayEngine);
+		this.request = request;
+		this.setEarlyData(earlyData);
+	}
+
+	@Override
+	public void run() {
+		DataInputStream inputStream = null;
+		OutputStream outputStream = null;
+		InetAddress inetAddress = null;
+		int port = -1;
+		try {
+			this.setup();
+
+			inputStream = this.getInputStream();
+			outputStream = this.getOutputStream();
+
+			final Request request;
+			if (this.request == null) {
+				final long start = System.nanoTime();
+				request = this.readRequest(inputStream);
+				this.recordLatency(Phase.GREETING, start);
+			} else {
+				request = this.request;
+			}
+
+			final Command command = request.getCommand();
+			port = request.getPort();
+			inetAddress = this.getAddress(request);
+
+			if (command == Command.CONNECT) {
+				this.handleConnect(outputStream, inetAddress, port);
+			} else {
+				this.handleBind(outputStream, inetAddress, port);
+			}
+		} catch (IllegalCommandException | ProtocolException e) {
+			this.logger.info("Illegal request", e);
+
+			try {
+				writeResponse(outputStream,
+						SocksImplementation4.REQUEST_REJECTED, port,
+						inetAddress);
+			} catch (IOException e1) {
+			}
+		} catch (final RuntimeException | IOException e) {
+			this.logger.info("Failed to setup connection to {}:{}",
+					inetAddress, port, e);
+		} finally {
+			if (!this.isDetached()) {
+				try {
+					inputStream.close();
+				} catch (final Exception e) {
+				}
+
+				try {
+					outputStream.close();
+				} catch (final Exception e) {
+				}
+			}
+
+			this.cleanup();
+		}
+	}
+
+	protected void handleConnect(OutputStream outputStream,
+			InetAddress inetAddress, int port) throws IOException {
+		final Socket hostSocket;
+		try {
+			hostSocket = this.openConnection(inetAddress, port);
+		} catch (final IOException e) {
+			this.logger.info("Failed to connected to {}:{}, result 0x{}",
+					inetAddress.getHostAddress(), port, Integer.toHexString(
+							SocksImplementation4.REQUEST_REJECTED));
+
+			writeResponse(outputStream, SocksImplementation4.REQUEST_REJECTED,
+					port, inetAddress);
+			return;
+		}
+
+		writeResponse(outputStream, SocksImplementation4.REQUEST_GRANTED, port,
+				hostSocket.getInetAddress());
+
+		this.tunnel(this.getClientSocket(), hostSocket);
+	}
+
+	protected void handleBind(OutputStream outputStream,
+			InetAddress inetAddress, int port) throws IOException {
+
+		try (final ServerSocket serverSocket = this.bindConnection(inetAddress,
+				port)) {
+
+			writeResponse(outputStream, SocksImplementation4.REQUEST_GRANTED,
+					serverSocket.getLocalPort(),
+					serverSocket.getInetAddress());
+
+			try (Socket remoteSocket = serverSocket.accept()) {
+				if (remoteSocket.getInetAddress().equals(inetAddress)) {
+					writeResponse(outputStream,
+							SocksImplementation4.REQUEST_GRANTED,
+							remoteSocket.getPort(),
+							remoteSocket.getInetAddress());
+					this.tunnel(this.getClientSocket(), remoteSocket);
+				} else {
+					writeResponse(outputStream,
+							SocksImplementation4.REQUEST_REJECTED,
+							remoteSocket.getPort(),
+							remoteSocket.getInetAddress());
+				}
+			}
+		} catch (IOException e) {
+			writeResponse(outputStream, SocksImplementation4.REQUEST_REJECTED,
+					port, null);
+		}
+	}
+
+	protected OutputStream getOutputStream() throws IOException {
+		return this.getClientSocket().getOutputStream();
+	}
+
+	protected DataInputStream getInputStream() throws IOException {
+		return new DataInputStream(this.getClientSocket().getInputStream());
+	}
+
+	/**
+	 * Read the request from the client. The input is read in bulk into one
+	 * buffer and the NUL terminators are searched in place, so a request that
+	 * arrives in one segment is served by a single read. Data received after
+	 * the request is forwarded when the tunnel is established.
+	 * 
+	 * @param inputStream
+	 *            the input stream, positioned after the version
+	 * @return the request
+	 * @throws IOException
+	 *             if an I/O exception occurs or the client disconnects
+	 * @throws IllegalCommandException
+	 *             if the command is unknown
+	 * @throws ProtocolException
+	 *             if the user id or hostname is too long
+	 * @since 3.0
+	 */
+	protected Request readRequest(final InputStream inputStream)
+			throws IOException, IllegalCommandException, ProtocolException {
+		final RequestDecoder decoder = new RequestDecoder();
+		final byte[] buffer = new byte[SocksImplementation4.REQUEST_BUFFER_SIZE];
+		int length = 0;
+
+		while (true) {
+			final int read = inputStream.read(buffer, length,
+					buffer.length - length);
+
+			if (read < 0) {
+				throw new EOFException();
+			}
+
+			length += read;
+
+			final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+			final Request request = decoder.decode(byteBuffer);
+
+			if (request != null) {
+				final byte[] earlyData = new byte[byteBuffer.remaining()];
+				byteBuffer.get(earlyData);
+				this.setEarlyData(earlyData);
+
+				return request;
+			}
+		}
+	}
+
+	/**
+	 * Read the address and the user id, and the hostname of a SOCKS4a
+	 * request
+	 * 
+	 * @param inputStream
+	 *            the input stream
+	 * @return the address
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 * @throws UnknownHostException
+	 *             if the SOCKS4a hostname could not be resolved
+	 * @deprecated reads the request a byte at a time, use
+	 *             {@link #readRequest(InputStream)}
+	 */
+	@Deprecated
+	protected InetAddress getAddress(final DataInputStream inputStream)
+			throws IOException, UnknownHostException {
+		final byte[] rawIp = new byte[4];
+		inputStream.readFully(rawIp);
+
+		final byte[] buf = new byte[1];
+
+		int length;
+		while ((length = inputStream.read(buf)) >= 0) {
+			if ((length > 0) && (buf[0] == 0)) {
+				break;
+			}
+		}
+
+		// SOCKS4a extension
+		if ((rawIp[0] == 0) && (rawIp[1] == 0) && (rawIp[2] == 0)
+				&& (rawIp[3] != 0)) {
+			final StringBuilder builder = new StringBuilder();
+			while ((length = inputStream.read(buf)) >= 0) {
+				if ((length > 0) && (buf[0] == 0)) {
+					break;
+				}
+				builder.append((char) buf[0]);
+			}
+			return resolveHostname(builder.toString());
+		} else {
+			return InetAddress.getByAddress(rawIp);
+		}
+	}
+
+	/**
+	 * Get the address of a decoded request
+	 * 
+	 * @param request
+	 *            the request
+	 * @return the address
+	 * @throws UnknownHostException
+	 *             if the SOCKS4a hostname could not be resolved
+	 * @since 3.0
+	 */
+	protected InetAddress getAddress(final Request request)
+			throws UnknownHostException {
+		if (request.getHostname() != null) {
+			return resolveHostname(request.getHostname());
+		}
+
+		return InetAddress.getByAddress(request.getAddress());
+	}
+
+	/**
+	 * @param inputStream
+	 *            the input stream
+	 * @return the port
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 * @deprecated use {@link #readRequest(InputStream)}
+	 */
+	@Deprecated
+	protected int getPort(final DataInputStream inputStream)
+			throws IOException {
+		return inputStream.readShort() & 0xFFFF;
+	}
+
+	protected void writeResponse(final OutputStream outputStream,
+			final byte status, final int port, final InetAddress inetAddress)
+			throws IOException {
+		if (status != SocksImplementation4.REQUEST_GRANTED) {
+			this.handshakeFailed(0x04, status);
+		}
+
+		final ByteBuffer response = ByteBuffer.allocate(8);
+
+		response.put(SocksImplementation4.NULL);
+		response.put(status);
+		response.putShort((short) port);
+
+		if (inetAddress != null) {
+			response.put(inetAddress.getAddress());
+		}
+
+		outputStream.write(response.array());
+		outputStream.flush();
+	}
+}
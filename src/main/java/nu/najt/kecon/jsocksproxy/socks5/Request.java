@@ -0,0 +1,107 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks5;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A parsed SOCKS5 request
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class Request {
+
+	private final Command command;
+
+	private final AddressType addressType;
+
+	private final byte[] address;
+
+	private final int port;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param command
+	 *            the command
+	 * @param addressType
+	 *            the address type
+	 * @param address
+	 *            the raw IPv4 or IPv6 address, or the hostname for
+	 *            {@link AddressType#DOMAIN}
+	 * @param port
+	 *            the port
+	 */
+	public Request(final Command command, final AddressType addressType,
+			final byte[] address, final int port) {
+		this.command = command;
+		this.addressType = addressType;
+		this.address = address;
+		this.port = port;
+	}
+
+	/**
+	 * @return the command
+	 */
+	public Command getCommand() {
+		return this.command;
+	}
+
+	/**
+	 * @return the address type
+	 */
+	public AddressType getAddressType() {
+		return this.addressType;
+	}
+
+	/**
+	 * @return the raw address or hostname
+	 */
+	public byte[] getAddress() {
+		return this.address;
+	}
+
+	/**
+	 * @return the hostname if the address type is
+	 *         {@link AddressType#DOMAIN}, otherwise null
+	 */
+	public byte[] getHostname() {
+		return (this.addressType == AddressType.DOMAIN) ? this.address : null;
+	}
+
+	/**
+	 * @return the hostname or the textual representation of the address
+	 * @throws UnknownHostException
+	 *             if the raw address has an illegal length
+	 */
+	public String getHost() throws UnknownHostException {
+		if (this.addressType == AddressType.DOMAIN) {
+			return new String(this.address, StandardCharsets.US_ASCII);
+		}
+
+		return InetAddress.getByAddress(this.address).getHostAddress();
+	}
+
+	/**
+	 * @return the port
+	 */
+	public int getPort() {
+		return this.port;
+	}
+}
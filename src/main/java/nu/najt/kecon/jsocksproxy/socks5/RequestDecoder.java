@@ -0,0 +1,202 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks5;
+
+import java.nio.ByteBuffer;
+
+import nu.najt.kecon.jsocksproxy.IllegalAddressTypeException;
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+import nu.najt.kecon.jsocksproxy.ProtocolException;
+
+/**
+ * Resumable decoder for the SOCKS5 method negotiation and request. The
+ * version byte of the greeting is expected to be consumed already.<br>
+ * <br>
+ * {@link #decode(ByteBuffer)} may be invoked whenever more data is available;
+ * a message is only consumed from the buffer once it is complete, so the
+ * caller can keep appending to the same buffer.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class RequestDecoder {
+
+	/** Decoder state */
+	public enum State {
+		/** Waiting for the authentication methods */
+		METHODS,
+
+		/** Waiting for the request */
+		REQUEST,
+
+		/** The request has been decoded */
+		COMPLETE
+	}
+
+	private static final byte PROTOCOL_VERSION = 0x05;
+
+	private static final byte NO_AUTHENTICATION = 0x00;
+
+	private static final int REQUEST_HEADER_LENGTH = 4;
+
+	private State state = State.METHODS;
+
+	private boolean noAuthenticationOffered = false;
+
+	private Request request;
+
+	/**
+	 * Decode as much as possible from the buffer. Decoding stops after the
+	 * methods if the client does not offer "no authentication".
+	 * 
+	 * @param buffer
+	 *            the buffer in read mode
+	 * @return the state after decoding
+	 * @throws ProtocolException
+	 *             if the request has an unsupported version
+	 * @throws IllegalCommandException
+	 *             if the request has an unknown command
+	 * @throws IllegalAddressTypeException
+	 *             if the request has an unknown address type
+	 */
+	public State decode(final ByteBuffer buffer) throws ProtocolException,
+			IllegalCommandException, IllegalAddressTypeException {
+
+		if ((this.state == State.METHODS) && this.decodeMethods(buffer)) {
+			this.state = State.REQUEST;
+		}
+
+		if ((this.state == State.REQUEST) && this.noAuthenticationOffered) {
+			this.request = this.decodeRequest(buffer);
+
+			if (this.request != null) {
+				this.state = State.COMPLETE;
+			}
+		}
+
+		return this.state;
+	}
+
+	/**
+	 * @return the current state
+	 */
+	public State getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return true if the client offered "no authentication"
+	 */
+	public boolean isNoAuthenticationOffered() {
+		return this.noAuthenticationOffered;
+	}
+
+	/**
+	 * @return the decoded request or null if not yet complete
+	 */
+	public Request getRequest() {
+		return this.request;
+	}
+
+	private boolean decodeMethods(final ByteBuffer buffer) {
+		if (!buffer.hasRemaining()) {
+			return false;
+		}
+
+		final int position = buffer.position();
+		final int numberOfAuthMethods = buffer.get(position) & 0xFF;
+
+		if (buffer.remaining() < (1 + numberOfAuthMethods)) {
+			return false;
+		}
+
+		for (int i = 1; i <= numberOfAuthMethods; i++) {
+			if (buffer.get(position + i) == NO_AUTHENTICATION) {
+				this.noAuthenticationOffered = true;
+			}
+		}
+
+		buffer.position(position + 1 + numberOfAuthMethods);
+		return true;
+	}
+
+	private Request decodeRequest(final ByteBuffer buffer)
+			throws ProtocolException, IllegalCommandException,
+			IllegalAddressTypeException {
+		final int position = buffer.position();
+		final int available = buffer.remaining();
+
+		// Validate each field as soon as it has arrived
+		if (available >= 1) {
+			final byte socksVersion = buffer.get(position);
+			if (socksVersion != PROTOCOL_VERSION) {
+				throw new ProtocolException("Unsupported version: 0x"
+						+ Integer.toHexString(socksVersion));
+			}
+		}
+
+		if (available >= 2) {
+			Command.valueOf(buffer.get(position + 1));
+		}
+
+		if (available < REQUEST_HEADER_LENGTH) {
+			return null;
+		}
+
+		final AddressType addressType = AddressType
+				.valueOf(buffer.get(position + 3));
+
+		final int addressOffset;
+		final int addressLength;
+		switch (addressType) {
+		case IP_V4:
+			addressOffset = position + REQUEST_HEADER_LENGTH;
+			addressLength = 4;
+			break;
+		case IP_V6:
+			addressOffset = position + REQUEST_HEADER_LENGTH;
+			addressLength = 16;
+			break;
+		case DOMAIN:
+			if (available < (REQUEST_HEADER_LENGTH + 1)) {
+				return null;
+			}
+			addressOffset = position + REQUEST_HEADER_LENGTH + 1;
+			addressLength = buffer.get(position + REQUEST_HEADER_LENGTH)
+					& 0xFF;
+			break;
+		default:
+			// Should be impossible
+			throw new IllegalAddressTypeException(
+					"Unsupported address type: " + addressType);
+		}
+
+		final int end = addressOffset + addressLength + 2;
+		if (buffer.limit() < end) {
+			return null;
+		}
+
+		final Command command = Command.valueOf(buffer.get(position + 1));
+
+		final byte[] address = new byte[addressLength];
+		buffer.position(addressOffset);
+		buffer.get(address);
+
+		final int port = buffer.getShort() & 0xFFFF;
+
+		return new Request(command, addressType, address, port);
+	}
+}
@@ -1,347 +1,584 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.socks5;
-
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.util.concurrent.Executor;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import nu.najt.kecon.jsocksproxy.AbstractSocksImplementation;
-import nu.najt.kecon.jsocksproxy.ConfigurationFacade;
-import nu.najt.kecon.jsocksproxy.IllegalAddressTypeException;
-import nu.najt.kecon.jsocksproxy.IllegalCommandException;
-import nu.najt.kecon.jsocksproxy.ProtocolException;
-
-/**
- * This is the SOCKS5 implementation.<br>
- * <br>
- * More about the SOCKS protocol
- * <a href="http://en.wikipedia.org/wiki/SOCKS">http
- * ://en.wikipedia.org/wiki/SOCKS</a>
- * 
- * @author Kenny Colliander Nordin
- * 
- */
-public class SocksImplementation5 extends AbstractSocksImplementation {
-
-	private static final byte PROTOCOL_VERSION = 0x05;
-
-	private static final Logger LOG = LoggerFactory
-			.getLogger(SocksImplementation5.class.getPackage().getName());
-
-	/**
-	 * Constructor
-	 * 
-	 * @param configurationFacade
-	 *            the configuration facade
-	 * @param clientSocket
-	 *            the client socket
-	 * @param executor
-	 *            the executor
-	 */
-	public SocksImplementation5(final ConfigurationFacade configurationFacade,
-			final Socket clientSocket, final Executor executor) {
-		super(configurationFacade, clientSocket, SocksImplementation5.LOG,
-				executor);
-	}
-
-	@Override
-	public void run() {
-		DataInputStream inputStream = null;
-		DataOutputStream outputStream = null;
-		Socket clientSocket = null;
-		AddressType addressType = AddressType.IP_V4;
-		String host = null;
-
-		try {
-			this.setup();
-
-			// Handshake
-			inputStream = new DataInputStream(this.getClientInputStream());
-			outputStream = new DataOutputStream(
-					new BufferedOutputStream(this.getClientOutputStream()));
-
-			this.authenticate(inputStream, outputStream);
-
-			readVersion(inputStream);
-
-			final Command command = Command.valueOf(inputStream.readByte());
-			final byte[] hostname;
-
-			inputStream.readByte(); // reserved byte
-
-			addressType = AddressType.valueOf(inputStream.readByte());
-			final InetAddress remoteInetAddress;
-			if (addressType == AddressType.IP_V4) {
-
-				final byte[] address = new byte[4];
-				inputStream.readFully(address);
-				remoteInetAddress = InetAddress.getByAddress(address);
-				hostname = null;
-
-			} else if (addressType == AddressType.IP_V6) {
-
-				final byte[] address = new byte[16];
-				inputStream.readFully(address);
-				remoteInetAddress = InetAddress.getByAddress(address);
-				hostname = null;
-
-			} else if (addressType == AddressType.DOMAIN) {
-
-				final int hostLength = inputStream.readByte() & 0xFF;
-				final byte[] hostBuf = new byte[hostLength];
-
-				inputStream.readFully(hostBuf);
-				remoteInetAddress = InetAddress
-						.getByName(new String(hostBuf, "US-ASCII"));
-				hostname = hostBuf;
-
-			} else {
-				// Should be impossible
-				throw new IllegalAddressTypeException(
-						"Unsupported address type: " + addressType);
-			}
-
-			host = remoteInetAddress.getHostAddress();
-			final int port = inputStream.readShort() & 0xFFFF;
-
-			if (command == Command.CONNECT) {
-				try {
-					clientSocket = this.openConnection(remoteInetAddress,
-							port);
-				} catch (final IOException e) {
-					this.logger.info("Failed to connect to: {}:{}", host,
-							port);
-					this.writeResponse(outputStream, Status.HOST_UNREACHABLE,
-							addressType, remoteInetAddress, hostname, port);
-					return;
-				}
-
-				this.writeResponse(outputStream, Status.SUCCEEDED, addressType,
-						clientSocket.getLocalAddress(), hostname,
-						clientSocket.getLocalPort());
-
-				this.tunnel(this.getClientSocket(), clientSocket);
-
-				this.logger.debug("Disconnected");
-			} else if (command == Command.BIND) {
-				final ServerSocket serverSocket = this
-						.bindConnection(remoteInetAddress, port);
-
-				try {
-
-					this.writeResponse(outputStream, Status.SUCCEEDED,
-							addressType, serverSocket.getInetAddress(),
-							hostname, serverSocket.getLocalPort());
-
-					clientSocket = serverSocket.accept();
-					this.logger.info("Accepted");
-				} finally {
-					serverSocket.close();
-				}
-
-				this.writeResponse(outputStream, Status.SUCCEEDED, addressType,
-						clientSocket.getInetAddress(), null,
-						clientSocket.getPort());
-
-				this.tunnel(this.getClientSocket(), clientSocket);
-			} else {
-				throw new IllegalCommandException(
-						"Unknown command: " + command);
-			}
-		} catch (final UnknownHostException e) {
-			this.logger.warn("Failed to resolve host: {}", host, e);
-			try {
-				this.writeResponse(outputStream, Status.HOST_UNREACHABLE,
-						addressType, null, null, 0);
-			} catch (final IOException ioe) {
-			}
-		} catch (final RuntimeException e) {
-			this.logger.warn("Unknown error occurred", e);
-
-			try {
-				this.writeResponse(outputStream,
-						Status.GENERAL_SOCKS_SERVER_FAILURE, addressType, null,
-						null, 0);
-			} catch (final IOException ioe) {
-			}
-		} catch (final ProtocolException | IllegalCommandException e) {
-			try {
-				this.writeResponse(outputStream, Status.COMMAND_NOT_SUPPORTED,
-						addressType, null, null, 0);
-			} catch (final IOException ioe) {
-			}
-		} catch (final IOException e) {
-		} catch (final IllegalAddressTypeException e) {
-			try {
-				this.writeResponse(outputStream,
-						Status.ADDRESS_TYPE_NOT_SUPPORTED, addressType, null,
-						null, 0);
-			} catch (final IOException ioe) {
-			}
-		} finally {
-			if (inputStream != null) {
-				try {
-					inputStream.close();
-				} catch (final IOException e) {
-				}
-			}
-
-			if (outputStream != null) {
-				try {
-					outputStream.close();
-				} catch (final IOException e) {
-				}
-			}
-
-			if (this.getClientSocket() != null) {
-				try {
-					this.getClientSocket().close();
-				} catch (final IOException e) {
-				}
-			}
-
-			if (clientSocket != null) {
-				try {
-					clientSocket.close();
-				} catch (final IOException e) {
-				}
-			}
-
-			this.cleanup();
-		}
-	}
-
-	private void readVersion(DataInputStream inputStream)
-			throws IOException, ProtocolException {
-		final byte socksVersion = inputStream.readByte();
-
-		if (socksVersion != SocksImplementation5.PROTOCOL_VERSION) {
-			throw new ProtocolException("Unsupported version: 0x"
-					+ Integer.toHexString(socksVersion));
-		}
-	}
-
-	protected void authenticate(final DataInputStream inputStream,
-			final DataOutputStream outputStream) throws IOException {
-		final int numberOfAuthMethods = inputStream.readByte() & 0xFF;
-
-		boolean supported = false;
-		for (int i = 0; i < numberOfAuthMethods; i++) {
-			final byte authMethod = inputStream.readByte();
-
-			if (authMethod == 0x00) {
-				supported = true;
-			}
-		}
-
-		final byte handshakeResponse[] = new byte[2];
-		handshakeResponse[0] = SocksImplementation5.PROTOCOL_VERSION;
-
-		if (supported) {
-			handshakeResponse[1] = 0x00;
-			outputStream.write(handshakeResponse);
-			outputStream.flush();
-		} else {
-			handshakeResponse[1] = (byte) 0xff;
-			outputStream.write(handshakeResponse);
-			outputStream.flush();
-			this.logger.info("No supported authentication methods specified");
-			throw new EOFException();
-		}
-	}
-
-	/**
-	 * Write response back to client
-	 * 
-	 * @param outputStream
-	 *            the output stream
-	 * @param status
-	 *            the status
-	 * @param addressType
-	 *            the address type
-	 * @param boundAddress
-	 *            the bound address
-	 * @param hostname
-	 *            the hostname
-	 * @param port
-	 *            the port
-	 * @throws IOException
-	 *             if an I/O exception occurs
-	 */
-	protected void writeResponse(final DataOutputStream outputStream,
-			final Status status, final AddressType addressType,
-			final InetAddress boundAddress, final byte[] hostname,
-			final int port) throws IOException {
-
-		byte[] safeAddress = null;
-		if (boundAddress == null) {
-			if (addressType == AddressType.IP_V6) {
-				safeAddress = new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-						0, 0, 0, 0 };
-			} else {
-				safeAddress = new byte[] { 0, 0, 0, 0 };
-			}
-		} else if (hostname == null) {
-			safeAddress = boundAddress.getAddress();
-		} else {
-			safeAddress = hostname;
-		}
-
-		if (status != Status.SUCCEEDED) {
-			this.logger.info("Client failed to connect, result 0x{} {}",
-					Integer.toHexString(status.getValue()), status);
-		}
-
-		outputStream.write(SocksImplementation5.PROTOCOL_VERSION);
-		outputStream.write(status.getValue());
-		outputStream.write(0x00); // reserved
-
-		if (addressType == AddressType.IP_V4) {
-			outputStream.write(AddressType.IP_V4.getValue());
-			outputStream.write(safeAddress);
-
-		} else if (addressType == AddressType.IP_V6) {
-			outputStream.write(AddressType.IP_V6.getValue());
-			outputStream.write(safeAddress);
-
-		} else if (addressType == AddressType.DOMAIN) {
-			outputStream.write(AddressType.DOMAIN.getValue());
-			if (safeAddress == null) {
-				outputStream.write(0x00);
-			} else {
-				outputStream.write(safeAddress.length);
-				outputStream.write(safeAddress);
-			}
-		} else {
-			throw new IllegalStateException(
-					"Unknown address type: " + addressType);
-		}
-
-		outputStream.writeShort(port & 0xFFFF);
-		outputStream.flush();
-	}
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks5;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.AbstractSocksImplementation;
+import nu.najt.kecon.jsocksproxy.ConfigurationFacade;
+import nu.najt.kecon.jsocksproxy.IllegalAddressTypeException;
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+import nu.najt.kecon.jsocksproxy.ProtocolException;
+import nu.najt.kecon.jsocksproxy.metrics.Phase;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+import nu.najt.kecon.jsocksproxy.socks5.RequestDecoder.State;
+
+/**
+ * This is the SOCKS5 implementation.<br>
+ * <br>
+ * More about the SOCKS protocol
+ * <a href="http://en.wikipedia.org/wiki/SOCKS">http
+ * ://en.wikipedia.org/wiki/SOCKS</a>
+ * 
+ * @author Kenny Colliander Nordin
+ * 
+ */
+public class SocksImplementation5 extends AbstractSocksImplementation {
+
+	private static final byte PROTOCOL_VERSION = 0x05;
+
+	/**
+	 * Larger than the longest greeting and request, 256 and 262 bytes
+	 */
+	private static final int HANDSHAKE_BUFFER_SIZE = 1024;
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SocksImplementation5.class.getPackage().getName());
+
+	private final Request request;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param clientSocket
+	 *            the client socket
+	 * @param executor
+	 *            the executor
+	 */
+	public SocksImplementation5(final ConfigurationFacade configurationFacade,
+			final Socket clientSocket, final Executor executor) {
+		this(configurationFacade, clientSocket, executor, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param clientSocket
+	 *            the client socket
+	 * @param executor
+	 *            the executor
+	 * @param relayEngine
+	 *            the relay engine, or null for blocking relay
+	 * @since 3.0
+	 */
+	public SocksImplementation5(final ConfigurationFacade configurationFacade,
+			final Socket clientSocket, final Executor executor,
+			final RelayEngine relayEngine) {
+		this(configurationFacade, clientSocket, executor, relayEngine, null,
+				null);
+	}
+
+	/**
+	 * Constructor for a client whose handshake has already been decoded and
+	 * whose authentication method has been replied.
+	 * 
+	 * @param configurationFacade
+	 *            the configuration facade
+	 * @param clientSocket
+	 *            the client socket
+	 * @param executor
+	 *            the executor
+	 * @param relayEngine
+	 *            the relay engine, or null for blocking relay
+	 * @param request
+	 *            the decoded request, or null to read it from the client
+	 * @param earlyData
+	 *            data received after the request, or null
+	 * @since 3.0
+	 */
+	public SocksImplementation5(final ConfigurationFacade configurationFacade,
+			final Socket clientSocket, final Executor executor,
+			final RelayEngine relayEngine, final Request request,
+			final byte[] earlyData) {
+		super(configurationFacade, clientSocket, SocksImplementation5.LOG,
+				executor, relayEngine);
+		this.request = request;
+		this.setEarlyData(earlyData);
+	}
+
+	@Override
+	public void run() {
+		InputStream inputStream = null;
+		DataOutputStream outputStream = null;
+		Socket clientSocket = null;
+		AddressType addressType = AddressType.IP_V4;
+		String host = null;
+
+		try {
+			this.setup();
+
+			// Handshake
+			inputStream = this.getClientInputStream();
+			outputStream = new DataOutputStream(
+					new BufferedOutputStream(this.getClientOutputStream()));
+
+			final Request request;
+			if (this.request == null) {
+				final long start = System.nanoTime();
+				request = this.readHandshake(inputStream, outputStream);
+				this.recordLatency(Phase.GREETING, start);
+			} else {
+				request = this.request;
+			}
+
+			final Command command = request.getCommand();
+			final byte[] hostname = request.getHostname();
+
+			addressType = request.getAddressType();
+			final InetAddress remoteInetAddress;
+			if (addressType == AddressType.DOMAIN) {
+				remoteInetAddress = this
+						.resolveHostname(new String(hostname, "US-ASCII"));
+			} else {
+				remoteInetAddress = InetAddress
+						.getByAddress(request.getAddress());
+			}
+
+			host = remoteInetAddress.getHostAddress();
+			final int port = request.getPort();
+
+			if (command == Command.CONNECT) {
+				try {
+					clientSocket = this.openConnection(remoteInetAddress,
+							port);
+				} catch (final IOException e) {
+					this.logger.info("Failed to connect to: {}:{}", host,
+							port);
+					this.writeResponse(outputStream, Status.HOST_UNREACHABLE,
+							addressType, remoteInetAddress, hostname, port);
+					return;
+				}
+
+				this.writeResponse(outputStream, Status.SUCCEEDED, addressType,
+						clientSocket.getLocalAddress(), hostname,
+						clientSocket.getLocalPort());
+
+				this.tunnel(this.getClientSocket(), clientSocket);
+
+				this.logger.debug("Disconnected");
+			} else if (command == Command.BIND) {
+				final ServerSocket serverSocket = this
+						.bindConnection(remoteInetAddress, port);
+
+				try {
+
+					this.writeResponse(outputStream, Status.SUCCEEDED,
+							addressType, serverSocket.getInetAddress(),
+							hostname, serverSocket.getLocalPort());
+
+					clientSocket = serverSocket.accept();
+					this.logger.info("Accepted");
+				} finally {
+					serverSocket.close();
+				}
+
+				this.writeResponse(outputStream, Status.SUCCEEDED, addressType,
+						clientSocket.getInetAddress(), null,
+						clientSocket.getPort());
+
+				this.tunnel(this.getClientSocket(), clientSocket);
+			} else {
+				throw new IllegalCommandException(
+						"Unknown command: " + command);
+			}
+		} catch (final UnknownHostException e) {
+			this.logger.warn("Failed to resolve host: {}", host, e);
+			try {
+				this.writeResponse(outputStream, Status.HOST_UNREACHABLE,
+						addressType, null, null, 0);
+			} catch (final IOException ioe) {
+			}
+		} catch (final RuntimeException e) {
+			this.logger.warn("Unknown error occurred", e);
+
+			try {
+				this.writeResponse(outputStream,
+						Status.GENERAL_SOCKS_SERVER_FAILURE, addressType, null,
+						null, 0);
+			} catch (final IOException ioe) {
+			}
+		} catch (final ProtocolException | IllegalCommandException e) {
+			try {
+				this.writeResponse(outputStream, Status.COMMAND_NOT_SUPPORTED,
+						addressType, null, null, 0);
+			} catch (final IOException ioe) {
+			}
+		} catch (final IOException e) {
+		} catch (final IllegalAddressTypeException e) {
+			try {
+				this.writeResponse(outputStream,
+						Status.ADDRESS_TYPE_NOT_SUPPORTED, addressType, null,
+						null, 0);
+			} catch (final IOException ioe) {
+			}
+		} finally {
+			if (!this.isDetached()) {
+				if (inputStream != null) {
+					try {
+						inputStream.close();
+					} catch (final IOException e) {
+					}
+				}
+
+				if (outputStream != null) {
+					try {
+						outputStream.close();
+					} catch (final IOException e) {
+					}
+				}
+
+				if (this.getClientSocket() != null) {
+					try {
+						this.getClientSocket().close();
+					} catch (final IOException e) {
+					}
+				}
+
+				if (clientSocket != null) {
+					try {
+						clientSocket.close();
+					} catch (final IOException e) {
+					}
+				}
+			}
+
+			this.cleanup();
+		}
+	}
+
+	/**
+	 * Read the method negotiation and the request from the client. The input
+	 * is read in bulk into one buffer and decoded in memory, so a client that
+	 * sends the greeting and the request together is served by a single
+	 * read. Data received after the request is forwarded when the tunnel is
+	 * established.
+	 * <p>
+	 * If the request has arrived together with the greeting the method reply
+	 * is left in the output stream, so that it is sent in the same write as
+	 * the reply to the request.
+	 * 
+	 * @param inputStream
+	 *            the input stream
+	 * @param outputStream
+	 *            the output stream
+	 * @return the request
+	 * @throws IOException
+	 *             if an I/O exception occurs or no supported authentication
+	 *             method is offered
+	 * @throws ProtocolException
+	 *             if the version is unsupported
+	 * @throws IllegalCommandException
+	 *             if the command is unknown
+	 * @throws IllegalAddressTypeException
+	 *             if the address type is unknown
+	 * @since 3.0
+	 */
+	protected Request readHandshake(final InputStream inputStream,
+			final DataOutputStream outputStream) throws IOException,
+			ProtocolException, IllegalCommandException,
+			IllegalAddressTypeException {
+		final RequestDecoder decoder = new RequestDecoder();
+		final ByteBuffer buffer = ByteBuffer
+				.allocate(SocksImplementation5.HANDSHAKE_BUFFER_SIZE);
+		boolean methodsReplied = false;
+
+		buffer.flip();
+
+		while (true) {
+			final State state;
+			try {
+				state = decoder.decode(buffer);
+			} catch (final ProtocolException | IllegalCommandException
+					| IllegalAddressTypeException e) {
+				// The failing request may have been read with the greeting,
+				// the method reply must precede the failure reply
+				if (!methodsReplied) {
+					this.writeMethodReply(decoder, outputStream);
+				}
+				throw e;
+			}
+
+			if (!methodsReplied) {
+				methodsReplied = this.writeMethodReply(decoder, outputStream);
+			}
+
+			if (state == State.COMPLETE) {
+				final byte[] earlyData = new byte[buffer.remaining()];
+				buffer.get(earlyData);
+				this.setEarlyData(earlyData);
+
+				return decoder.getRequest();
+			}
+
+			if (methodsReplied) {
+				// The client waits for the method reply before the request
+				outputStream.flush();
+			}
+
+			buffer.compact();
+
+			if (!buffer.hasRemaining()) {
+				throw new ProtocolException("Too large handshake");
+			}
+
+			final int length = inputStream.read(buffer.array(),
+					buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+
+			if (length < 0) {
+				throw new EOFException();
+			}
+
+			buffer.position(buffer.position() + length);
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * Reply to the method negotiation once the greeting has been decoded.
+	 * The accepting reply is not flushed, so it can be sent together with
+	 * the reply to the request.
+	 * 
+	 * @param decoder
+	 *            the decoder
+	 * @param outputStream
+	 *            the output stream
+	 * @return true if the method has been replied
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 * @throws EOFException
+	 *             if no supported authentication method is offered, after
+	 *             the rejecting reply has been sent
+	 */
+	private boolean writeMethodReply(final RequestDecoder decoder,
+			final DataOutputStream outputStream) throws IOException {
+		if (decoder.getState() == State.METHODS) {
+			return false;
+		}
+
+		if (!decoder.isNoAuthenticationOffered()) {
+			this.writeMethod(outputStream, (byte) 0xff, true);
+			this.logger.info("No supported authentication methods specified");
+			throw new EOFException();
+		}
+
+		this.writeMethod(outputStream, (byte) 0x00, false);
+		return true;
+	}
+
+	private void writeMethod(final DataOutputStream outputStream,
+			final byte method, final boolean flush) throws IOException {
+		outputStream.write(SocksImplementation5.PROTOCOL_VERSION);
+		outputStream.write(method);
+
+		if (flush) {
+			outputStream.flush();
+		}
+	}
+
+	/**
+	 * Read the request from the client
+	 * 
+	 * @param inputStream
+	 *            the input stream
+	 * @return the request
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 * @throws ProtocolException
+	 *             if the version is unsupported
+	 * @throws IllegalCommandException
+	 *             if the command is unknown
+	 * @throws IllegalAddressTypeException
+	 *             if the address type is unknown
+	 * @deprecated reads the request a field at a time, use
+	 *             {@link #readHandshake(InputStream, DataOutputStream)}
+	 */
+	@Deprecated
+	protected Request readRequest(final DataInputStream inputStream)
+			throws IOException, ProtocolException, IllegalCommandException,
+			IllegalAddressTypeException {
+		readVersion(inputStream);
+
+		final Command command = Command.valueOf(inputStream.readByte());
+
+		inputStream.readByte(); // reserved byte
+
+		final AddressType addressType = AddressType
+				.valueOf(inputStream.readByte());
+		final byte[] address;
+		if (addressType == AddressType.IP_V4) {
+			address = new byte[4];
+		} else if (addressType == AddressType.IP_V6) {
+			address = new byte[16];
+		} else if (addressType == AddressType.DOMAIN) {
+			address = new byte[inputStream.readByte() & 0xFF];
+		} else {
+			// Should be impossible
+			throw new IllegalAddressTypeException(
+					"Unsupported address type: " + addressType);
+		}
+
+		inputStream.readFully(address);
+
+		final int port = inputStream.readShort() & 0xFFFF;
+
+		return new Request(command, addressType, address, port);
+	}
+
+	private void readVersion(DataInputStream inputStream)
+			throws IOException, ProtocolException {
+		final byte socksVersion = inputStream.readByte();
+
+		if (socksVersion != SocksImplementation5.PROTOCOL_VERSION) {
+			throw new ProtocolException("Unsupported version: 0x"
+					+ Integer.toHexString(socksVersion));
+		}
+	}
+
+	/**
+	 * Read the authentication methods and reply the selected method
+	 * 
+	 * @param inputStream
+	 *            the input stream
+	 * @param outputStream
+	 *            the output stream
+	 * @throws IOException
+	 *             if an I/O exception occurs or no supported authentication
+	 *             method is offered
+	 * @deprecated reads the methods a byte at a time, use
+	 *             {@link #readHandshake(InputStream, DataOutputStream)}
+	 */
+	@Deprecated
+	protected void authenticate(final DataInputStream inputStream,
+			final DataOutputStream outputStream) throws IOException {
+		final int numberOfAuthMethods = inputStream.readByte() & 0xFF;
+
+		boolean supported = false;
+		for (int i = 0; i < numberOfAuthMethods; i++) {
+			final byte authMethod = inputStream.readByte();
+
+			if (authMethod == 0x00) {
+				supported = true;
+			}
+		}
+
+		final byte handshakeResponse[] = new byte[2];
+		handshakeResponse[0] = SocksImplementation5.PROTOCOL_VERSION;
+
+		if (supported) {
+			handshakeResponse[1] = 0x00;
+			outputStream.write(handshakeResponse);
+			outputStream.flush();
+		} else {
+			handshakeResponse[1] = (byte) 0xff;
+			outputStream.write(handshakeResponse);
+			outputStream.flush();
+			this.logger.info("No supported authentication methods specified");
+			throw new EOFException();
+		}
+	}
+
+	/**
+	 * Write response back to client
+	 * 
+	 * @param outputStream
+	 *            the output stream
+	 * @param status
+	 *            the status
+	 * @param addressType
+	 *            the address type
+	 * @param boundAddress
+	 *            the bound address
+	 * @param hostname
+	 *            the hostname
+	 * @param port
+	 *            the port
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	protected void writeResponse(final DataOutputStream outputStream,
+			final Status status, final AddressType addressType,
+			final InetAddress boundAddress, final byte[] hostname,
+			final int port) throws IOException {
+
+		byte[] safeAddress = null;
+		if (boundAddress == null) {
+			if (addressType == AddressType.IP_V6) {
+				safeAddress = new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+						0, 0, 0, 0 };
+			} else {
+				safeAddress = new byte[] { 0, 0, 0, 0 };
+			}
+		} else if (hostname == null) {
+			safeAddress = boundAddress.getAddress();
+		} else {
+			safeAddress = hostname;
+		}
+
+		if (status != Status.SUCCEEDED) {
+			this.logger.info("Client failed to connect, result 0x{} {}",
+					Integer.toHexString(status.getValue()), status);
+			this.handshakeFailed(SocksImplementation5.PROTOCOL_VERSION,
+					status.getValue());
+		}
+
+		outputStream.write(SocksImplementation5.PROTOCOL_VERSION);
+		outputStream.write(status.getValue());
+		outputStream.write(0x00); // reserved
+
+		if (addressType == AddressType.IP_V4) {
+			outputStream.write(AddressType.IP_V4.getValue());
+			outputStream.write(safeAddress);
+
+		} else if (addressType == AddressType.IP_V6) {
+			outputStream.write(AddressType.IP_V6.getValue());
+			outputStream.write(safeAddress);
+
+		} else if (addressType == AddressType.DOMAIN) {
+			outputStream.write(AddressType.DOMAIN.getValue());
+			if (safeAddress == null) {
+				outputStream.write(0x00);
+			} else {
+				outputStream.write(safeAddress.length);
+				outputStream.write(safeAddress);
+			}
+		} else {
+			throw new IllegalStateException(
+					"Unknown address type: " + addressType);
+		}
+
+		outputStream.writeShort(port & 0xFFFF);
+		outputStream.flush();
+	}
+}
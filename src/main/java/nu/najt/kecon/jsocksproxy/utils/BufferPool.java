@@ -0,0 +1,364 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-classed pool of direct byte buffers shared by the relay paths.
+ * <p>
+ * Requested sizes are rounded up to a power of two between
+ * {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}. Released buffers are
+ * kept in per-stripe free lists, where the stripe is chosen from the current
+ * thread, so that threads seldom contend for the same list. The total amount
+ * of direct memory owned by the pool, in use or free, never exceeds the
+ * configured maximum; beyond that heap buffers are handed out instead and are
+ * left to the garbage collector when released.
+ * <p>
+ * Every outstanding direct buffer is tracked by a weak reference, only
+ * buffers that are outstanding are taken back. A buffer that is released
+ * twice, or that was not acquired from the pool, is refused with a warning.
+ * A buffer that is garbage collected without having been released is
+ * removed from the accounting and logged; with leak detection enabled,
+ * together with the stack trace of its acquisition.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class BufferPool {
+
+	/** Smallest pooled buffer size */
+	public static final int MIN_BUFFER_SIZE = 2048;
+
+	/** Largest pooled buffer size */
+	public static final int MAX_BUFFER_SIZE = 65536;
+
+	/** Default maximum amount of direct memory owned by the pool */
+	public static final long DEFAULT_MAX_MEMORY = 32L * 1024 * 1024;
+
+	private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+
+	private static final int SIZE_CLASSES = Integer
+			.numberOfTrailingZeros(MAX_BUFFER_SIZE)
+			- Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+
+	private static final BufferPool INSTANCE = new BufferPool(
+			DEFAULT_MAX_MEMORY, LOG.isDebugEnabled());
+
+	private final ConcurrentLinkedDeque<ByteBuffer>[][] freeLists;
+
+	private final int stripeMask;
+
+	private final boolean leakDetection;
+
+	private final Map<LeakRecord, Boolean> outstanding = new ConcurrentHashMap<LeakRecord, Boolean>();
+
+	private final ReferenceQueue<ByteBuffer> referenceQueue = new ReferenceQueue<ByteBuffer>();
+
+	private volatile long maxMemory;
+
+	private final AtomicLong allocatedMemory = new AtomicLong();
+
+	private final AtomicLong pooledMemory = new AtomicLong();
+
+	private final LongAdder acquisitions = new LongAdder();
+
+	private final LongAdder reuses = new LongAdder();
+
+	private final LongAdder heapAllocations = new LongAdder();
+
+	private final LongAdder leaks = new LongAdder();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxMemory
+	 *            maximum amount of direct memory owned by the pool in bytes
+	 * @param leakDetection
+	 *            true if buffers that are never released should be reported
+	 *            with the stack trace of their acquisition
+	 */
+	public BufferPool(final long maxMemory, final boolean leakDetection) {
+		this.maxMemory = maxMemory;
+		this.leakDetection = leakDetection;
+
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors()) {
+			stripes <<= 1;
+		}
+		this.stripeMask = stripes - 1;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final ConcurrentLinkedDeque<ByteBuffer>[][] freeLists = new ConcurrentLinkedDeque[SIZE_CLASSES][stripes];
+		this.freeLists = freeLists;
+
+		for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) {
+			for (int stripe = 0; stripe < stripes; stripe++) {
+				this.freeLists[sizeClass][stripe] = new ConcurrentLinkedDeque<ByteBuffer>();
+			}
+		}
+	}
+
+	/**
+	 * @return the pool shared by all relay paths
+	 */
+	public static BufferPool getInstance() {
+		return BufferPool.INSTANCE;
+	}
+
+	/**
+	 * Acquire a cleared buffer with a capacity of at least the requested size.
+	 * Requests larger than {@link #MAX_BUFFER_SIZE} are served by unpooled
+	 * heap buffers.
+	 * 
+	 * @param size
+	 *            the minimum capacity
+	 * @return the buffer
+	 */
+	public ByteBuffer acquire(final int size) {
+		this.acquisitions.increment();
+		this.expungeLeaks();
+
+		if (size > BufferPool.MAX_BUFFER_SIZE) {
+			this.heapAllocations.increment();
+			return ByteBuffer.allocate(size);
+		}
+
+		final int sizeClass = sizeClass(size);
+		final int capacity = BufferPool.MIN_BUFFER_SIZE << sizeClass;
+
+		ByteBuffer buffer = this.poll(sizeClass);
+
+		if (buffer != null) {
+			this.pooledMemory.addAndGet(-capacity);
+			this.reuses.increment();
+			buffer.clear();
+		} else if (this.reserve(capacity)) {
+			buffer = ByteBuffer.allocateDirect(capacity);
+		} else {
+			this.heapAllocations.increment();
+			return ByteBuffer.allocate(capacity);
+		}
+
+		this.outstanding.put(new LeakRecord(buffer, this.referenceQueue,
+				this.leakDetection), Boolean.TRUE);
+
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer acquired from this pool. Heap buffers are left to the
+	 * garbage collector, buffers that are not outstanding are refused.
+	 * 
+	 * @param buffer
+	 *            the buffer, may be null
+	 */
+	public void release(final ByteBuffer buffer) {
+		if ((buffer == null) || !buffer.isDirect()) {
+			return;
+		}
+
+		final int capacity = buffer.capacity();
+		if ((capacity < BufferPool.MIN_BUFFER_SIZE)
+				|| (capacity > BufferPool.MAX_BUFFER_SIZE)
+				|| (Integer.bitCount(capacity) != 1)) {
+			return;
+		}
+
+		if (this.outstanding
+				.remove(new LeakRecord(buffer, null, false)) == null) {
+			LOG.warn("Released buffer that is not outstanding",
+					new IllegalStateException());
+			return;
+		}
+
+		if (this.allocatedMemory.get() > this.maxMemory) {
+			// The maximum has been lowered, let the buffer be collected
+			this.allocatedMemory.addAndGet(-capacity);
+			return;
+		}
+
+		this.pooledMemory.addAndGet(capacity);
+		this.freeLists[sizeClass(capacity)][this.stripe()].offerFirst(buffer);
+	}
+
+	/**
+	 * @param maxMemory
+	 *            maximum amount of direct memory owned by the pool in bytes
+	 */
+	public void setMaxMemory(final long maxMemory) {
+		this.maxMemory = maxMemory;
+	}
+
+	/**
+	 * @return maximum amount of direct memory owned by the pool in bytes
+	 */
+	public long getMaxMemory() {
+		return this.maxMemory;
+	}
+
+	/**
+	 * @return direct memory owned by the pool, in use or free, in bytes
+	 */
+	public long getAllocatedMemory() {
+		return this.allocatedMemory.get();
+	}
+
+	/**
+	 * @return direct memory kept free in the pool in bytes
+	 */
+	public long getPooledMemory() {
+		return this.pooledMemory.get();
+	}
+
+	/**
+	 * @return number of acquired buffers
+	 */
+	public long getAcquisitions() {
+		return this.acquisitions.sum();
+	}
+
+	/**
+	 * @return number of acquisitions served by a pooled buffer
+	 */
+	public long getReuses() {
+		return this.reuses.sum();
+	}
+
+	/**
+	 * @return number of acquisitions served by a heap buffer, because of the
+	 *         size or since the maximum memory was reached
+	 */
+	public long getHeapAllocations() {
+		return this.heapAllocations.sum();
+	}
+
+	/**
+	 * @return number of buffers detected as never released
+	 */
+	public long getLeaks() {
+		return this.leaks.sum();
+	}
+
+	private boolean reserve(final int capacity) {
+		while (true) {
+			final long allocated = this.allocatedMemory.get();
+
+			if ((allocated + capacity) > this.maxMemory) {
+				return false;
+			}
+
+			if (this.allocatedMemory.compareAndSet(allocated,
+					allocated + capacity)) {
+				return true;
+			}
+		}
+	}
+
+	private ByteBuffer poll(final int sizeClass) {
+		final ConcurrentLinkedDeque<ByteBuffer>[] stripes = this.freeLists[sizeClass];
+		final int stripe = this.stripe();
+
+		for (int i = 0; i < stripes.length; i++) {
+			final ByteBuffer buffer = stripes[(stripe + i) & this.stripeMask]
+					.pollFirst();
+			if (buffer != null) {
+				return buffer;
+			}
+		}
+
+		return null;
+	}
+
+	private int stripe() {
+		return (int) Thread.currentThread().getId() & this.stripeMask;
+	}
+
+	private static int sizeClass(final int size) {
+		if (size <= BufferPool.MIN_BUFFER_SIZE) {
+			return 0;
+		}
+
+		return (32 - Integer.numberOfLeadingZeros(size - 1))
+				- Integer.numberOfTrailingZeros(BufferPool.MIN_BUFFER_SIZE);
+	}
+
+	private void expungeLeaks() {
+		Reference<? extends ByteBuffer> reference;
+		while ((reference = this.referenceQueue.poll()) != null) {
+			final LeakRecord record = (LeakRecord) reference;
+
+			if (this.outstanding.remove(record) != null) {
+				this.leaks.increment();
+				this.allocatedMemory.addAndGet(-record.capacity);
+				LOG.warn("Buffer of {} bytes was never released",
+						record.capacity, record.acquisition);
+			}
+		}
+	}
+
+	/**
+	 * Weak reference to an outstanding buffer, equal to other records
+	 * referring to the same buffer instance
+	 */
+	private static final class LeakRecord extends WeakReference<ByteBuffer> {
+
+		private final int hashCode;
+
+		private final int capacity;
+
+		private final Throwable acquisition;
+
+		private LeakRecord(final ByteBuffer buffer,
+				final ReferenceQueue<ByteBuffer> referenceQueue,
+				final boolean trace) {
+			super(buffer, referenceQueue);
+			this.hashCode = System.identityHashCode(buffer);
+			this.capacity = buffer.capacity();
+			this.acquisition = trace ? new Throwable("Acquired here") : null;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof LeakRecord)) {
+				return false;
+			}
+
+			final ByteBuffer buffer = this.get();
+			return (buffer != null) && (buffer == ((LeakRecord) obj).get());
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+/**
+ * Immutable buffer sizing settings for the tunnels of a listen address
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public final class BufferSizing {
+
+	/** Default minimum, and fixed, buffer size */
+	public static final int DEFAULT_MIN_SIZE = 4096;
+
+	/** Default maximum buffer size */
+	public static final int DEFAULT_MAX_SIZE = 65536;
+
+	/** Adaptive sizing between the default minimum and maximum */
+	public static final BufferSizing DEFAULT = new BufferSizing(true,
+			BufferSizing.DEFAULT_MIN_SIZE, BufferSizing.DEFAULT_MAX_SIZE);
+
+	/** Fixed size of the default minimum */
+	public static final BufferSizing FIXED = new BufferSizing(false,
+			BufferSizing.DEFAULT_MIN_SIZE, BufferSizing.DEFAULT_MIN_SIZE);
+
+	private final boolean adaptive;
+
+	private final int minSize;
+
+	private final int maxSize;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param adaptive
+	 *            true if the buffers should adapt to the traffic
+	 * @param minSize
+	 *            the initial and minimum size
+	 * @param maxSize
+	 *            the maximum size, ignored unless adaptive
+	 */
+	public BufferSizing(final boolean adaptive, final int minSize,
+			final int maxSize) {
+		if ((minSize <= 0) || (adaptive && (maxSize < minSize))) {
+			throw new IllegalArgumentException(
+					"Invalid buffer sizes " + minSize + "-" + maxSize);
+		}
+
+		this.adaptive = adaptive;
+		this.minSize = minSize;
+		this.maxSize = adaptive ? maxSize : minSize;
+	}
+
+	/**
+	 * @return true if the buffers adapt to the traffic
+	 */
+	public boolean isAdaptive() {
+		return this.adaptive;
+	}
+
+	/**
+	 * @return the initial and minimum size
+	 */
+	public int getMinSize() {
+		return this.minSize;
+	}
+
+	/**
+	 * @return the maximum size
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	@Override
+	public int hashCode() {
+		return (this.adaptive ? 31 : 0) + (31 * this.minSize) + this.maxSize;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof BufferSizing)) {
+			return false;
+		}
+
+		final BufferSizing other = (BufferSizing) obj;
+		return (this.adaptive == other.adaptive)
+				&& (this.minSize == other.minSize)
+				&& (this.maxSize == other.maxSize);
+	}
+
+	@Override
+	public String toString() {
+		return this.adaptive ? ("adaptive " + this.minSize + "-" + this.maxSize)
+				: ("fixed " + this.minSize);
+	}
+}
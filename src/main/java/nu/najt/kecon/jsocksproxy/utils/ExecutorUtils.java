@@ -0,0 +1,75 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executor utilities
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class ExecutorUtils {
+
+	private static final Method IS_VIRTUAL = findIsVirtual();
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task. The
+	 * method is looked up reflectively since the code base targets Java 8.
+	 * 
+	 * @return the executor, or null if virtual threads are not supported by
+	 *         the running JVM
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			final Method method = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) method.invoke(null);
+		} catch (final NoSuchMethodException | IllegalAccessException
+				| InvocationTargetException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the current thread is a virtual thread
+	 */
+	public static boolean isVirtualThread() {
+		if (ExecutorUtils.IS_VIRTUAL == null) {
+			return false;
+		}
+
+		try {
+			return (Boolean) ExecutorUtils.IS_VIRTUAL
+					.invoke(Thread.currentThread());
+		} catch (final IllegalAccessException | InvocationTargetException e) {
+			return false;
+		}
+	}
+
+	private static Method findIsVirtual() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (final NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The buffer of one tunnel direction. With adaptive sizing the buffer is
+ * doubled when consecutive reads fill it and halved when consecutive reads
+ * use a quarter of it or less, within the limits of the {@link BufferSizing}.
+ * A new size takes effect the next time the buffer is requested while it is
+ * empty.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class RelayBuffer {
+
+	/** Consecutive full reads before the buffer grows */
+	static final int GROW_THRESHOLD = 2;
+
+	/** Consecutive sparse reads before the buffer shrinks */
+	static final int SHRINK_THRESHOLD = 8;
+
+	private final BufferPool bufferPool;
+
+	private final BufferSizing bufferSizing;
+
+	private ByteBuffer buffer;
+
+	private int size;
+
+	private int targetSize;
+
+	private int fullReads = 0;
+
+	private int sparseReads = 0;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param bufferPool
+	 *            the pool to take buffers from
+	 * @param bufferSizing
+	 *            the sizing settings
+	 */
+	public RelayBuffer(final BufferPool bufferPool,
+			final BufferSizing bufferSizing) {
+		this.bufferPool = bufferPool;
+		this.bufferSizing = bufferSizing;
+		this.size = bufferSizing.getMinSize();
+		this.targetSize = this.size;
+		this.buffer = bufferPool.acquire(this.size);
+	}
+
+	/**
+	 * Get the buffer, it is replaced by one of the target size if it is empty
+	 * 
+	 * @return the buffer
+	 */
+	public ByteBuffer getBuffer() {
+		if ((this.targetSize != this.size) && (this.buffer.position() == 0)) {
+			this.bufferPool.release(this.buffer);
+			this.buffer = this.bufferPool.acquire(this.targetSize);
+			this.size = this.targetSize;
+		}
+
+		return this.buffer;
+	}
+
+	/**
+	 * Record the result of a read into the empty buffer
+	 * 
+	 * @param length
+	 *            the number of bytes read
+	 */
+	public void update(final int length) {
+		if (!this.bufferSizing.isAdaptive() || (length <= 0)) {
+			return;
+		}
+
+		final int capacity = this.buffer.capacity();
+
+		if (length >= capacity) {
+			this.sparseReads = 0;
+
+			if ((++this.fullReads >= RelayBuffer.GROW_THRESHOLD)
+					&& (capacity < this.bufferSizing.getMaxSize())) {
+				this.fullReads = 0;
+				this.targetSize = Math.min(capacity << 1,
+						this.bufferSizing.getMaxSize());
+			}
+		} else if (length <= (capacity >> 2)) {
+			this.fullReads = 0;
+
+			if ((++this.sparseReads >= RelayBuffer.SHRINK_THRESHOLD)
+					&& (this.size > this.bufferSizing.getMinSize())) {
+				this.sparseReads = 0;
+				this.targetSize = Math.max(this.size >> 1,
+						this.bufferSizing.getMinSize());
+			}
+		} else {
+			this.fullReads = 0;
+			this.sparseReads = 0;
+		}
+	}
+
+	/**
+	 * @return the capacity of the current buffer
+	 */
+	public int getCapacity() {
+		return this.buffer.capacity();
+	}
+
+	/**
+	 * Return the buffer to the pool
+	 */
+	public void release() {
+		this.bufferPool.release(this.buffer);
+		this.buffer = null;
+	}
+}
@@ -1,75 +1,256 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.utils;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InterruptedIOException;
-import java.io.OutputStream;
-import java.net.Socket;
-
-/**
- * Socket utilities
- * 
- * @author Kenny Colliander Nordin
- */
-public class SocketUtils {
-	/**
-	 * Copy data from input socket to output socket
-	 * 
-	 * @param inputSocket
-	 *            the input socket
-	 * @param outputSocket
-	 *            the output socket
-	 * @throws IOException
-	 *             if an I/O exception occurs
-	 */
-	public static void copy(final Socket inputSocket,
-			final Socket outputSocket) throws IOException {
-
-		InputStream inputStream = null;
-		OutputStream outputStream = null;
-		try {
-			inputStream = inputSocket.getInputStream();
-			outputStream = outputSocket.getOutputStream();
-
-			final byte buf[] = new byte[3000];
-			int length;
-			while (true) {
-				try {
-					length = inputStream.read(buf);
-
-					if (length > 0) {
-						outputStream.write(buf, 0, length);
-						outputStream.flush();
-					} else if (length == -1) {
-						break;
-					}
-				} catch (final InterruptedIOException ioe) {
-				}
-			}
-		} finally {
-			try {
-				inputSocket.shutdownInput();
-			} catch (final Exception e) {
-			}
-			try {
-				outputSocket.shutdownOutput();
-			} catch (final Exception e) {
-			}
-		}
-	}
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Socket utilities
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class SocketUtils {
+
+	private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
+	/** Interval in nanoseconds between polls for more input to coalesce */
+	private static final long COALESCING_POLL_INTERVAL = 10000;
+
+	private static final boolean CHANNEL_AVAILABLE = isJava13OrLater();
+
+	/**
+	 * Copy data from input socket to output socket with the default buffer
+	 * sizing
+	 * 
+	 * @param inputSocket
+	 *            the input socket
+	 * @param outputSocket
+	 *            the output socket
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public static void copy(final Socket inputSocket,
+			final Socket outputSocket) throws IOException {
+		copy(inputSocket, outputSocket, BufferSizing.DEFAULT);
+	}
+
+	/**
+	 * Copy data from input socket to output socket without write coalescing
+	 * 
+	 * @param inputSocket
+	 *            the input socket
+	 * @param outputSocket
+	 *            the output socket
+	 * @param bufferSizing
+	 *            the buffer sizing
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 * @since 3.0
+	 */
+	public static void copy(final Socket inputSocket,
+			final Socket outputSocket, final BufferSizing bufferSizing)
+			throws IOException {
+		copy(inputSocket, outputSocket, bufferSizing, -1,
+				new TransferStatistics());
+	}
+
+	/**
+	 * Copy data from input socket to output socket. Sockets backed by a
+	 * channel are read and written through the channel directly, other
+	 * sockets through their streams. The buffer is taken from the shared
+	 * {@link BufferPool} and sized according to the buffer sizing.
+	 * <p>
+	 * With write coalescing, input that is available after a read is drained
+	 * into the buffer before it is written. When nothing more is available
+	 * the copy waits for more input up to the coalescing latency, counted
+	 * from the first read, before writing. A latency of zero only drains
+	 * input that is already available. Availability is taken from
+	 * {@link InputStream#available()}, which for channel backed sockets
+	 * requires Java 13 or later. Before that, input from channel backed
+	 * sockets is copied without coalescing.
+	 * 
+	 * @param inputSocket
+	 *            the input socket
+	 * @param outputSocket
+	 *            the output socket
+	 * @param bufferSizing
+	 *            the buffer sizing
+	 * @param coalescingLatency
+	 *            the coalescing latency in microseconds, negative to write
+	 *            after every read
+	 * @param statistics
+	 *            the statistics to update with every write
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 * @since 3.0
+	 */
+	public static void copy(final Socket inputSocket,
+			final Socket outputSocket, final BufferSizing bufferSizing,
+			final long coalescingLatency, final TransferStatistics statistics)
+			throws IOException {
+
+		RelayBuffer relayBuffer = null;
+		try {
+			final ReadableByteChannel inputChannel = (inputSocket
+					.getChannel() != null) ? inputSocket.getChannel()
+							: Channels.newChannel(inputSocket.getInputStream());
+			final WritableByteChannel outputChannel = (outputSocket
+					.getChannel() != null) ? outputSocket.getChannel()
+							: Channels
+									.newChannel(outputSocket.getOutputStream());
+			final InputStream availableStream = ((coalescingLatency >= 0)
+					&& ((inputSocket.getChannel() == null)
+							|| SocketUtils.CHANNEL_AVAILABLE))
+									? inputSocket.getInputStream() : null;
+
+			relayBuffer = new RelayBuffer(BufferPool.getInstance(),
+					bufferSizing);
+			while (true) {
+				final ByteBuffer buffer = relayBuffer.getBuffer();
+				final int length;
+				try {
+					length = inputChannel.read(buffer);
+				} catch (final InterruptedIOException ioe) {
+					continue;
+				}
+
+				if (length == -1) {
+					break;
+				}
+
+				if (availableStream != null) {
+					drain(inputChannel, availableStream, buffer,
+							coalescingLatency);
+				}
+
+				final int position = buffer.position();
+
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					statistics.record(outputChannel.write(buffer));
+				}
+				buffer.clear();
+
+				relayBuffer.update(position);
+			}
+		} finally {
+			if (relayBuffer != null) {
+				relayBuffer.release();
+			}
+
+			try {
+				inputSocket.shutdownInput();
+			} catch (final Exception e) {
+			}
+			try {
+				outputSocket.shutdownOutput();
+			} catch (final Exception e) {
+			}
+		}
+	}
+
+	/**
+	 * Read available input into the buffer until it is full, or until nothing
+	 * has been available for the coalescing latency
+	 */
+	private static void drain(final ReadableByteChannel inputChannel,
+			final InputStream availableStream, final ByteBuffer buffer,
+			final long coalescingLatency) throws IOException {
+		final long deadline = System.nanoTime()
+				+ TimeUnit.MICROSECONDS.toNanos(coalescingLatency);
+
+		while (buffer.hasRemaining()) {
+			if (availableStream.available() > 0) {
+				if (inputChannel.read(buffer) < 0) {
+					// EOF is seen again by the next read
+					return;
+				}
+				continue;
+			}
+
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+
+			LockSupport.parkNanos(
+					Math.min(remaining, SocketUtils.COALESCING_POLL_INTERVAL));
+		}
+	}
+
+	/**
+	 * Check if write coalescing is supported for sockets backed by a channel.
+	 * Their input streams report available input from Java 13.
+	 * 
+	 * @return true if channel backed sockets can coalesce writes
+	 * @since 3.0
+	 */
+	public static boolean isChannelCoalescingSupported() {
+		return SocketUtils.CHANNEL_AVAILABLE;
+	}
+
+	/**
+	 * Get the SO_REUSEPORT socket option. It is looked up reflectively since
+	 * it was added in Java 9, and it is only returned if server socket
+	 * channels support it on this platform.
+	 * 
+	 * @return the option, or null if not supported
+	 * @since 3.0
+	 */
+	public static SocketOption<Boolean> getReusePortOption() {
+		return SocketUtils.SO_REUSEPORT;
+	}
+
+	private static boolean isJava13OrLater() {
+		final String version = System.getProperty("java.specification.version",
+				"1.8");
+
+		try {
+			return !version.startsWith("1.") && (Integer.parseInt(version) >= 13);
+		} catch (final NumberFormatException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> findReusePortOption() {
+		try {
+			final SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class
+					.getField("SO_REUSEPORT").get(null);
+
+			try (ServerSocketChannel serverSocketChannel = ServerSocketChannel
+					.open()) {
+				return serverSocketChannel.supportedOptions().contains(option)
+						? option : null;
+			}
+		} catch (final NoSuchFieldException | IllegalAccessException
+				| IOException e) {
+			return null;
+		}
+	}
+}
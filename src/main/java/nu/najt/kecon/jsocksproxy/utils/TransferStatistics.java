@@ -0,0 +1,85 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+/**
+ * Bytes and writes of one tunnel direction. Updated by the single thread
+ * relaying the direction and readable from any thread.
+ * 
+ * @author Kenny Colliander Nordin
+ * @since 3.0
+ */
+public class TransferStatistics {
+
+	private volatile long bytes = 0;
+
+	private volatile long writes = 0;
+
+	private volatile long firstWriteTime = 0;
+
+	/**
+	 * Record a write
+	 * 
+	 * @param length
+	 *            number of bytes written
+	 */
+	public void record(final int length) {
+		if (length > 0) {
+			if (this.writes == 0) {
+				this.firstWriteTime = System.nanoTime();
+			}
+			this.bytes += length;
+			this.writes++;
+		}
+	}
+
+	/**
+	 * @return number of bytes written
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return number of writes that wrote at least one byte
+	 */
+	public long getWrites() {
+		return this.writes;
+	}
+
+	/**
+	 * @return the time of the first write from {@link System#nanoTime()},
+	 *         only defined if something was written
+	 */
+	public long getFirstWriteTime() {
+		return this.firstWriteTime;
+	}
+
+	/**
+	 * @return average number of bytes per write, zero if nothing was written
+	 */
+	public long getAverageSegmentSize() {
+		final long writes = this.writes;
+		return (writes > 0) ? (this.bytes / writes) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return this.bytes + " bytes in " + this.writes
+				+ " writes, average segment " + this.getAverageSegmentSize()
+				+ " bytes";
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.configuration.AdmissionPolicy;
+
+/**
+ * Testing <code>AdmissionControl</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class AdmissionControlTest {
+
+	private ExecutorService executorService;
+
+	private CountDownLatch release;
+
+	private AtomicInteger completed;
+
+	@Before
+	public void before() {
+		this.executorService = Executors.newCachedThreadPool();
+		this.release = new CountDownLatch(1);
+		this.completed = new AtomicInteger();
+	}
+
+	@After
+	public void after() {
+		this.release.countDown();
+		this.executorService.shutdown();
+	}
+
+	@Test
+	public void testQueue() throws Exception {
+		final AdmissionControl admissionControl = new AdmissionControl(
+				this.executorService, 2, 1, AdmissionPolicy.QUEUE);
+
+		assertTrue(admissionControl.submit(this.task(), true));
+		assertTrue(admissionControl.submit(this.task(), true));
+		assertTrue(admissionControl.submit(this.task(), true));
+		assertFalse(admissionControl.submit(this.task(), true));
+
+		assertEquals(2, admissionControl.getRunning());
+		assertEquals(1, admissionControl.getQueued());
+		assertEquals(1, admissionControl.getRejected());
+
+		this.release.countDown();
+		this.awaitCompleted(3);
+
+		this.awaitIdle(admissionControl);
+		assertEquals(0, admissionControl.getQueued());
+	}
+
+	@Test
+	public void testReject() throws Exception {
+		final AdmissionControl admissionControl = new AdmissionControl(
+				this.executorService, 1, 10, AdmissionPolicy.REJECT);
+
+		assertTrue(admissionControl.submit(this.task(), true));
+		assertFalse(admissionControl.submit(this.task(), true));
+		assertEquals(0, admissionControl.getQueued());
+		assertEquals(1, admissionControl.getRejected());
+	}
+
+	@Test
+	public void testPause() throws Exception {
+		final AdmissionControl admissionControl = new AdmissionControl(
+				this.executorService, 1, 0, AdmissionPolicy.PAUSE);
+
+		assertTrue(admissionControl.submit(this.task(), true));
+
+		// Without blocking and without a queue the connection is rejected
+		assertFalse(admissionControl.submit(this.task(), false));
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		this.executorService.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				admissionControl.submit(AdmissionControlTest.this.task(),
+						true);
+				submitted.countDown();
+			}
+		});
+
+		assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+		this.release.countDown();
+		assertTrue(submitted.await(10, TimeUnit.SECONDS));
+		this.awaitCompleted(2);
+	}
+
+	private Runnable task() {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					AdmissionControlTest.this.release.await();
+				} catch (final InterruptedException e) {
+				}
+				AdmissionControlTest.this.completed.incrementAndGet();
+			}
+		};
+	}
+
+	private void awaitCompleted(final int count) throws InterruptedException {
+		for (int i = 0; (i < 1000) && (this.completed.get() < count); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, this.completed.get());
+	}
+
+	private void awaitIdle(final AdmissionControl admissionControl)
+			throws InterruptedException {
+		for (int i = 0; (i < 1000) && (admissionControl.getRunning() > 0); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, admissionControl.getRunning());
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.configuration.Configuration;
+import nu.najt.kecon.jsocksproxy.configuration.EgressPolicy;
+import nu.najt.kecon.jsocksproxy.egress.EgressSelector;
+import nu.najt.kecon.jsocksproxy.egress.PortSpace;
+import nu.najt.kecon.jsocksproxy.egress.RoundRobinStrategy;
+
+/**
+ * Testing <code>EgressHolder</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class EgressHolderTest {
+
+	@Test
+	public void testUpdateKeepsState() {
+		final Configuration configuration = new Configuration();
+		configuration.setOutgoingAddresses(Arrays.asList("127.0.0.1"));
+		configuration.setSourcePortRange("40000-40099");
+		configuration.setEgress(EgressPolicy.ROUND_ROBIN);
+
+		final EgressHolder egress = new EgressHolder();
+		egress.update(configuration);
+
+		final PortSpace portSpace = egress.getPortSpace();
+		final EgressSelector egressSelector = egress.getEgressSelector();
+		assertTrue(portSpace.hasSettings(40000, 40099, true));
+		assertSame(portSpace, egressSelector.getPortSpace());
+		assertTrue(egressSelector.getStrategy() instanceof RoundRobinStrategy);
+		assertEquals(1, egress.getStatistics().length);
+
+		// An unchanged configuration keeps the ports and the counters
+		egress.update(configuration);
+		assertSame(portSpace, egress.getPortSpace());
+		assertSame(egressSelector.getStrategy(),
+				egress.getEgressSelector().getStrategy());
+		assertSame(egressSelector.getSourceAddresses().get(0),
+				egress.getEgressSelector().getSourceAddresses().get(0));
+
+		configuration.setSourcePortRange("40000-40199");
+		egress.update(configuration);
+		assertNotSame(portSpace, egress.getPortSpace());
+		assertSame(egress.getPortSpace(),
+				egress.getEgressSelector().getPortSpace());
+	}
+
+	@Test
+	public void testIllegalSourcePortRange() {
+		final Configuration configuration = new Configuration();
+		configuration.setOutgoingAddresses(Arrays.asList("127.0.0.1"));
+		configuration.setSourcePortRange("40099-40000");
+
+		final EgressHolder egress = new EgressHolder();
+		egress.update(configuration);
+
+		// The kernel chooses the ports
+		assertEquals(0, egress.getPortExhaustions());
+		assertTrue(egress.getPortSpace().getRangeSize() > 0);
+		assertEquals("127.0.0.1",
+				egress.getOutgoingSourceAddresses().get(0).getHostAddress());
+	}
+}
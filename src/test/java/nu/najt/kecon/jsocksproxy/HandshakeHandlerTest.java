@@ -0,0 +1,174 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nu.najt.kecon.jsocksproxy.configuration.AdmissionPolicy;
+import nu.najt.kecon.jsocksproxy.nio.RelayEngine;
+
+/**
+ * Testing <code>HandshakeHandler</code> over loopback
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class HandshakeHandlerTest {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(HandshakeHandlerTest.class);
+
+	private ExecutorService executorService;
+
+	private RelayEngine relayEngine;
+
+	private ServerSocketChannel listeningChannel;
+
+	private ServerSocket remoteServer;
+
+	private ConfigurationFacade configurationFacade;
+
+	private AdmissionControl admissionControl;
+
+	@Before
+	public void before() throws IOException {
+		final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+
+		this.executorService = Executors.newCachedThreadPool();
+		this.relayEngine = new RelayEngine(this.executorService, 1);
+		this.listeningChannel = ServerSocketChannel.open();
+		this.listeningChannel.bind(new InetSocketAddress(loopback, 0));
+		this.remoteServer = new ServerSocket(0, 1, loopback);
+
+		this.configurationFacade = mock(ConfigurationFacade.class);
+		when(this.configurationFacade.isAllowSocks4()).thenReturn(true);
+		when(this.configurationFacade.isAllowSocks5()).thenReturn(true);
+		when(this.configurationFacade.getOutgoingSourceAddresses())
+				.thenReturn(Collections.singletonList(loopback));
+	}
+
+	@After
+	public void after() throws IOException {
+		this.relayEngine.shutdown();
+		this.listeningChannel.close();
+		this.remoteServer.close();
+		this.executorService.shutdown();
+	}
+
+	@Test
+	public void testSocks5Pipelined() throws Exception {
+		final int port = this.remoteServer.getLocalPort();
+
+		try (Socket client = this.connect()) {
+			final OutputStream outputStream = client.getOutputStream();
+			final InputStream inputStream = client.getInputStream();
+
+			// Greeting, request and early data in pieces
+			outputStream.write(new byte[] { 5, 1, 0, 5, 1, 0 });
+			outputStream.flush();
+			Thread.sleep(50);
+			outputStream.write(new byte[] { 1, 127, 0, 0, 1,
+					(byte) (port >> 8), (byte) port, 'H', 'i' });
+			outputStream.flush();
+
+			try (Socket remote = this.remoteServer.accept()) {
+				final byte[] response = new byte[12];
+				new DataInputStream(inputStream).readFully(response);
+
+				assertArrayEquals(new byte[] { 5, 0, 5, 0, 0, 1, 127, 0, 0, 1 },
+						Arrays.copyOf(response, 10));
+
+				final byte[] earlyData = new byte[2];
+				new DataInputStream(remote.getInputStream())
+						.readFully(earlyData);
+				assertArrayEquals(new byte[] { 'H', 'i' }, earlyData);
+
+				remote.getOutputStream().write('!');
+				assertEquals('!', inputStream.read());
+			}
+		}
+	}
+
+	@Test
+	public void testSocks4IllegalCommand() throws Exception {
+		try (Socket client = this.connect()) {
+			client.getOutputStream()
+					.write(new byte[] { 4, 9, 0, 80, 1, 2, 3, 4, 0 });
+
+			final byte[] response = new byte[8];
+			new DataInputStream(client.getInputStream()).readFully(response);
+
+			assertArrayEquals(new byte[] { 0, 0x5b, -1, -1, 0, 0, 0, 0 },
+					response);
+			assertEquals(-1, client.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testSocks5Rejected() throws Exception {
+		this.admissionControl = new AdmissionControl(this.executorService, 0,
+				0, AdmissionPolicy.REJECT);
+
+		try (Socket client = this.connect()) {
+			client.getOutputStream().write(new byte[] { 5, 1, 0, 5, 1, 0, 1,
+					127, 0, 0, 1, 0, 80 });
+
+			final byte[] response = new byte[12];
+			new DataInputStream(client.getInputStream()).readFully(response);
+
+			assertArrayEquals(
+					new byte[] { 5, 0, 5, 1, 0, 1, 0, 0, 0, 0, 0, 0 },
+					response);
+			assertEquals(-1, client.getInputStream().read());
+			assertEquals(1, this.admissionControl.getRejected());
+		}
+	}
+
+	private Socket connect() throws IOException {
+		final Socket client = new Socket(
+				this.listeningChannel.socket().getInetAddress(),
+				this.listeningChannel.socket().getLocalPort());
+
+		this.relayEngine.register(new HandshakeHandler(
+				this.configurationFacade, this.executorService,
+				this.relayEngine, this.admissionControl, LOG,
+				this.listeningChannel.accept()));
+
+		return client;
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.connect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNoException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>ConnectionRacer</code> over loopback
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class ConnectionRacerTest {
+
+	private ConnectionRacer connectionRacer;
+
+	private ServerSocket serverSocket;
+
+	private List<InetAddress> sourceAddresses;
+
+	@Before
+	public void before() throws IOException {
+		this.connectionRacer = new ConnectionRacer();
+		this.sourceAddresses = Arrays.asList(
+				InetAddress.getByName("0.0.0.0"), InetAddress.getByName("::"));
+	}
+
+	@After
+	public void after() throws IOException {
+		if (this.serverSocket != null) {
+			this.serverSocket.close();
+		}
+	}
+
+	@Test
+	public void testConnect() throws Exception {
+		this.listen("127.0.0.1");
+
+		try (Socket socket = this.connectionRacer.connect(
+				addresses("127.0.0.1"), this.serverSocket.getLocalPort(),
+				this.sourceAddresses)) {
+			assertTrue(socket.isConnected());
+			assertTrue(socket.getChannel().isBlocking());
+		}
+
+		assertEquals(1, this.connectionRacer.getConnects());
+		assertEquals(1, this.connectionRacer.getAttempts());
+		assertEquals(0, this.connectionRacer.getFailures());
+	}
+
+	@Test
+	public void testRefusedStartsNextAttempt() throws Exception {
+		this.listen("127.0.0.1");
+		this.connectionRacer.setAttemptDelay(5000);
+
+		final long start = System.currentTimeMillis();
+		try (Socket socket = this.connectionRacer.connect(
+				addresses("127.0.0.2", "127.0.0.1"),
+				this.serverSocket.getLocalPort(), this.sourceAddresses)) {
+			assertEquals(InetAddress.getByName("127.0.0.1"),
+					socket.getInetAddress());
+		}
+
+		// The refused attempt must not wait for the attempt delay
+		assertTrue((System.currentTimeMillis() - start) < 5000);
+		assertEquals(2, this.connectionRacer.getAttempts());
+		assertEquals(1, this.connectionRacer.getConnects());
+	}
+
+	@Test
+	public void testPreferenceLearned() throws Exception {
+		try {
+			this.listen("::1");
+		} catch (final IOException e) {
+			assumeNoException(e);
+		}
+
+		assertFalse(this.connectionRacer.isPreferIpv6());
+
+		this.connectionRacer.connect(addresses("127.0.0.1", "::1"),
+				this.serverSocket.getLocalPort(), this.sourceAddresses)
+				.close();
+
+		assertTrue(this.connectionRacer.isPreferIpv6());
+		assertEquals(2, this.connectionRacer.getAttempts());
+
+		// The preferred family is tried first, the IPv4 attempt is never made
+		this.connectionRacer.connect(addresses("127.0.0.1", "::1"),
+				this.serverSocket.getLocalPort(), this.sourceAddresses)
+				.close();
+
+		assertEquals(3, this.connectionRacer.getAttempts());
+	}
+
+	@Test
+	public void testAllRefused() throws Exception {
+		this.listen("127.0.0.1");
+		final int port = this.serverSocket.getLocalPort();
+		this.serverSocket.close();
+
+		try {
+			this.connectionRacer.connect(addresses("127.0.0.1", "127.0.0.2"),
+					port, this.sourceAddresses);
+			fail();
+		} catch (final IOException e) {
+		}
+
+		assertEquals(2, this.connectionRacer.getAttempts());
+		assertEquals(1, this.connectionRacer.getFailures());
+	}
+
+	@Test
+	public void testNoSourceAddress() throws Exception {
+		try {
+			this.connectionRacer.connect(addresses("::1"), 1080,
+					Collections.singletonList(InetAddress.getByName("0.0.0.0")));
+			fail();
+		} catch (final IOException e) {
+			assertEquals("No route to address found using local addresses",
+					e.getMessage());
+		}
+
+		assertEquals(0, this.connectionRacer.getAttempts());
+	}
+
+	private void listen(final String address) throws IOException {
+		this.serverSocket = new ServerSocket();
+		this.serverSocket
+				.bind(new InetSocketAddress(InetAddress.getByName(address), 0));
+	}
+
+	private static InetAddress[] addresses(final String... addresses)
+			throws IOException {
+		final InetAddress[] inetAddresses = new InetAddress[addresses.length];
+		for (int i = 0; i < addresses.length; i++) {
+			inetAddresses[i] = InetAddress.getByName(addresses[i]);
+		}
+		return inetAddresses;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.connect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>DestinationGuard</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class DestinationGuardTest {
+
+	private static final String DESTINATION = "example.com:80";
+
+	private DestinationGuard destinationGuard;
+
+	@Before
+	public void before() {
+		this.destinationGuard = new DestinationGuard();
+		this.destinationGuard.setUnreachableTtl(50);
+	}
+
+	@Test
+	public void testConnectionLimit() throws Exception {
+		this.destinationGuard.setMaxConnections(2);
+
+		final DestinationGuard.Permit first = this.destinationGuard
+				.acquire(DESTINATION);
+		final DestinationGuard.Permit second = this.destinationGuard
+				.acquire(DESTINATION);
+		first.connected();
+		second.connected();
+
+		this.assertUnavailable(DESTINATION);
+		assertEquals(1, this.destinationGuard.getLimited());
+
+		// Other destinations are not affected
+		this.destinationGuard.acquire("example.com:443").release();
+
+		// Releasing twice frees one connection
+		first.release();
+		first.release();
+		this.destinationGuard.acquire(DESTINATION).connected();
+		this.assertUnavailable(DESTINATION);
+	}
+
+	@Test
+	public void testUnreachable() throws Exception {
+		this.destinationGuard.acquire(DESTINATION).failed();
+
+		this.assertUnavailable(DESTINATION);
+		this.assertUnavailable(DESTINATION);
+		assertEquals(2, this.destinationGuard.getFastFailures());
+		assertEquals(1,
+				this.destinationGuard.getUnreachableDestinations().length);
+
+		Thread.sleep(60);
+
+		// One probe is let through while the others fail at once
+		final DestinationGuard.Permit probe = this.destinationGuard
+				.acquire(DESTINATION);
+		this.assertUnavailable(DESTINATION);
+		assertEquals(1, this.destinationGuard.getProbes());
+
+		// A failed probe marks the destination unreachable again
+		probe.failed();
+		this.assertUnavailable(DESTINATION);
+
+		Thread.sleep(60);
+
+		// A successful probe clears the destination
+		final DestinationGuard.Permit recovered = this.destinationGuard
+				.acquire(DESTINATION);
+		recovered.connected();
+		this.destinationGuard.acquire(DESTINATION).connected();
+		assertEquals(0,
+				this.destinationGuard.getUnreachableDestinations().length);
+	}
+
+	@Test
+	public void testBreakerFollowsFailureRate() throws Exception {
+		// A released connection keeps the history of the destination
+		final DestinationGuard.Permit permit = this.destinationGuard
+				.acquire(DESTINATION);
+		permit.connected();
+		permit.release();
+
+		this.destinationGuard.acquire(DESTINATION).failed();
+		this.destinationGuard.acquire(DESTINATION).failed();
+		assertEquals(DestinationGuard.BreakerState.CLOSED,
+				this.destinationGuard.getState(DESTINATION));
+
+		this.destinationGuard.acquire(DESTINATION).failed();
+		assertEquals(DestinationGuard.BreakerState.OPEN,
+				this.destinationGuard.getState(DESTINATION));
+		this.assertUnavailable(DESTINATION);
+
+		Thread.sleep(60);
+
+		this.destinationGuard.acquire(DESTINATION);
+		assertEquals(DestinationGuard.BreakerState.HALF_OPEN,
+				this.destinationGuard.getState(DESTINATION));
+		assertTrue(this.destinationGuard.getDestinationStates()[0]
+				.startsWith(DESTINATION + " state=half-open"));
+	}
+
+	@Test
+	public void testAdaptiveConnectLimit() throws Exception {
+		this.destinationGuard.setUnreachableTtl(0);
+		this.destinationGuard.setMaxConnectLimit(2);
+
+		final DestinationGuard.Permit first = this.destinationGuard
+				.acquire(DESTINATION);
+		final DestinationGuard.Permit second = this.destinationGuard
+				.acquire(DESTINATION);
+		this.assertUnavailable(DESTINATION);
+		assertEquals(1, this.destinationGuard.getShed());
+
+		// A failure halves the limit
+		first.failed();
+		assertEquals(1, this.destinationGuard.getConnectLimit(DESTINATION),
+				0.001);
+		this.assertUnavailable(DESTINATION);
+
+		// A fast connect raises it again
+		second.connected();
+		assertEquals(2, this.destinationGuard.getConnectLimit(DESTINATION),
+				0.001);
+		this.destinationGuard.acquire(DESTINATION);
+		this.destinationGuard.acquire(DESTINATION);
+		this.assertUnavailable(DESTINATION);
+		assertEquals(3, this.destinationGuard.getShed());
+	}
+
+	@Test
+	public void testWithoutUnreachableTtl() throws Exception {
+		this.destinationGuard.setUnreachableTtl(0);
+
+		this.destinationGuard.acquire(DESTINATION).failed();
+		this.destinationGuard.acquire(DESTINATION).failed();
+
+		assertEquals(0, this.destinationGuard.getFastFailures());
+		assertEquals(DestinationGuard.BreakerState.CLOSED,
+				this.destinationGuard.getState(DESTINATION));
+	}
+
+	@Test
+	public void testBreakerOffByDefault() throws Exception {
+		final DestinationGuard destinationGuard = new DestinationGuard();
+
+		destinationGuard.acquire(DESTINATION).failed();
+		destinationGuard.acquire(DESTINATION).connected();
+
+		assertEquals(0, destinationGuard.getFastFailures());
+		assertEquals(DestinationGuard.BreakerState.CLOSED,
+				destinationGuard.getState(DESTINATION));
+	}
+
+	@Test
+	public void testIdleDestinationsAreRemoved() throws Exception {
+		this.destinationGuard.setUnreachableTtl(0);
+
+		final DestinationGuard.Permit permit = this.destinationGuard
+				.acquire(DESTINATION);
+		permit.failed();
+		this.destinationGuard.acquire("example.com:443").connected();
+
+		// The released destination keeps its lowered limit
+		this.destinationGuard.purge(System.nanoTime());
+		assertEquals(2, this.destinationGuard.getDestinations());
+		assertEquals(DestinationGuard.INITIAL_CONNECT_LIMIT / 2,
+				this.destinationGuard.getConnectLimit(DESTINATION), 0.001);
+
+		// Destinations with open connections are kept
+		this.destinationGuard
+				.purge(System.nanoTime() + DestinationGuard.IDLE_TTL);
+		assertEquals(1, this.destinationGuard.getDestinations());
+		assertEquals(DestinationGuard.INITIAL_CONNECT_LIMIT,
+				this.destinationGuard.getConnectLimit(DESTINATION), 0.001);
+	}
+
+	private void assertUnavailable(final String destination) {
+		try {
+			this.destinationGuard.acquire(destination);
+			fail("Expected the destination to be unavailable");
+		} catch (final DestinationUnavailableException e) {
+			// Expected
+		}
+	}
+}
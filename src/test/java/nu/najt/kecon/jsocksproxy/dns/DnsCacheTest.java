@@ -0,0 +1,175 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.dns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>DnsCache</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class DnsCacheTest {
+
+	private Resolver resolver;
+
+	private InetAddress[] addresses;
+
+	@Before
+	public void before() throws Exception {
+		this.resolver = mock(Resolver.class, CALLS_REAL_METHODS);
+		this.addresses = new InetAddress[] {
+				InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 }),
+				InetAddress.getByAddress(new byte[] { 10, 0, 0, 2 }) };
+	}
+
+	@Test
+	public void testHit() throws Exception {
+		when(this.resolver.resolve("example.com")).thenReturn(this.addresses);
+		final DnsCache dnsCache = new DnsCache(this.resolver, 10, 60000,
+				60000);
+
+		assertArrayEquals(this.addresses, dnsCache.resolve("example.com"));
+		assertArrayEquals(this.addresses, dnsCache.resolve("EXAMPLE.com"));
+
+		verify(this.resolver, times(1)).resolve(anyString());
+		assertEquals(1, dnsCache.getHits());
+		assertEquals(1, dnsCache.getMisses());
+		assertEquals(0.5, dnsCache.getHitRate(), 0.0);
+		assertEquals(1, dnsCache.getSize());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		when(this.resolver.resolve("example.com")).thenReturn(this.addresses);
+		final DnsCache dnsCache = new DnsCache(this.resolver, 10, 50, 50);
+
+		dnsCache.resolve("example.com");
+		Thread.sleep(100);
+		dnsCache.resolve("example.com");
+
+		verify(this.resolver, times(2)).resolve("example.com");
+	}
+
+	@Test
+	public void testNegative() throws Exception {
+		when(this.resolver.resolve("unknown.invalid"))
+				.thenThrow(new UnknownHostException("unknown.invalid"));
+		final DnsCache dnsCache = new DnsCache(this.resolver, 10, 60000,
+				60000);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				dnsCache.resolve("unknown.invalid");
+				fail();
+			} catch (final UnknownHostException e) {
+			}
+		}
+
+		verify(this.resolver, times(1)).resolve(anyString());
+		assertEquals(1, dnsCache.getHits());
+	}
+
+	@Test
+	public void testNegativeDisabled() throws Exception {
+		when(this.resolver.resolve("unknown.invalid"))
+				.thenThrow(new UnknownHostException("unknown.invalid"));
+		final DnsCache dnsCache = new DnsCache(this.resolver, 10, 60000, 0);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				dnsCache.resolve("unknown.invalid");
+				fail();
+			} catch (final UnknownHostException e) {
+			}
+		}
+
+		verify(this.resolver, times(2)).resolve(anyString());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		when(this.resolver.resolve(anyString())).thenReturn(this.addresses);
+		final DnsCache dnsCache = new DnsCache(this.resolver, 2, 60000,
+				60000);
+
+		dnsCache.resolve("a.example.com");
+		dnsCache.resolve("b.example.com");
+		dnsCache.resolve("a.example.com");
+		dnsCache.resolve("c.example.com");
+
+		assertEquals(2, dnsCache.getSize());
+		assertEquals(1, dnsCache.getEvictions());
+
+		// b was the least recently used
+		dnsCache.resolve("a.example.com");
+		verify(this.resolver, times(1)).resolve("a.example.com");
+		dnsCache.resolve("b.example.com");
+		verify(this.resolver, times(2)).resolve("b.example.com");
+	}
+
+	@Test
+	public void testResolverTtl() throws Exception {
+		doReturn(new Answer(this.addresses, 50)).when(this.resolver)
+				.lookup("example.com");
+		final DnsCache dnsCache = new DnsCache(this.resolver, 10, 60000,
+				60000);
+
+		assertArrayEquals(this.addresses,
+				dnsCache.query("example.com").get().getAddresses());
+		assertTrue(dnsCache.lookup("example.com").getTtl() <= 50);
+		Thread.sleep(100);
+		dnsCache.resolve("example.com");
+
+		verify(this.resolver, times(2)).lookup("example.com");
+		assertEquals(1, dnsCache.getHits());
+	}
+
+	@Test
+	public void testPutRecordTtl() throws Exception {
+		final DnsCache dnsCache = new DnsCache(this.resolver, 10, 60000,
+				60000);
+
+		dnsCache.put("example.com", this.addresses, 60000);
+		assertArrayEquals(this.addresses, dnsCache.resolve("example.com"));
+
+		// An expired record is not stored
+		dnsCache.put("expired.example.com", this.addresses, 0);
+		when(this.resolver.resolve("expired.example.com"))
+				.thenReturn(this.addresses);
+		dnsCache.resolve("expired.example.com");
+
+		verify(this.resolver, never()).resolve("example.com");
+		verify(this.resolver, times(1)).resolve("expired.example.com");
+	}
+}
@@ -0,0 +1,431 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.dns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>DnsClient</code> against a stub name server on loopback
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class DnsClientTest {
+
+	private static final byte[] IPV4 = { 10, 0, 0, 1 };
+
+	private static final byte[] IPV6 = { 0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0,
+			0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+	private ExecutorService executorService;
+
+	private StubNameServer nameServer;
+
+	private DnsClient dnsClient;
+
+	@Before
+	public void before() throws IOException {
+		this.executorService = Executors.newCachedThreadPool();
+		this.nameServer = new StubNameServer();
+		this.executorService.execute(this.nameServer);
+	}
+
+	@After
+	public void after() {
+		if (this.dnsClient != null) {
+			this.dnsClient.shutdown();
+		}
+		this.nameServer.close();
+		this.executorService.shutdownNow();
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		this.nameServer.ttls.put("example.com", 300);
+		this.startClient(1000, 1);
+
+		final Answer answer = this.dnsClient.lookup("Example.COM");
+
+		assertEquals(2, answer.getAddresses().length);
+		assertArrayEquals(IPV4, answer.getAddresses()[0].getAddress());
+		assertArrayEquals(IPV6, answer.getAddresses()[1].getAddress());
+		assertEquals("Example.COM", answer.getAddresses()[0].getHostName());
+		assertEquals(300000, answer.getTtl());
+		assertEquals(2, this.nameServer.queries.get());
+
+		// Every query is sent from a port of its own
+		assertEquals(2, this.nameServer.sourcePorts.size());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		this.nameServer.ttls.put("example.com", 300);
+		this.nameServer.delay = 200;
+		this.startClient(2000, 1);
+
+		final List<Future<InetAddress[]>> futures = new ArrayList<Future<InetAddress[]>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(this.dnsClient.resolveAsync("example.com"));
+		}
+
+		for (final Future<InetAddress[]> future : futures) {
+			assertArrayEquals(IPV4, future.get(5, TimeUnit.SECONDS)[0]
+					.getAddress());
+		}
+
+		assertEquals(1, this.dnsClient.getLookups());
+		assertEquals(9, this.dnsClient.getCoalesced());
+		assertEquals(2, this.nameServer.queries.get());
+	}
+
+	@Test
+	public void testNameError() throws Exception {
+		this.startClient(1000, 1);
+
+		try {
+			this.dnsClient.lookup("unknown.example.com");
+			fail();
+		} catch (final UnknownHostException e) {
+			assertEquals("unknown.example.com", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		this.nameServer.ttls.put("example.com", 60);
+		this.nameServer.truncate = true;
+		this.startClient(1000, 1);
+
+		final Answer answer = this.dnsClient.lookup("example.com");
+
+		assertEquals(2, answer.getAddresses().length);
+		assertEquals(2, this.nameServer.tcpQueries.get());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		this.nameServer.ttls.put("example.com", 60);
+		this.nameServer.delay = 1000;
+		this.startClient(50, 2);
+
+		final long start = System.currentTimeMillis();
+		try {
+			this.dnsClient.lookup("example.com");
+			fail();
+		} catch (final UnknownHostException e) {
+		}
+
+		assertTrue((System.currentTimeMillis() - start) < 1000);
+	}
+
+	@Test
+	public void testLiteral() throws Exception {
+		this.startClient(1000, 1);
+
+		assertArrayEquals(new byte[] { 127, 0, 0, 1 },
+				this.dnsClient.resolve("127.0.0.1")[0].getAddress());
+		assertEquals(0, this.nameServer.queries.get());
+	}
+
+	@Test
+	public void testDnsCache() throws Exception {
+		this.nameServer.ttls.put("example.com", 1);
+		this.startClient(1000, 1);
+		final DnsCache dnsCache = new DnsCache(this.dnsClient, 10, 60000,
+				60000);
+
+		dnsCache.resolveAsync("example.com").get(5, TimeUnit.SECONDS);
+		dnsCache.resolve("example.com");
+		assertEquals(2, this.nameServer.queries.get());
+
+		// The record TTL of one second is shorter than the configured TTL
+		Thread.sleep(1100);
+		dnsCache.resolve("example.com");
+		assertEquals(4, this.nameServer.queries.get());
+	}
+
+	@Test
+	public void testReadResolvConf() throws Exception {
+		final File file = File.createTempFile("resolv", ".conf");
+		try {
+			Files.write(file.toPath(), Arrays.asList("# comment",
+					"search example.com", "nameserver 192.0.2.53",
+					"nameserver 2001:db8::53", "options ndots:1"),
+					StandardCharsets.US_ASCII);
+
+			assertEquals(
+					Arrays.asList(
+							new InetSocketAddress("192.0.2.53", 53),
+							new InetSocketAddress("2001:db8::53", 53)),
+					DnsClient.readResolvConf(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testReadHosts() throws Exception {
+		final File file = File.createTempFile("hosts", "");
+		try {
+			Files.write(file.toPath(), Arrays.asList("# comment",
+					"10.0.0.1 Example.com www # web", "2001:db8::1 www",
+					"illegal line"), StandardCharsets.US_ASCII);
+
+			final Map<String, InetAddress[]> hosts = DnsClient.readHosts(file);
+
+			assertEquals(2, hosts.size());
+			assertArrayEquals(IPV4, hosts.get("example.com")[0].getAddress());
+			assertEquals(2, hosts.get("www").length);
+			assertArrayEquals(IPV6, hosts.get("www")[1].getAddress());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testHosts() throws Exception {
+		this.startClient(1000, 1);
+		this.dnsClient.setHosts(Collections.singletonMap("intranet",
+				new InetAddress[] { InetAddress.getByAddress(IPV4) }));
+
+		final Answer answer = this.dnsClient.lookup("INTRANET");
+
+		assertArrayEquals(IPV4, answer.getAddresses()[0].getAddress());
+		assertEquals("INTRANET", answer.getAddresses()[0].getHostName());
+		assertEquals(0, this.nameServer.queries.get());
+	}
+
+	private void startClient(final long timeout, final int attempts)
+			throws IOException {
+		this.dnsClient = new DnsClient(
+				Collections.singletonList(this.nameServer.getAddress()),
+				timeout, attempts, this.executorService);
+		this.executorService.execute(this.dnsClient);
+	}
+
+	/**
+	 * Answers A and AAAA queries of the names in the TTL map, other names
+	 * do not exist
+	 */
+	private class StubNameServer implements Runnable {
+
+		private DatagramSocket socket;
+
+		private ServerSocket serverSocket;
+
+		private final Map<String, Integer> ttls = new ConcurrentHashMap<String, Integer>();
+
+		private final AtomicInteger queries = new AtomicInteger();
+
+		private final AtomicInteger tcpQueries = new AtomicInteger();
+
+		private final Set<Integer> sourcePorts = Collections
+				.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+		private volatile long delay = 0;
+
+		private volatile boolean truncate = false;
+
+		private StubNameServer() throws IOException {
+			// The TCP port may be taken; retry with another UDP port
+			for (int attempt = 1;; attempt++) {
+				final DatagramSocket datagramSocket = new DatagramSocket(0,
+						InetAddress.getLoopbackAddress());
+				try {
+					this.serverSocket = new ServerSocket(
+							datagramSocket.getLocalPort(), 10,
+							InetAddress.getLoopbackAddress());
+					this.socket = datagramSocket;
+					return;
+				} catch (final BindException e) {
+					datagramSocket.close();
+					if (attempt == 10) {
+						throw e;
+					}
+				}
+			}
+		}
+
+		private InetSocketAddress getAddress() {
+			return (InetSocketAddress) this.socket.getLocalSocketAddress();
+		}
+
+		@Override
+		public void run() {
+			DnsClientTest.this.executorService.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					StubNameServer.this.serveTcp();
+				}
+			});
+
+			final byte[] buffer = new byte[512];
+
+			try {
+				while (true) {
+					final DatagramPacket packet = new DatagramPacket(buffer,
+							buffer.length);
+					this.socket.receive(packet);
+					this.queries.incrementAndGet();
+					this.sourcePorts.add(packet.getPort());
+
+					final byte[] response = this.answer(Arrays.copyOf(
+							packet.getData(), packet.getLength()),
+							this.truncate);
+					final DatagramPacket reply = new DatagramPacket(response,
+							response.length, packet.getSocketAddress());
+
+					if (this.delay > 0) {
+						DnsClientTest.this.executorService
+								.execute(new Runnable() {
+
+									@Override
+									public void run() {
+										try {
+											Thread.sleep(
+													StubNameServer.this.delay);
+											StubNameServer.this.socket
+													.send(reply);
+										} catch (final InterruptedException
+												| IOException e) {
+										}
+									}
+								});
+					} else {
+						this.socket.send(reply);
+					}
+				}
+			} catch (final SocketException e) {
+				// Closed
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void serveTcp() {
+			try {
+				while (true) {
+					try (Socket client = this.serverSocket.accept()) {
+						this.tcpQueries.incrementAndGet();
+
+						final DataInputStream inputStream = new DataInputStream(
+								client.getInputStream());
+						final byte[] query = new byte[inputStream
+								.readUnsignedShort()];
+						inputStream.readFully(query);
+
+						final byte[] response = this.answer(query, false);
+						final DataOutputStream outputStream = new DataOutputStream(
+								client.getOutputStream());
+						outputStream.writeShort(response.length);
+						outputStream.write(response);
+						outputStream.flush();
+					}
+				}
+			} catch (final IOException e) {
+				// Closed
+			}
+		}
+
+		private byte[] answer(final byte[] query, final boolean truncated) {
+			final ByteBuffer request = ByteBuffer.wrap(query);
+			request.position(12);
+
+			final StringBuilder name = new StringBuilder();
+			int length;
+			while ((length = request.get()) != 0) {
+				if (name.length() > 0) {
+					name.append('.');
+				}
+				final byte[] label = new byte[length];
+				request.get(label);
+				name.append(new String(label, StandardCharsets.US_ASCII));
+			}
+			final int type = request.getShort();
+			request.getShort();
+			final int questionEnd = request.position();
+
+			final Integer ttl = this.ttls.get(name.toString());
+			final boolean answered = (ttl != null) && !truncated;
+
+			final ByteBuffer response = ByteBuffer.allocate(512);
+			response.putShort(request.getShort(0));
+			response.putShort((short) (0x8180 | (truncated ? 0x0200 : 0)
+					| ((ttl == null) ? 3 : 0)));
+			response.putShort((short) 1);
+			response.putShort((short) (answered ? 1 : 0));
+			response.putShort((short) 0);
+			response.putShort((short) 0);
+			response.put(query, 12, questionEnd - 12);
+
+			if (answered) {
+				final byte[] address = (type == 1) ? IPV4 : IPV6;
+				response.putShort((short) 0xC00C);
+				response.putShort((short) type);
+				response.putShort((short) 1);
+				response.putInt(ttl);
+				response.putShort((short) address.length);
+				response.put(address);
+			}
+
+			return Arrays.copyOf(response.array(), response.position());
+		}
+
+		private void close() {
+			this.socket.close();
+			try {
+				this.serverSocket.close();
+			} catch (final IOException e) {
+			}
+		}
+	}
+}
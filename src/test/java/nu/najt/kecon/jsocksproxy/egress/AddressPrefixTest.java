@@ -0,0 +1,132 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Testing <code>AddressPrefix</code> and prefix source addresses
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class AddressPrefixTest {
+
+	@Test
+	public void testParse() throws UnknownHostException {
+		final AddressPrefix prefix = AddressPrefix
+				.parse("2001:db8:1:2:ffff::1/64");
+
+		assertEquals(64, prefix.getLength());
+		assertEquals(InetAddress.getByName("2001:db8:1:2::"),
+				prefix.getNetworkAddress());
+		assertEquals("2001:db8:1:2:0:0:0:0/64", prefix.toString());
+		assertEquals(AddressPrefix.parse("2001:db8:1:2::/64"), prefix);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseWithoutLength() throws UnknownHostException {
+		AddressPrefix.parse("2001:db8::");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseIllegalLength() throws UnknownHostException {
+		AddressPrefix.parse("2001:db8::/129");
+	}
+
+	@Test(expected = UnknownHostException.class)
+	public void testParseHostname() throws UnknownHostException {
+		AddressPrefix.parse("localhost/8");
+	}
+
+	@Test
+	public void testRandom() throws UnknownHostException {
+		final AddressPrefix prefix = AddressPrefix.parse("2001:db8:1:2::/64");
+		final byte[] network = prefix.getNetworkAddress().getAddress();
+		final Set<InetAddress> addresses = new HashSet<InetAddress>();
+
+		for (int i = 0; i < 1000; i++) {
+			final InetAddress address = prefix.random();
+			assertTrue(address instanceof Inet6Address);
+			assertTrue(Arrays.equals(Arrays.copyOf(network, 8),
+					Arrays.copyOf(address.getAddress(), 8)));
+			addresses.add(address);
+		}
+
+		assertEquals(1000, addresses.size());
+	}
+
+	@Test
+	public void testDerive() throws UnknownHostException {
+		final AddressPrefix prefix = AddressPrefix.parse("2001:db8:1:2::/64");
+		final byte[] client = InetAddress.getByName("192.0.2.1").getAddress();
+		final byte[] other = InetAddress.getByName("192.0.2.2").getAddress();
+
+		assertEquals(prefix.derive(client), prefix.derive(client));
+		assertNotEquals(prefix.derive(client), prefix.derive(other));
+	}
+
+	@Test
+	public void testNarrowIpv4Prefix() throws UnknownHostException {
+		final AddressPrefix prefix = AddressPrefix.parse("192.0.2.5/31");
+
+		for (int i = 0; i < 100; i++) {
+			final InetAddress address = prefix.random();
+			assertTrue(address instanceof Inet4Address);
+			// The address with all host bits zero is never drawn
+			assertEquals(InetAddress.getByName("192.0.2.5"), address);
+		}
+
+		assertEquals(InetAddress.getByName("192.0.2.5"),
+				AddressPrefix.parse("192.0.2.5/32").random());
+	}
+
+	@Test
+	public void testSourceAddress() throws UnknownHostException {
+		final AddressPrefix prefix = AddressPrefix.parse("2001:db8:1:2::/64");
+		final SourceAddress sourceAddress = new SourceAddress(prefix, 1,
+				true);
+		final InetAddress client = InetAddress.getByName("192.0.2.1");
+
+		assertSame(prefix, sourceAddress.getPrefix());
+		assertEquals(prefix.derive(client.getAddress()),
+				sourceAddress.getBindAddress(client));
+		assertTrue(sourceAddress.toString()
+				.startsWith("2001:db8:1:2:0:0:0:0/64 weight=1"));
+
+		sourceAddress.setPerClient(false);
+		assertNotEquals(sourceAddress.getBindAddress(client),
+				sourceAddress.getBindAddress(client));
+
+		// The prefix is matched to IPv6 destinations by its network address
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(sourceAddress), new FirstAddressStrategy());
+		assertSame(sourceAddress, egressSelector.select(client,
+				InetAddress.getByName("2001:db8:9::1"), 80));
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>ConsistentHashStrategy</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class ConsistentHashStrategyTest {
+
+	private static final int CLIENTS = 10000;
+
+	private final List<SourceAddress> sourceAddresses = new ArrayList<SourceAddress>();
+
+	private final List<InetAddress> clients = new ArrayList<InetAddress>();
+
+	private InetAddress destination;
+
+	@Before
+	public void before() throws UnknownHostException {
+		for (int i = 1; i <= 4; i++) {
+			this.sourceAddresses.add(new SourceAddress(
+					InetAddress.getByName("10.0.0." + i), 1));
+		}
+
+		for (int i = 0; i < CLIENTS; i++) {
+			this.clients.add(InetAddress.getByAddress(new byte[] {
+					(byte) 172, 16, (byte) (i >> 8), (byte) i }));
+		}
+
+		this.destination = InetAddress.getByName("192.0.2.1");
+	}
+
+	@Test
+	public void testSticky() throws Exception {
+		final ConsistentHashStrategy strategy = new ConsistentHashStrategy(
+				true, false);
+		final InetAddress client = this.clients.get(0);
+
+		final SourceAddress selected = strategy.select(this.sourceAddresses,
+				client, this.destination, 80);
+
+		for (int i = 0; i < 10; i++) {
+			assertSame(selected, strategy.select(this.sourceAddresses, client,
+					InetAddress.getByName("192.0.2." + i), 443));
+		}
+	}
+
+	@Test
+	public void testDestination() throws Exception {
+		final ConsistentHashStrategy strategy = new ConsistentHashStrategy(
+				false, true);
+
+		final SourceAddress selected = strategy.select(this.sourceAddresses,
+				this.clients.get(0), this.destination, 80);
+
+		for (final InetAddress client : this.clients.subList(0, 100)) {
+			assertSame(selected, strategy.select(this.sourceAddresses, client,
+					this.destination, 80));
+		}
+	}
+
+	@Test
+	public void testSpread() throws Exception {
+		final Map<InetAddress, SourceAddress> mapping = this
+				.map(new ConsistentHashStrategy(true, true));
+
+		final Map<SourceAddress, Integer> counts = new HashMap<SourceAddress, Integer>();
+		for (final SourceAddress sourceAddress : mapping.values()) {
+			final Integer count = counts.get(sourceAddress);
+			counts.put(sourceAddress, (count != null) ? count + 1 : 1);
+		}
+
+		assertEquals(4, counts.size());
+		for (final int count : counts.values()) {
+			assertTrue(Integer.toString(count),
+					Math.abs(count - (CLIENTS / 4)) < (CLIENTS / 20));
+		}
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		final ConsistentHashStrategy strategy = new ConsistentHashStrategy(
+				true, false);
+		final Map<InetAddress, SourceAddress> before = this.map(strategy);
+
+		final SourceAddress removed = this.sourceAddresses.remove(2);
+		final Map<InetAddress, SourceAddress> after = this.map(strategy);
+
+		for (final InetAddress client : this.clients) {
+			if (before.get(client) != removed) {
+				assertSame(before.get(client), after.get(client));
+			} else {
+				assertNotEquals(removed, after.get(client));
+			}
+		}
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		final ConsistentHashStrategy strategy = new ConsistentHashStrategy(
+				true, false);
+		final Map<InetAddress, SourceAddress> before = this.map(strategy);
+
+		final SourceAddress added = new SourceAddress(
+				InetAddress.getByName("10.0.0.5"), 1);
+		this.sourceAddresses.add(added);
+		final Map<InetAddress, SourceAddress> after = this.map(strategy);
+
+		int moved = 0;
+		for (final InetAddress client : this.clients) {
+			if (after.get(client) != before.get(client)) {
+				assertSame(added, after.get(client));
+				moved++;
+			}
+		}
+
+		assertTrue(Integer.toString(moved),
+				Math.abs(moved - (CLIENTS / 5)) < (CLIENTS / 20));
+	}
+
+	@Test
+	public void testWeight() throws Exception {
+		this.sourceAddresses.get(0).setWeight(3);
+		this.sourceAddresses.get(3).setWeight(0);
+
+		final Map<InetAddress, SourceAddress> mapping = this
+				.map(new ConsistentHashStrategy(true, false));
+
+		int heavy = 0;
+		for (final SourceAddress sourceAddress : mapping.values()) {
+			assertNotEquals(this.sourceAddresses.get(3), sourceAddress);
+			if (sourceAddress == this.sourceAddresses.get(0)) {
+				heavy++;
+			}
+		}
+
+		// Weight 3 of a total weight of 5
+		assertTrue(Integer.toString(heavy),
+				Math.abs(heavy - (CLIENTS * 3 / 5)) < (CLIENTS / 20));
+	}
+
+	private Map<InetAddress, SourceAddress> map(
+			final ConsistentHashStrategy strategy) {
+		final Map<InetAddress, SourceAddress> mapping = new HashMap<InetAddress, SourceAddress>();
+
+		for (final InetAddress client : this.clients) {
+			mapping.put(client, strategy.select(this.sourceAddresses, client,
+					this.destination, 80));
+		}
+
+		return mapping;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+import nu.najt.kecon.jsocksproxy.utils.TunnelListener;
+
+/**
+ * Testing <code>EgressSelector</code> and the egress strategies
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class EgressSelectorTest {
+
+	private SourceAddress first;
+
+	private SourceAddress second;
+
+	private SourceAddress third;
+
+	private SourceAddress ipv6;
+
+	private InetAddress client;
+
+	private InetAddress destination;
+
+	@Before
+	public void before() throws UnknownHostException {
+		this.first = new SourceAddress(InetAddress.getByName("10.0.0.1"), 1);
+		this.second = new SourceAddress(InetAddress.getByName("10.0.0.2"), 2);
+		this.third = new SourceAddress(InetAddress.getByName("10.0.0.3"), 0);
+		this.ipv6 = new SourceAddress(InetAddress.getByName("2001:db8::1"),
+				1);
+		this.client = InetAddress.getByName("192.168.0.10");
+		this.destination = InetAddress.getByName("192.0.2.1");
+	}
+
+	@Test
+	public void testAddressFamily() throws Exception {
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(this.first, this.ipv6),
+				new RoundRobinStrategy());
+
+		for (int i = 0; i < 3; i++) {
+			assertSame(this.first, egressSelector.select(this.client,
+					this.destination, 80));
+			assertSame(this.ipv6, egressSelector.select(this.client,
+					InetAddress.getByName("2001:db8::80"), 80));
+		}
+
+		assertNull(new EgressSelector(Collections.singletonList(this.ipv6),
+				new RoundRobinStrategy()).select(this.client,
+						this.destination, 80));
+	}
+
+	@Test
+	public void testFirstAddress() throws Exception {
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(this.first, this.second),
+				new FirstAddressStrategy());
+
+		assertSame(this.first,
+				egressSelector.select(this.client, this.destination, 80));
+		assertSame(this.first,
+				egressSelector.select(this.client, this.destination, 80));
+	}
+
+	@Test
+	public void testRoundRobin() throws Exception {
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(this.first, this.second, this.third),
+				new RoundRobinStrategy());
+
+		final Map<SourceAddress, Integer> counts = this
+				.count(egressSelector, 300);
+
+		assertEquals(100, (int) counts.get(this.first));
+		assertEquals(100, (int) counts.get(this.second));
+		assertEquals(100, (int) counts.get(this.third));
+	}
+
+	@Test
+	public void testLeastConnections() throws Exception {
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(this.first, this.second),
+				new LeastConnectionsStrategy());
+
+		this.first.connected();
+		this.first.connected();
+		final TunnelListener tunnelListener = this.second.connected();
+
+		assertSame(this.second,
+				egressSelector.select(this.client, this.destination, 80));
+
+		tunnelListener.closed(new TransferStatistics(),
+				new TransferStatistics());
+
+		assertSame(this.second,
+				egressSelector.select(this.client, this.destination, 80));
+		assertEquals(0, this.second.getActive());
+	}
+
+	@Test
+	public void testWeighted() throws Exception {
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(this.first, this.second, this.third),
+				new WeightedStrategy());
+
+		final Map<SourceAddress, Integer> counts = this
+				.count(egressSelector, 300);
+
+		assertEquals(100, (int) counts.get(this.first));
+		assertEquals(200, (int) counts.get(this.second));
+		assertNull(counts.get(this.third));
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		final TransferStatistics upstream = new TransferStatistics();
+		upstream.record(100);
+		final TransferStatistics downstream = new TransferStatistics();
+		downstream.record(1000);
+		downstream.record(500);
+
+		final TunnelListener tunnelListener = this.first.connected();
+		assertEquals(1, this.first.getActive());
+
+		tunnelListener.closed(upstream, downstream);
+
+		assertEquals(0, this.first.getActive());
+		assertEquals(1, this.first.getConnections());
+		assertEquals(100, this.first.getBytesSent());
+		assertEquals(1500, this.first.getBytesReceived());
+		assertEquals(
+				"10.0.0.1 weight=1 active=0 connections=1 sent=100 received=1500",
+				this.first.toString());
+	}
+
+	private Map<SourceAddress, Integer> count(
+			final EgressSelector egressSelector, final int connections) {
+		final Map<SourceAddress, Integer> counts = new HashMap<SourceAddress, Integer>();
+
+		for (int i = 0; i < connections; i++) {
+			final SourceAddress sourceAddress = egressSelector
+					.select(this.client, this.destination, 80);
+			final Integer count = counts.get(sourceAddress);
+			counts.put(sourceAddress, (count != null) ? count + 1 : 1);
+		}
+
+		return counts;
+	}
+}
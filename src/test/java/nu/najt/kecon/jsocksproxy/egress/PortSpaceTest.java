@@ -0,0 +1,188 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.egress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>PortSpace</code> over loopback
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class PortSpaceTest {
+
+	private static final int FIRST_PORT = 23456;
+
+	private static final int LAST_PORT = 23459;
+
+	private final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+
+	private InetAddress source;
+
+	private ServerSocket firstServer;
+
+	private ServerSocket secondServer;
+
+	@Before
+	public void before() throws IOException {
+		this.source = InetAddress.getByName("127.0.0.1");
+		this.firstServer = new ServerSocket(0, 50, this.source);
+		this.secondServer = new ServerSocket(0, 50, this.source);
+	}
+
+	@After
+	public void after() throws IOException {
+		for (final SocketChannel channel : this.channels) {
+			channel.close();
+		}
+		this.firstServer.close();
+		this.secondServer.close();
+	}
+
+	@Test
+	public void testManaged() throws Exception {
+		final PortSpace portSpace = new PortSpace(FIRST_PORT, LAST_PORT, true);
+		final InetSocketAddress first = address(this.firstServer);
+		final InetSocketAddress second = address(this.secondServer);
+
+		for (int i = 0; i < 4; i++) {
+			this.open(portSpace, first);
+		}
+		assertEquals(1.0, portSpace.getPressure(this.source, first), 0.001);
+		assertEquals(0, portSpace.getPressure(this.source, second), 0.001);
+
+		try {
+			this.open(portSpace, first);
+			fail();
+		} catch (final BindException e) {
+		}
+		assertEquals(1, portSpace.getExhaustions());
+
+		// The ports are shared with connections to another destination
+		for (int i = 0; i < 4; i++) {
+			final int port = this.open(portSpace, second).socket()
+					.getLocalPort();
+			assertTrue((port >= FIRST_PORT) && (port <= LAST_PORT));
+		}
+
+		// Reset the connection so the 4-tuple can be used again at once
+		final SocketChannel channel = this.channels.get(0);
+		channel.socket().setSoLinger(true, 0);
+		channel.close();
+		portSpace.release(channel);
+		portSpace.release(channel);
+		assertEquals(0.75, portSpace.getPressure(this.source, first), 0.001);
+
+		this.open(portSpace, first);
+		assertEquals(1.0, portSpace.getPressure(), 0.001);
+	}
+
+	@Test
+	public void testKernel() throws Exception {
+		final PortSpace portSpace = new PortSpace(1000, 1999, false);
+		final InetSocketAddress first = address(this.firstServer);
+		final InetSocketAddress second = address(this.secondServer);
+
+		this.open(portSpace, first);
+		this.open(portSpace, second);
+
+		// The kernel reserves the port for the source address
+		assertEquals(0.002, portSpace.getPressure(this.source, first), 0.0001);
+		assertEquals(0.002, portSpace.getPressure(this.source), 0.0001);
+
+		for (final SocketChannel channel : this.channels) {
+			portSpace.release(channel);
+		}
+		assertEquals(0, portSpace.getPressure(), 0.0001);
+	}
+
+	@Test
+	public void testEgressSelector() throws Exception {
+		final PortSpace portSpace = new PortSpace(FIRST_PORT, LAST_PORT, true);
+		final SourceAddress loopback = new SourceAddress(this.source, 1);
+		final SourceAddress other = new SourceAddress(
+				InetAddress.getByName("127.0.0.2"), 1);
+		final EgressSelector egressSelector = new EgressSelector(
+				Arrays.asList(loopback, other), new FirstAddressStrategy(),
+				portSpace);
+		final InetSocketAddress first = address(this.firstServer);
+
+		for (int i = 0; i < 4; i++) {
+			assertSame(loopback, egressSelector.select(null,
+					first.getAddress(), first.getPort()));
+			this.open(portSpace, first);
+		}
+
+		assertSame(other, egressSelector.select(null, first.getAddress(),
+				first.getPort()));
+	}
+
+	@Test
+	public void testReadEphemeralRange() throws Exception {
+		final File file = File.createTempFile("ip_local_port_range", "");
+		try {
+			Files.write(file.toPath(), "32768\t60999\n"
+					.getBytes(StandardCharsets.US_ASCII));
+			assertArrayEquals(new int[] { 32768, 60999 },
+					PortSpace.readEphemeralRange(file));
+
+			Files.write(file.toPath(),
+					"32768".getBytes(StandardCharsets.US_ASCII));
+			assertNull(PortSpace.readEphemeralRange(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private SocketChannel open(final PortSpace portSpace,
+			final InetSocketAddress destination) throws Exception {
+		final SocketChannel channel = portSpace.open(this.source,
+				destination);
+		this.channels.add(channel);
+
+		while (!channel.finishConnect()) {
+			Thread.sleep(1);
+		}
+
+		return channel;
+	}
+
+	private static InetSocketAddress address(final ServerSocket serverSocket) {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Testing <code>LatencyHistogram</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class LatencyHistogramTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testBuckets() {
+		int previous = -1;
+
+		for (long value = 0; value < (1L << 41); value += 1 + (value / 7)) {
+			final int bucket = LatencyHistogram.bucket(value);
+			final long highest = LatencyHistogram.highestValue(bucket);
+
+			assertTrue(bucket >= previous);
+			assertTrue(highest >= value);
+			assertTrue(highest <= (value + (value / 32)));
+
+			previous = bucket;
+		}
+
+		// Longer latencies are counted in the highest bucket
+		assertEquals(LatencyHistogram.bucket((1L << 41) - 1),
+				LatencyHistogram.bucket(Long.MAX_VALUE));
+		assertEquals(0, LatencyHistogram.bucket(-1));
+	}
+
+	@Test
+	public void testPercentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L, 0);
+		}
+
+		final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot(0);
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500000, snapshot.getValueAtPercentile(50), 500000 / 32);
+		assertEquals(990000, snapshot.getValueAtPercentile(99), 990000 / 32);
+		assertEquals(999000, snapshot.getValueAtPercentile(99.9),
+				999000 / 32);
+		assertEquals(1000000, snapshot.getMax(), 1000000 / 32);
+		assertEquals(0, new LatencyHistogram.Snapshot()
+				.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void testRollingWindow() {
+		final LatencyHistogram histogram = new LatencyHistogram(3, 1,
+				TimeUnit.SECONDS);
+
+		histogram.record(100, 0);
+		histogram.record(100, SECOND);
+		assertEquals(2, histogram.getSnapshot(SECOND).getCount());
+		assertEquals(2, histogram.getSnapshot(3 * SECOND - 1).getCount());
+
+		// The first interval has passed out of the window
+		assertEquals(1, histogram.getSnapshot(3 * SECOND).getCount());
+
+		// and is cleared when reused
+		histogram.record(200, 3 * SECOND);
+		final LatencyHistogram.Snapshot snapshot = histogram
+				.getSnapshot(3 * SECOND);
+		assertEquals(2, snapshot.getCount());
+		assertEquals(200, snapshot.getMax(), 200 / 32);
+
+		assertEquals(0, histogram.getSnapshot(10 * SECOND).getCount());
+	}
+
+	@Test
+	public void testAddSnapshots() {
+		final LatencyHistogram first = new LatencyHistogram();
+		final LatencyHistogram second = new LatencyHistogram();
+		first.record(1000, 0);
+		second.record(1000000, 0);
+
+		final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+		snapshot.add(first.getSnapshot(0));
+		snapshot.add(second.getSnapshot(0));
+
+		assertEquals(2, snapshot.getCount());
+		assertEquals(1000, snapshot.getValueAtPercentile(50), 1000 / 32);
+		assertEquals(1000000, snapshot.getMax(), 1000000 / 32);
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.JSocksProxyMBean;
+import nu.najt.kecon.jsocksproxy.socks5.Status;
+
+/**
+ * Testing <code>MetricsEndpoint</code> and <code>PrometheusWriter</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class MetricsEndpointTest {
+
+	private MetricsRegistry metricsRegistry;
+
+	private JSocksProxyMBean proxy;
+
+	private MetricsEndpoint metricsEndpoint;
+
+	@Before
+	public void before() throws IOException {
+		this.metricsRegistry = new MetricsRegistry(null);
+		this.proxy = mock(JSocksProxyMBean.class);
+		this.metricsEndpoint = new MetricsEndpoint(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				this.metricsRegistry, this.proxy);
+
+		final Thread thread = new Thread(this.metricsEndpoint);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void after() {
+		this.metricsEndpoint.shutdown();
+	}
+
+	@Test
+	public void testScrape() throws Exception {
+		final ListenerMetrics listenerMetrics = this.metricsRegistry
+				.getListenerMetrics(new InetSocketAddress(
+						InetAddress.getByName("127.0.0.1"), 1080));
+		listenerMetrics.accepted();
+		listenerMetrics.accepted();
+		listenerMetrics.handshakeFailed(0x05,
+				Status.CONNECTION_REFUSED_BY_DESTINATION_HOST.getValue());
+		listenerMetrics.getLatencyHistogram(Phase.CONNECT).record(1000000);
+		when(this.proxy.getRejectedConnections()).thenReturn(3L);
+
+		final HttpURLConnection connection = this.open("/metrics");
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(connection.getContentType().startsWith("text/plain"));
+
+		final String body = read(connection.getInputStream());
+		assertTrue(body.contains("# TYPE jsocksproxy_accepted_connections_total counter\n"
+				+ "jsocksproxy_accepted_connections_total{listener=\"127.0.0.1:1080\"} 2\n"));
+		assertTrue(body.contains(
+				"jsocksproxy_handshake_failures_total{listener=\"127.0.0.1:1080\",version=\"5\",code=\"0x05\"} 1\n"));
+		assertTrue(body.contains("# TYPE jsocksproxy_latency_seconds summary\n"));
+		assertTrue(body.contains(
+				"jsocksproxy_latency_seconds{listener=\"127.0.0.1:1080\",phase=\"connect\",quantile=\"0.99\"} 0.001"));
+		assertTrue(body.contains(
+				"jsocksproxy_latency_seconds_sum{listener=\"127.0.0.1:1080\",phase=\"connect\"} 0.001000000\n"
+						+ "jsocksproxy_latency_seconds_count{listener=\"127.0.0.1:1080\",phase=\"connect\"} 1\n"));
+		assertTrue(body.contains("jsocksproxy_rejected_connections_total 3\n"));
+
+		// The buffers are reused by the next scrape
+		assertEquals(body, read(this.open("/metrics").getInputStream()));
+	}
+
+	@Test
+	public void testUnknownRequests() throws Exception {
+		assertEquals(404, this.open("/admin").getResponseCode());
+
+		final HttpURLConnection connection = this.open("/metrics");
+		connection.setRequestMethod("DELETE");
+		assertEquals(405, connection.getResponseCode());
+	}
+
+	@Test
+	public void testWriter() {
+		final PrometheusWriter writer = new PrometheusWriter();
+
+		writer.sample("a").label("name", "x\"y\\z\n").value(1);
+		writer.sample("b").seconds(1500);
+		writer.sample("c").seconds(12000000000L);
+		writer.sample("d").value(Double.NaN);
+
+		assertEquals("a{name=\"x\\\"y\\\\z\\n\"} 1\n" + "b 0.000001500\n"
+				+ "c 12.000000000\n" + "d NaN\n", writer.toString());
+
+		writer.reset();
+		assertEquals(0, writer.length());
+	}
+
+	private HttpURLConnection open(final String path) throws IOException {
+		return (HttpURLConnection) new URL("http", "127.0.0.1",
+				this.metricsEndpoint.getLocalPort(), path).openConnection();
+	}
+
+	private static String read(final InputStream inputStream)
+			throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		final byte[] buf = new byte[4096];
+		int length;
+		while ((length = inputStream.read(buf)) >= 0) {
+			outputStream.write(buf, 0, length);
+		}
+		inputStream.close();
+		return new String(outputStream.toByteArray(),
+				StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.socks5.Status;
+import nu.najt.kecon.jsocksproxy.utils.TransferStatistics;
+
+/**
+ * Testing <code>MetricsRegistry</code> and <code>ListenerMetrics</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class MetricsRegistryTest {
+
+	private MBeanServer mBeanServer;
+
+	private MetricsRegistry metricsRegistry;
+
+	private InetSocketAddress first;
+
+	private InetSocketAddress second;
+
+	@Before
+	public void before() {
+		this.mBeanServer = MBeanServerFactory.newMBeanServer();
+		this.metricsRegistry = new MetricsRegistry(this.mBeanServer);
+		this.first = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				1080);
+		this.second = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				1081);
+	}
+
+	@After
+	public void after() {
+		this.metricsRegistry.unregisterAll();
+	}
+
+	@Test
+	public void testListenerMetrics() {
+		final ListenerMetrics listenerMetrics = this.metricsRegistry
+				.getListenerMetrics(this.first);
+		assertSame(listenerMetrics,
+				this.metricsRegistry.getListenerMetrics(this.first));
+
+		listenerMetrics.accepted();
+		listenerMetrics.accepted();
+		listenerMetrics.accepted();
+		assertEquals(3, listenerMetrics.getActiveHandshakes());
+
+		listenerMetrics.handshakeFailed(0x05,
+				Status.HOST_UNREACHABLE.getValue());
+		listenerMetrics.handshakeEnded();
+		listenerMetrics.handshakeFailed(0x04, 0x5b);
+		listenerMetrics.handshakeEnded();
+		listenerMetrics.tunnelOpened();
+		assertEquals(0, listenerMetrics.getActiveHandshakes());
+		assertEquals(1, listenerMetrics.getActiveTunnels());
+
+		final TransferStatistics upstream = new TransferStatistics();
+		final TransferStatistics downstream = new TransferStatistics();
+		upstream.record(100);
+		downstream.record(2000);
+		listenerMetrics.closed(upstream, downstream);
+
+		assertEquals(0, listenerMetrics.getActiveTunnels());
+		assertEquals(1, listenerMetrics.getTunnels());
+		assertEquals(100, listenerMetrics.getBytesUpstream());
+		assertEquals(2000, listenerMetrics.getBytesDownstream());
+		assertEquals(2, listenerMetrics.getHandshakeFailures());
+		assertEquals(1, listenerMetrics.getHandshakeFailures(0x05,
+				Status.HOST_UNREACHABLE.getValue()));
+		assertArrayEquals(
+				new String[] { "socks4 0x5b=1", "socks5 host-unreachable=1" },
+				listenerMetrics.getHandshakeFailuresByStatus());
+	}
+
+	@Test
+	public void testSums() {
+		this.metricsRegistry.getListenerMetrics(this.first).accepted();
+		this.metricsRegistry.getListenerMetrics(this.second).accepted();
+		this.metricsRegistry.getListenerMetrics(this.second).tunnelOpened();
+
+		assertEquals(2, this.metricsRegistry.getAcceptedConnections());
+		assertEquals(1, this.metricsRegistry.getActiveHandshakes());
+		assertEquals(1, this.metricsRegistry.getActiveTunnels());
+	}
+
+	@Test
+	public void testMBeans() throws Exception {
+		final ListenerMetrics listenerMetrics = this.metricsRegistry
+				.getListenerMetrics(this.first);
+		listenerMetrics.accepted();
+
+		final ObjectName name = new ObjectName(MetricsRegistry.DOMAIN
+				+ ":type=Listener,name="
+				+ ObjectName.quote(listenerMetrics.getAddress()));
+		assertTrue(this.mBeanServer.isRegistered(name));
+		assertEquals(1L,
+				this.mBeanServer.getAttribute(name, "AcceptedConnections"));
+
+		listenerMetrics.getLatencyHistogram(Phase.CONNECT).record(2000000);
+		final ObjectName latencyName = new ObjectName(MetricsRegistry.DOMAIN
+				+ ":type=Latency,listener="
+				+ ObjectName.quote(listenerMetrics.getAddress())
+				+ ",name=connect");
+		assertEquals(1L, this.mBeanServer.getAttribute(latencyName, "Count"));
+		assertEquals(2000.0, (Double) this.mBeanServer
+				.getAttribute(latencyName, "P99"), 2000.0 / 32);
+
+		// Listen addresses no longer configured are removed
+		this.metricsRegistry.retain(Collections.singleton(this.second));
+		assertFalse(this.mBeanServer.isRegistered(name));
+		assertFalse(this.mBeanServer.isRegistered(latencyName));
+		assertTrue(this.metricsRegistry.getListenerMetrics().isEmpty());
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.utils.BufferSizing;
+
+/**
+ * Testing <code>ChannelRelay</code> on the calling thread
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class ChannelRelayTest {
+
+	private static final byte[] TEST_BYTES = new byte[100000];
+
+	static {
+		new Random(1l).nextBytes(TEST_BYTES);
+	}
+
+	private ServerSocketChannel serverSocketChannel;
+
+	@Before
+	public void before() throws IOException {
+		this.serverSocketChannel = ServerSocketChannel.open();
+		this.serverSocketChannel.bind(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void after() throws IOException {
+		this.serverSocketChannel.close();
+	}
+
+	@Test
+	public void testRun() throws Exception {
+		// client <-> internal (relayed) external <-> server
+		final SocketChannel client = this.connect();
+		final SocketChannel internal = this.serverSocketChannel.accept();
+		final SocketChannel external = this.connect();
+		final SocketChannel server = this.serverSocketChannel.accept();
+
+		final ChannelRelay channelRelay = new ChannelRelay(internal, external,
+				BufferSizing.DEFAULT, true);
+
+		final Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					channelRelay.run();
+				} catch (final IOException e) {
+				}
+			}
+		};
+		thread.start();
+
+		client.socket().getOutputStream().write(TEST_BYTES);
+		client.shutdownOutput();
+
+		final DataInputStream serverInput = new DataInputStream(
+				server.socket().getInputStream());
+		final byte[] received = new byte[TEST_BYTES.length];
+		serverInput.readFully(received);
+		assertArrayEquals(TEST_BYTES, received);
+		assertEquals(-1, serverInput.read());
+
+		// The other direction remains open after the half-close
+		server.socket().getOutputStream().write(TEST_BYTES, 0, 1000);
+		server.shutdownOutput();
+
+		final DataInputStream clientInput = new DataInputStream(
+				client.socket().getInputStream());
+		final byte[] response = new byte[1000];
+		clientInput.readFully(response);
+		assertEquals(-1, clientInput.read());
+
+		thread.join(10000);
+		assertTrue(channelRelay.isClosed());
+		assertEquals(TEST_BYTES.length,
+				channelRelay.getUpstreamStatistics().getBytes());
+		assertEquals(1000, channelRelay.getDownstreamStatistics().getBytes());
+
+		client.close();
+		server.close();
+	}
+
+	private SocketChannel connect() throws IOException {
+		return SocketChannel.open(this.serverSocketChannel.getLocalAddress());
+	}
+}
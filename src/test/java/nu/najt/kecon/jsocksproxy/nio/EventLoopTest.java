@@ -0,0 +1,153 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>EventLoop</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class EventLoopTest {
+
+	private EventLoop eventLoop;
+
+	private Thread thread;
+
+	@Before
+	public void before() throws IOException {
+		this.eventLoop = new EventLoop();
+		this.thread = new Thread(this.eventLoop);
+		this.thread.start();
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		this.eventLoop.shutdown();
+		this.thread.join(5000);
+	}
+
+	@Test
+	public void testFailingHandlerIsClosed() throws Exception {
+		final PipeHandler failing = new PipeHandler(true);
+		final PipeHandler working = new PipeHandler(false);
+		this.eventLoop.register(failing);
+		this.eventLoop.register(working);
+
+		failing.signal();
+		assertTrue(failing.closed.await(5, TimeUnit.SECONDS));
+
+		// The loop keeps running the other handlers
+		working.signal();
+		assertTrue(working.handled.await(5, TimeUnit.SECONDS));
+		assertEquals(1, working.closed.getCount());
+		assertTrue(this.thread.isAlive());
+	}
+
+	@Test
+	public void testRegisterAfterShutdown() throws Exception {
+		this.eventLoop.shutdown();
+		this.thread.join(5000);
+		assertFalse(this.thread.isAlive());
+
+		final PipeHandler handler = new PipeHandler(false);
+		this.eventLoop.register(handler);
+		assertEquals(0, handler.closed.getCount());
+
+		try {
+			this.eventLoop.execute(new Runnable() {
+
+				@Override
+				public void run() {
+				}
+			});
+			fail("Expected the task to be rejected");
+		} catch (final RejectedExecutionException e) {
+			// Expected
+		}
+	}
+
+	private static class PipeHandler implements ChannelHandler {
+
+		private final Pipe pipe = Pipe.open();
+
+		private final boolean failing;
+
+		private final CountDownLatch handled = new CountDownLatch(1);
+
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		private PipeHandler(final boolean failing) throws IOException {
+			this.failing = failing;
+		}
+
+		private void signal() throws IOException {
+			this.pipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+		}
+
+		@Override
+		public void register(final EventLoop eventLoop) throws IOException {
+			this.pipe.source().configureBlocking(false);
+			this.pipe.source().register(eventLoop.getSelector(),
+					SelectionKey.OP_READ, this);
+		}
+
+		@Override
+		public void handle(final SelectionKey key) {
+			if (this.failing) {
+				throw new IllegalStateException("Failing handler");
+			}
+
+			try {
+				this.pipe.source().read(ByteBuffer.allocate(16));
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			this.handled.countDown();
+		}
+
+		@Override
+		public boolean isExpired(final long currentTimeMillis) {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			try {
+				this.pipe.source().close();
+				this.pipe.sink().close();
+			} catch (final IOException e) {
+			}
+			this.closed.countDown();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>RelayEngine</code> over loopback
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class RelayEngineTest {
+
+	private static final byte[] TEST_BYTES = new byte[100000];
+
+	static {
+		new Random(1l).nextBytes(TEST_BYTES);
+	}
+
+	private ExecutorService executorService;
+
+	private RelayEngine relayEngine;
+
+	private ServerSocketChannel serverSocketChannel;
+
+	@Before
+	public void before() throws IOException {
+		this.executorService = Executors.newCachedThreadPool();
+		this.relayEngine = new RelayEngine(this.executorService, 2);
+		this.serverSocketChannel = ServerSocketChannel.open();
+		this.serverSocketChannel.bind(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void after() throws IOException {
+		this.relayEngine.shutdown();
+		this.serverSocketChannel.close();
+		this.executorService.shutdown();
+	}
+
+	@Test
+	public void testRelayBothDirections() throws Exception {
+		// client <-> internal (relayed) external <-> server
+		final SocketChannel client = this.connect();
+		final SocketChannel internal = this.serverSocketChannel.accept();
+		final SocketChannel external = this.connect();
+		final SocketChannel server = this.serverSocketChannel.accept();
+
+		assertEquals(2, this.relayEngine.getNumberOfEventLoops());
+
+		this.relayEngine.register(internal.socket(), external.socket());
+
+		client.socket().getOutputStream().write(TEST_BYTES);
+		client.socket().shutdownOutput();
+
+		final byte[] received = new byte[TEST_BYTES.length];
+		new DataInputStream(server.socket().getInputStream())
+				.readFully(received);
+		assertArrayEquals(TEST_BYTES, received);
+
+		// Half-close is propagated while the other direction remains open
+		assertEquals(-1, server.socket().getInputStream().read());
+
+		server.socket().getOutputStream().write(TEST_BYTES);
+		server.socket().shutdownOutput();
+
+		assertArrayEquals(TEST_BYTES,
+				readAll(client.socket().getInputStream()));
+
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testRegisterWithoutChannel() throws Exception {
+		assertFalse(this.relayEngine.register(mock(Socket.class),
+				mock(Socket.class)));
+	}
+
+	private SocketChannel connect() throws IOException {
+		return SocketChannel.open(this.serverSocketChannel.getLocalAddress());
+	}
+
+	private static byte[] readAll(final InputStream inputStream)
+			throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		final byte[] buf = new byte[4096];
+		int length;
+		while ((length = inputStream.read(buf)) >= 0) {
+			outputStream.write(buf, 0, length);
+		}
+		return outputStream.toByteArray();
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+import nu.najt.kecon.jsocksproxy.ProtocolException;
+
+/**
+ * Testing <code>RequestDecoder</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class RequestDecoderTest {
+
+	// Version (0x04) has already been parsed
+	private static final byte[] REQUEST_4A = { 0x01, 0x00, 0x50, 0x00, 0x00,
+			0x00, 0x7f, 0x46, 0x72, 0x65, 0x64, 0x00, 'h', 'o', 's', 't', 0x00,
+			'T', 'e', 's', 't' };
+
+	@Test
+	public void testDecode() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x02, 0x00,
+				0x50, 0x42, 0x66, 0x07, 0x63, 0x46, 0x72, 0x65, 0x64, 0x00 });
+
+		final Request request = new RequestDecoder().decode(buffer);
+
+		assertEquals(Command.BIND, request.getCommand());
+		assertEquals(80, request.getPort());
+		assertArrayEquals(new byte[] { 0x42, 0x66, 0x07, 0x63 },
+				request.getAddress());
+		assertNull(request.getHostname());
+		assertEquals(0, buffer.remaining());
+	}
+
+	@Test
+	public void testDecode4a() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.wrap(REQUEST_4A);
+
+		final Request request = new RequestDecoder().decode(buffer);
+
+		assertEquals(Command.CONNECT, request.getCommand());
+		assertEquals("host", request.getHostname());
+		assertEquals(4, buffer.remaining());
+	}
+
+	@Test
+	public void testDecodeByteByByte() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(64);
+		final RequestDecoder decoder = new RequestDecoder();
+
+		for (int i = 0; i < 17; i++) {
+			buffer.put(REQUEST_4A[i]);
+			buffer.flip();
+			final Request request = decoder.decode(buffer);
+			buffer.compact();
+
+			if (i < 16) {
+				assertNull(request);
+			} else {
+				assertEquals("host", request.getHostname());
+			}
+		}
+	}
+
+	@Test
+	public void testDecodeAfterCompact() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(64);
+		final RequestDecoder decoder = new RequestDecoder();
+
+		// The version byte is consumed before the buffer is compacted
+		buffer.put((byte) 0x04);
+		buffer.put(REQUEST_4A, 0, 14);
+		buffer.flip();
+		assertEquals(0x04, buffer.get());
+		assertNull(decoder.decode(buffer));
+		buffer.compact();
+
+		buffer.put(REQUEST_4A, 14, REQUEST_4A.length - 14);
+		buffer.flip();
+		final Request request = decoder.decode(buffer);
+
+		assertEquals("host", request.getHostname());
+		assertEquals(4, buffer.remaining());
+	}
+
+	@Test(expected = IllegalCommandException.class)
+	public void testIllegalCommand() throws Exception {
+		new RequestDecoder().decode(ByteBuffer.wrap(new byte[] { 0x05 }));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void testTooLongUserId() throws Exception {
+		final byte[] request = new byte[7 + RequestDecoder.MAX_USER_ID_LENGTH
+				+ 1];
+		Arrays.fill(request, (byte) 'a');
+		request[0] = 0x01;
+
+		new RequestDecoder().decode(ByteBuffer.wrap(request));
+	}
+}
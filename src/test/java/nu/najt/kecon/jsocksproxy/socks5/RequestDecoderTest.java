@@ -0,0 +1,129 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.IllegalAddressTypeException;
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+import nu.najt.kecon.jsocksproxy.ProtocolException;
+import nu.najt.kecon.jsocksproxy.socks5.RequestDecoder.State;
+
+/**
+ * Testing <code>RequestDecoder</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class RequestDecoderTest {
+
+	/* starting 0x05 is stripped before this */
+	private static final byte[] DOMAIN_REQUEST = { 2, 2, 0, 5, 1, 0, 3, 4,
+			't', 'e', 's', 't', 0, 80, 'G', 'E', 'T' };
+
+	@Test
+	public void testDecodeComplete() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.wrap(DOMAIN_REQUEST);
+		final RequestDecoder decoder = new RequestDecoder();
+
+		assertEquals(State.COMPLETE, decoder.decode(buffer));
+		assertTrue(decoder.isNoAuthenticationOffered());
+
+		final Request request = decoder.getRequest();
+		assertEquals(Command.CONNECT, request.getCommand());
+		assertEquals(AddressType.DOMAIN, request.getAddressType());
+		assertArrayEquals("test".getBytes("US-ASCII"), request.getHostname());
+		assertEquals("test", request.getHost());
+		assertEquals(80, request.getPort());
+
+		// Early data is left in the buffer
+		assertEquals(3, buffer.remaining());
+	}
+
+	@Test
+	public void testDecodeByteByByte() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(64);
+		final RequestDecoder decoder = new RequestDecoder();
+
+		for (int i = 0; i < 14; i++) {
+			buffer.put(DOMAIN_REQUEST[i]);
+			buffer.flip();
+			final State state = decoder.decode(buffer);
+			buffer.compact();
+
+			if (i < 2) {
+				assertEquals(State.METHODS, state);
+			} else if (i < 13) {
+				assertEquals(State.REQUEST, state);
+				assertNull(decoder.getRequest());
+			} else {
+				assertEquals(State.COMPLETE, state);
+			}
+		}
+
+		assertEquals(80, decoder.getRequest().getPort());
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testDecodeIPv6() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 0, 5, 2, 0,
+				4, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 1,
+				0 });
+		final RequestDecoder decoder = new RequestDecoder();
+
+		assertEquals(State.COMPLETE, decoder.decode(buffer));
+		assertEquals(Command.BIND, decoder.getRequest().getCommand());
+		assertEquals(AddressType.IP_V6, decoder.getRequest().getAddressType());
+		assertNull(decoder.getRequest().getHostname());
+		assertEquals(256, decoder.getRequest().getPort());
+	}
+
+	@Test
+	public void testNoAcceptableMethod() throws Exception {
+		final ByteBuffer buffer = ByteBuffer
+				.wrap(new byte[] { 1, 2, 5, 1, 0, 1, 1, 2, 3, 4, 0, 80 });
+		final RequestDecoder decoder = new RequestDecoder();
+
+		assertEquals(State.REQUEST, decoder.decode(buffer));
+		assertFalse(decoder.isNoAuthenticationOffered());
+		assertNull(decoder.getRequest());
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void testIllegalVersion() throws Exception {
+		new RequestDecoder().decode(ByteBuffer.wrap(new byte[] { 1, 0, 4 }));
+	}
+
+	@Test(expected = IllegalCommandException.class)
+	public void testIllegalCommand() throws Exception {
+		new RequestDecoder()
+				.decode(ByteBuffer.wrap(new byte[] { 1, 0, 5, 9 }));
+	}
+
+	@Test(expected = IllegalAddressTypeException.class)
+	public void testIllegalAddressType() throws Exception {
+		new RequestDecoder()
+				.decode(ByteBuffer.wrap(new byte[] { 1, 0, 5, 1, 0, 2 }));
+	}
+}
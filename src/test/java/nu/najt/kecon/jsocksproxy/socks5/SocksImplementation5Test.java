@@ -1,296 +1,618 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.socks5;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import org.junit.Assert;
-import org.junit.Test;
-
-import nu.najt.kecon.jsocksproxy.ConfigurationFacade;
-
-public class SocksImplementation5Test {
-
-	@Test
-	public void testRunSuccess() throws Exception {
-
-		final CountDownLatch countDownLatch = new CountDownLatch(2);
-		final AtomicInteger count = new AtomicInteger(0);
-		final Executor executor = Executors.newCachedThreadPool();
-		final InetAddress serverAddress = InetAddress
-				.getByAddress(new byte[] { 11, 12, 13, 14 });
-		final InetAddress listeningAddress = InetAddress
-				.getByAddress(new byte[] { 22, 33, 44, 55 });
-		final InetAddress clientAddress = InetAddress
-				.getByAddress(new byte[] { 55, 66, 77, 88 });
-		final int serverPort = 80;
-		final ByteArrayOutputStream request = new ByteArrayOutputStream();
-
-		/* starting 0x05 is stripped before this */
-		final byte[] request1 = new byte[] { 1, 0 };
-		final byte[] response1 = new byte[] { 0x05, 0x00 };
-		final byte[] request2 = new byte[] { 5, 1, 0, 1, 11, 12, 13, 14, 0,
-				80 };
-		final byte[] response2 = new byte[] { 0x05, 0x00, 0x00, 0x01, 0, 0, 0,
-				0, -1, -1 };
-
-		request.write(request1);
-		request.write(request2);
-
-		final ByteArrayOutputStream clientOutputStream = new ByteArrayOutputStream();
-		final ByteArrayOutputStream serverResponseStream = new ByteArrayOutputStream();
-
-		serverResponseStream.write(response1);
-		serverResponseStream.write(response2);
-
-		final Socket clientSocket = new Socket() {
-			final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
-					request.toByteArray());
-
-			final AtomicBoolean close = new AtomicBoolean(Boolean.TRUE);
-
-			@Override
-			public void connect(final SocketAddress endpoint)
-					throws IOException {
-				Assert.fail();
-			}
-
-			@Override
-			public InputStream getInputStream() throws IOException {
-				return this.byteArrayInputStream;
-			}
-
-			@Override
-			public OutputStream getOutputStream() throws IOException {
-				return clientOutputStream;
-			}
-
-			@Override
-			public synchronized void close() throws IOException {
-				if (this.close.getAndSet(Boolean.FALSE)) {
-					countDownLatch.countDown();
-				}
-			}
-
-			@Override
-			public void shutdownInput() throws IOException {
-			}
-
-			@Override
-			public void shutdownOutput() throws IOException {
-			}
-
-			@Override
-			public InetAddress getInetAddress() {
-				return clientAddress;
-			}
-
-			@Override
-			public InetAddress getLocalAddress() {
-				return listeningAddress;
-			}
-
-			@Override
-			public int getLocalPort() {
-				return 1080;
-			}
-
-			@Override
-			public int getPort() {
-				return 1337;
-			}
-
-		};
-
-		final Socket serverSocket = new Socket() {
-			final AtomicBoolean close = new AtomicBoolean(Boolean.TRUE);
-
-			@Override
-			public synchronized void close() throws IOException {
-				if (this.close.getAndSet(Boolean.FALSE)) {
-					countDownLatch.countDown();
-				}
-			}
-
-			@Override
-			public void connect(final SocketAddress endpoint)
-					throws IOException {
-				Assert.assertArrayEquals(new byte[] { 11, 12, 13, 14 },
-						((InetSocketAddress) endpoint).getAddress()
-								.getAddress());
-			}
-
-			@Override
-			public void shutdownInput() throws IOException {
-			}
-
-			@Override
-			public void shutdownOutput() throws IOException {
-			}
-
-		};
-
-		final ConfigurationFacade configurationFacade = new ConfigurationFacade() {
-
-			@Override
-			public List<InetAddress> getOutgoingSourceAddresses() {
-				return Arrays.asList(listeningAddress);
-			}
-
-			@Override
-			public boolean isAllowSocks4() {
-				return false;
-			}
-
-			@Override
-			public boolean isAllowSocks5() {
-				return false;
-			}
-
-			@Override
-			public int getBacklog() {
-				return 100;
-			}
-		};
-
-		executor.execute(new SocksImplementation5(configurationFacade,
-				clientSocket, executor) {
-
-			@Override
-			protected Socket openConnection(final InetAddress inetAddress,
-					final int port) throws IOException {
-
-				Assert.assertEquals(serverAddress, inetAddress);
-				Assert.assertEquals(serverPort, port);
-
-				Assert.assertEquals(1, count.incrementAndGet());
-
-				return serverSocket;
-			}
-
-			@Override
-			protected void tunnel(final Socket internal,
-					final Socket external) {
-				Assert.assertEquals(clientSocket, internal);
-				Assert.assertEquals(serverSocket, external);
-
-				Assert.assertEquals(2, count.incrementAndGet());
-			}
-		});
-
-		countDownLatch.await(5, TimeUnit.SECONDS);
-
-		Assert.assertArrayEquals(serverResponseStream.toByteArray(),
-				clientOutputStream.toByteArray());
-	}
-
-	@Test
-	public void testAuthenticateNoPassword() throws Exception {
-		final SocksImplementation5 implementation5 = new SocksImplementation5(
-				null, null, null);
-		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		final DataOutputStream dataOutputStream = new DataOutputStream(
-				byteArrayOutputStream);
-
-		implementation5.authenticate(
-				new DataInputStream(
-						new ByteArrayInputStream(new byte[] { 1, 0 })),
-				dataOutputStream);
-
-		Assert.assertArrayEquals(new byte[] { 5, 0 },
-				byteArrayOutputStream.toByteArray());
-	}
-
-	@Test
-	public void testWriteResponseIPv4() throws Exception {
-
-		final SocksImplementation5 implementation5 = new SocksImplementation5(
-				null, null, null);
-		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		final DataOutputStream dataOutputStream = new DataOutputStream(
-				byteArrayOutputStream);
-		final InetAddress boundAddress = InetAddress
-				.getByAddress(new byte[] { 10, 11, 12, 13 });
-
-		implementation5.writeResponse(dataOutputStream, Status.SUCCEEDED,
-				AddressType.IP_V4, boundAddress, null, 80);
-
-		Assert.assertArrayEquals(
-				new byte[] { 5, 0, 0, 1, 10, 11, 12, 13, 0, 80 },
-				byteArrayOutputStream.toByteArray());
-	}
-
-	@Test
-	public void testWriteResponseIPv6() throws Exception {
-
-		final SocksImplementation5 implementation5 = new SocksImplementation5(
-				null, null, null);
-		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		final DataOutputStream dataOutputStream = new DataOutputStream(
-				byteArrayOutputStream);
-		final InetAddress boundAddress = InetAddress
-				.getByAddress(new byte[] { 10, 11, 12, 13, 10, 11, 12, 13, 10,
-						11, 12, 13, 10, 11, 12, 13 });
-
-		implementation5.writeResponse(dataOutputStream, Status.SUCCEEDED,
-				AddressType.IP_V6, boundAddress, null, 80);
-
-		Assert.assertArrayEquals(
-				new byte[] { 5, 0, 0, 4, 10, 11, 12, 13, 10, 11, 12, 13, 10,
-						11, 12, 13, 10, 11, 12, 13, 0, 80 },
-				byteArrayOutputStream.toByteArray());
-	}
-
-	@Test
-	public void testWriteResponseDomain() throws Exception {
-
-		final SocksImplementation5 implementation5 = new SocksImplementation5(
-				null, null, null);
-		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		final DataOutputStream dataOutputStream = new DataOutputStream(
-				byteArrayOutputStream);
-		final InetAddress boundAddress = InetAddress
-				.getByAddress(new byte[] { 10, 11, 12, 13, 10, 11, 12, 13, 10,
-						11, 12, 13, 10, 11, 12, 13 });
-
-		implementation5.writeResponse(dataOutputStream, Status.SUCCEEDED,
-				AddressType.DOMAIN, boundAddress, "test".getBytes("US-ASCII"),
-				80);
-
-		Assert.assertArrayEquals(
-				new byte[] { 5, 0, 0, 3, 4, 't', 'e', 's', 't', 0, 80 },
-				byteArrayOutputStream.toByteArray());
-	}
-
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.socks5;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nu.najt.kecon.jsocksproxy.ConfigurationFacade;
+import nu.najt.kecon.jsocksproxy.IllegalCommandException;
+
+public class SocksImplementation5Test {
+
+	@Test
+	public void testRunSuccess() throws Exception {
+
+		final CountDownLatch countDownLatch = new CountDownLatch(2);
+		final AtomicInteger count = new AtomicInteger(0);
+		final Executor executor = Executors.newCachedThreadPool();
+		final InetAddress serverAddress = InetAddress
+				.getByAddress(new byte[] { 11, 12, 13, 14 });
+		final InetAddress listeningAddress = InetAddress
+				.getByAddress(new byte[] { 22, 33, 44, 55 });
+		final InetAddress clientAddress = InetAddress
+				.getByAddress(new byte[] { 55, 66, 77, 88 });
+		final int serverPort = 80;
+		final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+		/* starting 0x05 is stripped before this */
+		final byte[] request1 = new byte[] { 1, 0 };
+		final byte[] response1 = new byte[] { 0x05, 0x00 };
+		final byte[] request2 = new byte[] { 5, 1, 0, 1, 11, 12, 13, 14, 0,
+				80 };
+		final byte[] response2 = new byte[] { 0x05, 0x00, 0x00, 0x01, 0, 0, 0,
+				0, -1, -1 };
+
+		request.write(request1);
+		request.write(request2);
+
+		final ByteArrayOutputStream clientOutputStream = new ByteArrayOutputStream();
+		final ByteArrayOutputStream serverResponseStream = new ByteArrayOutputStream();
+
+		serverResponseStream.write(response1);
+		serverResponseStream.write(response2);
+
+		final Socket clientSocket = new Socket() {
+			final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
+					request.toByteArray());
+
+			final AtomicBoolean close = new AtomicBoolean(Boolean.TRUE);
+
+			@Override
+			public void connect(final SocketAddress endpoint)
+					throws IOException {
+				Assert.fail();
+			}
+
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return this.byteArrayInputStream;
+			}
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				return clientOutputStream;
+			}
+
+			@Override
+			public synchronized void close() throws IOException {
+				if (this.close.getAndSet(Boolean.FALSE)) {
+					countDownLatch.countDown();
+				}
+			}
+
+			@Override
+			public void shutdownInput() throws IOException {
+			}
+
+			@Override
+			public void shutdownOutput() throws IOException {
+			}
+
+			@Override
+			public InetAddress getInetAddress() {
+				return clientAddress;
+			}
+
+			@Override
+			public InetAddress getLocalAddress() {
+				return listeningAddress;
+			}
+
+			@Override
+			public int getLocalPort() {
+				return 1080;
+			}
+
+			@Override
+			public int getPort() {
+				return 1337;
+			}
+
+		};
+
+		final Socket serverSocket = new Socket() {
+			final AtomicBoolean close = new AtomicBoolean(Boolean.TRUE);
+
+			@Override
+			public synchronized void close() throws IOException {
+				if (this.close.getAndSet(Boolean.FALSE)) {
+					countDownLatch.countDown();
+				}
+			}
+
+			@Override
+			public void connect(final SocketAddress endpoint)
+					throws IOException {
+				Assert.assertArrayEquals(new byte[] { 11, 12, 13, 14 },
+						((InetSocketAddress) endpoint).getAddress()
+								.getAddress());
+			}
+
+			@Override
+			public void shutdownInput() throws IOException {
+			}
+
+			@Override
+			public void shutdownOutput() throws IOException {
+			}
+
+		};
+
+		final ConfigurationFacade configurationFacade = new ConfigurationFacade() {
+
+			@Override
+			public List<InetAddress> getOutgoingSourceAddresses() {
+				return Arrays.asList(listeningAddress);
+			}
+
+			@Override
+			public boolean isAllowSocks4() {
+				return false;
+			}
+
+			@Override
+			public boolean isAllowSocks5() {
+				return false;
+			}
+
+			@Override
+			public int getBacklog() {
+				return 100;
+			}
+		};
+
+		executor.execute(new SocksImplementation5(configurationFacade,
+				clientSocket, executor) {
+
+			@Override
+			protected Socket openConnection(final InetAddress inetAddress,
+					final int port) throws IOException {
+
+				Assert.assertEquals(serverAddress, inetAddress);
+				Assert.assertEquals(serverPort, port);
+
+				Assert.assertEquals(1, count.incrementAndGet());
+
+				return serverSocket;
+			}
+
+			@Override
+			protected void tunnel(final Socket internal,
+					final Socket external) {
+				Assert.assertEquals(clientSocket, internal);
+				Assert.assertEquals(serverSocket, external);
+
+				Assert.assertEquals(2, count.incrementAndGet());
+			}
+		});
+
+		countDownLatch.await(5, TimeUnit.SECONDS);
+
+		Assert.assertArrayEquals(serverResponseStream.toByteArray(),
+				clientOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testTunnelAfterExecutorShutdown() throws Exception {
+
+		final CountDownLatch countDownLatch = new CountDownLatch(2);
+		final ExecutorService executorService = Executors
+				.newCachedThreadPool();
+		final InetAddress listeningAddress = InetAddress
+				.getByAddress(new byte[] { 22, 33, 44, 55 });
+		final InetAddress clientAddress = InetAddress
+				.getByAddress(new byte[] { 55, 66, 77, 88 });
+
+		/* starting 0x05 is stripped before this */
+		final byte[] request = new byte[] { 1, 0, 5, 1, 0, 1, 11, 12, 13, 14,
+				0, 80 };
+
+		final ByteArrayOutputStream clientOutputStream = new ByteArrayOutputStream();
+
+		final Socket clientSocket = new Socket() {
+			final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
+					request);
+
+			final AtomicBoolean close = new AtomicBoolean(Boolean.TRUE);
+
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return this.byteArrayInputStream;
+			}
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				return clientOutputStream;
+			}
+
+			@Override
+			public synchronized void close() throws IOException {
+				if (this.close.getAndSet(Boolean.FALSE)) {
+					countDownLatch.countDown();
+				}
+			}
+
+			@Override
+			public InetAddress getInetAddress() {
+				return clientAddress;
+			}
+
+			@Override
+			public InetAddress getLocalAddress() {
+				return listeningAddress;
+			}
+
+			@Override
+			public int getLocalPort() {
+				return 1080;
+			}
+
+			@Override
+			public int getPort() {
+				return 1337;
+			}
+
+		};
+
+		final Socket serverSocket = new Socket() {
+			final AtomicBoolean close = new AtomicBoolean(Boolean.TRUE);
+
+			@Override
+			public synchronized void close() throws IOException {
+				if (this.close.getAndSet(Boolean.FALSE)) {
+					countDownLatch.countDown();
+				}
+			}
+		};
+
+		final ConfigurationFacade configurationFacade = new ConfigurationFacade() {
+
+			@Override
+			public List<InetAddress> getOutgoingSourceAddresses() {
+				return Arrays.asList(listeningAddress);
+			}
+
+			@Override
+			public boolean isAllowSocks4() {
+				return false;
+			}
+
+			@Override
+			public boolean isAllowSocks5() {
+				return true;
+			}
+
+			@Override
+			public int getBacklog() {
+				return 100;
+			}
+		};
+
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				configurationFacade, clientSocket, executorService) {
+
+			@Override
+			protected Socket openConnection(final InetAddress inetAddress,
+					final int port) throws IOException {
+				return serverSocket;
+			}
+		};
+
+		// The executor is retired while the connection is handled, as when
+		// the thread mode changes or the proxy stops
+		executorService.shutdown();
+		implementation5.run();
+
+		Assert.assertTrue(countDownLatch.await(5, TimeUnit.SECONDS));
+		Assert.assertArrayEquals(
+				new byte[] { 0x05, 0x00, 0x05, 0x00, 0x00, 0x01, 0, 0, 0, 0,
+						-1, -1 },
+				clientOutputStream.toByteArray());
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testAuthenticateNoPassword() throws Exception {
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream dataOutputStream = new DataOutputStream(
+				byteArrayOutputStream);
+
+		implementation5.authenticate(
+				new DataInputStream(
+						new ByteArrayInputStream(new byte[] { 1, 0 })),
+				dataOutputStream);
+
+		Assert.assertArrayEquals(new byte[] { 5, 0 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testHandshakeReads() throws Exception {
+		final byte[] handshake = new byte[] { 1, 0, 5, 1, 0, 3, 4, 't', 'e',
+				's', 't', 0, 80 };
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+
+		// Reading field by field
+		final CountingInputStream fieldInputStream = new CountingInputStream(
+				handshake, handshake.length);
+		final DataInputStream dataInputStream = new DataInputStream(
+				fieldInputStream);
+		implementation5.authenticate(dataInputStream,
+				new DataOutputStream(new ByteArrayOutputStream()));
+		implementation5.readRequest(dataInputStream);
+
+		// How DataInputStream splits the field reads differs between JDKs
+		Assert.assertTrue(fieldInputStream.reads > 1);
+
+		// Reading in bulk
+		final CountingInputStream bulkInputStream = new CountingInputStream(
+				handshake, handshake.length);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final Request request = implementation5.readHandshake(
+				bulkInputStream, new DataOutputStream(byteArrayOutputStream));
+
+		Assert.assertEquals(1, bulkInputStream.reads);
+		Assert.assertArrayEquals(new byte[] { 5, 0 },
+				byteArrayOutputStream.toByteArray());
+		Assert.assertEquals(Command.CONNECT, request.getCommand());
+		Assert.assertArrayEquals("test".getBytes("US-ASCII"),
+				request.getHostname());
+		Assert.assertEquals(80, request.getPort());
+	}
+
+	@Test
+	public void testHandshakeFragmented() throws Exception {
+		final byte[] handshake = new byte[] { 2, 2, 0, 5, 1, 0, 1, 11, 12, 13,
+				14, 0, 80 };
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final CountingInputStream inputStream = new CountingInputStream(
+				handshake, 1);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+		final Request request = implementation5.readHandshake(inputStream,
+				new DataOutputStream(byteArrayOutputStream));
+
+		Assert.assertEquals(handshake.length, inputStream.reads);
+		Assert.assertArrayEquals(new byte[] { 5, 0 },
+				byteArrayOutputStream.toByteArray());
+		Assert.assertArrayEquals(new byte[] { 11, 12, 13, 14 },
+				request.getAddress());
+	}
+
+	@Test
+	public void testHandshakePipelined() throws Exception {
+		final byte[] handshake = new byte[] { 1, 0, 5, 1, 0, 1, 11, 12, 13,
+				14, 0, 80, 'G', 'E', 'T' };
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final List<byte[]> writes = new ArrayList<byte[]>();
+		final DataOutputStream outputStream = new DataOutputStream(
+				new BufferedOutputStream(new OutputStream() {
+
+					@Override
+					public void write(final int b) throws IOException {
+						this.write(new byte[] { (byte) b }, 0, 1);
+					}
+
+					@Override
+					public void write(final byte[] b, final int off,
+							final int len) throws IOException {
+						writes.add(Arrays.copyOfRange(b, off, off + len));
+					}
+				}));
+
+		final Request request = implementation5.readHandshake(
+				new ByteArrayInputStream(handshake), outputStream);
+
+		// The method reply waits for the reply to the request
+		Assert.assertEquals(0, writes.size());
+
+		implementation5.writeResponse(outputStream, Status.SUCCEEDED,
+				request.getAddressType(),
+				InetAddress.getByAddress(new byte[] { 1, 2, 3, 4 }), null,
+				1080);
+
+		Assert.assertEquals(1, writes.size());
+		Assert.assertArrayEquals(
+				new byte[] { 5, 0, 5, 0, 0, 1, 1, 2, 3, 4, 4, 56 },
+				writes.get(0));
+	}
+
+	@Test
+	public void testHandshakeNotPipelined() throws Exception {
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+		try {
+			// The greeting alone is flushed before waiting for the request
+			implementation5.readHandshake(
+					new ByteArrayInputStream(new byte[] { 1, 0 }),
+					new DataOutputStream(
+							new BufferedOutputStream(byteArrayOutputStream)));
+			Assert.fail();
+		} catch (final EOFException e) {
+		}
+
+		Assert.assertArrayEquals(new byte[] { 5, 0 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testHandshakeNoAcceptableMethods() throws Exception {
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+		try {
+			implementation5.readHandshake(
+					new ByteArrayInputStream(new byte[] { 1, 2 }),
+					new DataOutputStream(byteArrayOutputStream));
+			Assert.fail();
+		} catch (final EOFException e) {
+		}
+
+		Assert.assertArrayEquals(new byte[] { 5, -1 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testHandshakeNoAcceptableMethodsPipelined() throws Exception {
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+		// The malformed request is not replied to, the methods are rejected
+		try {
+			implementation5.readHandshake(
+					new ByteArrayInputStream(new byte[] { 1, 2, 5, 9, 0, 1 }),
+					new DataOutputStream(byteArrayOutputStream));
+			Assert.fail();
+		} catch (final EOFException e) {
+		}
+
+		Assert.assertArrayEquals(new byte[] { 5, -1 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testHandshakeIllegalCommand() throws Exception {
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+		try {
+			implementation5.readHandshake(
+					new ByteArrayInputStream(new byte[] { 1, 0, 5, 9, 0, 1 }),
+					new DataOutputStream(byteArrayOutputStream));
+			Assert.fail();
+		} catch (final IllegalCommandException e) {
+		}
+
+		// The method is replied before the failure is reported
+		Assert.assertArrayEquals(new byte[] { 5, 0 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testWriteResponseIPv4() throws Exception {
+
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream dataOutputStream = new DataOutputStream(
+				byteArrayOutputStream);
+		final InetAddress boundAddress = InetAddress
+				.getByAddress(new byte[] { 10, 11, 12, 13 });
+
+		implementation5.writeResponse(dataOutputStream, Status.SUCCEEDED,
+				AddressType.IP_V4, boundAddress, null, 80);
+
+		Assert.assertArrayEquals(
+				new byte[] { 5, 0, 0, 1, 10, 11, 12, 13, 0, 80 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testWriteResponseIPv6() throws Exception {
+
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream dataOutputStream = new DataOutputStream(
+				byteArrayOutputStream);
+		final InetAddress boundAddress = InetAddress
+				.getByAddress(new byte[] { 10, 11, 12, 13, 10, 11, 12, 13, 10,
+						11, 12, 13, 10, 11, 12, 13 });
+
+		implementation5.writeResponse(dataOutputStream, Status.SUCCEEDED,
+				AddressType.IP_V6, boundAddress, null, 80);
+
+		Assert.assertArrayEquals(
+				new byte[] { 5, 0, 0, 4, 10, 11, 12, 13, 10, 11, 12, 13, 10,
+						11, 12, 13, 10, 11, 12, 13, 0, 80 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testWriteResponseDomain() throws Exception {
+
+		final SocksImplementation5 implementation5 = new SocksImplementation5(
+				null, null, null);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		final DataOutputStream dataOutputStream = new DataOutputStream(
+				byteArrayOutputStream);
+		final InetAddress boundAddress = InetAddress
+				.getByAddress(new byte[] { 10, 11, 12, 13, 10, 11, 12, 13, 10,
+						11, 12, 13, 10, 11, 12, 13 });
+
+		implementation5.writeResponse(dataOutputStream, Status.SUCCEEDED,
+				AddressType.DOMAIN, boundAddress, "test".getBytes("US-ASCII"),
+				80);
+
+		Assert.assertArrayEquals(
+				new byte[] { 5, 0, 0, 3, 4, 't', 'e', 's', 't', 0, 80 },
+				byteArrayOutputStream.toByteArray());
+	}
+
+	/**
+	 * Counts the reads, each of which would be a system call on a socket
+	 */
+	private static class CountingInputStream extends ByteArrayInputStream {
+
+		private final int maxRead;
+
+		private int reads;
+
+		private CountingInputStream(final byte[] data, final int maxRead) {
+			super(data);
+			this.maxRead = maxRead;
+		}
+
+		@Override
+		public synchronized int read() {
+			this.reads++;
+			return super.read();
+		}
+
+		@Override
+		public synchronized int read(final byte[] b, final int off,
+				final int len) {
+			this.reads++;
+			return super.read(b, off, Math.min(len, this.maxRead));
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Testing <code>BufferPool</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses() {
+		final BufferPool bufferPool = new BufferPool(1024 * 1024, false);
+
+		assertEquals(2048, bufferPool.acquire(1).capacity());
+		assertEquals(2048, bufferPool.acquire(2048).capacity());
+		assertEquals(4096, bufferPool.acquire(3000).capacity());
+		assertEquals(65536, bufferPool.acquire(65536).capacity());
+
+		final ByteBuffer large = bufferPool.acquire(65537);
+		assertFalse(large.isDirect());
+		assertEquals(65537, large.capacity());
+	}
+
+	@Test
+	public void testReuse() {
+		final BufferPool bufferPool = new BufferPool(1024 * 1024, false);
+
+		final ByteBuffer buffer = bufferPool.acquire(4096);
+		assertTrue(buffer.isDirect());
+		buffer.put((byte) 1);
+		bufferPool.release(buffer);
+
+		assertEquals(4096, bufferPool.getPooledMemory());
+
+		final ByteBuffer reused = bufferPool.acquire(4000);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(4096, reused.limit());
+
+		assertEquals(2, bufferPool.getAcquisitions());
+		assertEquals(1, bufferPool.getReuses());
+		assertEquals(0, bufferPool.getPooledMemory());
+		assertEquals(4096, bufferPool.getAllocatedMemory());
+	}
+
+	@Test
+	public void testMaxMemory() {
+		final BufferPool bufferPool = new BufferPool(8192, false);
+
+		final ByteBuffer first = bufferPool.acquire(8192);
+		assertTrue(first.isDirect());
+
+		final ByteBuffer second = bufferPool.acquire(2048);
+		assertFalse(second.isDirect());
+		assertEquals(1, bufferPool.getHeapAllocations());
+
+		bufferPool.release(second);
+		bufferPool.release(first);
+		assertEquals(8192, bufferPool.getPooledMemory());
+
+		// Lowering the maximum drops released buffers
+		final ByteBuffer third = bufferPool.acquire(8192);
+		bufferPool.setMaxMemory(4096);
+		bufferPool.release(third);
+		assertEquals(0, bufferPool.getAllocatedMemory());
+		assertEquals(0, bufferPool.getPooledMemory());
+	}
+
+	@Test
+	public void testReleaseOwnership() {
+		final BufferPool bufferPool = new BufferPool(1024 * 1024, false);
+
+		final ByteBuffer buffer = bufferPool.acquire(2048);
+		bufferPool.release(buffer);
+		bufferPool.release(buffer);
+		assertEquals(2048, bufferPool.getPooledMemory());
+
+		// The buffer is handed out once
+		assertSame(buffer, bufferPool.acquire(2048));
+		assertNotSame(buffer, bufferPool.acquire(2048));
+
+		// Direct buffers that the pool did not allocate are refused
+		bufferPool.release(ByteBuffer.allocateDirect(2048));
+		assertEquals(0, bufferPool.getPooledMemory());
+		assertEquals(4096, bufferPool.getAllocatedMemory());
+	}
+
+	@Test
+	public void testLeakDetection() throws Exception {
+		final BufferPool bufferPool = new BufferPool(1024 * 1024, true);
+
+		bufferPool.acquire(2048);
+		assertEquals(2048, bufferPool.getAllocatedMemory());
+
+		final ByteBuffer released = bufferPool.acquire(2048);
+		bufferPool.release(released);
+
+		// A second release of the same buffer is refused
+		bufferPool.release(released);
+		assertEquals(2048, bufferPool.getPooledMemory());
+
+		for (int i = 0; (i < 100) && (bufferPool.getLeaks() == 0); i++) {
+			System.gc();
+			Thread.sleep(10);
+			bufferPool.release(bufferPool.acquire(2048));
+		}
+
+		assertEquals(1, bufferPool.getLeaks());
+		assertEquals(2048, bufferPool.getAllocatedMemory());
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Testing <code>ExecutorUtils</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class ExecutorUtilsTest {
+
+	@Test
+	public void testNewVirtualThreadPerTaskExecutor() throws Exception {
+		final ExecutorService executorService = ExecutorUtils
+				.newVirtualThreadPerTaskExecutor();
+
+		boolean supported;
+		try {
+			Thread.class.getMethod("isVirtual");
+			supported = true;
+		} catch (final NoSuchMethodException e) {
+			supported = false;
+		}
+
+		if (!supported) {
+			assertNull(executorService);
+			return;
+		}
+
+		final AtomicBoolean virtual = new AtomicBoolean();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		executorService.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					virtual.set((Boolean) Thread.class.getMethod("isVirtual")
+							.invoke(Thread.currentThread()));
+				} catch (final Exception e) {
+				}
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertTrue(virtual.get());
+
+		executorService.shutdown();
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testing <code>RelayBuffer</code>
+ * 
+ * @author Kenny Colliander Nordin
+ */
+public class RelayBufferTest {
+
+	private BufferPool bufferPool;
+
+	@Before
+	public void before() {
+		this.bufferPool = new BufferPool(1024 * 1024, false);
+	}
+
+	@Test
+	public void testGrowAndShrink() {
+		final RelayBuffer relayBuffer = new RelayBuffer(this.bufferPool,
+				new BufferSizing(true, 4096, 16384));
+
+		assertEquals(4096, relayBuffer.getBuffer().capacity());
+
+		this.fill(relayBuffer);
+		this.fill(relayBuffer);
+		assertEquals(8192, relayBuffer.getBuffer().capacity());
+
+		this.fill(relayBuffer);
+		this.fill(relayBuffer);
+		assertEquals(16384, relayBuffer.getBuffer().capacity());
+
+		// Never beyond the maximum
+		for (int i = 0; i < 10; i++) {
+			this.fill(relayBuffer);
+		}
+		assertEquals(16384, relayBuffer.getBuffer().capacity());
+
+		for (int i = 0; i < RelayBuffer.SHRINK_THRESHOLD; i++) {
+			this.read(relayBuffer, 100);
+		}
+		assertEquals(8192, relayBuffer.getBuffer().capacity());
+
+		for (int i = 0; i < (RelayBuffer.SHRINK_THRESHOLD * 10); i++) {
+			this.read(relayBuffer, 100);
+		}
+		assertEquals(4096, relayBuffer.getBuffer().capacity());
+
+		relayBuffer.release();
+		assertEquals(4096 + 8192 + 16384, this.bufferPool.getPooledMemory());
+	}
+
+	@Test
+	public void testMixedReadsKeepSize() {
+		final RelayBuffer relayBuffer = new RelayBuffer(this.bufferPool,
+				new BufferSizing(true, 4096, 16384));
+
+		for (int i = 0; i < 20; i++) {
+			this.fill(relayBuffer);
+			this.read(relayBuffer, 2048);
+		}
+
+		assertEquals(4096, relayBuffer.getBuffer().capacity());
+	}
+
+	@Test
+	public void testFixed() {
+		final RelayBuffer relayBuffer = new RelayBuffer(this.bufferPool,
+				BufferSizing.FIXED);
+
+		for (int i = 0; i < 10; i++) {
+			this.fill(relayBuffer);
+		}
+
+		assertEquals(BufferSizing.DEFAULT_MIN_SIZE,
+				relayBuffer.getBuffer().capacity());
+	}
+
+	@Test
+	public void testResizeWaitsForEmptyBuffer() {
+		final RelayBuffer relayBuffer = new RelayBuffer(this.bufferPool,
+				new BufferSizing(true, 4096, 16384));
+
+		final ByteBuffer buffer = relayBuffer.getBuffer();
+		buffer.put(new byte[4096]);
+		relayBuffer.update(4096);
+		relayBuffer.update(4096);
+
+		assertSame(buffer, relayBuffer.getBuffer());
+
+		buffer.clear();
+		assertEquals(8192, relayBuffer.getBuffer().capacity());
+	}
+
+	private void fill(final RelayBuffer relayBuffer) {
+		this.read(relayBuffer, relayBuffer.getBuffer().capacity());
+	}
+
+	private void read(final RelayBuffer relayBuffer, final int length) {
+		final ByteBuffer buffer = relayBuffer.getBuffer();
+		buffer.put(new byte[length]);
+		buffer.clear();
+		relayBuffer.update(length);
+	}
+}
@@ -1,69 +1,167 @@
-/**
- * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
- * 
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package nu.najt.kecon.jsocksproxy.utils;
-
-import static nu.najt.kecon.jsocksproxy.utils.SocketUtils.copy;
-import static org.junit.Assert.assertArrayEquals;
-import static org.mockito.Mockito.when;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.util.Random;
-
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.Mock;
-import org.mockito.junit.MockitoJUnitRunner;
-
-/**
- * Testing copy method
- * 
- * @author Kenny Colliander Nordin
- */
-@RunWith(MockitoJUnitRunner.class)
-public class SocketUtilsTest {
-
-	private static final byte[] TEST_BYTES = new byte[10000];
-
-	static {
-		new Random(1l).nextBytes(TEST_BYTES);
-	}
-
-	@Mock
-	private Socket input;
-
-	@Mock
-	private Socket output;
-
-	@Test
-	public void testCopy() throws IOException {
-		try (InputStream inputStream = new ByteArrayInputStream(TEST_BYTES)) {
-			try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-
-				when(input.getInputStream()).thenReturn(inputStream);
-				when(output.getOutputStream()).thenReturn(outputStream);
-
-				copy(input, output);
-
-				assertArrayEquals(TEST_BYTES, outputStream.toByteArray());
-			}
-		}
-	}
-
-}
+/**
+ * JSocksProxy Copyright (c) 2006-2017 Kenny Colliander Nordin
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nu.najt.kecon.jsocksproxy.utils;
+
+import static nu.najt.kecon.jsocksproxy.utils.SocketUtils.copy;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Testing copy method
+ * 
+ * @author Kenny Colliander Nordin
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SocketUtilsTest {
+
+	private static final byte[] TEST_BYTES = new byte[10000];
+
+	static {
+		new Random(1l).nextBytes(TEST_BYTES);
+	}
+
+	@Mock
+	private Socket input;
+
+	@Mock
+	private Socket output;
+
+	@Test
+	public void testCopy() throws IOException {
+		try (InputStream inputStream = new ByteArrayInputStream(TEST_BYTES)) {
+			try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+
+				when(input.getInputStream()).thenReturn(inputStream);
+				when(output.getOutputStream()).thenReturn(outputStream);
+
+				copy(input, output);
+
+				assertArrayEquals(TEST_BYTES, outputStream.toByteArray());
+			}
+		}
+	}
+
+	@Test
+	public void testCopyChannels() throws IOException {
+		try (ServerSocketChannel serverSocketChannel = ServerSocketChannel
+				.open()) {
+			serverSocketChannel.bind(new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), 0));
+
+			try (SocketChannel source = SocketChannel
+					.open(serverSocketChannel.getLocalAddress());
+					SocketChannel inputChannel = serverSocketChannel.accept();
+					SocketChannel outputChannel = SocketChannel
+							.open(serverSocketChannel.getLocalAddress());
+					SocketChannel sink = serverSocketChannel.accept()) {
+
+				source.socket().getOutputStream().write(TEST_BYTES);
+				source.shutdownOutput();
+
+				copy(inputChannel.socket(), outputChannel.socket());
+
+				final byte[] received = new byte[TEST_BYTES.length];
+				final DataInputStream inputStream = new DataInputStream(
+						sink.socket().getInputStream());
+				inputStream.readFully(received);
+
+				assertArrayEquals(TEST_BYTES, received);
+				assertEquals(-1, inputStream.read());
+			}
+		}
+	}
+
+	@Test
+	public void testCopyCoalescing() throws Exception {
+		assumeTrue(SocketUtils.isChannelCoalescingSupported());
+
+		try (ServerSocketChannel serverSocketChannel = ServerSocketChannel
+				.open()) {
+			serverSocketChannel.bind(new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), 0));
+
+			try (final SocketChannel source = SocketChannel
+					.open(serverSocketChannel.getLocalAddress());
+					SocketChannel inputChannel = serverSocketChannel.accept();
+					SocketChannel outputChannel = SocketChannel
+							.open(serverSocketChannel.getLocalAddress());
+					SocketChannel sink = serverSocketChannel.accept()) {
+
+				final AtomicReference<Exception> failure = new AtomicReference<>();
+				final Thread writer = new Thread() {
+
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; i < 10; i++) {
+								source.socket().getOutputStream()
+										.write(TEST_BYTES, i * 100, 100);
+								Thread.sleep(2);
+							}
+							source.shutdownOutput();
+						} catch (final Exception e) {
+							failure.set(e);
+						}
+					}
+				};
+				writer.start();
+
+				final TransferStatistics statistics = new TransferStatistics();
+				copy(inputChannel.socket(), outputChannel.socket(),
+						BufferSizing.FIXED, 200000, statistics);
+				writer.join();
+
+				if (failure.get() != null) {
+					throw failure.get();
+				}
+
+				final byte[] received = new byte[1000];
+				new DataInputStream(sink.socket().getInputStream())
+						.readFully(received);
+
+				for (int i = 0; i < received.length; i++) {
+					assertEquals(TEST_BYTES[i], received[i]);
+				}
+
+				assertEquals(1000, statistics.getBytes());
+				assertTrue(statistics.getWrites() < 10);
+				assertEquals(1000 / statistics.getWrites(),
+						statistics.getAverageSegmentSize());
+			}
+		}
+	}
+}